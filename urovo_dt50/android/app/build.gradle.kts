@@ -31,6 +31,11 @@ android {
             signingConfig = signingConfigs.getByName("debug")
         }
     }
+
+    // JVM tests of the plain-Java RFID stack; android.util.Log and friends are no-ops there
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 repositories {
@@ -41,6 +46,7 @@ repositories {
 
 dependencies {
     implementation(fileTree(mapOf("dir" to "libs", "include" to listOf("*.jar", "*.aar"))))
+    testImplementation("junit:junit:4.13.2")
 }
 
 flutter {
@@ -0,0 +1,385 @@
+package com.urovo.rfid;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Runs tag access operations (read/write) back to back inside a single inventory
+// pause. The first operation goes out only once the host reports inventory quiet
+// (onInventoryPaused), so no access command meets a round in flight. The module
+// executes one access at a time, so results are correlated to the in-flight
+// operation: callbacks arriving on the reader's thread are tagged with the operation
+// id that was armed when they arrived and then handed to the queue handler, which
+// owns all queue state; only replies to the armed command (RfidReader.isAccessReply)
+// for the operation's tag complete it. With a TagMemoryCache, reads of immutable
+// memory are answered from it without pausing inventory, and successful reads and
+// writes keep it current.
+public class AccessQueue {
+    private static final String TAG = "AccessQueue";
+    private static final long OP_TIMEOUT_MS = 4000;
+    // Beyond the state machine's round timeout: the pause is taken as done even if
+    // the host never confirmed it
+    private static final long PAUSE_TIMEOUT_MS = 6000;
+
+    public enum Type { READ, WRITE }
+
+    public interface Host {
+        // Stops inventory for the batch and calls onInventoryPaused once no round is in
+        // flight; returns whether it was running
+        boolean pauseInventory();
+        void resumeInventory();
+    }
+
+    public interface Callback {
+        void onComplete(Operation op);
+    }
+
+    public static final class Operation {
+        public final Type type;
+        public final byte[] epc;
+        public final byte bank;
+        public final int start;
+        public final int words;
+        public final byte[] data;
+        public final byte[] password;
+        final Callback callback;
+        // Re-read after an EPC rewrite to confirm cached data; never answered from cache
+        boolean refresh;
+
+        long id;
+        long enqueuedNanos;
+        long startedNanos;
+        long finishedNanos;
+
+        public boolean success;
+        public String result;
+        public String error;
+        // The caller knows the region is locked; TID is always cacheable
+        public boolean cacheable;
+        // Answered from the cache, no RF access
+        public boolean cached;
+        // Write as one BlockWrite where the path has it
+        public boolean block;
+
+        private Operation(Type type, byte[] epc, byte bank, int start, int words, byte[] data,
+                byte[] password, Callback callback) {
+            this.type = type;
+            this.epc = epc;
+            this.bank = bank;
+            this.start = start;
+            this.words = words;
+            this.data = data;
+            this.password = password;
+            this.callback = callback;
+        }
+
+        public static Operation read(byte[] epc, int bank, int start, int words, byte[] password, Callback callback) {
+            return new Operation(Type.READ, epc, (byte) bank, start, words, null, password, callback);
+        }
+
+        public static Operation write(byte[] epc, int bank, int start, int words, byte[] data, byte[] password,
+                Callback callback) {
+            return new Operation(Type.WRITE, epc, (byte) bank, start, words, data, password, callback);
+        }
+
+        public Operation cacheable(boolean cacheable) {
+            this.cacheable = cacheable;
+            return this;
+        }
+
+        public Operation block(boolean block) {
+            this.block = block;
+            return this;
+        }
+
+        boolean usesCache() {
+            return type == Type.READ && (cacheable || TagMemoryCache.isImmutable(bank));
+        }
+
+        public double queueMs() {
+            return (startedNanos - enqueuedNanos) / 1e6;
+        }
+
+        public double latencyMs() {
+            return (finishedNanos - startedNanos) / 1e6;
+        }
+    }
+
+    private final RfidReader reader;
+    private final Handler handler;
+    private final Host host;
+    private volatile TagMemoryCache cache;
+
+    private final ArrayDeque<Operation> queue = new ArrayDeque<>();
+    private Operation current;
+    private byte[] currentMatch;
+    private boolean paused = false;
+    // Paused, waiting for onInventoryPaused
+    private boolean pausing = false;
+    private boolean resumeAfter = false;
+    private long nextId = 1;
+
+    // Written on the handler thread, read on binder threads
+    private volatile long readArmedId = 0;
+    private volatile long writeArmedId = 0;
+
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Operation op = current;
+            if (op == null) return;
+            Log.w(TAG, "Operation " + op.id + " (" + op.type + ") timed out");
+            finish(op, false, null, "TIMEOUT");
+        }
+    };
+
+    private final Runnable pauseTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!pausing) return;
+            Log.w(TAG, "Inventory pause not confirmed, starting the batch");
+            pausing = false;
+            runNext();
+        }
+    };
+
+    public AccessQueue(RfidReader reader, Handler handler, Host host) {
+        this.reader = reader;
+        this.handler = handler;
+        this.host = host;
+    }
+
+    public void setCache(TagMemoryCache cache) {
+        this.cache = cache;
+    }
+
+    // Must be called on the handler thread
+    public void submit(Operation op) {
+        TagMemoryCache c = cache;
+        if (c != null && op.usesCache() && !op.refresh && !writePending(op.epc)) {
+            byte[] data = c.get(op.epc, op.bank, op.start, op.words);
+            if (data != null) {
+                op.id = nextId++;
+                op.enqueuedNanos = SystemClock.elapsedRealtimeNanos();
+                op.startedNanos = op.enqueuedNanos;
+                op.cached = true;
+                complete(op, true, TagRecord.toHex(data, data.length), null);
+                return;
+            }
+        }
+        enqueue(op);
+        if (current == null) {
+            runNext();
+        }
+    }
+
+    private void enqueue(Operation op) {
+        op.id = nextId++;
+        op.enqueuedNanos = SystemClock.elapsedRealtimeNanos();
+        queue.addLast(op);
+    }
+
+    // A queued or running write to this tag could change what the cache holds
+    private boolean writePending(byte[] epc) {
+        if (current != null && current.type == Type.WRITE && Arrays.equals(current.epc, epc)) return true;
+        for (Operation q : queue) {
+            if (q.type == Type.WRITE && Arrays.equals(q.epc, epc)) return true;
+        }
+        return false;
+    }
+
+    public int pending() {
+        return queue.size() + (current != null ? 1 : 0);
+    }
+
+    public boolean isIdle() {
+        return current == null && queue.isEmpty();
+    }
+
+    // Fails everything still queued (used on disconnect)
+    public void cancelAll() {
+        handler.removeCallbacks(timeoutRunnable);
+        handler.removeCallbacks(pauseTimeoutRunnable);
+        pausing = false;
+        readArmedId = 0;
+        writeArmedId = 0;
+        Operation op = current;
+        current = null;
+        if (op != null) complete(op, false, null, "CANCELLED");
+        while (!queue.isEmpty()) {
+            Operation q = queue.pollFirst();
+            q.startedNanos = q.enqueuedNanos;
+            complete(q, false, null, "CANCELLED");
+        }
+        paused = false;
+        resumeAfter = false;
+        currentMatch = null;
+    }
+
+    // Any thread: the host's answer to pauseInventory
+    public void onInventoryPaused() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!pausing) return;
+                handler.removeCallbacks(pauseTimeoutRunnable);
+                pausing = false;
+                runNext();
+            }
+        });
+    }
+
+    // Reader thread
+    public void onOperationTag(String epc, String data) {
+        final long id = readArmedId;
+        if (id == 0) return;
+        final String tag = epc != null ? epc.replace(" ", "") : "";
+        final String value = data != null ? data.replace(" ", "") : "";
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Operation op = current;
+                if (op == null || op.id != id || op.type != Type.READ) return;
+                if (!tag.equalsIgnoreCase(TagRecord.toHex(op.epc, op.epc.length))) {
+                    Log.w(TAG, "Read reply for " + tag + " ignored, op " + op.id + " is for another tag");
+                    return;
+                }
+                finish(op, true, value, null);
+            }
+        });
+    }
+
+    // Reader thread. Failed reads come here too; a read succeeds through onOperationTag
+    public void onExeCMDStatus(int cmd, int status) {
+        final long readId = readArmedId;
+        final long writeId = writeArmedId;
+        final long id;
+        if (writeId != 0 && reader.isAccessReply(cmd, true)) {
+            id = writeId;
+        } else if (readId != 0 && reader.isAccessReply(cmd, false) && status != RfidReader.WRITE_OK) {
+            id = readId;
+        } else {
+            return;
+        }
+        final int st = status;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Operation op = current;
+                if (op == null || op.id != id) return;
+                boolean ok = op.type == Type.WRITE && st == RfidReader.WRITE_OK;
+                finish(op, ok, null, ok ? null : "STATUS_" + Integer.toHexString(st));
+            }
+        });
+    }
+
+    private void runNext() {
+        if (pausing) return;
+        while (current == null && !queue.isEmpty()) {
+            if (!paused) {
+                paused = true;
+                pausing = true;
+                resumeAfter = host.pauseInventory();
+                handler.postDelayed(pauseTimeoutRunnable, PAUSE_TIMEOUT_MS);
+                return;
+            }
+            Operation op = queue.pollFirst();
+            current = op;
+            op.startedNanos = SystemClock.elapsedRealtimeNanos();
+            if (!issue(op)) {
+                finishNoAdvance(op, false, null, "REJECTED");
+                continue;
+            }
+            handler.removeCallbacks(timeoutRunnable);
+            handler.postDelayed(timeoutRunnable, OP_TIMEOUT_MS);
+            return;
+        }
+        if (current == null && queue.isEmpty() && paused) {
+            endBatch();
+        }
+    }
+
+    private boolean issue(Operation op) {
+        // Consecutive ops on the same tag keep the existing EPC match
+        if (currentMatch == null || !Arrays.equals(currentMatch, op.epc)) {
+            int setRet = reader.setAccessEpcMatch(op.epc);
+            Log.d(TAG, "setAccessEpcMatch ret=" + setRet);
+            currentMatch = op.epc;
+        }
+        if (op.type == Type.READ) {
+            readArmedId = op.id;
+            int ret = reader.readTag(op.bank, op.start, op.words, op.password);
+            Log.d(TAG, "readTag op=" + op.id + " ret=" + ret);
+            if (ret < 0) {
+                readArmedId = 0;
+                return false;
+            }
+        } else {
+            int ret = op.block ? reader.blockWriteTag(op.bank, op.start, op.words, op.data, op.password) : -1;
+            if (ret < 0) ret = reader.writeTag(op.bank, op.start, op.words, op.data, op.password);
+            Log.d(TAG, "writeTag op=" + op.id + " block=" + op.block + " ret=" + ret);
+            if (ret < 0) return false;
+            writeArmedId = op.id;
+        }
+        return true;
+    }
+
+    private void finish(Operation op, boolean success, String result, String error) {
+        finishNoAdvance(op, success, result, error);
+        runNext();
+    }
+
+    private void finishNoAdvance(Operation op, boolean success, String result, String error) {
+        handler.removeCallbacks(timeoutRunnable);
+        readArmedId = 0;
+        writeArmedId = 0;
+        current = null;
+        complete(op, success, result, error);
+    }
+
+    private void complete(Operation op, boolean success, String result, String error) {
+        op.finishedNanos = SystemClock.elapsedRealtimeNanos();
+        op.success = success;
+        op.result = result;
+        op.error = error;
+        TagMemoryCache c = cache;
+        if (c != null && success && !op.cached) updateCache(c, op);
+        Log.d(TAG, "op " + op.id + " " + op.type + " ok=" + success + " queue=" + op.queueMs() + "ms latency=" + op.latencyMs() + "ms");
+        if (op.callback != null) {
+            try {
+                op.callback.onComplete(op);
+            } catch (Exception e) {
+                Log.e(TAG, "Callback error: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void updateCache(TagMemoryCache c, Operation op) {
+        if (op.type == Type.READ) {
+            if (op.usesCache()) c.put(op.epc, op.bank, op.start, op.result);
+            return;
+        }
+        byte[] newEpc = c.onWrite(op.epc, op.bank, op.start, op.data);
+        int[] tid = newEpc != null ? c.tidRange(newEpc) : null;
+        if (tid != null) {
+            // Runs in this batch, after what is already queued; nobody waits for it
+            Operation check = Operation.read(newEpc, TagMemoryCache.BANK_TID, tid[0], tid[1], op.password, null);
+            check.refresh = true;
+            enqueue(check);
+        }
+    }
+
+    private void endBatch() {
+        handler.removeCallbacks(pauseTimeoutRunnable);
+        reader.cancelAccessEpcMatch();
+        currentMatch = null;
+        paused = false;
+        if (resumeAfter) {
+            resumeAfter = false;
+            host.resumeInventory();
+        }
+    }
+}
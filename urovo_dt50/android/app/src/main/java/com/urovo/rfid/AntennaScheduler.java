@@ -0,0 +1,165 @@
+package com.urovo.rfid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Which antenna port each inventory round runs on, for sleds and fixed mounts with
+// more than one. An antenna keeps the reader for its dwell time; the switch happens
+// when the next round is issued, never inside one. The next antenna comes from a
+// smooth weighted round robin whose weights are the recent yield of each antenna
+// (new tags per second over its last dwells, EWMA) plus a floor, so antennas still
+// finding tags nobody has read yet get more turns and quiet ones are revisited. A
+// round that reads nothing ends the dwell early, so an antenna facing no tags costs
+// one round per turn. Reads between round start and end are charged to the round's
+// antenna. Disabled (no antennas) until configure(); synchronized, called per round
+// and per read.
+public final class AntennaScheduler {
+    public static final int MAX_ANTENNAS = 8;
+    public static final long DEFAULT_DWELL_MS = 1000;
+
+    static final double YIELD_ALPHA = 0.3;
+    // New tags per second every antenna is credited with, quiet or not
+    static final double MIN_WEIGHT = 1;
+
+    private int[] antennas = new int[0];
+    private long[] dwellMs = new long[0];
+    private boolean weighted = true;
+
+    // Per slot of antennas[]
+    private long[] reads = new long[0];
+    private long[] rssiSum = new long[0];
+    private int[] rounds = new int[0];
+    private long[] activeMs = new long[0];
+    private double[] yield = new double[0];
+    private double[] credit = new double[0];
+    private EpcIndex[] seen = new EpcIndex[0];
+    private final EpcIndex seenAll = new EpcIndex(1024);
+
+    private int current = -1;
+    private long dwellStartMs;
+    private int dwellNew;
+    private boolean dwellCut;
+    private int roundSlot = -1;
+    private int roundReads;
+
+    // Ports 0..MAX_ANTENNAS-1, one dwell per port (or one for all); empty disables
+    public synchronized void configure(int[] ports, long[] dwell, boolean weighted) {
+        int n = Math.min(ports.length, MAX_ANTENNAS);
+        antennas = new int[n];
+        dwellMs = new long[n];
+        for (int i = 0; i < n; i++) {
+            antennas[i] = Math.max(0, Math.min(MAX_ANTENNAS - 1, ports[i]));
+            long d = dwell.length == 0 ? DEFAULT_DWELL_MS : dwell[Math.min(i, dwell.length - 1)];
+            dwellMs[i] = Math.max(1, d);
+        }
+        this.weighted = weighted;
+        reads = new long[n];
+        rssiSum = new long[n];
+        rounds = new int[n];
+        activeMs = new long[n];
+        yield = new double[n];
+        credit = new double[n];
+        seen = new EpcIndex[n];
+        for (int i = 0; i < n; i++) seen[i] = new EpcIndex(256);
+        seenAll.clear();
+        current = -1;
+        roundSlot = -1;
+    }
+
+    public synchronized boolean isEnabled() {
+        return antennas.length > 0;
+    }
+
+    // Port for the next round, or -1 when disabled (leave the antenna alone)
+    public synchronized int antennaForRound(long nowMs) {
+        if (antennas.length == 0) return -1;
+        if (current < 0) {
+            startDwell(0, nowMs);
+        } else if (dwellCut || nowMs - dwellStartMs >= dwellMs[current]) {
+            endDwell(nowMs);
+            startDwell(pickNext(), nowMs);
+        }
+        roundSlot = current;
+        roundReads = 0;
+        rounds[current]++;
+        return antennas[current];
+    }
+
+    private void startDwell(int slot, long nowMs) {
+        current = slot;
+        dwellStartMs = nowMs;
+        dwellNew = 0;
+        dwellCut = false;
+    }
+
+    private void endDwell(long nowMs) {
+        long elapsed = Math.max(1, nowMs - dwellStartMs);
+        activeMs[current] += elapsed;
+        yield[current] += YIELD_ALPHA * (dwellNew * 1000.0 / elapsed - yield[current]);
+    }
+
+    // Smooth weighted round robin: every slot gains its weight, the richest goes next
+    // and pays the total back
+    private int pickNext() {
+        if (antennas.length == 1) return 0;
+        double total = 0;
+        int best = 0;
+        for (int i = 0; i < antennas.length; i++) {
+            double w = weighted ? yield[i] + MIN_WEIGHT : 1;
+            credit[i] += w;
+            total += w;
+            if (credit[i] > credit[best]) best = i;
+        }
+        credit[best] -= total;
+        return best;
+    }
+
+    // Reader thread
+    public synchronized void onRead(TagRecord r) {
+        int slot = roundSlot;
+        if (slot < 0) return;
+        reads[slot]++;
+        roundReads++;
+        rssiSum[slot] += r.rssi;
+        seen[slot].add(r.epcHi, r.epcKeyLo);
+        int before = seenAll.size();
+        if (seenAll.add(r.epcHi, r.epcKeyLo) == before) dwellNew++;
+    }
+
+    public synchronized void onRoundEnd() {
+        if (roundSlot >= 0 && roundSlot == current && roundReads == 0) dwellCut = true;
+        roundSlot = -1;
+    }
+
+    // Statistics only; the schedule carries on
+    public synchronized void resetStats() {
+        for (int i = 0; i < antennas.length; i++) {
+            reads[i] = 0;
+            rssiSum[i] = 0;
+            rounds[i] = 0;
+            activeMs[i] = 0;
+            seen[i].clear();
+        }
+        seenAll.clear();
+    }
+
+    public synchronized List<Map<String, Object>> snapshot(long nowMs) {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (int i = 0; i < antennas.length; i++) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("antenna", antennas[i]);
+            m.put("dwellMs", dwellMs[i]);
+            m.put("active", i == current);
+            m.put("reads", reads[i]);
+            m.put("uniqueTags", seen[i].size());
+            m.put("rssi", reads[i] > 0 ? (double) rssiSum[i] / reads[i] : null);
+            m.put("rounds", rounds[i]);
+            m.put("activeMs", activeMs[i] + (i == current ? nowMs - dwellStartMs : 0));
+            m.put("newTagsPerSecond", yield[i]);
+            out.add(m);
+        }
+        return out;
+    }
+}
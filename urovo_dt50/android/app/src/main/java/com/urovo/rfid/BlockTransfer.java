@@ -0,0 +1,225 @@
+package com.urovo.rfid;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+// Reads or writes a memory region larger than one access command carries (User banks
+// of sensor and maintenance tags) on the native side. The region is cut into chunks
+// that are all queued on the AccessQueue at once, so they run back to back under one
+// EPC match and one inventory pause without a round trip per chunk. A failed chunk is
+// retried on its own, split in half first (marginal tags get through shorter
+// commands), while the others carry on. Progress is reported at a bounded rate.
+// WordPtr is a single byte on both paths, so the region has to end by word 256.
+public class BlockTransfer {
+    private static final String TAG = "BlockTransfer";
+    private static final long PROGRESS_INTERVAL_MS = 250;
+    public static final int MAX_WORD = 256;
+    // A 32-word read reply is 64 data bytes, well inside one serial frame; writes take
+    // the tag longer per word, so they go in smaller blocks
+    public static final int DEFAULT_READ_CHUNK_WORDS = 32;
+    public static final int DEFAULT_WRITE_CHUNK_WORDS = 16;
+
+    public interface Listener {
+        void onProgress(BlockTransfer transfer);
+        void onFinished(BlockTransfer transfer);
+    }
+
+    public static final class Options {
+        public int chunkWords;
+        public int maxRetries = 2;
+        public byte[] password = new byte[4];
+    }
+
+    private final AccessQueue queue;
+    private final AccessQueue.Type type;
+    private final byte[] epc;
+    private final int bank;
+    private final int start;
+    private final int words;
+    // Written data, or where read chunks land
+    private final byte[] data;
+    private final Options options;
+    private final Listener listener;
+
+    private int outstanding;
+    private int doneWords;
+    private int chunks;
+    private int retries;
+    private boolean running;
+    // Chunks complete synchronously when the queue rejects them
+    private boolean submitting;
+    private boolean cancelled;
+    private boolean success;
+    private String error;
+    private long startedMs;
+    private long finishedMs;
+    private long lastProgressMs;
+
+    private BlockTransfer(AccessQueue queue, AccessQueue.Type type, byte[] epc, int bank, int start, int words,
+            byte[] data, Options options, Listener listener) {
+        this.queue = queue;
+        this.type = type;
+        this.epc = epc;
+        this.bank = bank;
+        this.start = start;
+        this.words = words;
+        this.data = data;
+        this.options = options;
+        this.listener = listener;
+        if (options.chunkWords <= 0) {
+            options.chunkWords = type == AccessQueue.Type.READ ? DEFAULT_READ_CHUNK_WORDS : DEFAULT_WRITE_CHUNK_WORDS;
+        }
+    }
+
+    public static BlockTransfer read(AccessQueue queue, byte[] epc, int bank, int start, int words, Options options,
+            Listener listener) {
+        return new BlockTransfer(queue, AccessQueue.Type.READ, epc, bank, start, words, new byte[words * 2], options,
+                listener);
+    }
+
+    // data holds at least words * 2 bytes
+    public static BlockTransfer write(AccessQueue queue, byte[] epc, int bank, int start, int words, byte[] data,
+            Options options, Listener listener) {
+        return new BlockTransfer(queue, AccessQueue.Type.WRITE, epc, bank, start, words, data, options, listener);
+    }
+
+    // Handler thread
+    public void start() {
+        if (running) return;
+        running = true;
+        startedMs = SystemClock.elapsedRealtime();
+        lastProgressMs = startedMs;
+        if (words <= 0 || start < 0 || start + words > MAX_WORD || data.length < words * 2) {
+            error = "INVALID_RANGE";
+            finish();
+            return;
+        }
+        Log.d(TAG, type + " bank " + bank + " words " + start + "+" + words + " in chunks of " + options.chunkWords);
+        submitting = true;
+        for (int off = 0; off < words; off += options.chunkWords) {
+            submit(off, Math.min(options.chunkWords, words - off), 0);
+        }
+        submitting = false;
+        if (outstanding == 0) finish();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void submit(final int offset, final int count, final int attempt) {
+        outstanding++;
+        chunks++;
+        AccessQueue.Callback callback = new AccessQueue.Callback() {
+            @Override
+            public void onComplete(AccessQueue.Operation op) {
+                outstanding--;
+                onChunk(op, offset, count, attempt);
+            }
+        };
+        if (type == AccessQueue.Type.READ) {
+            queue.submit(AccessQueue.Operation.read(epc, bank, start + offset, count, options.password, callback));
+        } else {
+            byte[] chunk = new byte[count * 2];
+            System.arraycopy(data, offset * 2, chunk, 0, chunk.length);
+            queue.submit(AccessQueue.Operation.write(epc, bank, start + offset, count, chunk, options.password,
+                    callback));
+        }
+    }
+
+    private void onChunk(AccessQueue.Operation op, int offset, int count, int attempt) {
+        boolean ok = op.success && (type == AccessQueue.Type.WRITE || place(op.result, offset, count));
+        if (ok) {
+            doneWords += count;
+        } else if (error == null && !cancelled) {
+            if (attempt < options.maxRetries) {
+                retries++;
+                int half = count / 2;
+                if (half > 0) {
+                    submit(offset, half, attempt + 1);
+                    submit(offset + half, count - half, attempt + 1);
+                } else {
+                    submit(offset, count, attempt + 1);
+                }
+            } else {
+                error = "WORD_" + (start + offset) + "_" + (op.success ? "SHORT_READ" : op.error);
+            }
+        }
+        if (outstanding == 0 && !submitting) {
+            finish();
+        } else {
+            progress();
+        }
+    }
+
+    private boolean place(String hex, int offset, int count) {
+        if (hex == null || hex.length() < count * 4) return false;
+        for (int i = 0; i < count * 2; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) return false;
+            data[offset * 2 + i] = (byte) (hi << 4 | lo);
+        }
+        return true;
+    }
+
+    private void progress() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastProgressMs < PROGRESS_INTERVAL_MS) return;
+        lastProgressMs = now;
+        if (listener != null) listener.onProgress(this);
+    }
+
+    private void finish() {
+        if (!running) return;
+        running = false;
+        finishedMs = SystemClock.elapsedRealtime();
+        if (error == null && cancelled) error = "CANCELLED";
+        success = error == null && doneWords == words;
+        Log.d(TAG, type + " done: ok=" + success + " bytes=" + getDoneBytes() + " chunks=" + chunks + " retries="
+                + retries + " " + String.format("%.0f", getBytesPerSecond()) + " B/s");
+        if (listener != null) listener.onFinished(this);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    // Hex of the region once a read succeeded, else null
+    public String getDataHex() {
+        return success && type == AccessQueue.Type.READ ? TagRecord.toHex(data, data.length) : null;
+    }
+
+    public int getTotalBytes() {
+        return words * 2;
+    }
+
+    public int getDoneBytes() {
+        return doneWords * 2;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public long getElapsedMs() {
+        return (running ? SystemClock.elapsedRealtime() : finishedMs) - startedMs;
+    }
+
+    public double getBytesPerSecond() {
+        long elapsed = getElapsedMs();
+        return elapsed > 0 ? getDoneBytes() * 1000.0 / elapsed : 0.0;
+    }
+}
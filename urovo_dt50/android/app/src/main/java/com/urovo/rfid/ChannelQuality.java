@@ -0,0 +1,268 @@
+package com.urovo.rfid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Per-channel link quality of the current frequency band, and the channel range of
+// each inventory round. SetRegion only takes a start/end, so excluded channels are
+// skipped by running rounds on the contiguous runs of usable channels, each run in
+// proportion to its width. Reads count for a channel when their freq byte says so
+// (service path); the serial reply carries no channel, so there every PROBE_EVERY-th
+// round is pinned to a single channel and only those rounds (reads, reply-frame CRC
+// failures) are charged. Channels whose decayed read rate falls far below the median
+// of the band, or that keep failing CRC, are excluded; they are still probed now and
+// then and come back once they recover. With exclusion off every round runs on the
+// whole band and nothing is pinned, so the serial path keeps no per-channel rates
+// then. Primitive arrays only; synchronized, called per read and per round.
+public final class ChannelQuality {
+    public static final int MAX_CHANNELS = 64;
+
+    // Without a channel per read: one pinned round in PROBE_EVERY
+    static final int PROBE_EVERY = 4;
+    // With one: a pinned round on an excluded channel every REPROBE_ROUNDS
+    static final int REPROBE_ROUNDS = 25;
+    // Weight of history per round's worth of exposure on a channel
+    static final double DECAY = 0.9;
+    // Decayed rounds on a channel (a round over n channels counts 1/n) before it is judged
+    static final double MIN_EXPOSURE = 2;
+    // Excluded below BAD_RATIO of the median rate, readmitted above RECOVER_RATIO
+    static final double BAD_RATIO = 0.35;
+    static final double RECOVER_RATIO = 0.6;
+    // Median reads per round needed before any channel is judged by its rate
+    static final double MIN_MEDIAN_RATE = 1;
+    // Reply-frame CRC failures per round
+    static final double CRC_LIMIT = 1;
+
+    private int region = -1;
+    private int first;
+    private int last;
+    private boolean exclusion = true;
+    // Some read carried its channel: every round can be charged
+    private boolean freqReported;
+
+    // Lifetime, for stats
+    private final long[] reads = new long[MAX_CHANNELS];
+    private final long[] rssiSum = new long[MAX_CHANNELS];
+    private final long[] crcErrors = new long[MAX_CHANNELS];
+    // Decayed, for judging
+    private final double[] yield = new double[MAX_CHANNELS];
+    private final double[] exposure = new double[MAX_CHANNELS];
+    private final double[] crcRate = new double[MAX_CHANNELS];
+    private final boolean[] excluded = new boolean[MAX_CHANNELS];
+    private int excludedCount;
+    private final double[] scratch = new double[MAX_CHANNELS];
+
+    // Round in flight
+    private int roundFirst = -1;
+    private int roundLast;
+    private final int[] roundReads = new int[MAX_CHANNELS];
+    private final int[] roundRssi = new int[MAX_CHANNELS];
+    private int roundUnknown;
+    private int roundUnknownRssi;
+
+    private int rounds;
+    private int cursor;
+    private int probeCursor;
+
+    public static int packRange(int region, int first, int last) {
+        return (region & 0xFF) << 16 | (last & 0xFF) << 8 | (first & 0xFF);
+    }
+
+    public static int region(int range) {
+        return range >>> 16 & 0xFF;
+    }
+
+    public static int first(int range) {
+        return range & 0xFF;
+    }
+
+    public static int last(int range) {
+        return range >>> 8 & 0xFF;
+    }
+
+    // Band configured on the module; a different band starts from scratch
+    public synchronized void setBand(int region, int first, int last) {
+        first = Math.max(0, Math.min(MAX_CHANNELS - 1, first));
+        last = Math.max(first, Math.min(MAX_CHANNELS - 1, last));
+        if (region == this.region && first == this.first && last == this.last) return;
+        this.region = region;
+        this.first = first;
+        this.last = last;
+        reset();
+    }
+
+    // Off: every round gets the whole band without probing; read counts are still kept
+    public synchronized void setExclusion(boolean enabled) {
+        exclusion = enabled;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(reads, 0);
+        Arrays.fill(rssiSum, 0);
+        Arrays.fill(crcErrors, 0);
+        Arrays.fill(yield, 0);
+        Arrays.fill(exposure, 0);
+        Arrays.fill(crcRate, 0);
+        Arrays.fill(excluded, false);
+        Arrays.fill(roundReads, 0);
+        Arrays.fill(roundRssi, 0);
+        excludedCount = 0;
+        freqReported = false;
+        roundFirst = -1;
+        roundUnknown = 0;
+        roundUnknownRssi = 0;
+        rounds = 0;
+        cursor = first;
+        probeCursor = first;
+    }
+
+    // Range for the next round, packed (packRange); -1 before setBand
+    public synchronized int nextRange() {
+        if (region < 0) return -1;
+        rounds++;
+        int from;
+        int to;
+        if (!exclusion) {
+            from = first;
+            to = last;
+        } else if (!freqReported && rounds % PROBE_EVERY == 0) {
+            from = to = probeCursor;
+            probeCursor = probeCursor >= last ? first : probeCursor + 1;
+        } else if (freqReported && excludedCount > 0 && rounds % REPROBE_ROUNDS == 0) {
+            from = to = nextChannel(probeCursor, true);
+            probeCursor = from >= last ? first : from + 1;
+        } else {
+            // The run around the next usable channel; runs come up once per channel
+            int c = nextChannel(cursor, false);
+            cursor = c >= last ? first : c + 1;
+            from = c;
+            to = c;
+            while (from > first && !excluded[from - 1]) from--;
+            while (to < last && !excluded[to + 1]) to++;
+        }
+        roundFirst = from;
+        roundLast = to;
+        return packRange(region, from, to);
+    }
+
+    // First channel from start on (wrapping) whose excluded flag matches
+    private int nextChannel(int start, boolean wantExcluded) {
+        int width = last - first + 1;
+        for (int i = 0; i < width; i++) {
+            int c = first + (start - first + i) % width;
+            if (excluded[c] == wantExcluded) return c;
+        }
+        return start;
+    }
+
+    // Reader thread, per read; freq as reported, TagRecord.FREQ_UNKNOWN if the path has none
+    public synchronized void onRead(int freq, int rssi) {
+        if (roundFirst < 0) return;
+        if (freq >= first && freq <= last) {
+            freqReported = true;
+            roundReads[freq]++;
+            roundRssi[freq] += rssi;
+        } else {
+            roundUnknown++;
+            roundUnknownRssi += rssi;
+        }
+    }
+
+    // Reader thread, when the round ends; crcErrors = reply frames dropped in it
+    public synchronized void onRoundEnd(long crcErrors) {
+        if (roundFirst < 0) return;
+        boolean pinned = roundFirst == roundLast;
+        if (pinned) {
+            roundReads[roundFirst] += roundUnknown;
+            roundRssi[roundFirst] += roundUnknownRssi;
+            this.crcErrors[roundFirst] += crcErrors;
+            crcRate[roundFirst] = crcRate[roundFirst] * DECAY + crcErrors;
+        }
+        double share = 1.0 / (roundLast - roundFirst + 1);
+        double decay = Math.pow(DECAY, share);
+        for (int c = first; c <= last; c++) {
+            int n = roundReads[c];
+            reads[c] += n;
+            rssiSum[c] += roundRssi[c];
+            if (c >= roundFirst && c <= roundLast && (pinned || freqReported)) {
+                yield[c] = yield[c] * decay + n;
+                exposure[c] = exposure[c] * decay + share;
+            }
+            roundReads[c] = 0;
+            roundRssi[c] = 0;
+        }
+        roundFirst = -1;
+        roundUnknown = 0;
+        roundUnknownRssi = 0;
+        if (exclusion) judge();
+    }
+
+    // Reads per round, had the whole round run on this channel
+    private double rate(int c) {
+        return exposure[c] > 0 ? yield[c] / exposure[c] : 0;
+    }
+
+    private void judge() {
+        double median = medianRate();
+        int width = last - first + 1;
+        for (int c = first; c <= last; c++) {
+            if (exposure[c] < MIN_EXPOSURE) continue;
+            double rate = rate(c);
+            double crc = crcRate[c] / exposure[c];
+            if (!excluded[c]) {
+                boolean bad = crc > CRC_LIMIT || (median >= MIN_MEDIAN_RATE && rate < BAD_RATIO * median);
+                // Never leave less than half of the band
+                if (bad && (excludedCount + 1) * 2 <= width) {
+                    excluded[c] = true;
+                    excludedCount++;
+                }
+            } else if (crc <= CRC_LIMIT && (median < MIN_MEDIAN_RATE || rate >= RECOVER_RATIO * median)) {
+                excluded[c] = false;
+                excludedCount--;
+            }
+        }
+    }
+
+    private double medianRate() {
+        double[] rates = scratch;
+        int n = 0;
+        for (int c = first; c <= last; c++) {
+            if (!excluded[c] && exposure[c] >= MIN_EXPOSURE) rates[n++] = rate(c);
+        }
+        if (n == 0) return 0;
+        Arrays.sort(rates, 0, n);
+        return (n & 1) == 1 ? rates[n / 2] : (rates[n / 2 - 1] + rates[n / 2]) / 2;
+    }
+
+    public synchronized boolean isExcluded(int channel) {
+        return channel >= 0 && channel < MAX_CHANNELS && excluded[channel];
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("region", region);
+        m.put("start", first);
+        m.put("end", last);
+        m.put("exclusion", exclusion);
+        m.put("channelReported", freqReported);
+        List<Integer> out = new ArrayList<>();
+        List<Map<String, Object>> channels = new ArrayList<>();
+        for (int c = first; region >= 0 && c <= last; c++) {
+            if (excluded[c]) out.add(c);
+            Map<String, Object> ch = new HashMap<>();
+            ch.put("channel", c);
+            ch.put("reads", reads[c]);
+            ch.put("rssi", reads[c] > 0 ? (double) rssiSum[c] / reads[c] : null);
+            ch.put("crcErrors", crcErrors[c]);
+            ch.put("readsPerRound", rate(c));
+            ch.put("excluded", excluded[c]);
+            channels.add(ch);
+        }
+        m.put("excluded", out);
+        m.put("channels", channels);
+        return m;
+    }
+}
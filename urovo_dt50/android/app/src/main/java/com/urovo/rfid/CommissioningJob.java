@@ -0,0 +1,219 @@
+package com.urovo.rfid;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes new EPCs to a list of tags (and optionally reads them back) entirely on
+// the native side. Items are fed to the AccessQueue one after another from the
+// completion callbacks, so the queue never drains and the whole job runs inside a
+// single inventory pause. Each tag is rewritten by an EpcWriter (changed words only,
+// then verified). Progress is reported at a bounded rate, never per tag.
+public class CommissioningJob {
+    private static final String TAG = "CommissioningJob";
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    public interface Listener {
+        void onProgress(CommissioningJob job);
+        void onFinished(CommissioningJob job);
+    }
+
+    public static final class Item {
+        public final byte[] target;
+        public final byte[] newEpc;
+        // EPC the tag is known to have; moves on when a partial rewrite landed
+        public byte[] current;
+        public int attempts;
+        public boolean done;
+        public boolean success;
+        public String error;
+
+        public Item(byte[] target, byte[] newEpc) {
+            this.target = target;
+            this.newEpc = newEpc;
+            this.current = target;
+        }
+    }
+
+    public static final class Options {
+        public boolean verify = true;
+        public boolean blockWrite = true;
+        public int maxRetries = 2;
+        public byte[] password = new byte[4];
+    }
+
+    private final AccessQueue queue;
+    private final List<Item> items;
+    private final Options options;
+    private final Listener listener;
+
+    private int nextIndex = 0;
+    private int completed = 0;
+    private int succeeded = 0;
+    private int failed = 0;
+    private int retries = 0;
+    private long wordsWritten = 0;
+    private boolean running = false;
+    private boolean cancelled = false;
+    private long startedMs;
+    private long finishedMs;
+    private long lastProgressMs;
+
+    public CommissioningJob(AccessQueue queue, List<Item> items, Options options, Listener listener) {
+        this.queue = queue;
+        this.items = items;
+        this.options = options;
+        this.listener = listener;
+    }
+
+    // Serial-number generator: prefix followed by an incrementing serial, padded to
+    // epcBytes. Example: prefix "3034", start 1, 12 bytes -> 303400000000000000000001
+    public static List<byte[]> generateEpcs(byte[] prefix, long startSerial, int count, int epcBytes) {
+        List<byte[]> out = new ArrayList<>(count);
+        int serialBytes = epcBytes - prefix.length;
+        if (serialBytes <= 0) throw new IllegalArgumentException("Prefix leaves no room for a serial");
+        for (int i = 0; i < count; i++) {
+            byte[] epc = new byte[epcBytes];
+            System.arraycopy(prefix, 0, epc, 0, prefix.length);
+            long serial = startSerial + i;
+            for (int b = epcBytes - 1; b >= prefix.length; b--) {
+                epc[b] = (byte) serial;
+                serial >>>= 8;
+            }
+            out.add(epc);
+        }
+        return out;
+    }
+
+    // Handler thread
+    public void start() {
+        if (running) return;
+        running = true;
+        startedMs = SystemClock.elapsedRealtime();
+        lastProgressMs = startedMs;
+        Log.d(TAG, "Commissioning " + items.size() + " tags, verify=" + options.verify);
+        if (items.isEmpty()) {
+            finish();
+            return;
+        }
+        submitNext();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public int getTotal() {
+        return items.size();
+    }
+
+    public int getCompleted() {
+        return completed;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public long getWordsWritten() {
+        return wordsWritten;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public long getElapsedMs() {
+        return (running ? SystemClock.elapsedRealtime() : finishedMs) - startedMs;
+    }
+
+    public double getTagsPerMinute() {
+        long elapsed = getElapsedMs();
+        return elapsed > 0 ? succeeded * 60000.0 / elapsed : 0.0;
+    }
+
+    private void submitNext() {
+        if (cancelled || nextIndex >= items.size()) {
+            if (completed >= nextIndex) finish();
+            return;
+        }
+        write(items.get(nextIndex++));
+    }
+
+    private void write(final Item item) {
+        item.attempts++;
+        EpcWriter.Options writeOptions = new EpcWriter.Options();
+        writeOptions.verify = options.verify;
+        writeOptions.blockWrite = options.blockWrite;
+        writeOptions.password = options.password;
+        new EpcWriter(queue, item.current, item.newEpc, -1, writeOptions, new EpcWriter.Listener() {
+            @Override
+            public void onFinished(EpcWriter writer) {
+                item.current = writer.getCurrentEpc();
+                wordsWritten += writer.getWordsWritten();
+                if (writer.isSuccess()) {
+                    succeed(item);
+                } else {
+                    retryOrFail(item, writer.getError());
+                }
+            }
+        }).start();
+    }
+
+    private void retryOrFail(Item item, String error) {
+        if (!cancelled && item.attempts <= options.maxRetries) {
+            retries++;
+            write(item);
+            return;
+        }
+        item.done = true;
+        item.error = error;
+        failed++;
+        completed++;
+        progress();
+        submitNext();
+    }
+
+    private void succeed(Item item) {
+        item.done = true;
+        item.success = true;
+        succeeded++;
+        completed++;
+        progress();
+        submitNext();
+    }
+
+    private void progress() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastProgressMs < PROGRESS_INTERVAL_MS) return;
+        lastProgressMs = now;
+        if (listener != null) listener.onProgress(this);
+    }
+
+    private void finish() {
+        if (!running) return;
+        running = false;
+        finishedMs = SystemClock.elapsedRealtime();
+        Log.d(TAG, "Commissioning done: ok=" + succeeded + " failed=" + failed + " retries=" + retries
+                + " words=" + wordsWritten + " " + String.format("%.1f", getTagsPerMinute()) + " tags/min");
+        if (listener != null) listener.onFinished(this);
+    }
+}
@@ -5,23 +5,108 @@ import android.util.Log;
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
-import com.rfiddevice.serialport.SerialPort;
+import java.util.concurrent.locks.LockSupport;
 
-public class DirectRfidReader {
+// RfidReader straight over the module's serial port, without the vendor service.
+// One reader thread owns the input side: it decodes inventory records, ends rounds
+// (module end frame or timeout) and dispatches access replies. Commands are written
+// from the caller's thread.
+public class DirectRfidReader implements RfidReader {
     private static final String TAG = "DirectRfidReader";
     private static final String DEFAULT_PORT = "/dev/ttyHSL0";
     private static final int DEFAULT_BAUD = 115200;
     
-    private SerialPort serialPort;
-    private InputStream inputStream;
-    private OutputStream outputStream;
-    private boolean connected = false;
+    private static final int CMD_INVENTORY = FrameDecoder.CMD_INVENTORY;
+    private static final int CMD_INVENTORY_MIX = FrameDecoder.CMD_INVENTORY_MIX;
+    private static final int CMD_READ_DATA = 0x02;
+    private static final int CMD_WRITE_DATA = 0x03;
+    private static final int CMD_BLOCK_WRITE = 0x10;
+    private static final int CMD_SET_REGION = 0x22;
+    private static final int CMD_SET_POWER = 0x2F;
+    private static final int CMD_SET_ANTENNA = 0x3F;
+    private static final int CMD_STOP_INVENTORY = 0x93;
+    
+    // Scan time sent with each round (x 100 ms) and how long to wait for its end frame
+    private static final int SCAN_TIME = 10;
+    private static final long ROUND_TIMEOUT_MS = SCAN_TIME * 100 + 500;
+    
+    public static final int BANK_RESERVED = 0;
+    public static final int BANK_EPC = 1;
+    public static final int BANK_TID = 2;
+    public static final int BANK_USER = 3;
+    
+    private SerialLink link;
+    private volatile boolean connected = false;
     private volatile boolean scanning = false;
     private TagCallback tagCallback;
+    private TagRecord.Listener recordListener;
+    private volatile Listener listener;
     private Thread readThread;
+    private volatile boolean reading;
+    
+    // Embedded read window returned with every inventory record (0 words = off)
+    private volatile int readBank = BANK_TID;
+    private volatile int readAddr = 0;
+    private volatile int readWords = 0;
+    private volatile byte[] readPassword = new byte[4];
+    
+    // Select mask sent with every inventory command (null = all tags)
+    private volatile InventoryFilter selectFilter;
+    
+    // Tag addressed by readTag / writeTag
+    private volatile byte[] accessEpc;
     
+    // Round state; the start is set by the caller, the rest by the reader thread
+    private volatile long roundStartMs;
+    private volatile int roundSession;
+    private volatile int roundTarget;
+    // Inventory command built ahead (armRound) or by the last round with the same
+    // session and target; dropped when the filter or the read window changes
+    private volatile Armed armed;
+    private int roundTags;
+    private volatile boolean roundTruncated;
+    // A stop is on its way: the round ends with its reply, not with a last inventory
+    // frame that crossed it, so a stopped round ends once and only when the module is
+    // quiet. Cleared by the next round, so the reply to a stop that found no round
+    // cannot end that one
+    private volatile boolean stopPending;
+    
+    // Only fed by the reader thread
+    private final FrameDecoder decoder = new FrameDecoder();
+    private volatile TrafficRecorder recorder;
+    
+    public DirectRfidReader() {
+        decoder.setEmbeddedData(0, true);
+        decoder.setRecordListener(r -> {
+            roundTags++;
+            TagRecord.Listener records = recordListener;
+            if (records != null) {
+                records.onTagRecord(r);
+            }
+            Listener l = listener;
+            if (l != null) {
+                l.onTagRecord(r);
+            }
+            TagCallback callback = tagCallback;
+            if (callback != null) {
+                callback.onTagRead(r.epcHex(), r.rssi);
+            }
+        });
+        decoder.setFrameListener(this::onFrame);
+    }
+    
+    private static final class Armed {
+        final int session;
+        final int target;
+        final byte[] frame;
+
+        Armed(int session, int target, byte[] frame) {
+            this.session = session;
+            this.target = target;
+            this.frame = frame;
+        }
+    }
+
     public interface TagCallback {
         void onTagRead(String epc, int rssi);
         void onInventoryEnd();
@@ -32,10 +117,61 @@ public class DirectRfidReader {
         this.tagCallback = callback;
     }
     
+    public void setRecordListener(TagRecord.Listener listener) {
+        this.recordListener = listener;
+    }
+    
+    @Override
+    public String getName() {
+        return "direct";
+    }
+    
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    // Ask the module to read a memory window in the same pass as the EPC
+    // (Inventory_Mix). The module returns one window per record, so this is
+    // either TID or a User-bank window. words = 0 returns to plain inventory.
+    public void setEmbeddedRead(int bank, int wordAddr, int words, byte[] password) {
+        int maxWords = TagRecord.MAX_DATA_BYTES / 2;
+        readBank = bank;
+        readAddr = Math.max(0, wordAddr);
+        readWords = Math.max(0, Math.min(words, maxWords));
+        readPassword = password != null && password.length == 4 ? password : new byte[4];
+        decoder.setEmbeddedData(readWords * 2, bank == BANK_TID);
+        armed = null;
+        Log.d(TAG, "Embedded read: bank=" + bank + " addr=" + readAddr + " words=" + readWords);
+    }
+    
+    // Pushes a Gen2 Select mask to the module so only matching tags take part in
+    // inventory. Records are also checked in software in case the module ignores it.
+    @Override
+    public boolean setSelectFilter(InventoryFilter filter) {
+        selectFilter = filter;
+        decoder.setFilter(filter);
+        armed = null;
+        Log.d(TAG, "Select filter: " + (filter == null ? "none"
+                : "bank=" + filter.bank + " offset=" + filter.bitOffset + " bits=" + filter.bitLength));
+        return true;
+    }
+    
+    // Records raw serial traffic in both directions (null stops recording)
+    @Override
+    public void setRecorder(TrafficRecorder recorder) {
+        this.recorder = recorder;
+    }
+    
+    public void setTidInventory(int tidWords) {
+        setEmbeddedRead(BANK_TID, 0, tidWords, null);
+    }
+    
     public boolean connect() {
         return connect(DEFAULT_PORT, DEFAULT_BAUD);
     }
     
+    @Override
     public boolean connect(String port, int baudRate) {
         try {
             // Power on the RFID module first
@@ -43,10 +179,12 @@ public class DirectRfidReader {
             SystemClock.sleep(1500); // Wait for module to initialize
             
             Log.d(TAG, "Connecting to " + port + " at " + baudRate);
-            serialPort = new SerialPort(new File(port), baudRate, 0);
-            inputStream = serialPort.getInputStream();
-            outputStream = serialPort.getOutputStream();
+            link = new UartSerialLink(port, baudRate);
+            // A previous session may have left the module on a negotiated rate
+            int found = new LinkNegotiator(link).locate(baudRate, LinkNegotiator.DEFAULT_RATES);
+            Log.d(TAG, found > 0 ? "Module answers at " + found : "Module did not answer GetReaderInfo");
             connected = true;
+            startReading();
             Log.d(TAG, "Connected successfully");
             return true;
         } catch (Exception e) {
@@ -56,6 +194,34 @@ public class DirectRfidReader {
         }
     }
     
+    // Uses an already open link as is (SimulatedModule in tests)
+    public boolean connect(SerialLink link) {
+        this.link = link;
+        connected = true;
+        startReading();
+        return true;
+    }
+    
+    public int getBaudRate() {
+        SerialLink l = link;
+        return l != null ? l.getBaudRate() : 0;
+    }
+    
+    // Moves module and port to the fastest of rates that passes the echo check,
+    // falling back to the current rate. Only between inventories. Returns the rate in use.
+    public int negotiateBaudRate(int[] rates) {
+        if (!connected || scanning) return getBaudRate();
+        stopReading();
+        try {
+            LinkNegotiator.Result result = new LinkNegotiator(link).negotiate(rates);
+            Log.d(TAG, "Baud negotiation: " + result);
+        } catch (Exception e) {
+            Log.e(TAG, "Baud negotiation error: " + e.getMessage());
+        }
+        startReading();
+        return getBaudRate();
+    }
+    
     private void powerOn() {
         // Try Urovo DeviceManager API first
         boolean powered = UrovoPowerManager.powerOn();
@@ -84,25 +250,27 @@ public class DirectRfidReader {
         }
     }
     
+    @Override
     public void disconnect() {
         stopInventory();
+        stopReading();
         connected = false;
-        if (serialPort != null) {
+        if (link != null) {
             try {
-                serialPort.close();
+                link.close();
             } catch (Exception e) {
                 Log.e(TAG, "Disconnect error: " + e.getMessage());
             }
-            serialPort = null;
+            link = null;
         }
-        inputStream = null;
-        outputStream = null;
     }
     
+    @Override
     public boolean isConnected() {
         return connected;
     }
     
+    // Continuous inventory: rounds back to back until stopInventory()
     public boolean startInventory() {
         if (!connected) {
             Log.e(TAG, "Not connected");
@@ -110,261 +278,288 @@ public class DirectRfidReader {
         }
         
         scanning = true;
-        readThread = new Thread(this::inventoryLoop);
-        readThread.start();
-        return true;
+        return inventoryRound(0, 0) >= 0;
     }
     
     public void stopInventory() {
+        if (!scanning) return;
         scanning = false;
-        if (readThread != null) {
-            try {
-                sendStopCommand();
-                readThread.join(1000);
-            } catch (Exception e) {
-                Log.e(TAG, "Stop error: " + e.getMessage());
-            }
-            readThread = null;
+        stopRound();
+        if (tagCallback != null) {
+            tagCallback.onInventoryEnd();
+        }
+    }
+    
+    @Override
+    public int inventoryRound(int session, int target) {
+        if (!connected) return -1;
+        roundSession = session;
+        roundTarget = target;
+        roundTruncated = false;
+        stopPending = false;
+        roundStartMs = EventLoop.nowMs();
+        return sendInventoryCommand(session, target) ? 0 : -1;
+    }
+    
+    @Override
+    public boolean isAccessReply(int cmd, boolean write) {
+        return write ? cmd == CMD_WRITE_DATA || cmd == CMD_BLOCK_WRITE : cmd == CMD_READ_DATA;
+    }
+
+    @Override
+    public void armRound(int session, int target) {
+        armed = new Armed(session, target, buildInventoryCommand(session, target));
+    }
+
+    // The module answers the stop once the round is over; that reply ends it here
+    @Override
+    public int stopRound() {
+        if (!connected) return -1;
+        stopPending = true;
+        return sendStopCommand() ? 0 : -1;
+    }
+
+    // The module ends a round with STATUS_SCAN_TIMEOUT when the scan time ran out
+    // before every tag was singulated
+    @Override
+    public boolean lastRoundTruncated() {
+        return roundTruncated;
+    }
+    
+    private void startReading() {
+        if (readThread != null) return;
+        reading = true;
+        readThread = new Thread(this::readLoop, "direct-reader");
+        readThread.start();
+    }
+    
+    private void stopReading() {
+        Thread t = readThread;
+        if (t == null) return;
+        reading = false;
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        readThread = null;
     }
     
-    private void inventoryLoop() {
-        Log.d(TAG, "Inventory loop started");
+    private void readLoop() {
+        Log.d(TAG, "Reader thread started");
         byte[] buffer = new byte[2048];
-        int bufferLen = 0;
+        decoder.reset();
+        InputStream inputStream = link.getInputStream();
         
-        while (scanning && connected) {
+        while (reading && connected) {
             try {
-                // Send inventory command
-                sendInventoryCommand();
-                
-                // Read responses for scan time
-                long startTime = SystemClock.elapsedRealtime();
-                while (scanning && (SystemClock.elapsedRealtime() - startTime) < 1000) {
-                    if (inputStream.available() > 0) {
-                        int len = inputStream.read(buffer, bufferLen, buffer.length - bufferLen);
-                        if (len > 0) {
-                            bufferLen += len;
-                            Log.d(TAG, "Received " + len + " bytes, total: " + bufferLen);
-                            
-                            // Parse responses
-                            bufferLen = parseResponses(buffer, bufferLen);
+                if (inputStream.available() > 0) {
+                    int len = inputStream.read(buffer, 0, buffer.length);
+                    if (len > 0) {
+                        RfidMetrics.get().serialBytes.add(len);
+                        TrafficRecorder rec = recorder;
+                        if (rec != null) {
+                            rec.recordSerial(false, buffer, 0, len);
                         }
-                    } else {
-                        SystemClock.sleep(10);
+                        decoder.feed(buffer, 0, len, SystemClock.elapsedRealtimeNanos());
                     }
+                } else {
+                    long started = roundStartMs;
+                    if (started != 0 && EventLoop.nowMs() - started > ROUND_TIMEOUT_MS) {
+                        Log.w(TAG, "Inventory round timed out");
+                        endRound();
+                    }
+                    LockSupport.parkNanos(5_000_000L);
                 }
             } catch (Exception e) {
-                Log.e(TAG, "Inventory loop error: " + e.getMessage());
+                Log.e(TAG, "Reader thread error: " + e.getMessage());
                 if (tagCallback != null) {
                     tagCallback.onError(e.getMessage());
                 }
                 break;
             }
         }
-        
-        if (tagCallback != null) {
-            tagCallback.onInventoryEnd();
+        Log.d(TAG, "Reader thread ended");
+    }
+    
+    // Reader thread: every frame except tag records and intermediate inventory frames
+    private void onFrame(int cmd, int status, byte[] frame, int off) {
+        Listener l = listener;
+        switch (cmd) {
+            case CMD_INVENTORY:
+            case CMD_INVENTORY_MIX:
+                if (stopPending) break;
+                roundTruncated = status == FrameDecoder.STATUS_SCAN_TIMEOUT;
+                endRound();
+                break;
+            case CMD_STOP_INVENTORY:
+                if (!stopPending) break;
+                stopPending = false;
+                endRound();
+                break;
+            case CMD_READ_DATA:
+                if (l == null) break;
+                if (status == 0) {
+                    int dataLen = (frame[off] & 0xFF) - 5;
+                    byte[] epc = accessEpc;
+                    l.onAccessRead(epc != null ? bytesToHex(epc, 0, epc.length) : "",
+                            bytesToHex(frame, off + 4, Math.max(0, dataLen)));
+                } else {
+                    l.onAccessStatus(cmd, status);
+                }
+                break;
+            case CMD_WRITE_DATA:
+            case CMD_BLOCK_WRITE:
+                if (l != null) l.onAccessStatus(cmd, status == 0 ? WRITE_OK : status);
+                break;
+            default:
+                Log.d(TAG, "Frame cmd=0x" + Integer.toHexString(cmd) + " status=0x" + Integer.toHexString(status));
         }
-        Log.d(TAG, "Inventory loop ended");
     }
     
-    private void sendInventoryCommand() {
-        // Command: [length, ComAddr, CMD, QValue, Session, Target, Ant, Scantime]
-        // CMD 1 = Inventory_G2
-        byte[] cmd = new byte[] {
-            9,              // length
-            (byte) 0xFF,    // ComAddr (broadcast)
-            1,              // CMD = Inventory_G2
-            4,              // QValue
-            0,              // Session
-            0,              // Target
-            (byte) 0x80,    // Ant (0x80 = all)
-            10              // Scantime (10 * 100ms = 1s)
-        };
-        
-        // Calculate and append CRC
-        getCRC(cmd, cmd.length - 2);
-        
-        try {
-            outputStream.write(cmd);
-            outputStream.flush();
-            Log.d(TAG, "Sent inventory cmd: " + bytesToHex(cmd));
-        } catch (Exception e) {
-            Log.e(TAG, "Send inventory error: " + e.getMessage());
+    private void endRound() {
+        if (roundStartMs == 0) return;
+        roundStartMs = 0;
+        stopPending = false;
+        int tags = roundTags;
+        roundTags = 0;
+        Listener l = listener;
+        if (l != null) {
+            l.onRoundEnd(tags);
+        }
+        if (scanning) {
+            inventoryRound(roundSession, roundTarget);
         }
     }
     
-    private void sendStopCommand() {
-        // Command: [length, ComAddr, CMD]
-        // CMD 0x93 (-109) = StopInventory
-        byte[] cmd = new byte[] {
-            4,              // length
-            (byte) 0xFF,    // ComAddr
-            (byte) 0x93     // CMD = StopInventory
-        };
-        
-        getCRC(cmd, cmd.length - 2);
-        
+    private boolean sendInventoryCommand(int session, int target) {
+        Armed a = armed;
+        if (a == null || a.session != session || a.target != target) {
+            a = new Armed(session, target, buildInventoryCommand(session, target));
+            armed = a;
+        }
         try {
-            outputStream.write(cmd);
-            outputStream.flush();
-            Log.d(TAG, "Sent stop cmd: " + bytesToHex(cmd));
+            send(a.frame);
+            return true;
         } catch (Exception e) {
-            Log.e(TAG, "Send stop error: " + e.getMessage());
+            Log.e(TAG, "Send inventory error: " + e.getMessage());
+            return false;
         }
     }
-    
-    private int parseResponses(byte[] buffer, int length) {
-        int index = 0;
-        
-        while (length - index >= 5) {
-            int packetLen = buffer[index] & 0xFF;
-            
-            if (packetLen < 4 || packetLen > 250) {
-                index++;
-                continue;
-            }
-            
-            if (length < index + packetLen + 1) {
-                // Incomplete packet, keep remaining data
-                break;
-            }
-            
-            byte[] packet = new byte[packetLen + 1];
-            System.arraycopy(buffer, index, packet, 0, packetLen + 1);
-            
-            if (checkCRC(packet)) {
-                int cmd = packet[2] & 0xFF;
-                int status = packet[3] & 0xFF;
-                
-                Log.d(TAG, "Packet: cmd=" + cmd + ", status=" + status + ", len=" + packetLen);
-                
-                if (cmd == 1) { // Inventory response
-                    if (status == 1 || status == 2) {
-                        // Tag data
-                        parseTagData(packet, packetLen);
-                    } else if (status == 0x01 || status == 0x02 || status == 0xFB) {
-                        // Inventory end or no tag
-                        Log.d(TAG, "Inventory status: " + status);
-                    }
-                }
-                
-                index += packetLen + 1;
-            } else {
-                index++;
-            }
+
+    private byte[] buildInventoryCommand(int session, int target) {
+        // Inventory_G2 (CMD 0x01):
+        //   [length, ComAddr, CMD, QValue, Session, (mask), Target, Ant, Scantime, CRC(2)]
+        // Inventory_Mix (CMD 0x19), inventory + read of one memory window per tag:
+        //   [length, ComAddr, CMD, QValue, Session, (mask), ReadMem, ReadAdr(2), ReadLen,
+        //    Pwd(4), Target, Ant, Scantime, CRC(2)]
+        // Optional mask (Gen2 Select): [MaskMem, MaskAdr(2, bits), MaskLen(bits), MaskData]
+        int words = readWords;
+        InventoryFilter filter = selectFilter;
+        int maskLen = filter != null ? 4 + filter.maskBytes() : 0;
+        int readLen = words > 0 ? 8 : 0;
+        byte[] cmd = new byte[3 + 2 + maskLen + readLen + 3 + 2];
+        int pos = 0;
+        cmd[pos++] = (byte) (cmd.length - 1);                          // length
+        cmd[pos++] = (byte) 0xFF;                                      // ComAddr (broadcast)
+        cmd[pos++] = (byte) (words > 0 ? CMD_INVENTORY_MIX : CMD_INVENTORY);
+        cmd[pos++] = 4;                                                // QValue
+        cmd[pos++] = (byte) session;                                   // Session
+        if (filter != null) {
+            cmd[pos++] = (byte) filter.bank;                           // MaskMem
+            cmd[pos++] = (byte) (filter.bitOffset >> 8);               // MaskAdr (bit address)
+            cmd[pos++] = (byte) filter.bitOffset;
+            cmd[pos++] = (byte) filter.bitLength;                      // MaskLen (bits)
+            byte[] mask = filter.getMask();
+            System.arraycopy(mask, 0, cmd, pos, mask.length);          // MaskData
+            pos += mask.length;
         }
-        
-        // Move remaining data to start of buffer
-        if (index > 0 && length > index) {
-            System.arraycopy(buffer, index, buffer, 0, length - index);
+        if (words > 0) {
+            byte[] pwd = readPassword;
+            int addr = readAddr;
+            cmd[pos++] = (byte) readBank;                              // ReadMem
+            cmd[pos++] = (byte) (addr >> 8);                           // ReadAdr (words)
+            cmd[pos++] = (byte) addr;
+            cmd[pos++] = (byte) words;                                 // ReadLen (words)
+            System.arraycopy(pwd, 0, cmd, pos, 4);                     // Pwd
+            pos += 4;
         }
+        cmd[pos++] = (byte) target;                                    // Target
+        cmd[pos++] = (byte) 0x80;                                      // Ant (0x80 = all)
+        cmd[pos] = SCAN_TIME;                                          // Scantime (x 100 ms)
         
-        return length - index;
+        // Calculate and append CRC
+        FrameDecoder.appendCrc(cmd, cmd.length - 2);
+        return cmd;
     }
     
-    private void parseTagData(byte[] packet, int packetLen) {
+    // StopInventory: [length, ComAddr, CMD, CRC(2)]
+    private boolean sendStopCommand() {
+        byte[] cmd = new byte[] {
+            4,                              // length
+            (byte) 0xFF,                    // ComAddr
+            (byte) CMD_STOP_INVENTORY,
+            0, 0
+        };
+        FrameDecoder.appendCrc(cmd, cmd.length - 2);
         try {
-            // Standard inventory response format:
-            // [len, addr, cmd, status, ant, num, [pc(2), epc(12), rssi], ...]
-            if (packetLen < 10) return;
-            
-            int status = packet[3] & 0xFF;
-            int num = packet[4] & 0xFF;
-            
-            Log.d(TAG, "Tag data: status=" + status + ", num=" + num);
-            
-            if (num > 0 && packetLen >= 7) {
-                int pos = 5;
-                for (int i = 0; i < num && pos < packetLen - 2; i++) {
-                    // PC (2 bytes) + EPC (variable) + RSSI (1 byte)
-                    if (pos + 3 > packetLen) break;
-                    
-                    int epcLen = 12; // Default EPC length
-                    
-                    // Try to extract PC to determine EPC length
-                    if (pos + 2 <= packetLen) {
-                        int pc = ((packet[pos] & 0xFF) << 8) | (packet[pos + 1] & 0xFF);
-                        epcLen = ((pc >> 11) & 0x1F) * 2;
-                        if (epcLen <= 0 || epcLen > 62) epcLen = 12;
-                    }
-                    
-                    if (pos + 2 + epcLen + 1 > packetLen) break;
-                    
-                    byte[] epcBytes = new byte[epcLen];
-                    System.arraycopy(packet, pos + 2, epcBytes, 0, epcLen);
-                    String epc = bytesToHex(epcBytes);
-                    
-                    int rssi = packet[pos + 2 + epcLen] & 0xFF;
-                    if (rssi > 127) rssi = rssi - 256;
-                    
-                    Log.d(TAG, ">>> TAG: EPC=" + epc + ", RSSI=" + rssi);
-                    
-                    if (tagCallback != null) {
-                        tagCallback.onTagRead(epc, rssi);
-                    }
-                    
-                    pos += 2 + epcLen + 1;
-                }
-            }
+            send(cmd);
+            Log.d(TAG, "Sent stop cmd: " + bytesToHex(cmd, 0, cmd.length));
+            return true;
         } catch (Exception e) {
-            Log.e(TAG, "Parse tag error: " + e.getMessage());
+            Log.e(TAG, "Send stop error: " + e.getMessage());
+            return false;
         }
     }
     
-    private void getCRC(byte[] data, int len) {
-        int crc = 0xFFFF;
-        for (int i = 0; i < len; i++) {
-            crc ^= (data[i] & 0xFF);
-            for (int j = 0; j < 8; j++) {
-                if ((crc & 1) != 0) {
-                    crc = (crc >> 1) ^ 0x8408;
-                } else {
-                    crc >>= 1;
-                }
-            }
+    private synchronized void send(byte[] cmd) throws java.io.IOException {
+        TrafficRecorder rec = recorder;
+        if (rec != null) {
+            rec.recordSerial(true, cmd, 0, cmd.length);
         }
-        data[len] = (byte) (crc & 0xFF);
-        data[len + 1] = (byte) ((crc >> 8) & 0xFF);
+        OutputStream out = link.getOutputStream();
+        out.write(cmd);
+        out.flush();
     }
     
-    private boolean checkCRC(byte[] data) {
-        int len = (data[0] & 0xFF) - 1;
-        if (len < 2 || len >= data.length) return false;
-        
-        byte[] temp = new byte[len + 2];
-        System.arraycopy(data, 0, temp, 0, len);
-        getCRC(temp, len);
-        
-        return temp[len] == data[len] && temp[len + 1] == data[len + 1];
+    private int sendCommand(byte[] cmd, String what) {
+        if (!connected) return -1;
+        FrameDecoder.appendCrc(cmd, cmd.length - 2);
+        try {
+            send(cmd);
+            return 0;
+        } catch (Exception e) {
+            Log.e(TAG, what + " error: " + e.getMessage());
+            return -1;
+        }
     }
     
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02X", b & 0xFF));
+    private static String bytesToHex(byte[] bytes, int off, int len) {
+        StringBuilder sb = new StringBuilder(len * 2);
+        for (int i = off; i < off + len; i++) {
+            sb.append(String.format("%02X", bytes[i] & 0xFF));
         }
         return sb.toString();
     }
     
+    @Override
     public int setOutputPower(int power) {
         if (!connected) return -1;
         
-        // Command: [length, ComAddr, CMD, power]
+        // Command: [length, ComAddr, CMD, power, CRC(2)]
         // CMD 0x2F (47) = SetRfPower
         byte[] cmd = new byte[] {
             5,              // length
             (byte) 0xFF,    // ComAddr
-            0x2F,           // CMD = SetRfPower
-            (byte) power    // power (dBm)
+            CMD_SET_POWER,  // CMD = SetRfPower
+            (byte) power,   // power (dBm)
+            0, 0            // CRC
         };
         
-        getCRC(cmd, cmd.length - 2);
+        FrameDecoder.appendCrc(cmd, cmd.length - 2);
         
         try {
-            outputStream.write(cmd);
-            outputStream.flush();
+            send(cmd);
             Log.d(TAG, "Set power to " + power);
             return 0;
         } catch (Exception e) {
@@ -372,4 +567,98 @@ public class DirectRfidReader {
             return -1;
         }
     }
+    
+    // [length, ComAddr, CMD, AntCfg] with one bit per antenna port
+    @Override
+    public int setWorkAntenna(int antenna) {
+        return sendCommand(new byte[] { 5, (byte) 0xFF, CMD_SET_ANTENNA, (byte) (1 << antenna), 0, 0 },
+                "Set antenna");
+    }
+    
+    // [length, ComAddr, CMD, MaxFre, MinFre]: the band code is split over the top two
+    // bits of both bytes (high half in MaxFre), the channel indexes in the low six
+    @Override
+    public int setFrequencyRegion(int region, int startFreq, int endFreq) {
+        byte maxFre = (byte) (((region >> 2) & 0x03) << 6 | (endFreq & 0x3F));
+        byte minFre = (byte) ((region & 0x03) << 6 | (startFreq & 0x3F));
+        return sendCommand(new byte[] { 6, (byte) 0xFF, CMD_SET_REGION, maxFre, minFre, 0, 0 }, "Set region");
+    }
+    
+    // The hardware trigger is handled by the app (key events), not by the module
+    @Override
+    public int setTrigger(boolean enabled) {
+        return connected ? 0 : -1;
+    }
+    
+    @Override
+    public int setAccessEpcMatch(byte[] epc) {
+        if ((epc.length & 1) != 0) return -1;
+        accessEpc = epc.clone();
+        return 0;
+    }
+    
+    @Override
+    public int cancelAccessEpcMatch() {
+        accessEpc = null;
+        return 0;
+    }
+    
+    // ReadData: [length, ComAddr, CMD, ENum, EPC(ENum words), Mem, WordPtr, Num, Pwd(4),
+    //            MaskAdr, MaskLen, CRC(2)]; reply [.., status, words(Num * 2), CRC(2)]
+    @Override
+    public int readTag(int bank, int wordPtr, int words, byte[] password) {
+        byte[] epc = accessEpc;
+        if (epc == null) return -1;
+        byte[] cmd = new byte[4 + epc.length + 3 + 4 + 2 + 2];
+        int pos = accessHeader(cmd, CMD_READ_DATA, -1, epc);
+        cmd[pos++] = (byte) bank;
+        cmd[pos++] = (byte) wordPtr;
+        cmd[pos++] = (byte) words;
+        putPassword(cmd, pos, password);
+        return sendCommand(cmd, "ReadData");
+    }
+    
+    // WriteData: [length, ComAddr, CMD, WNum, ENum, EPC(ENum words), Mem, WordPtr,
+    //             Wdt(WNum words), Pwd(4), MaskAdr, MaskLen, CRC(2)]
+    @Override
+    public int writeTag(int bank, int wordPtr, int words, byte[] data, byte[] password) {
+        return write(CMD_WRITE_DATA, "WriteData", bank, wordPtr, words, data, password);
+    }
+
+    // BlockWrite: same frame as WriteData
+    @Override
+    public int blockWriteTag(int bank, int wordPtr, int words, byte[] data, byte[] password) {
+        return write(CMD_BLOCK_WRITE, "BlockWrite", bank, wordPtr, words, data, password);
+    }
+
+    private int write(int command, String name, int bank, int wordPtr, int words, byte[] data, byte[] password) {
+        byte[] epc = accessEpc;
+        if (epc == null || data == null || data.length < words * 2) return -1;
+        byte[] cmd = new byte[5 + epc.length + 2 + words * 2 + 4 + 2 + 2];
+        int pos = accessHeader(cmd, command, words, epc);
+        cmd[pos++] = (byte) bank;
+        cmd[pos++] = (byte) wordPtr;
+        System.arraycopy(data, 0, cmd, pos, words * 2);
+        pos += words * 2;
+        putPassword(cmd, pos, password);
+        return sendCommand(cmd, name);
+    }
+    
+    private static int accessHeader(byte[] cmd, int command, int writeWords, byte[] epc) {
+        int pos = 0;
+        cmd[pos++] = (byte) (cmd.length - 1);
+        cmd[pos++] = (byte) 0xFF;
+        cmd[pos++] = (byte) command;
+        if (writeWords >= 0) cmd[pos++] = (byte) writeWords;
+        cmd[pos++] = (byte) (epc.length / 2);
+        System.arraycopy(epc, 0, cmd, pos, epc.length);
+        return pos + epc.length;
+    }
+    
+    // Password, then MaskAdr = MaskLen = 0 (match the whole EPC)
+    private static void putPassword(byte[] cmd, int pos, byte[] password) {
+        if (password != null && password.length == 4) {
+            System.arraycopy(password, 0, cmd, pos, 4);
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.urovo.rfid;
+
+import java.util.Arrays;
+
+// Open-addressing hash index of packed EPCs (TagRecord.epcHi/epcKeyLo). Each distinct
+// EPC gets a dense ordinal (0..size-1) in insertion order, so callers keep their
+// per-tag data in plain parallel arrays indexed by ordinal. No boxing, no per-entry
+// objects. Not thread-safe.
+public final class EpcIndex {
+    private static final int EMPTY = -1;
+
+    private long[] keysHi;
+    private long[] keysLo;
+    private int[] table;        // hash slot -> ordinal, EMPTY if free
+    private long[] ordHi;       // ordinal -> key
+    private long[] ordLo;
+    private int size;
+    private int mask;
+
+    public EpcIndex(int expected) {
+        int cap = tableSizeFor(Math.max(16, expected));
+        allocate(cap);
+        ordHi = new long[Math.max(16, expected)];
+        ordLo = new long[Math.max(16, expected)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long hiAt(int ordinal) {
+        return ordHi[ordinal];
+    }
+
+    public long loAt(int ordinal) {
+        return ordLo[ordinal];
+    }
+
+    // Ordinal of the EPC, or -1 if absent
+    public int indexOf(long hi, long lo) {
+        int slot = hash(hi, lo) & mask;
+        while (true) {
+            int ord = table[slot];
+            if (ord == EMPTY) return -1;
+            if (keysHi[slot] == hi && keysLo[slot] == lo) return ord;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Ordinal of the EPC, inserting it if absent
+    public int add(long hi, long lo) {
+        int slot = hash(hi, lo) & mask;
+        while (true) {
+            int ord = table[slot];
+            if (ord == EMPTY) break;
+            if (keysHi[slot] == hi && keysLo[slot] == lo) return ord;
+            slot = (slot + 1) & mask;
+        }
+        int ord = size++;
+        table[slot] = ord;
+        keysHi[slot] = hi;
+        keysLo[slot] = lo;
+        if (ord == ordHi.length) {
+            ordHi = Arrays.copyOf(ordHi, ord * 2);
+            ordLo = Arrays.copyOf(ordLo, ord * 2);
+        }
+        ordHi[ord] = hi;
+        ordLo[ord] = lo;
+        if (size * 4 >= table.length * 3) {
+            rehash(table.length * 2);
+        }
+        return ord;
+    }
+
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    private void rehash(int newCap) {
+        long[] oldHi = keysHi;
+        long[] oldLo = keysLo;
+        int[] oldTable = table;
+        allocate(newCap);
+        for (int i = 0; i < oldTable.length; i++) {
+            int ord = oldTable[i];
+            if (ord == EMPTY) continue;
+            int slot = hash(oldHi[i], oldLo[i]) & mask;
+            while (table[slot] != EMPTY) slot = (slot + 1) & mask;
+            table[slot] = ord;
+            keysHi[slot] = oldHi[i];
+            keysLo[slot] = oldLo[i];
+        }
+    }
+
+    private void allocate(int cap) {
+        keysHi = new long[cap];
+        keysLo = new long[cap];
+        table = new int[cap];
+        Arrays.fill(table, EMPTY);
+        mask = cap - 1;
+    }
+
+    // EPC serials live in the low bits, so mix both halves before masking
+    static int hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L + lo;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        h ^= h >>> 29;
+        return (int) h;
+    }
+
+    private static int tableSizeFor(int expected) {
+        int cap = Integer.highestOneBit(expected * 4 / 3 + 1) << 1;
+        return Math.max(16, cap);
+    }
+}
@@ -0,0 +1,247 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rewrites the EPC of one tag with as few written words as it takes. The tag is
+// addressed by its current EPC, so its EPC words are known without a read: only the
+// words that differ from the new EPC are written, a run of them in one command
+// (BlockWrite where the path has it, WriteData otherwise) and a single word with a
+// plain Write; short gaps between runs are written over instead of paying for another
+// command. When the length changes, the PC word follows with its other bits kept
+// (read first unless known) and goes last, so every write before it can address the
+// tag by the EPC it has at that point. All writes and the verify read are queued
+// together, like BlockTransfer. After a failure the EPC the tag is known to have is
+// kept, so a retry can address it.
+public class EpcWriter {
+    private static final String TAG = "EpcWriter";
+    static final int PC_WORD = 1;
+    static final int EPC_WORD = 2;
+    // Unchanged words between two runs that are still written over: a word costs
+    // about as much air time as starting another access
+    static final int MERGE_GAP_WORDS = 1;
+
+    public interface Listener {
+        void onFinished(EpcWriter writer);
+    }
+
+    public static final class Options {
+        public boolean verify = true;
+        public boolean blockWrite = true;
+        public byte[] password = new byte[4];
+    }
+
+    // One write command of a plan, in the EPC bank
+    public static final class Step {
+        public final int start;
+        public final int words;
+        public final byte[] data;
+        public final boolean block;
+        // EPC the tag answers with once this step landed
+        public final byte[] epcAfter;
+
+        Step(int start, int words, byte[] data, boolean block, byte[] epcAfter) {
+            this.start = start;
+            this.words = words;
+            this.data = data;
+            this.block = block;
+            this.epcAfter = epcAfter;
+        }
+    }
+
+    private final AccessQueue queue;
+    private final byte[] target;
+    private final Options options;
+    private final Listener listener;
+
+    private byte[] current;
+    private int pc;
+    private List<Step> steps = new ArrayList<>();
+    private int outstanding;
+    private int wordsWritten;
+    private boolean running;
+    private boolean success;
+    private String error;
+
+    // pc: the tag's PC word if known, else -1 (only needed when the length changes)
+    public EpcWriter(AccessQueue queue, byte[] current, byte[] target, int pc, Options options, Listener listener) {
+        this.queue = queue;
+        this.current = current;
+        this.target = target;
+        this.pc = pc;
+        this.options = options;
+        this.listener = listener;
+    }
+
+    // Writes that turn current into target; words past the current EPC are unknown
+    // and always written. pc is only used when the length changes
+    public static List<Step> plan(byte[] current, byte[] target, int pc, boolean blockWrite) {
+        int curWords = (current.length + 1) / 2;
+        int newWords = (target.length + 1) / 2;
+        // EPC bank from word 0; words of the EPC as the tag has them now
+        int[] mem = new int[EPC_WORD + Math.max(curWords, newWords)];
+        int[] want = new int[EPC_WORD + newWords];
+        for (int i = 0; i < curWords; i++) mem[EPC_WORD + i] = word(current, i);
+        for (int i = 0; i < newWords; i++) want[EPC_WORD + i] = word(target, i);
+        boolean lengthChanges = curWords != newWords;
+        if (lengthChanges) want[PC_WORD] = (pc & 0x07FF) | newWords << 11;
+
+        List<int[]> runs = new ArrayList<>();
+        for (int w = EPC_WORD; w < want.length; w++) {
+            if (w - EPC_WORD < curWords && mem[w] == want[w]) continue;
+            int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && w - last[1] <= MERGE_GAP_WORDS + 1) {
+                last[1] = w;
+            } else {
+                runs.add(new int[] { w, w });
+            }
+        }
+        if (lengthChanges) {
+            // Written together with a run starting at the EPC, else on its own, last
+            int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last[0] - EPC_WORD <= MERGE_GAP_WORDS) {
+                last[0] = PC_WORD;
+            } else {
+                runs.add(new int[] { PC_WORD, PC_WORD });
+            }
+        }
+
+        List<Step> steps = new ArrayList<>(runs.size());
+        int epcWords = curWords;
+        for (int[] run : runs) {
+            int words = run[1] - run[0] + 1;
+            byte[] data = new byte[words * 2];
+            for (int i = 0; i < words; i++) {
+                int v = want[run[0] + i];
+                mem[run[0] + i] = v;
+                data[2 * i] = (byte) (v >> 8);
+                data[2 * i + 1] = (byte) v;
+            }
+            if (run[0] <= PC_WORD) epcWords = newWords;
+            byte[] epcAfter = new byte[epcWords * 2];
+            for (int i = 0; i < epcWords; i++) {
+                epcAfter[2 * i] = (byte) (mem[EPC_WORD + i] >> 8);
+                epcAfter[2 * i + 1] = (byte) mem[EPC_WORD + i];
+            }
+            steps.add(new Step(run[0], words, data, blockWrite && words > 1, epcAfter));
+        }
+        return steps;
+    }
+
+    private static int word(byte[] b, int i) {
+        int hi = b[2 * i] & 0xFF;
+        int lo = 2 * i + 1 < b.length ? b[2 * i + 1] & 0xFF : 0;
+        return hi << 8 | lo;
+    }
+
+    // Handler thread
+    public void start() {
+        if (running) return;
+        running = true;
+        if ((current.length + 1) / 2 == (target.length + 1) / 2 || pc >= 0) {
+            submitPlan();
+            return;
+        }
+        queue.submit(AccessQueue.Operation.read(current, 1, PC_WORD, 1, options.password,
+                new AccessQueue.Callback() {
+                    @Override
+                    public void onComplete(AccessQueue.Operation op) {
+                        if (op.success && op.result != null && op.result.length() >= 4) {
+                            pc = Integer.parseInt(op.result.substring(0, 4), 16);
+                            submitPlan();
+                        } else {
+                            error = "PC_" + (op.success ? "SHORT_READ" : op.error);
+                            finish();
+                        }
+                    }
+                }));
+    }
+
+    private void submitPlan() {
+        steps = plan(current, target, pc, options.blockWrite);
+        Log.d(TAG, "Plan " + TagRecord.toHex(current, current.length) + " -> " + TagRecord.toHex(target, target.length)
+                + ": " + steps.size() + " writes");
+        byte[] address = current;
+        outstanding = steps.size() + (options.verify ? 1 : 0);
+        if (outstanding == 0) {
+            finish();
+            return;
+        }
+        for (final Step step : steps) {
+            queue.submit(AccessQueue.Operation.write(address, 1, step.start, step.words, step.data, options.password,
+                    new AccessQueue.Callback() {
+                        @Override
+                        public void onComplete(AccessQueue.Operation op) {
+                            if (op.success && error == null) {
+                                current = step.epcAfter;
+                                wordsWritten += step.words;
+                            } else if (error == null) {
+                                error = "WORD_" + step.start + "_" + op.error;
+                            }
+                            done();
+                        }
+                    }).block(step.block));
+            address = step.epcAfter;
+        }
+        if (!options.verify) return;
+        // PC included when the length changed
+        final int from = steps.isEmpty() || steps.get(steps.size() - 1).start > PC_WORD ? EPC_WORD : PC_WORD;
+        final int words = (target.length + 1) / 2 + EPC_WORD - from;
+        queue.submit(AccessQueue.Operation.read(target, 1, from, words, options.password,
+                new AccessQueue.Callback() {
+                    @Override
+                    public void onComplete(AccessQueue.Operation op) {
+                        if (error == null && !(op.success && matches(op.result, from))) {
+                            error = op.success ? "VERIFY_MISMATCH" : "VERIFY_" + op.error;
+                        }
+                        done();
+                    }
+                }));
+    }
+
+    private boolean matches(String hex, int from) {
+        String want = TagRecord.toHex(target, target.length);
+        int skip = 0;
+        if (from == PC_WORD) {
+            if (hex == null || hex.length() < 4) return false;
+            if (Integer.parseInt(hex.substring(0, 4), 16) >> 11 != (target.length + 1) / 2) return false;
+            skip = 4;
+        }
+        return hex != null && hex.length() >= skip + want.length() && hex.regionMatches(true, skip, want, 0, want.length());
+    }
+
+    private void done() {
+        if (--outstanding == 0) finish();
+    }
+
+    private void finish() {
+        if (!running) return;
+        running = false;
+        success = error == null;
+        Log.d(TAG, "Done: ok=" + success + " words=" + wordsWritten + " error=" + error);
+        if (listener != null) listener.onFinished(this);
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    // The EPC the tag was last confirmed to have; address a retry with it
+    public byte[] getCurrentEpc() {
+        return current;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    public int getWordsWritten() {
+        return wordsWritten;
+    }
+}
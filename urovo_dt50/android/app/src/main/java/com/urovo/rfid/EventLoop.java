@@ -0,0 +1,156 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// One consumer thread fed by a lock-free multi-producer inbox (intrusive MPSC list:
+// producers swap the head, the loop follows next links from its tail). Any thread
+// may post; the Actor sees one event at a time on the loop thread, so its state needs
+// no locks. Delayed events wait in a heap only the loop thread touches. Plain Java
+// apart from logging.
+public final class EventLoop {
+    private static final String TAG = "EventLoop";
+
+    public interface Actor {
+        void onEvent(int what, int arg, long nowMs);
+    }
+
+    private static final class Node {
+        final int what;
+        final int arg;
+        final long dueMs;
+        long seq;
+        volatile Node next;
+
+        Node(int what, int arg, long dueMs) {
+            this.what = what;
+            this.arg = arg;
+            this.dueMs = dueMs;
+        }
+    }
+
+    private final String name;
+    private final int priority;
+    private final Actor actor;
+    private final AtomicReference<Node> head;
+    private Node tail;
+    private final PriorityQueue<Node> timers = new PriorityQueue<>(16,
+            (a, b) -> a.dueMs != b.dueMs ? Long.compare(a.dueMs, b.dueMs) : Long.compare(a.seq, b.seq));
+    private long seq;
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean quit;
+    private volatile long actorErrors;
+
+    public EventLoop(String name, Actor actor) {
+        this(name, Thread.NORM_PRIORITY, actor);
+    }
+
+    // priority as Thread.setPriority (on Android MAX_PRIORITY maps to urgent display)
+    public EventLoop(String name, int priority, Actor actor) {
+        this.name = name;
+        this.priority = priority;
+        this.actor = actor;
+        Node stub = new Node(0, 0, 0);
+        head = new AtomicReference<>(stub);
+        tail = stub;
+    }
+
+    public static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    public synchronized void start() {
+        if (thread != null || quit) return;
+        running = true;
+        Thread t = new Thread(this::run, name);
+        t.setPriority(priority);
+        thread = t;
+        t.start();
+    }
+
+    // Drops pending events and timers; posts after this are ignored and the loop
+    // cannot be started again
+    public synchronized void quit() {
+        quit = true;
+        Thread t = thread;
+        if (t == null) return;
+        running = false;
+        LockSupport.unpark(t);
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public void post(int what, int arg) {
+        enqueue(new Node(what, arg, 0));
+    }
+
+    public void postDelayed(int what, int arg, long delayMs) {
+        enqueue(new Node(what, arg, nowMs() + Math.max(0, delayMs)));
+    }
+
+    // Exceptions thrown by the actor; the loop keeps running
+    public long getActorErrors() {
+        return actorErrors;
+    }
+
+    private void enqueue(Node n) {
+        if (quit) return;
+        Node prev = head.getAndSet(n);
+        prev.next = n;
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    // Loop thread; null while the inbox is empty (or a producer is between its two steps)
+    private Node poll() {
+        Node next = tail.next;
+        if (next == null) return null;
+        tail = next;
+        return next;
+    }
+
+    private void run() {
+        while (running) {
+            Node n;
+            while (running && (n = poll()) != null) {
+                if (n.dueMs == 0) {
+                    dispatch(n);
+                } else {
+                    n.seq = seq++;
+                    timers.add(n);
+                }
+            }
+            long now = nowMs();
+            Node t;
+            while (running && (t = timers.peek()) != null && t.dueMs <= now) {
+                timers.poll();
+                dispatch(t);
+            }
+            if (tail.next != null) continue;
+            t = timers.peek();
+            if (t == null) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, (t.dueMs - nowMs()) * 1_000_000L);
+            }
+        }
+        timers.clear();
+    }
+
+    private void dispatch(Node n) {
+        try {
+            actor.onEvent(n.what, n.arg, nowMs());
+        } catch (RuntimeException e) {
+            actorErrors++;
+            Log.e(TAG, name + ": event " + n.what + " (arg " + n.arg + ") failed", e);
+        }
+    }
+}
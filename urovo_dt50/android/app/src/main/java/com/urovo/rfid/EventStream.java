@@ -0,0 +1,228 @@
+package com.urovo.rfid;
+
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reads and metrics for Flutter with credit-based flow control. Dart grants credits
+// as it handles events and every event sent spends one, so no more than the granted
+// window is ever in flight. Reads offered while the window is used up are folded into
+// one entry per EPC (reads, last and strongest RSSI) and go out as a single delta
+// event once credit comes back; metrics keep only the newest snapshot. Held memory is
+// bounded: pending reads by the credits, deltas by maxDeltaTags (reads of further EPCs
+// are only counted). Reader threads offer, the main thread flushes; offer and grant
+// return true when a flush has to be posted, at most one being outstanding.
+public final class EventStream {
+    public static final int DEFAULT_MAX_DELTA_TAGS = 4096;
+    public static final long MAX_CREDITS = 4096;
+
+    public interface Sink {
+        void send(Map<String, Object> event);
+    }
+
+    private static final class Read {
+        final Map<String, Object> event;
+        final long decodedNanos;
+
+        Read(Map<String, Object> event, long decodedNanos) {
+            this.event = event;
+            this.decodedNanos = decodedNanos;
+        }
+    }
+
+    private static final class Delta {
+        String tid;
+        int reads;
+        int rssi;
+        int maxRssi;
+    }
+
+    private final RfidMetrics metrics = RfidMetrics.get();
+    private final int maxDeltaTags;
+    private final ArrayDeque<Read> pending = new ArrayDeque<>();
+    private final LinkedHashMap<String, Delta> deltas = new LinkedHashMap<>();
+    private long deltaReads;
+    private long overflowReads;
+    private Map<String, Object> latestMetrics;
+    private long credits;
+    private boolean open;
+    private boolean flushPosted;
+
+    private long eventsSent;
+    private long readsFolded;
+    private long deltasSent;
+
+    public EventStream() {
+        this(DEFAULT_MAX_DELTA_TAGS);
+    }
+
+    public EventStream(int maxDeltaTags) {
+        this.maxDeltaTags = Math.max(1, maxDeltaTags);
+    }
+
+    // A listener subscribed with its first grant; anything left from before is dropped
+    public synchronized void open(long initialCredits) {
+        clear();
+        open = true;
+        credits = Math.max(0, Math.min(MAX_CREDITS, initialCredits));
+        eventsSent = 0;
+        readsFolded = 0;
+        deltasSent = 0;
+    }
+
+    public synchronized void close() {
+        open = false;
+        credits = 0;
+        clear();
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public synchronized boolean grant(long n) {
+        if (!open || n <= 0) return false;
+        credits = Math.min(MAX_CREDITS, credits + n);
+        return postFlush();
+    }
+
+    // Reader thread; the strings are built by the caller at the Flutter boundary
+    public synchronized boolean offerRead(String epc, String tid, String user, int rssi, long decodedNanos) {
+        if (!open) return false;
+        if (deltas.isEmpty() && overflowReads == 0 && pending.size() < credits) {
+            Map<String, Object> e = new HashMap<>();
+            e.put("type", "read");
+            e.put("epc", epc);
+            e.put("tid", tid);
+            e.put("user", user);
+            e.put("rssi", rssi);
+            pending.add(new Read(e, decodedNanos));
+            return postFlush();
+        }
+        // Folded from here until the delta went out, so reads keep their order
+        readsFolded++;
+        Delta d = deltas.get(epc);
+        if (d == null) {
+            if (deltas.size() >= maxDeltaTags) {
+                overflowReads++;
+                return postFlush();
+            }
+            d = new Delta();
+            d.maxRssi = rssi;
+            deltas.put(epc, d);
+        }
+        if (tid != null && !tid.isEmpty()) d.tid = tid;
+        d.reads++;
+        d.rssi = rssi;
+        d.maxRssi = Math.max(d.maxRssi, rssi);
+        deltaReads++;
+        return postFlush();
+    }
+
+    // Replaces a snapshot not sent yet
+    public synchronized boolean offerMetrics(Map<String, Object> snapshot) {
+        if (!open) return false;
+        latestMetrics = snapshot;
+        return postFlush();
+    }
+
+    // Reads of a stopped round not sent yet; returns how many were dropped
+    public synchronized long discardReads() {
+        long n = pending.size() + deltaReads + overflowReads;
+        pending.clear();
+        deltas.clear();
+        deltaReads = 0;
+        overflowReads = 0;
+        return n;
+    }
+
+    private boolean postFlush() {
+        if (flushPosted || credits <= 0) return false;
+        if (pending.isEmpty() && deltas.isEmpty() && overflowReads == 0 && latestMetrics == null) return false;
+        flushPosted = true;
+        return true;
+    }
+
+    private void clear() {
+        discardReads();
+        latestMetrics = null;
+    }
+
+    // Main thread: sends what the credits cover, sink called outside the lock
+    public void flush(Sink sink) {
+        List<Read> reads = new ArrayList<>();
+        Map<String, Object> delta = null;
+        Map<String, Object> snapshot = null;
+        synchronized (this) {
+            flushPosted = false;
+            if (!open) return;
+            while (credits > 0 && !pending.isEmpty()) {
+                reads.add(pending.poll());
+                credits--;
+            }
+            if (credits > 0 && (!deltas.isEmpty() || overflowReads > 0)) {
+                delta = takeDelta();
+                credits--;
+            }
+            if (credits > 0 && latestMetrics != null) {
+                snapshot = new HashMap<>();
+                snapshot.put("type", "metrics");
+                snapshot.put("metrics", latestMetrics);
+                latestMetrics = null;
+                credits--;
+            }
+            eventsSent += reads.size() + (delta != null ? 1 : 0) + (snapshot != null ? 1 : 0);
+        }
+        for (Read r : reads) {
+            sink.send(r.event);
+            metrics.decodedToFlutter.recordNanos(SystemClock.elapsedRealtimeNanos() - r.decodedNanos);
+            metrics.tagsDelivered.increment();
+        }
+        if (delta != null) {
+            sink.send(delta);
+            metrics.tagsDelivered.add((Long) delta.get("reads"));
+        }
+        if (snapshot != null) sink.send(snapshot);
+    }
+
+    private Map<String, Object> takeDelta() {
+        List<Map<String, Object>> tags = new ArrayList<>(deltas.size());
+        for (Map.Entry<String, Delta> e : deltas.entrySet()) {
+            Delta d = e.getValue();
+            Map<String, Object> t = new HashMap<>();
+            t.put("epc", e.getKey());
+            t.put("tid", d.tid);
+            t.put("reads", d.reads);
+            t.put("rssi", d.rssi);
+            t.put("maxRssi", d.maxRssi);
+            tags.add(t);
+        }
+        Map<String, Object> m = new HashMap<>();
+        m.put("type", "delta");
+        m.put("tags", tags);
+        m.put("reads", deltaReads);
+        m.put("overflowReads", overflowReads);
+        deltas.clear();
+        deltaReads = 0;
+        overflowReads = 0;
+        deltasSent++;
+        return m;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("open", open);
+        m.put("credits", credits);
+        m.put("pending", pending.size());
+        m.put("deltaTags", deltas.size());
+        m.put("eventsSent", eventsSent);
+        m.put("readsFolded", readsFolded);
+        m.put("deltasSent", deltasSent);
+        return m;
+    }
+}
@@ -0,0 +1,189 @@
+package com.urovo.rfid;
+
+// Incremental decoder for the module's serial response frames
+//   [len, addr, cmd, status, data..., crcLo, crcHi]   (len = total bytes - 1)
+// Inventory records are decoded into one reused TagRecord. Every other frame, and the
+// final frame of each inventory round, goes to the FrameListener. No allocation per
+// frame and no Android dependencies, so the same code runs on the device and when
+// replaying recorded traffic on a build box.
+// Not thread-safe: feed() from one thread.
+public class FrameDecoder {
+    public static final int CMD_INVENTORY = 0x01;
+    public static final int CMD_INVENTORY_MIX = 0x19;
+
+    // Inventory status: tags, round finished / scan time over / more frames follow
+    public static final int STATUS_ROUND_DONE = 0x01;
+    public static final int STATUS_SCAN_TIMEOUT = 0x02;
+    public static final int STATUS_MORE = 0x03;
+
+    private static final int MIN_FRAME = 4;
+    private static final int MAX_FRAME = 250;
+
+    public interface FrameListener {
+        // frame[off] is the length byte; the frame spans frame[off .. off + frame[off]]
+        void onFrame(int cmd, int status, byte[] frame, int off);
+    }
+
+    private final byte[] buffer = new byte[4096];
+    private int bufferLen;
+    private final TagRecord record = new TagRecord();
+    private final RfidMetrics metrics = RfidMetrics.get();
+
+    private TagRecord.Listener recordListener;
+    private FrameListener frameListener;
+    private volatile InventoryFilter filter;
+    private volatile int embeddedBytes;
+    private volatile boolean embeddedIsTid = true;
+    private long records;
+
+    public void setRecordListener(TagRecord.Listener listener) {
+        this.recordListener = listener;
+    }
+
+    public void setFrameListener(FrameListener listener) {
+        this.frameListener = listener;
+    }
+
+    // Records that fail the filter are dropped here (software Select fallback)
+    public void setFilter(InventoryFilter filter) {
+        this.filter = filter;
+    }
+
+    // Size and bank of the memory window carried by Inventory_Mix records
+    public void setEmbeddedData(int bytes, boolean tid) {
+        embeddedBytes = Math.max(0, Math.min(bytes, TagRecord.MAX_DATA_BYTES));
+        embeddedIsTid = tid;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public void reset() {
+        bufferLen = 0;
+    }
+
+    // Appends received bytes and decodes every complete frame; timestampNanos is
+    // stamped on the records decoded from this chunk
+    public void feed(byte[] data, int off, int len, long timestampNanos) {
+        long startNanos = System.nanoTime();
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - bufferLen);
+            System.arraycopy(data, off, buffer, bufferLen, n);
+            bufferLen += n;
+            off += n;
+            len -= n;
+            parse(timestampNanos, startNanos);
+        }
+    }
+
+    private void parse(long timestampNanos, long startNanos) {
+        byte[] buf = buffer;
+        int index = 0;
+        while (bufferLen - index >= 5) {
+            int packetLen = buf[index] & 0xFF;
+            if (packetLen < MIN_FRAME || packetLen > MAX_FRAME) {
+                index++;
+                continue;
+            }
+            if (bufferLen < index + packetLen + 1) {
+                break;                                  // incomplete, wait for more bytes
+            }
+            if (!checkCrc(buf, index)) {
+                metrics.crcErrors.increment();
+                index++;
+                continue;
+            }
+            int cmd = buf[index + 2] & 0xFF;
+            int status = buf[index + 3] & 0xFF;
+            boolean inventory = cmd == CMD_INVENTORY || cmd == CMD_INVENTORY_MIX;
+            if (inventory && (status == STATUS_ROUND_DONE || status == STATUS_SCAN_TIMEOUT || status == STATUS_MORE)) {
+                parseTagData(buf, index, packetLen, cmd == CMD_INVENTORY_MIX ? embeddedBytes : 0,
+                        timestampNanos, startNanos);
+            }
+            if ((!inventory || status != STATUS_MORE) && frameListener != null) {
+                frameListener.onFrame(cmd, status, buf, index);
+            }
+            index += packetLen + 1;
+        }
+        if (index > 0) {
+            System.arraycopy(buf, index, buf, 0, bufferLen - index);
+            bufferLen -= index;
+        }
+    }
+
+    // [len, addr, cmd, status, ant, num, {pc(2), epc, data(dataLen), rssi} * num, crc(2)]
+    private void parseTagData(byte[] buf, int base, int packetLen, int dataLen, long timestampNanos, long startNanos) {
+        if (packetLen < 10) return;
+        byte ant = buf[base + 4];
+        int num = buf[base + 5] & 0xFF;
+        int end = base + packetLen;                     // exclusive of the last CRC byte
+        int pos = base + 6;
+        for (int i = 0; i < num && pos < end - 2; i++) {
+            if (pos + 3 > end) {
+                metrics.droppedEvents.add(num - i);
+                return;
+            }
+            int pc = ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+            int epcLen = ((pc >> 11) & 0x1F) * 2;
+            if (epcLen <= 0 || epcLen > TagRecord.MAX_EPC_BYTES) epcLen = 12;
+            if (pos + 2 + epcLen + dataLen + 1 > end) {
+                metrics.droppedEvents.add(num - i);
+                return;
+            }
+            int rssi = buf[pos + 2 + epcLen + dataLen];     // signed dBm
+
+            TagRecord r = record;
+            r.clear();
+            r.timestampNanos = timestampNanos;
+            r.ant = ant;
+            r.pc = pc;
+            r.rssi = rssi;
+            r.setEpc(buf, pos + 2, epcLen);
+            if (dataLen > 0) {
+                if (embeddedIsTid) {
+                    System.arraycopy(buf, pos + 2 + epcLen, r.tid, 0, dataLen);
+                    r.tidLen = dataLen;
+                } else {
+                    System.arraycopy(buf, pos + 2 + epcLen, r.user, 0, dataLen);
+                    r.userLen = dataLen;
+                }
+            }
+            pos += 2 + epcLen + dataLen + 1;
+
+            InventoryFilter f = filter;
+            if (f != null && !f.matches(r)) continue;
+            records++;
+            metrics.serialToDecoded.recordNanos(System.nanoTime() - startNanos);
+            metrics.tagsDecoded.increment();
+            if (recordListener != null) recordListener.onTagRecord(r);
+        }
+    }
+
+    // CRC-16 (poly 0x8408, init 0xFFFF) of data[off .. off + len)
+    public static int crc16(byte[] data, int off, int len) {
+        int crc = 0xFFFF;
+        for (int i = off; i < off + len; i++) {
+            crc ^= (data[i] & 0xFF);
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >> 1) ^ 0x8408 : crc >> 1;
+            }
+        }
+        return crc;
+    }
+
+    // Writes the CRC of frame[0 .. len) into frame[len], frame[len + 1]
+    public static void appendCrc(byte[] frame, int len) {
+        int crc = crc16(frame, 0, len);
+        frame[len] = (byte) crc;
+        frame[len + 1] = (byte) (crc >> 8);
+    }
+
+    // Frame at buf[off] with its length byte; CRC covers all but the last two bytes
+    public static boolean checkCrc(byte[] buf, int off) {
+        int len = (buf[off] & 0xFF) - 1;
+        if (len < 2 || off + len + 1 >= buf.length) return false;
+        int crc = crc16(buf, off, len);
+        return (byte) crc == buf[off + len] && (byte) (crc >> 8) == buf[off + len + 1];
+    }
+}
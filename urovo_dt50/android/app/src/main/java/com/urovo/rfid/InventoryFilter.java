@@ -0,0 +1,99 @@
+package com.urovo.rfid;
+
+import java.util.Arrays;
+
+// Gen2 Select-style mask: tags participate only if memory bank `bank`, starting at
+// bit `bitOffset`, equals the first `bitLength` bits of `mask`. The same mask is sent
+// to the module (DirectRfidReader) and evaluated in software on packed EPCs where the
+// hardware cannot filter (AIDL service path).
+public final class InventoryFilter {
+    // EPC bank layout: CRC(16) + PC(16) precede the EPC itself
+    public static final int EPC_BIT_START = 32;
+
+    public final int bank;
+    public final int bitOffset;
+    public final int bitLength;
+    private final byte[] mask;
+
+    // Precomputed comparison over TagRecord.epcHi/epcLo (EPC bits 0..127)
+    private final boolean packed;
+    private final long maskHi;
+    private final long maskLo;
+    private final long valueHi;
+    private final long valueLo;
+
+    public InventoryFilter(int bank, int bitOffset, int bitLength, byte[] mask) {
+        if (bitLength <= 0 || bitLength > mask.length * 8 || bitLength > 255) {
+            throw new IllegalArgumentException("Invalid mask length " + bitLength);
+        }
+        if (bitOffset < 0 || bitOffset > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid mask offset " + bitOffset);
+        }
+        this.bank = bank;
+        this.bitOffset = bitOffset;
+        this.bitLength = bitLength;
+        this.mask = Arrays.copyOf(mask, (bitLength + 7) / 8);
+
+        int epcBit = bitOffset - EPC_BIT_START;
+        packed = bank == DirectRfidReader.BANK_EPC && epcBit >= 0 && epcBit + bitLength <= 128;
+        long mHi = 0, mLo = 0, vHi = 0, vLo = 0;
+        if (packed) {
+            for (int i = 0; i < bitLength; i++) {
+                int pos = epcBit + i;
+                boolean set = ((this.mask[i >> 3] >> (7 - (i & 7))) & 1) != 0;
+                if (pos < 64) {
+                    long bit = 1L << (63 - pos);
+                    mHi |= bit;
+                    if (set) vHi |= bit;
+                } else {
+                    long bit = 1L << (127 - pos);
+                    mLo |= bit;
+                    if (set) vLo |= bit;
+                }
+            }
+        }
+        maskHi = mHi;
+        maskLo = mLo;
+        valueHi = vHi;
+        valueLo = vLo;
+    }
+
+    public static InventoryFilter epcPrefix(byte[] prefix) {
+        return new InventoryFilter(DirectRfidReader.BANK_EPC, EPC_BIT_START, prefix.length * 8, prefix);
+    }
+
+    public byte[] getMask() {
+        return mask;
+    }
+
+    public int maskBytes() {
+        return mask.length;
+    }
+
+    // Constant cost for EPC masks within the first 128 EPC bits
+    public boolean matches(TagRecord r) {
+        if (packed) {
+            if (r.epcLen * 8 < bitOffset - EPC_BIT_START + bitLength) return false;
+            return (r.epcHi & maskHi) == valueHi && (r.epcLo & maskLo) == valueLo;
+        }
+        if (bank == DirectRfidReader.BANK_EPC) {
+            return matchBits(r.epc, r.epcLen, bitOffset - EPC_BIT_START);
+        }
+        if (bank == DirectRfidReader.BANK_TID) {
+            // Without an embedded TID read there is nothing to compare; let it through
+            return r.tidLen == 0 || matchBits(r.tid, r.tidLen, bitOffset);
+        }
+        return true;
+    }
+
+    private boolean matchBits(byte[] data, int len, int startBit) {
+        if (startBit < 0 || startBit + bitLength > len * 8) return false;
+        for (int i = 0; i < bitLength; i++) {
+            int pos = startBit + i;
+            int a = (data[pos >> 3] >> (7 - (pos & 7))) & 1;
+            int b = (mask[i >> 3] >> (7 - (i & 7))) & 1;
+            if (a != b) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,140 @@
+package com.urovo.rfid;
+
+// Chooses the Gen2 session and target of each inventory round. With a persistent
+// session (S1-S3) a tag that answered flips its inventoried flag and stays quiet on
+// the same target, so rounds on A reach the tags not read yet instead of re-reading
+// the strong ones. When a target stops yielding new tags (fewer than minNewTags for
+// quietRounds rounds) the strategy flips to the other one: B collects tags left there
+// by earlier scans and returns the read ones to A. S0 flags do not persist between
+// rounds, so S0 always stays on A. Not thread-safe; one owner thread.
+//
+// Coverage is estimated whenever a phase on A goes quiet. On A the tags not read yet
+// answer alongside known tags that are back there (S0 every round, S1 once their flag
+// decayed, S2/S3 after a B phase returned them), so the share of the phase's reads
+// that hit known tags estimates the share of the population read. It only counts
+// once the known tags were re-read in bulk: a first phase on S1-S3 reads nothing but
+// new tags, and a quiet tail of a few reads says nothing about weak tags. B phases
+// are no evidence, as only tags this scan flipped (or an earlier one left) answer
+// there. S2/S3 on A alone never re-reads a tag and keeps the older rule: covered
+// once a phase after the first finds nothing new.
+public final class InventoryStrategy {
+    public static final int TARGET_A = 0;
+    public static final int TARGET_B = 1;
+
+    public static final class Options {
+        public final int session;
+        public final boolean dualTarget;
+        public final int minNewTags;
+        public final int quietRounds;
+        public final boolean stopWhenComplete;
+
+        public Options(int session, boolean dualTarget, int minNewTags, int quietRounds, boolean stopWhenComplete) {
+            this.session = Math.max(0, Math.min(3, session));
+            this.dualTarget = dualTarget && this.session > 0;
+            this.minNewTags = Math.max(1, minNewTags);
+            this.quietRounds = Math.max(1, quietRounds);
+            this.stopWhenComplete = stopWhenComplete;
+        }
+
+        @Override
+        public String toString() {
+            return "S" + session + (dualTarget ? " A/B" : " A");
+        }
+    }
+
+    public static final Options DEFAULT = new Options(1, true, 1, 2, false);
+
+    // Estimated share of the population read at which the scan counts as complete
+    static final double COMPLETE_COVERAGE = 0.99;
+
+    private volatile Options pending = DEFAULT;
+    private Options options = DEFAULT;
+    private int target;
+    private int lowRounds;
+    private int phases;
+    private int phaseNew;
+    private int phaseReads;
+    private double coverage;
+    private int rounds;
+    private int totalNew;
+    private boolean complete;
+
+    // Any thread; applied at the next reset()
+    public void setOptions(Options options) {
+        pending = options != null ? options : DEFAULT;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    // Start of a scan
+    public void reset() {
+        options = pending;
+        target = TARGET_A;
+        lowRounds = 0;
+        phases = 0;
+        phaseNew = 0;
+        phaseReads = 0;
+        coverage = 0;
+        rounds = 0;
+        totalNew = 0;
+        complete = false;
+    }
+
+    public int session() {
+        return options.session;
+    }
+
+    public int target() {
+        return target;
+    }
+
+    public int rounds() {
+        return rounds;
+    }
+
+    public int totalNew() {
+        return totalNew;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // Last estimate, 0 until there is one
+    public double coverage() {
+        return coverage;
+    }
+
+    // Feeds the reads of the round just finished and how many of them were new tags;
+    // true once the population is covered
+    public boolean onRound(int reads, int newTags) {
+        rounds++;
+        totalNew += newTags;
+        phaseNew += newTags;
+        phaseReads += Math.max(reads, newTags);
+        lowRounds = newTags < options.minNewTags ? lowRounds + 1 : 0;
+        if (lowRounds < options.quietRounds) {
+            return complete;
+        }
+        // This target is exhausted
+        phases++;
+        if (options.session >= 2 && !options.dualTarget) {
+            if (phases > 1 && phaseNew < options.minNewTags) complete = true;
+        } else if (target == TARGET_A) {
+            int recaptured = phaseReads - phaseNew;
+            if (recaptured * 2 >= totalNew && recaptured > 0) {
+                coverage = (double) recaptured / phaseReads;
+                if (coverage >= COMPLETE_COVERAGE) complete = true;
+            }
+        }
+        if (options.dualTarget) {
+            target = target == TARGET_A ? TARGET_B : TARGET_A;
+        }
+        lowRounds = 0;
+        phaseNew = 0;
+        phaseReads = 0;
+        return complete;
+    }
+}
@@ -0,0 +1,88 @@
+package com.urovo.rfid;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free log-linear latency histogram in microseconds, HDR style: 16 linear
+// sub-buckets per power of two, so any recorded value is reported within ~6%.
+// record() is a couple of atomic adds and safe from any thread.
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;                 // ~12 days in us
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public void record(long micros) {
+        long v = Math.max(0, micros);
+        counts.incrementAndGet(bucketOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // retry
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    // Value at or below which the given fraction of samples fall (bucket upper bound)
+    public long percentile(double fraction) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new HashMap<>();
+        long n = count.get();
+        m.put("count", n);
+        m.put("meanUs", n == 0 ? 0.0 : (double) sum.get() / n);
+        m.put("p50Us", percentile(0.50));
+        m.put("p90Us", percentile(0.90));
+        m.put("p99Us", percentile(0.99));
+        m.put("p999Us", percentile(0.999));
+        m.put("maxUs", max.get());
+        return m;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketOf(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int exp = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXPONENT);
+        if (exp == MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+        int sub = bucket % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,265 @@
+package com.urovo.rfid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Moves the serial link to the fastest rate both ends handle reliably.
+//
+// The module protocol has no "list rates" command, so support is probed: SetBaud
+// (0x28) is answered with a parameter error for codes the firmware does not know,
+// and a rate the driver or the wiring cannot carry fails the echo check. The echo
+// is GetReaderInfo (0x21), repeated and compared with the reply at the start rate,
+// every reply CRC-checked. On any failure both ends go back to the previous rate,
+// and if the module cannot be reached there it is searched for at every known rate.
+// Plain Java; blocking, call it while no inventory is running.
+public class LinkNegotiator {
+    public static final int CMD_GET_READER_INFO = 0x21;
+    public static final int CMD_SET_BAUD = 0x28;
+
+    // Fastest first
+    public static final int[] DEFAULT_RATES = { 921600, 460800, 230400, 115200, 57600 };
+
+    // SetBaud parameter -> rate; 0..6 are the classic codes, 7..9 need newer firmware
+    private static final int[] RATE_FOR_CODE = { 9600, 19200, 38400, 0, 0, 57600, 115200, 230400, 460800, 921600 };
+
+    private static final int SETTLE_MS = 30;
+    // Probes per rate while searching; a marginal rate can drop single replies
+    private static final int REACH_ATTEMPTS = 3;
+    // SetBaud attempts when moving the module off a marginal rate
+    private static final int SWITCH_ATTEMPTS = 8;
+
+    public static final class Result {
+        public int baudRate;
+        public int startBaudRate;
+        public boolean verified;
+        public final List<String> steps = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            return "baud=" + baudRate + " (from " + startBaudRate + ") verified=" + verified + " " + steps;
+        }
+    }
+
+    private final SerialLink link;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final byte[] readBuf = new byte[256];
+    private final byte[] response = new byte[256];
+    private int responseCmd = -1;
+    private int responseStatus;
+    private int responseLen;
+
+    private int echoCount = 16;
+    private int timeoutMs = 150;
+
+    public LinkNegotiator(SerialLink link) {
+        this.link = link;
+        decoder.setFrameListener((cmd, status, frame, off) -> {
+            responseCmd = cmd;
+            responseStatus = status;
+            responseLen = (frame[off] & 0xFF) + 1;
+            System.arraycopy(frame, off, response, 0, responseLen);
+        });
+    }
+
+    // Round trips per verification; more catches rarer bit errors
+    public LinkNegotiator setEchoCount(int echoCount) {
+        this.echoCount = Math.max(1, echoCount);
+        return this;
+    }
+
+    public LinkNegotiator setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = Math.max(10, timeoutMs);
+        return this;
+    }
+
+    public static int rateForCode(int code) {
+        return code >= 0 && code < RATE_FOR_CODE.length ? RATE_FOR_CODE[code] : 0;
+    }
+
+    public static int codeForRate(int rate) {
+        for (int i = 0; i < RATE_FOR_CODE.length; i++) {
+            if (RATE_FOR_CODE[i] == rate) return i;
+        }
+        return -1;
+    }
+
+    // GetReaderInfo payload at the current rate, or null if the module does not answer
+    public byte[] probe() throws IOException {
+        if (!transact(new byte[] { 4, (byte) 0xFF, CMD_GET_READER_INFO, 0, 0 }, CMD_GET_READER_INFO)
+                || responseStatus != 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(response, 4, responseLen - 2);
+    }
+
+    // Finds the module at preferred or any of rates and leaves the host there; 0 if not found
+    public int locate(int preferred, int[] rates) throws IOException {
+        if (tryRate(preferred)) return preferred;
+        for (int rate : rates) {
+            if (rate != preferred && tryRate(rate)) return rate;
+        }
+        for (int rate : RATE_FOR_CODE) {
+            if (rate > 0 && rate != preferred && !contains(rates, rate) && tryRate(rate)) return rate;
+        }
+        return 0;
+    }
+
+    // Switches to the fastest of rates (fastest first) that passes the echo check.
+    // Never ends slower than the start rate; on total failure the link is where it was.
+    public Result negotiate(int[] rates) throws IOException {
+        Result result = new Result();
+        int current = link.getBaudRate();
+        result.startBaudRate = current;
+        result.baudRate = current;
+        byte[] baseline = probe();
+        if (baseline == null) {
+            result.steps.add(current + ": no answer");
+            return result;
+        }
+        for (int rate : rates) {
+            if (rate <= current) break;
+            int code = codeForRate(rate);
+            if (code < 0) continue;
+            if (!transact(new byte[] { 5, (byte) 0xFF, CMD_SET_BAUD, (byte) code, 0, 0 }, CMD_SET_BAUD)) {
+                result.steps.add(rate + ": no answer to SetBaud");
+                if (!recover(current, rates, result)) return result;
+                continue;
+            }
+            if (responseStatus != 0) {
+                result.steps.add(rate + ": not supported by module");
+                continue;
+            }
+            sleep(SETTLE_MS);
+            try {
+                link.setBaudRate(rate);
+            } catch (IOException e) {
+                result.steps.add(rate + ": not supported by port (" + e.getMessage() + ")");
+                // The module already switched; the host cannot follow, so bring it back blind
+                if (!recover(current, rates, result)) return result;
+                continue;
+            }
+            int passed = verify(baseline);
+            if (passed == echoCount) {
+                result.steps.add(rate + ": ok");
+                result.baudRate = rate;
+                result.verified = true;
+                return result;
+            }
+            result.steps.add(rate + ": echo " + passed + "/" + echoCount);
+            if (!switchBack(rate, current, rates, result)) return result;
+        }
+        result.baudRate = link.getBaudRate();
+        result.verified = true;
+        return result;
+    }
+
+    private int verify(byte[] baseline) throws IOException {
+        int passed = 0;
+        for (int i = 0; i < echoCount; i++) {
+            byte[] info = probe();
+            if (info == null || !Arrays.equals(info, baseline)) break;
+            passed++;
+        }
+        return passed;
+    }
+
+    // From a marginal rate: ask the module to go back, then follow it
+    private boolean switchBack(int from, int to, int[] rates, Result result) throws IOException {
+        if (moveModule(to)) return true;
+        result.steps.add(from + ": could not switch back");
+        link.setBaudRate(to);
+        return recover(to, rates, result);
+    }
+
+    // Module state unknown: find it and put it back on the start rate
+    private boolean recover(int target, int[] rates, Result result) throws IOException {
+        if (tryRate(target)) return true;
+        int found = locate(target, rates);
+        if (found == 0) {
+            result.steps.add("module lost");
+            result.baudRate = 0;
+            return false;
+        }
+        result.steps.add("module found at " + found);
+        if (moveModule(target)) return true;
+        locate(found, rates);
+        // Stay wherever the module answers
+        result.baudRate = link.getBaudRate();
+        return false;
+    }
+
+    // SetBaud from the current rate, retried because the ack can be lost; true once
+    // the module answers at the new rate
+    private boolean moveModule(int rate) throws IOException {
+        byte[] frame = { 5, (byte) 0xFF, CMD_SET_BAUD, (byte) codeForRate(rate), 0, 0 };
+        for (int attempt = 0; attempt < SWITCH_ATTEMPTS; attempt++) {
+            if (transact(frame, CMD_SET_BAUD) && responseStatus == 0) {
+                sleep(SETTLE_MS);
+                link.setBaudRate(rate);
+                return reachable();
+            }
+        }
+        return false;
+    }
+
+    private boolean tryRate(int rate) throws IOException {
+        try {
+            link.setBaudRate(rate);
+        } catch (IOException e) {
+            return false;
+        }
+        return reachable();
+    }
+
+    private boolean reachable() throws IOException {
+        for (int i = 0; i < REACH_ATTEMPTS; i++) {
+            if (probe() != null) return true;
+        }
+        return false;
+    }
+
+    // Sends frame (CRC appended here) and waits for the reply to expectCmd
+    private boolean transact(byte[] frame, int expectCmd) throws IOException {
+        FrameDecoder.appendCrc(frame, frame.length - 2);
+        InputStream in = link.getInputStream();
+        OutputStream out = link.getOutputStream();
+        while (in.available() > 0) {
+            if (in.read(readBuf, 0, Math.min(readBuf.length, in.available())) <= 0) break;
+        }
+        decoder.reset();
+        responseCmd = -1;
+        out.write(frame);
+        out.flush();
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (System.nanoTime() < deadline) {
+            int n = in.available();
+            if (n > 0) {
+                n = in.read(readBuf, 0, Math.min(n, readBuf.length));
+                decoder.feed(readBuf, 0, n, System.nanoTime());
+                if (responseCmd == expectCmd) return true;
+            } else {
+                sleep(2);
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] rates, int rate) {
+        for (int r : rates) {
+            if (r == rate) return true;
+        }
+        return false;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.urovo.rfid;
+
+// Smoothed signal strength of the one tag being located. Single reads jump by
+// +-10 dB with orientation and multipath, so RSSI goes through a scalar Kalman
+// filter whose uncertainty grows with the time since the last read: a burst of
+// reads after a pause moves the estimate fast, steady reads average out. offer()
+// runs on the reader's thread; the estimate is published through volatiles for the
+// UI ticker, which only ever sees whole values. Plain Java.
+public final class LocateTracker {
+    // RSSI that maps to proximity 0 and 100
+    static final double RSSI_FAR = -75;
+    static final double RSSI_NEAR = -35;
+    // How far the true RSSI may drift while the user moves (dB^2 per second), and the
+    // noise of a single read (dB^2)
+    static final double PROCESS_NOISE = 60;
+    static final double MEASUREMENT_NOISE = 16;
+    // No read for this long: the tag counts as lost and proximity drops to 0
+    static final long LOST_NANOS = 1_000_000_000L;
+
+    private final byte[] epc;
+    private final InventoryFilter filter;
+
+    // Reader thread
+    private double estimate;
+    private double variance;
+    private long updatedNanos;
+
+    private volatile double rssi = Double.NaN;
+    private volatile long lastReadNanos;
+    private volatile long reads;
+
+    public LocateTracker(byte[] epc) {
+        this.epc = epc.clone();
+        this.filter = InventoryFilter.epcPrefix(this.epc);
+    }
+
+    public String epcHex() {
+        return TagRecord.toHex(epc, epc.length);
+    }
+
+    // Select mask for the whole EPC
+    public InventoryFilter getFilter() {
+        return filter;
+    }
+
+    // Reader thread; false if the record is some other tag
+    public boolean offer(TagRecord r) {
+        if (r.epcLen != epc.length || !filter.matches(r)) return false;
+        update(r.rssi, r.timestampNanos);
+        return true;
+    }
+
+    void update(int measured, long nowNanos) {
+        if (reads == 0) {
+            estimate = measured;
+            variance = MEASUREMENT_NOISE;
+        } else {
+            double dt = Math.max(0, nowNanos - updatedNanos) / 1e9;
+            variance += PROCESS_NOISE * dt;
+            double gain = variance / (variance + MEASUREMENT_NOISE);
+            estimate += gain * (measured - estimate);
+            variance *= 1 - gain;
+        }
+        updatedNanos = nowNanos;
+        rssi = estimate;
+        lastReadNanos = nowNanos;
+        reads++;
+    }
+
+    // Smoothed dBm; NaN before the first read
+    public double getRssi() {
+        return rssi;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    // 0..100 from the smoothed RSSI; 0 once the tag has not answered for LOST_NANOS
+    public int proximity(long nowNanos) {
+        double value = rssi;
+        if (Double.isNaN(value) || nowNanos - lastReadNanos > LOST_NANOS) return 0;
+        double p = (value - RSSI_FAR) / (RSSI_NEAR - RSSI_FAR) * 100;
+        return (int) Math.round(Math.max(0, Math.min(100, p)));
+    }
+}
@@ -0,0 +1,206 @@
+package com.urovo.rfid;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Live comparison of reads against a manifest of expected EPCs (cycle counts).
+//
+// The manifest is held as packed EPCs in an EpcIndex with a found bitset over its
+// ordinals; reads outside the manifest go to a second index so each unexpected EPC
+// is counted once. An optional Bloom filter in front of the manifest index rejects
+// most unexpected reads without touching the (much larger) hash table. classify()
+// is O(1) and allocation-free. EPCs are keyed by TagRecord.epcHi/epcKeyLo, so EPCs
+// longer than 128 bits are told apart by their tail too; their hex is kept aside
+// for the report, the packed key not holding all of it.
+public class ManifestReconciler {
+    public static final int FOUND_NEW = 0;
+    public static final int FOUND_AGAIN = 1;
+    public static final int UNEXPECTED_NEW = 2;
+    public static final int UNEXPECTED_AGAIN = 3;
+
+    private static final int BLOOM_BITS_PER_EPC = 10;
+    private static final int BLOOM_HASHES = 4;
+
+    private final EpcIndex manifest;
+    private final byte[] manifestLens;
+    private final long[] found;
+    private final long[] bloom;
+    private final int bloomMask;
+    private final EpcIndex unexpected = new EpcIndex(1024);
+    private byte[] unexpectedLens = new byte[1024];
+    // Ordinal -> hex of EPCs longer than 16 bytes
+    private final Map<Integer, String> manifestLong;
+    private final Map<Integer, String> unexpectedLong = new HashMap<>();
+
+    private volatile int foundCount;
+    private volatile int unexpectedCount;
+    private volatile long reads;
+    private volatile boolean dirty;
+
+    private ManifestReconciler(EpcIndex manifest, byte[] lens, Map<Integer, String> longEpcs, boolean useBloom) {
+        this.manifest = manifest;
+        this.manifestLens = lens;
+        this.manifestLong = longEpcs;
+        this.found = new long[(manifest.size() + 63) >>> 6];
+        if (useBloom && manifest.size() > 0) {
+            int bits = Integer.highestOneBit(Math.max(64, manifest.size() * BLOOM_BITS_PER_EPC - 1)) << 1;
+            bloom = new long[bits >>> 6];
+            bloomMask = bits - 1;
+            for (int i = 0; i < manifest.size(); i++) {
+                long h = mix(manifest.hiAt(i), manifest.loAt(i));
+                for (int k = 0; k < BLOOM_HASHES; k++) {
+                    int bit = (int) (h + k * (h >>> 32)) & bloomMask;
+                    bloom[bit >>> 6] |= 1L << bit;
+                }
+            }
+        } else {
+            bloom = null;
+            bloomMask = 0;
+        }
+    }
+
+    // Builds a reconciler from hex EPCs; blank or invalid lines are skipped
+    public static ManifestReconciler fromHex(Iterable<String> epcs, int expected, boolean useBloom) {
+        EpcIndex index = new EpcIndex(expected);
+        byte[] lens = new byte[Math.max(16, expected)];
+        Map<Integer, String> longEpcs = new HashMap<>();
+        TagRecord scratch = new TagRecord();
+        for (String epc : epcs) {
+            byte[] bytes = hexToBytes(epc);
+            if (bytes == null || bytes.length == 0) continue;
+            scratch.setEpc(bytes, 0, bytes.length);
+            int ord = index.add(scratch.epcHi, scratch.epcKeyLo);
+            if (ord == lens.length) lens = Arrays.copyOf(lens, ord * 2);
+            lens[ord] = (byte) Math.min(bytes.length, 16);
+            if (scratch.epcLen > 16) longEpcs.put(ord, scratch.epcHex());
+        }
+        return new ManifestReconciler(index, lens, longEpcs, useBloom);
+    }
+
+    public synchronized int classify(TagRecord r) {
+        reads++;
+        long hi = r.epcHi;
+        long lo = r.epcKeyLo;
+        int ord = mightContain(hi, lo) ? manifest.indexOf(hi, lo) : -1;
+        if (ord >= 0) {
+            long bit = 1L << ord;
+            int word = ord >>> 6;
+            if ((found[word] & bit) != 0) return FOUND_AGAIN;
+            found[word] |= bit;
+            foundCount++;
+            dirty = true;
+            return FOUND_NEW;
+        }
+        int before = unexpected.size();
+        int u = unexpected.add(hi, lo);
+        if (unexpected.size() == before) return UNEXPECTED_AGAIN;
+        if (u == unexpectedLens.length) unexpectedLens = Arrays.copyOf(unexpectedLens, u * 2);
+        unexpectedLens[u] = (byte) Math.min(r.epcLen, 16);
+        if (r.epcLen > 16) unexpectedLong.put(u, r.epcHex());
+        unexpectedCount++;
+        dirty = true;
+        return UNEXPECTED_NEW;
+    }
+
+    public int expectedCount() {
+        return manifest.size();
+    }
+
+    public int foundCount() {
+        return foundCount;
+    }
+
+    public int missingCount() {
+        return manifest.size() - foundCount;
+    }
+
+    public int unexpectedCount() {
+        return unexpectedCount;
+    }
+
+    public long reads() {
+        return reads;
+    }
+
+    // True once per change since the last call; used to push counters only when needed
+    public boolean takeDirty() {
+        if (!dirty) return false;
+        dirty = false;
+        return true;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(found, 0);
+        unexpected.clear();
+        unexpectedLong.clear();
+        foundCount = 0;
+        unexpectedCount = 0;
+        reads = 0;
+        dirty = true;
+    }
+
+    // Up to limit EPCs of each class, as hex
+    public synchronized String[] foundEpcs(int limit) {
+        return manifestEpcs(true, limit);
+    }
+
+    public synchronized String[] missingEpcs(int limit) {
+        return manifestEpcs(false, limit);
+    }
+
+    public synchronized String[] unexpectedEpcs(int limit) {
+        int n = Math.min(limit, unexpected.size());
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) {
+            String hex = unexpectedLong.get(i);
+            out[i] = hex != null ? hex : SessionAggregate.packedToHex(unexpected.hiAt(i), unexpected.loAt(i), unexpectedLens[i]);
+        }
+        return out;
+    }
+
+    private String[] manifestEpcs(boolean wantFound, int limit) {
+        int total = wantFound ? foundCount : manifest.size() - foundCount;
+        String[] out = new String[Math.min(limit, total)];
+        int n = 0;
+        for (int i = 0; i < manifest.size() && n < out.length; i++) {
+            boolean isFound = (found[i >>> 6] & (1L << i)) != 0;
+            if (isFound == wantFound) {
+                String hex = manifestLong.get(i);
+                out[n++] = hex != null ? hex : SessionAggregate.packedToHex(manifest.hiAt(i), manifest.loAt(i), manifestLens[i]);
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private boolean mightContain(long hi, long lo) {
+        if (bloom == null) return true;
+        long h = mix(hi, lo);
+        for (int k = 0; k < BLOOM_HASHES; k++) {
+            int bit = (int) (h + k * (h >>> 32)) & bloomMask;
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    // Independent of EpcIndex.hash so Bloom and table misses are uncorrelated
+    private static long mix(long hi, long lo) {
+        long h = (hi ^ 0x2545F4914F6CDD1DL) * 0xBF58476D1CE4E5B9L + lo;
+        h = (h ^ (h >>> 31)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 29);
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        if (hex == null) return null;
+        String s = hex.trim();
+        if ((s.length() & 1) != 0) return null;
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hiNib = Character.digit(s.charAt(2 * i), 16);
+            int loNib = Character.digit(s.charAt(2 * i + 1), 16);
+            if (hiNib < 0 || loNib < 0) return null;
+            out[i] = (byte) ((hiNib << 4) | loNib);
+        }
+        return out;
+    }
+}
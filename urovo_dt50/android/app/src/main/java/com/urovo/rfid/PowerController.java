@@ -0,0 +1,209 @@
+package com.urovo.rfid;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// RF output power of each inventory round. Power is held for an epoch (EPOCH_ROUNDS
+// rounds, fewer if they run long) and then moved by what it showed. With a read
+// zone, given as an RSSI at maxDbm: reads from outside it (neighbouring racks) step
+// down as far as they reach and leave a ceiling for a while, the weakest reads still
+// inside it step up one, as the zone edge is not reached yet, and otherwise power
+// stays. RSSI follows output power dB for dB, so reads are normalised to maxDbm
+// first. Without a zone, or with too few reads to judge, power climbs a step at a
+// time towards more new tags per second and turns round when the rate drops; rounds
+// that ran out of scan time with tags still answering (collisions) send it down
+// first. Disabled until configure(); synchronized, called per round and per read.
+public final class PowerController {
+    public static final int DEFAULT_MIN_DBM = 20;
+    public static final int DEFAULT_MAX_DBM = 33;
+    public static final int NO_ZONE = Integer.MIN_VALUE;
+
+    static final int EPOCH_ROUNDS = 3;
+    static final long EPOCH_MS = 400;
+    // Share of an epoch's reads from outside the zone that counts as reaching too far
+    static final double OUTSIDE_LIMIT = 0.05;
+    // The weakest EDGE_PERCENTILE of reads this far inside the zone: edge not reached
+    static final double EDGE_PERCENTILE = 0.02;
+    static final int EDGE_MARGIN_DB = 3;
+    // Reads an epoch needs before its RSSI distribution is judged
+    static final int MIN_READS = 10;
+    // Share of truncated rounds that counts as congestion
+    static final double TRUNCATED_LIMIT = 0.5;
+    // Epochs a ceiling set by outside reads holds
+    static final int CEILING_EPOCHS = 20;
+
+    private static final int HIST_MIN = -128;
+
+    private boolean enabled;
+    private int minDbm = DEFAULT_MIN_DBM;
+    private int maxDbm = DEFAULT_MAX_DBM;
+    private int zoneRssi = NO_ZONE;
+
+    private int power;
+    private int ceiling;
+    private int ceilingEpochs;
+    private int direction = 1;
+    private double lastRate = -1;
+    private String reason = "start";
+    private long changes;
+
+    // Round in flight (roundPower < 0: none) and the epoch so far
+    private int roundPower = -1;
+    private int epochRounds;
+    private long epochStartMs;
+    private int epochReads;
+    private int epochOutside;
+    private int epochNew;
+    private int epochTruncated;
+    private final int[] histogram = new int[1 - HIST_MIN];
+    private final EpcIndex seen = new EpcIndex(1024);
+
+    // Last finished epoch, for stats
+    private double rate;
+    private double outsideShare;
+    private double truncatedShare;
+
+    // zoneRssi = weakest RSSI at maxDbm that is still inside the zone, NO_ZONE for none
+    public synchronized void configure(boolean enabled, int minDbm, int maxDbm, int zoneRssi) {
+        this.maxDbm = Math.max(0, Math.min(DEFAULT_MAX_DBM, maxDbm));
+        this.minDbm = Math.max(0, Math.min(this.maxDbm, minDbm));
+        this.zoneRssi = zoneRssi;
+        this.enabled = enabled;
+        // The fixed default of 30 dBm, as far as the range allows
+        power = Math.max(this.minDbm, Math.min(this.maxDbm, 30));
+        ceiling = this.maxDbm;
+        ceilingEpochs = 0;
+        direction = 1;
+        lastRate = -1;
+        reason = "start";
+        changes = 0;
+        seen.clear();
+        startEpoch(0);
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    // Power for the next round, or -1 when disabled (leave the power alone)
+    public synchronized int powerForRound(long nowMs) {
+        if (!enabled) return -1;
+        if (epochRounds == 0) epochStartMs = nowMs;
+        roundPower = power;
+        return power;
+    }
+
+    // Reader thread
+    public synchronized void onRead(TagRecord r) {
+        if (roundPower < 0) return;
+        int rssi = r.rssi + maxDbm - roundPower;
+        epochReads++;
+        histogram[Math.max(HIST_MIN, Math.min(0, rssi)) - HIST_MIN]++;
+        if (zoneRssi != NO_ZONE && rssi < zoneRssi) {
+            epochOutside++;
+            return;
+        }
+        int before = seen.size();
+        if (seen.add(r.epcHi, r.epcKeyLo) == before) epochNew++;
+    }
+
+    // Reader thread, when the round ends; truncated as RfidReader.lastRoundTruncated
+    public synchronized void onRoundEnd(boolean truncated, long nowMs) {
+        if (roundPower < 0) return;
+        roundPower = -1;
+        if (truncated) epochTruncated++;
+        if (++epochRounds >= EPOCH_ROUNDS || nowMs - epochStartMs >= EPOCH_MS) decide(nowMs);
+    }
+
+    private void decide(long nowMs) {
+        rate = epochNew * 1000.0 / Math.max(1, nowMs - epochStartMs);
+        outsideShare = epochReads > 0 ? (double) epochOutside / epochReads : 0;
+        truncatedShare = (double) epochTruncated / epochRounds;
+        boolean judged = zoneRssi != NO_ZONE && epochReads >= MIN_READS;
+        if (ceilingEpochs > 0 && --ceilingEpochs == 0) ceiling = maxDbm;
+        int next;
+        if (judged && outsideShare > OUTSIDE_LIMIT) {
+            next = power - outsideDepth();
+            ceiling = Math.max(minDbm, next);
+            ceilingEpochs = CEILING_EPOCHS;
+            reason = "outsideZone";
+        } else if (judged && percentile(EDGE_PERCENTILE) > zoneRssi + EDGE_MARGIN_DB) {
+            next = power + 1;
+            reason = "zoneEdge";
+        } else if (judged) {
+            next = power;
+            reason = "inZone";
+        } else {
+            if (rate < lastRate) {
+                direction = -direction;
+                reason = "yield";
+            } else if (truncatedShare >= TRUNCATED_LIMIT) {
+                direction = -1;
+                reason = "collisions";
+            } else if (rate == 0 && lastRate == 0) {
+                // Nothing new twice in a row: look further out
+                direction = 1;
+                reason = "yield";
+            }
+            next = power + direction;
+            if (next < minDbm || next > ceiling) direction = -direction;
+        }
+        lastRate = rate;
+        next = Math.max(minDbm, Math.min(ceiling, next));
+        if (next != power) {
+            power = next;
+            changes++;
+        }
+        startEpoch(nowMs);
+    }
+
+    // dB to step down so the outside reads stop: RSSI is round trip, so reads d dB below
+    // the zone edge come from tags d / 2 dB further away than it, and those wake up
+    // d / 2 dB of power later. The weakest EDGE_PERCENTILE of reads is taken as noise.
+    private int outsideDepth() {
+        return Math.max(1, (zoneRssi - percentile(EDGE_PERCENTILE)) / 2);
+    }
+
+    // Normalised RSSI below which the given share of the epoch's reads lie
+    private int percentile(double share) {
+        int target = (int) Math.ceil(epochReads * share);
+        int n = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            n += histogram[i];
+            if (n >= target) return i + HIST_MIN;
+        }
+        return 0;
+    }
+
+    private void startEpoch(long nowMs) {
+        epochRounds = 0;
+        epochStartMs = nowMs;
+        epochReads = 0;
+        epochOutside = 0;
+        epochNew = 0;
+        epochTruncated = 0;
+        Arrays.fill(histogram, 0);
+    }
+
+    public synchronized int getPower() {
+        return power;
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("enabled", enabled);
+        m.put("power", power);
+        m.put("minDbm", minDbm);
+        m.put("maxDbm", maxDbm);
+        m.put("zoneRssi", zoneRssi == NO_ZONE ? null : zoneRssi);
+        m.put("ceiling", ceiling);
+        m.put("reason", reason);
+        m.put("changes", changes);
+        m.put("uniqueTags", seen.size());
+        m.put("newTagsPerSecond", rate);
+        m.put("outsideShare", outsideShare);
+        m.put("truncatedShare", truncatedShare);
+        return m;
+    }
+}
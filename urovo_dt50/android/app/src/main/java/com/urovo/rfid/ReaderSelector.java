@@ -0,0 +1,149 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Picks the faster reader path on the device. Neither path reports its own read
+// rate, so each candidate is opened in turn, runs inventory rounds for a fixed time
+// with a counting listener, and is closed before the next one opens (both drive the
+// same UART); the winner is reopened. Ties favour the earlier candidate. Blocks.
+public class ReaderSelector {
+    private static final String TAG = "ReaderSelector";
+    private static final long ROUND_TIMEOUT_MS = 3000;
+
+    public interface Opener {
+        // A connected reader, or null if this path is not available
+        RfidReader open();
+    }
+
+    public static final class Candidate {
+        public final String name;
+        final Opener opener;
+
+        public double readsPerSecond;
+        public int rounds;
+        public String error;
+
+        public Candidate(String name, Opener opener) {
+            this.name = name;
+            this.opener = opener;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + (error != null ? error
+                    : String.format(java.util.Locale.US, "%.1f reads/s in %d rounds", readsPerSecond, rounds));
+        }
+    }
+
+    public static final class Result {
+        public final RfidReader reader;
+        public final Candidate winner;
+        public final List<Candidate> candidates;
+
+        Result(RfidReader reader, Candidate winner, List<Candidate> candidates) {
+            this.reader = reader;
+            this.winner = winner;
+            this.candidates = candidates;
+        }
+    }
+
+    // Returns the connected winner; reader is null if no candidate could be opened
+    public static Result select(List<Candidate> candidates, long benchmarkMs) {
+        Candidate best = null;
+        RfidReader open = null;
+        for (Candidate c : candidates) {
+            // Both paths drive the same UART: only one may hold it at a time
+            if (open != null) {
+                open.disconnect();
+                open = null;
+            }
+            RfidReader reader = open(c);
+            if (reader == null) {
+                Log.d(TAG, c.toString());
+                continue;
+            }
+            if (candidates.size() > 1) {
+                benchmark(reader, c, benchmarkMs);
+            }
+            Log.d(TAG, c.toString());
+            open = reader;
+            if (best == null || (c.error == null && (best.error != null || c.readsPerSecond > best.readsPerSecond))) {
+                best = c;
+            }
+        }
+        if (best == null) {
+            return new Result(null, null, candidates);
+        }
+        Candidate last = candidates.get(candidates.size() - 1);
+        if (best != last || open == null) {
+            if (open != null) open.disconnect();
+            open = open(best);
+        }
+        return new Result(open, best, candidates);
+    }
+
+    private static RfidReader open(Candidate c) {
+        RfidReader reader;
+        try {
+            reader = c.opener.open();
+        } catch (Exception e) {
+            reader = null;
+            c.error = e.getMessage();
+        }
+        if (reader == null && c.error == null) c.error = "UNAVAILABLE";
+        return reader;
+    }
+
+    private static void benchmark(RfidReader reader, Candidate c, long benchmarkMs) {
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch[] roundDone = new CountDownLatch[1];
+        reader.setListener(new RfidReader.Listener() {
+            @Override
+            public void onTagRecord(TagRecord record) {
+                reads.incrementAndGet();
+            }
+
+            @Override
+            public void onRoundEnd(int tagCount) {
+                CountDownLatch latch = roundDone[0];
+                if (latch != null) latch.countDown();
+            }
+
+            @Override
+            public void onAccessRead(String epc, String data) {
+            }
+
+            @Override
+            public void onAccessStatus(int cmd, int status) {
+            }
+        });
+        long start = System.nanoTime();
+        long deadline = start + benchmarkMs * 1_000_000L;
+        try {
+            while (System.nanoTime() < deadline) {
+                CountDownLatch latch = new CountDownLatch(1);
+                roundDone[0] = latch;
+                if (reader.inventoryRound(0, 0) < 0) {
+                    c.error = "INVENTORY_REJECTED";
+                    break;
+                }
+                if (!latch.await(ROUND_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    c.error = "ROUND_TIMEOUT";
+                    break;
+                }
+                c.rounds++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            c.error = "INTERRUPTED";
+        }
+        reader.setListener(null);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        c.readsPerSecond = seconds > 0 ? reads.get() / seconds : 0;
+    }
+}
@@ -19,10 +19,14 @@ public class RfidManagerWrapper {
     
     public boolean connectCom(String port, int baudrate) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.connectCom(port, baudrate);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "connectCom error", e);
+            } finally {
+                RfidMetrics.get().transaction("connectCom").recordNanos(System.nanoTime() - t);
             }
         }
         return false;
@@ -30,20 +34,28 @@ public class RfidManagerWrapper {
     
     public void disConnect() {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 mRfidManager.disConnect();
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "disConnect error", e);
+            } finally {
+                RfidMetrics.get().transaction("disConnect").recordNanos(System.nanoTime() - t);
             }
         }
     }
     
     public boolean isConnected() {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.isConnected();
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "isConnected error", e);
+            } finally {
+                RfidMetrics.get().transaction("isConnected").recordNanos(System.nanoTime() - t);
             }
         }
         return false;
@@ -51,10 +63,14 @@ public class RfidManagerWrapper {
     
     public byte getReadId() {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.getReadId();
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "getReadId error", e);
+            } finally {
+                RfidMetrics.get().transaction("getReadId").recordNanos(System.nanoTime() - t);
             }
         }
         return 0;
@@ -62,10 +78,14 @@ public class RfidManagerWrapper {
     
     public int customizedSessionTargetInventory(byte readId, byte session, byte target, byte repeat) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.customizedSessionTargetInventory(readId, session, target, repeat);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "customizedSessionTargetInventory error", e);
+            } finally {
+                RfidMetrics.get().transaction("customizedSessionTargetInventory").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -73,10 +93,14 @@ public class RfidManagerWrapper {
     
     public int setOutputPower(byte readId, byte power) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.setOutputPower(readId, power);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "setOutputPower error", e);
+            } finally {
+                RfidMetrics.get().transaction("setOutputPower").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -84,10 +108,14 @@ public class RfidManagerWrapper {
     
     public int getOutputPower(byte readId) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.getOutputPower(readId);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "getOutputPower error", e);
+            } finally {
+                RfidMetrics.get().transaction("getOutputPower").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -95,10 +123,14 @@ public class RfidManagerWrapper {
 
     public int setFrequencyRegion(byte readId, byte region, byte startFreq, byte endFreq) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.setFrequencyRegion(readId, region, startFreq, endFreq);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "setFrequencyRegion error", e);
+            } finally {
+                RfidMetrics.get().transaction("setFrequencyRegion").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -106,10 +138,14 @@ public class RfidManagerWrapper {
 
     public int setWorkAntenna(byte readId, byte ant) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.setWorkAntenna(readId, ant);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "setWorkAntenna error", e);
+            } finally {
+                RfidMetrics.get().transaction("setWorkAntenna").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -117,10 +153,14 @@ public class RfidManagerWrapper {
 
     public int setTrigger(boolean enable) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.setTrigger(enable);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "setTrigger error", e);
+            } finally {
+                RfidMetrics.get().transaction("setTrigger").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -128,10 +168,14 @@ public class RfidManagerWrapper {
 
     public int setAccessEpcMatch(byte readId, byte epcLen, byte[] epc) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.setAccessEpcMatch(readId, epcLen, epc);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "setAccessEpcMatch error", e);
+            } finally {
+                RfidMetrics.get().transaction("setAccessEpcMatch").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -139,10 +183,14 @@ public class RfidManagerWrapper {
 
     public int cancelAccessEpcMatch(byte readId) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.cancelAccessEpcMatch(readId);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "cancelAccessEpcMatch error", e);
+            } finally {
+                RfidMetrics.get().transaction("cancelAccessEpcMatch").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -150,10 +198,14 @@ public class RfidManagerWrapper {
 
     public int readTag(byte readId, byte bank, byte start, byte len, byte[] password) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.readTag(readId, bank, start, len, password);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "readTag error", e);
+            } finally {
+                RfidMetrics.get().transaction("readTag").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -161,10 +213,14 @@ public class RfidManagerWrapper {
 
     public int writeTag(byte readId, byte[] password, byte bank, byte start, byte len, byte[] data) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 return mRfidManager.writeTag(readId, password, bank, start, len, data);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "writeTag error", e);
+            } finally {
+                RfidMetrics.get().transaction("writeTag").recordNanos(System.nanoTime() - t);
             }
         }
         return -1;
@@ -172,24 +228,32 @@ public class RfidManagerWrapper {
     
     public void registerCallback(IRfidCallback callback) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 int key = callback != null ? callback.hashCode() : 0;
                 mCallbackKey = key;
                 mRfidManager.registerCallback(callback, key);
                 Log.d(TAG, "Callback registered with key: " + key);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "registerCallback error", e);
+            } finally {
+                RfidMetrics.get().transaction("registerCallback").recordNanos(System.nanoTime() - t);
             }
         }
     }
     
     public void unregisterCallback(IRfidCallback callback) {
         if (mRfidManager != null) {
+            long t = System.nanoTime();
             try {
                 int key = callback != null ? callback.hashCode() : mCallbackKey;
                 mRfidManager.unregisterCallback(callback, key);
             } catch (RemoteException e) {
+                RfidMetrics.get().aidlErrors.increment();
                 Log.e(TAG, "unregisterCallback error", e);
+            } finally {
+                RfidMetrics.get().transaction("unregisterCallback").recordNanos(System.nanoTime() - t);
             }
         }
     }
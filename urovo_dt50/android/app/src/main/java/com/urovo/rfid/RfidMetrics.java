@@ -0,0 +1,110 @@
+package com.urovo.rfid;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency histograms for the RFID stack. Everything is
+// lock-free and cheap enough for the tag path; snapshot() builds a plain map that
+// can go straight over the method channel.
+public final class RfidMetrics {
+    private static final RfidMetrics INSTANCE = new RfidMetrics();
+
+    public static RfidMetrics get() {
+        return INSTANCE;
+    }
+
+    // Direct path: serial bytes read -> tag record decoded
+    public final LatencyHistogram serialToDecoded = new LatencyHistogram();
+    // Service path: binder transaction received -> tag record decoded
+    public final LatencyHistogram binderDecode = new LatencyHistogram();
+    // Tag record decoded -> handed to the Flutter channel on the main thread
+    public final LatencyHistogram decodedToFlutter = new LatencyHistogram();
+    // Inventory command issued -> round-end callback
+    public final LatencyHistogram inventoryRound = new LatencyHistogram();
+    // Locate mode: newest read of the tag -> onLocate update posted on the main thread
+    public final LatencyHistogram locateUpdate = new LatencyHistogram();
+    // Trigger press -> first tag record of the scan it started
+    public final LatencyHistogram triggerToFirstTag = new LatencyHistogram();
+    // Trigger release / stopInventory -> round stopped and its reads no longer delivered
+    public final LatencyHistogram stopToSilence = new LatencyHistogram();
+
+    public final LongAdder tagsDecoded = new LongAdder();
+    public final LongAdder tagsDelivered = new LongAdder();
+    public final LongAdder serialBytes = new LongAdder();
+    public final LongAdder crcErrors = new LongAdder();
+    public final LongAdder droppedEvents = new LongAdder();
+    public final LongAdder decodeFallbacks = new LongAdder();
+    public final LongAdder aidlErrors = new LongAdder();
+    // Reads of a stopped round that arrived or were still queued after the stop
+    public final LongAdder lateReadsDropped = new LongAdder();
+
+    private final Map<String, LatencyHistogram> transactions = new ConcurrentHashMap<>();
+
+    private long rateAtMs = System.nanoTime() / 1_000_000L;
+    private long rateTags;
+
+    private RfidMetrics() {
+    }
+
+    // Outgoing AIDL call times, one histogram per method
+    public LatencyHistogram transaction(String name) {
+        return transactions.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    // readsPerSecond is averaged since the previous snapshot
+    public synchronized Map<String, Object> snapshot() {
+        long now = System.nanoTime() / 1_000_000L;
+        long tags = tagsDecoded.sum();
+        long elapsed = now - rateAtMs;
+        double rate = elapsed > 0 ? (tags - rateTags) * 1000.0 / elapsed : 0.0;
+        rateAtMs = now;
+        rateTags = tags;
+
+        Map<String, Object> m = new HashMap<>();
+        m.put("readsPerSecond", rate);
+        m.put("tagsDecoded", tags);
+        m.put("tagsDelivered", tagsDelivered.sum());
+        m.put("serialBytes", serialBytes.sum());
+        m.put("crcErrors", crcErrors.sum());
+        m.put("droppedEvents", droppedEvents.sum());
+        m.put("decodeFallbacks", decodeFallbacks.sum());
+        m.put("aidlErrors", aidlErrors.sum());
+        m.put("lateReadsDropped", lateReadsDropped.sum());
+        m.put("serialToDecoded", serialToDecoded.snapshot());
+        m.put("binderDecode", binderDecode.snapshot());
+        m.put("decodedToFlutter", decodedToFlutter.snapshot());
+        m.put("inventoryRound", inventoryRound.snapshot());
+        m.put("locateUpdate", locateUpdate.snapshot());
+        m.put("stopToSilence", stopToSilence.snapshot());
+        m.put("triggerToFirstTag", triggerToFirstTag.snapshot());
+        Map<String, Object> tx = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> e : transactions.entrySet()) {
+            if (e.getValue().count() > 0) tx.put(e.getKey(), e.getValue().snapshot());
+        }
+        m.put("aidlTransactions", tx);
+        return m;
+    }
+
+    public synchronized void reset() {
+        serialToDecoded.reset();
+        binderDecode.reset();
+        decodedToFlutter.reset();
+        inventoryRound.reset();
+        locateUpdate.reset();
+        stopToSilence.reset();
+        triggerToFirstTag.reset();
+        for (LatencyHistogram h : transactions.values()) h.reset();
+        tagsDecoded.reset();
+        tagsDelivered.reset();
+        serialBytes.reset();
+        crcErrors.reset();
+        droppedEvents.reset();
+        decodeFallbacks.reset();
+        aidlErrors.reset();
+        lateReadsDropped.reset();
+        rateAtMs = System.nanoTime() / 1_000_000L;
+        rateTags = 0;
+    }
+}
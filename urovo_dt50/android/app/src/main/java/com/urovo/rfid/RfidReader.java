@@ -0,0 +1,80 @@
+package com.urovo.rfid;
+
+// One reader path to the UHF module: the vendor service (ServiceRfidReader) or the
+// serial port (DirectRfidReader). Inventory runs in rounds; results and access
+// replies come back on the backend's own thread through the Listener. Return codes
+// follow the service: >= 0 accepted, < 0 rejected.
+public interface RfidReader {
+    // Write status reported by onAccessStatus on success (service convention)
+    int WRITE_OK = 0x10;
+
+    interface Listener extends TagRecord.Listener {
+        // One inventory round finished; tagCount as reported by the backend
+        void onRoundEnd(int tagCount);
+
+        // Data of the last readTag, hex
+        void onAccessRead(String epc, String data);
+
+        // Result of the last access command (writeTag: WRITE_OK on success), or of any
+        // other command the path reports; see isAccessReply
+        void onAccessStatus(int cmd, int status);
+    }
+
+    // "service" or "direct"
+    String getName();
+
+    boolean connect(String port, int baudRate);
+
+    void disconnect();
+
+    boolean isConnected();
+
+    void setListener(Listener listener);
+
+    // Records the raw traffic of this path (null stops recording)
+    void setRecorder(TrafficRecorder recorder);
+
+    int inventoryRound(int session, int target);
+
+    // Whether an onAccessStatus cmd answers readTag (write false) or writeTag /
+    // blockWriteTag (write true) on this path, rather than the EPC match or others
+    boolean isAccessReply(int cmd, boolean write);
+
+    // Prepares the command of a round with this session and target, so the next
+    // inventoryRound only sends it (trigger start); no-op where nothing can be prepared
+    void armRound(int session, int target);
+
+    // Ends the round in flight now instead of at the end of its scan time; < 0 where
+    // the path has no stop command and the round runs out on its own. Either way its
+    // onRoundEnd comes once, when the module is done with it
+    int stopRound();
+
+    // The last round ran out of scan time with tags still answering (more tags than it
+    // could singulate); read from onRoundEnd. False where the path cannot tell
+    boolean lastRoundTruncated();
+
+    // Restricts inventory to matching tags with a Gen2 Select mask (null clears it);
+    // false if this path has no Select and the caller has to filter in software
+    boolean setSelectFilter(InventoryFilter filter);
+
+    int setOutputPower(int dbm);
+
+    int setWorkAntenna(int antenna);
+
+    int setFrequencyRegion(int region, int startFreq, int endFreq);
+
+    int setTrigger(boolean enabled);
+
+    // Access commands address the tag set here until cancelled
+    int setAccessEpcMatch(byte[] epc);
+
+    int cancelAccessEpcMatch();
+
+    int readTag(int bank, int wordPtr, int words, byte[] password);
+
+    int writeTag(int bank, int wordPtr, int words, byte[] data, byte[] password);
+
+    // Gen2 BlockWrite: all words in one command instead of one Write each; < 0 where
+    // the path has none. Reported like writeTag
+    int blockWriteTag(int bank, int wordPtr, int words, byte[] data, byte[] password);
+}
@@ -4,9 +4,13 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.pm.PackageInfo;
+import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
 
+import com.urovo.rfid.aidl.FastInventoryCallback;
+
 public class RfidServiceManager {
     private static final String TAG = "RfidServiceManager";
     private static final String RFID_SERVICE_ACTION = "com.ubx.usdk.rfid.RfidService";
@@ -17,6 +21,7 @@ public class RfidServiceManager {
     private RfidManagerWrapper mRfidManager;
     private StatusListener mStatusListener;
     private boolean mBound = false;
+    private long mServiceVersion = -1;
     
     public enum STATUS {
         SUCCESS, NO_SERVICE, DISCONNECTED
@@ -42,6 +47,8 @@ public class RfidServiceManager {
         public void onServiceConnected(ComponentName name, IBinder service) {
             Log.d(TAG, "Service connected: " + name);
             mBound = true;
+            mServiceVersion = resolveServiceVersion();
+            FastInventoryCallback.setServiceVersion(mServiceVersion);
             mRfidManager = new RfidManagerWrapper(service);
             if (mStatusListener != null) {
                 mStatusListener.onStatus(STATUS.SUCCESS, mRfidManager);
@@ -83,6 +90,21 @@ public class RfidServiceManager {
         }
     }
     
+    public long getServiceVersion() {
+        return mServiceVersion;
+    }
+    
+    @SuppressWarnings("deprecation")
+    private long resolveServiceVersion() {
+        try {
+            PackageInfo info = mContext.getPackageManager().getPackageInfo(RFID_SERVICE_PACKAGE, 0);
+            return Build.VERSION.SDK_INT >= 28 ? info.getLongVersionCode() : info.versionCode;
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot resolve service version: " + e.getMessage());
+            return -1;
+        }
+    }
+    
     public RfidManagerWrapper getRfidManager() {
         return mRfidManager;
     }
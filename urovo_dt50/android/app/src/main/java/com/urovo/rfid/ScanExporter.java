@@ -0,0 +1,225 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+// Streams the raw reads of a journal session to CSV, NDJSON or a compact binary
+// file. Records are visited straight from the mapped segments and encoded into one
+// reusable direct buffer, so memory use does not depend on session size. Runs on
+// the ScanSessionStore thread, never on the inventory path.
+//
+// Binary layout: header [magic "RFX1", version(2), recordSize(2), sessionStartMs(8)]
+// followed by records [epcHi(8), epcLo(8), timeMs(8), rssi(2), ant(1), epcLen(1)].
+public class ScanExporter {
+    private static final String TAG = "ScanExporter";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BINARY_MAGIC = 0x52465831;     // "RFX1"
+    private static final int BINARY_RECORD_SIZE = 28;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    public enum Format { CSV, NDJSON, BINARY }
+
+    public interface Listener {
+        void onFinished(File output, long records, long bytes, String error);
+    }
+
+    private final Format format;
+    private final boolean gzip;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+    private final byte[] digits = new byte[20];
+    private WritableByteChannel channel;
+    private long records;
+    private long bytesWritten;
+    private IOException failure;
+
+    public ScanExporter(Format format, boolean gzip) {
+        this.format = format;
+        this.gzip = gzip;
+    }
+
+    public static void exportAsync(ScanSessionStore store, final File sessionDir, final File output,
+            final Format format, final boolean gzip, final Listener listener) {
+        store.execute(() -> {
+            ScanExporter exporter = new ScanExporter(format, gzip);
+            long records = -1;
+            String error = null;
+            try {
+                records = exporter.export(sessionDir, output);
+            } catch (IOException e) {
+                error = e.getMessage();
+                Log.e(TAG, "Export failed: " + error, e);
+            }
+            if (listener != null) listener.onFinished(output, records, exporter.bytesWritten, error);
+        });
+    }
+
+    public long export(File sessionDir, File output) throws IOException {
+        long start = System.currentTimeMillis();
+        exportRange(sessionDir, 0, Long.MAX_VALUE, false, output);
+        Log.d(TAG, "Exported " + records + " records as " + format + (gzip ? ".gz" : "")
+                + " in " + (System.currentTimeMillis() - start) + " ms");
+        return records;
+    }
+
+    // Writes up to maxRecords records starting at journal slot fromSlot (see
+    // ScanJournal.scanFrom) and returns the slot to continue from
+    public long exportRange(File sessionDir, long fromSlot, long maxRecords, boolean live, File output)
+            throws IOException {
+        records = 0;
+        bytesWritten = 0;
+        failure = null;
+        FileOutputStream fos = new FileOutputStream(output);
+        OutputStream gz = null;
+        try {
+            if (gzip) {
+                gz = new GZIPOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE), BUFFER_SIZE);
+                channel = Channels.newChannel(gz);
+            } else {
+                channel = fos.getChannel();
+            }
+            writeHeader(ScanJournal.sessionStartMs(sessionDir));
+            long next = ScanJournal.scanFrom(sessionDir, fromSlot, maxRecords, live, new ScanJournal.Visitor() {
+                @Override
+                public void onRecord(long epcHi, long epcLo, long timeMs, int rssi, int ant, int epcLen) {
+                    if (failure != null) return;
+                    writeRecord(epcHi, epcLo, timeMs, rssi, ant, epcLen);
+                    records++;
+                }
+            });
+            if (failure != null) throw failure;
+            flush();
+            return next;
+        } finally {
+            if (gz != null) {
+                gz.close();
+            } else {
+                fos.close();
+            }
+            channel = null;
+        }
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void writeHeader(long sessionStartMs) {
+        switch (format) {
+            case CSV:
+                putAscii("epc,timestamp_ms,rssi,antenna\n");
+                break;
+            case BINARY:
+                ensure(16);
+                buffer.putInt(BINARY_MAGIC);
+                buffer.putShort((short) 1);
+                buffer.putShort((short) BINARY_RECORD_SIZE);
+                buffer.putLong(sessionStartMs);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void writeRecord(long hi, long lo, long timeMs, int rssi, int ant, int epcLen) {
+        switch (format) {
+            case BINARY:
+                ensure(BINARY_RECORD_SIZE);
+                buffer.putLong(hi);
+                buffer.putLong(lo);
+                buffer.putLong(timeMs);
+                buffer.putShort((short) rssi);
+                buffer.put((byte) ant);
+                buffer.put((byte) epcLen);
+                break;
+            case CSV:
+                ensure(128);
+                putEpc(hi, lo, epcLen);
+                buffer.put((byte) ',');
+                putLong(timeMs);
+                buffer.put((byte) ',');
+                putLong(rssi);
+                buffer.put((byte) ',');
+                putLong(ant);
+                buffer.put((byte) '\n');
+                break;
+            case NDJSON:
+                ensure(160);
+                putAscii("{\"epc\":\"");
+                putEpc(hi, lo, epcLen);
+                putAscii("\",\"ts\":");
+                putLong(timeMs);
+                putAscii(",\"rssi\":");
+                putLong(rssi);
+                putAscii(",\"ant\":");
+                putLong(ant);
+                putAscii("}\n");
+                break;
+        }
+    }
+
+    private void putEpc(long hi, long lo, int epcLen) {
+        int len = Math.min(epcLen, 16);
+        for (int i = 0; i < len; i++) {
+            long word = i < 8 ? hi : lo;
+            int v = (int) (word >>> (56 - 8 * (i & 7))) & 0xFF;
+            buffer.put(HEX[v >>> 4]);
+            buffer.put(HEX[v & 0x0F]);
+        }
+    }
+
+    private void putLong(long v) {
+        if (v == 0) {
+            buffer.put((byte) '0');
+            return;
+        }
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        int n = 0;
+        while (v > 0) {
+            digits[n++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        while (n > 0) buffer.put(digits[--n]);
+    }
+
+    // Only used for short constant strings
+    private void putAscii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) buffer.put((byte) s.charAt(i));
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            try {
+                flush();
+            } catch (IOException e) {
+                failure = e;
+                buffer.clear();
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
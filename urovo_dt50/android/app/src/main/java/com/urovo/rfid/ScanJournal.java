@@ -0,0 +1,348 @@
+package com.urovo.rfid;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Crash-safe, append-only log of every tag read in a session.
+//
+// Reads are stored as fixed 32-byte records in memory-mapped segment files:
+//   [epcHi(8), epcLo(8), timeMs(8), rssi(2), ant(1), epcLen(1), check(4)]
+// A writer claims a slot with one atomic increment and fills it with absolute puts;
+// the check word is written last and doubles as the commit marker, so a record
+// torn by a crash fails validation on recovery. Mapping the next segment, force()
+// and the index file are handled by a background thread; the append path never
+// does I/O and never blocks. If the next segment is not mapped yet the read is
+// counted as dropped rather than waiting.
+public class ScanJournal {
+    private static final String TAG = "ScanJournal";
+
+    public static final int RECORD_SIZE = 32;
+    private static final int SEGMENT_RECORDS = 128 * 1024;                  // 4 MiB per segment
+    private static final long SEGMENT_BYTES = (long) (SEGMENT_RECORDS + 1) * RECORD_SIZE;
+    private static final int MAX_SEGMENTS = 4096;
+    private static final int SEGMENT_MAGIC = 0x534A5231;                     // "SJR1"
+    private static final int INDEX_MAGIC = 0x534A4931;                       // "SJI1"
+    private static final int CHECK_SEED = 0x5EED1234;
+    private static final int EMPTY_RUN_LIMIT = 256;
+    private static final long DEFAULT_FORCE_INTERVAL_MS = 1000;
+
+    public interface Visitor {
+        void onRecord(long epcHi, long epcLo, long timeMs, int rssi, int ant, int epcLen);
+    }
+
+    private final File dir;
+    private final long forceIntervalMs;
+    private final AtomicLong nextSlot = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(MAX_SEGMENTS);
+    private final long baseWallMs;
+    private final long baseElapsedNanos;
+    private final long sessionStartMs;
+
+    private volatile boolean open = false;
+    private volatile int mappedUpTo = -1;       // highest mapped segment
+    private int forcedBelow = 0;                // segments < this are forced and released
+    private Thread worker;
+
+    public ScanJournal(File dir) {
+        this(dir, DEFAULT_FORCE_INTERVAL_MS);
+    }
+
+    public ScanJournal(File dir, long forceIntervalMs) {
+        this.dir = dir;
+        this.forceIntervalMs = forceIntervalMs;
+        this.baseWallMs = System.currentTimeMillis();
+        this.baseElapsedNanos = SystemClock.elapsedRealtimeNanos();
+        this.sessionStartMs = baseWallMs;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    // Opens a fresh session in dir (any previous content is removed)
+    public synchronized boolean open() {
+        if (open) return true;
+        try {
+            if (dir.exists()) deleteDir(dir);
+            if (!dir.mkdirs()) throw new IOException("Cannot create " + dir);
+            mapSegment(0);
+            mapSegment(1);
+            open = true;
+            writeIndex(false);
+            worker = new Thread(this::workerLoop, "scan-journal");
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+            Log.d(TAG, "Journal opened: " + dir);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Journal open failed: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    public void append(TagRecord r) {
+        long timeMs = baseWallMs + (r.timestampNanos - baseElapsedNanos) / 1_000_000L;
+        append(r.epcHi, r.epcLo, timeMs, r.rssi, r.ant, r.epcLen);
+    }
+
+    public void append(long hi, long lo, long timeMs, int rssi, int ant, int epcLen) {
+        if (!open) return;
+        long slot = nextSlot.getAndIncrement();
+        int seg = (int) (slot / SEGMENT_RECORDS);
+        int idx = (int) (slot % SEGMENT_RECORDS);
+        if (idx == SEGMENT_RECORDS / 2 && worker != null) {
+            LockSupport.unpark(worker);         // map ahead while half the segment is left
+        }
+        MappedByteBuffer buf = seg < MAX_SEGMENTS ? segments.get(seg) : null;
+        if (buf == null) {
+            dropped.incrementAndGet();
+            RfidMetrics.get().droppedEvents.increment();
+            return;
+        }
+        int off = (idx + 1) * RECORD_SIZE;      // slot 0 holds the segment header
+        buf.putLong(off, hi);
+        buf.putLong(off + 8, lo);
+        buf.putLong(off + 16, timeMs);
+        buf.putShort(off + 24, (short) rssi);
+        buf.put(off + 26, (byte) ant);
+        buf.put(off + 27, (byte) epcLen);
+        buf.putInt(off + 28, check(hi, lo, timeMs, rssi, ant, epcLen));
+    }
+
+    public long recordCount() {
+        return nextSlot.get() - dropped.get();
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public synchronized void close() {
+        if (!open) return;
+        open = false;
+        Thread t = worker;
+        worker = null;
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(2000);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (int i = forcedBelow; i <= mappedUpTo && i < MAX_SEGMENTS; i++) {
+            MappedByteBuffer buf = segments.get(i);
+            if (buf != null) buf.force();
+        }
+        writeIndex(true);
+        Log.d(TAG, "Journal closed: records=" + recordCount() + " dropped=" + dropped.get());
+    }
+
+    // True if dir holds a session that was not closed cleanly
+    public static boolean needsRecovery(File dir) {
+        ByteBuffer header = readIndexHeader(dir);
+        return header != null && header.getInt(8) == 0;
+    }
+
+    // Rebuilds the per-EPC aggregate of a session directory
+    public static SessionAggregate recover(File dir) {
+        final SessionAggregate aggregate = new SessionAggregate(4096);
+        long start = SystemClock.elapsedRealtime();
+        long n = scan(dir, new Visitor() {
+            @Override
+            public void onRecord(long epcHi, long epcLo, long timeMs, int rssi, int ant, int epcLen) {
+                aggregate.add(epcHi, epcLo, epcLen, rssi, timeMs);
+            }
+        });
+        Log.d(TAG, "Recovered " + n + " records, " + aggregate.uniqueTags() + " tags in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        return aggregate;
+    }
+
+    // Visits every committed record in slot order; returns the number visited
+    public static long scan(File dir, Visitor visitor) {
+        long[] visited = new long[1];
+        scanFrom(dir, 0, Long.MAX_VALUE, false, (hi, lo, timeMs, rssi, ant, epcLen) -> {
+            visitor.onRecord(hi, lo, timeMs, rssi, ant, epcLen);
+            visited[0]++;
+        });
+        return visited[0];
+    }
+
+    // Visits up to maxRecords committed records starting at slot fromSlot and returns
+    // the slot to resume from. With live set, the scan stops at the first slot that is
+    // not committed yet (a writer may still be filling it); otherwise short gaps and
+    // torn records are skipped as in recovery.
+    public static long scanFrom(File dir, long fromSlot, long maxRecords, boolean live, Visitor visitor) {
+        long slot = fromSlot;
+        long visited = 0;
+        for (int seg = (int) (fromSlot / SEGMENT_RECORDS); seg < MAX_SEGMENTS && visited < maxRecords; seg++) {
+            File f = segmentFile(dir, seg);
+            if (!f.exists()) break;
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r");
+                 FileChannel ch = raf.getChannel()) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                buf.order(ByteOrder.BIG_ENDIAN);
+                if (buf.limit() < RECORD_SIZE || buf.getInt(0) != SEGMENT_MAGIC) break;
+                int records = Math.min(SEGMENT_RECORDS, buf.limit() / RECORD_SIZE - 1);
+                int emptyRun = 0;
+                for (int i = (int) (slot - (long) seg * SEGMENT_RECORDS); i < records && visited < maxRecords; i++) {
+                    int off = (i + 1) * RECORD_SIZE;
+                    long hi = buf.getLong(off);
+                    long lo = buf.getLong(off + 8);
+                    long timeMs = buf.getLong(off + 16);
+                    int rssi = buf.getShort(off + 24);
+                    int ant = buf.get(off + 26);
+                    int epcLen = buf.get(off + 27) & 0xFF;
+                    int stored = buf.getInt(off + 28);
+                    boolean valid = stored != 0 && stored == check(hi, lo, timeMs, rssi, ant, epcLen);
+                    if (!valid && live) return (long) seg * SEGMENT_RECORDS + i;
+                    if (stored == 0) {
+                        // Slots are claimed concurrently, so tolerate short gaps
+                        if (++emptyRun >= EMPTY_RUN_LIMIT) break;
+                        continue;
+                    }
+                    emptyRun = 0;
+                    if (!valid) continue;
+                    visitor.onRecord(hi, lo, timeMs, rssi, ant, epcLen);
+                    visited++;
+                    slot = (long) seg * SEGMENT_RECORDS + i + 1;
+                }
+                if (visited < maxRecords) slot = (long) (seg + 1) * SEGMENT_RECORDS;
+            } catch (IOException e) {
+                Log.e(TAG, "Scan error in " + f + ": " + e.getMessage());
+                break;
+            }
+        }
+        return slot;
+    }
+
+    public static File segmentFile(File dir, int seg) {
+        return new File(dir, String.format("seg-%05d.log", seg));
+    }
+
+    private void workerLoop() {
+        long lastForce = SystemClock.elapsedRealtime();
+        while (open) {
+            LockSupport.parkNanos(forceIntervalMs * 1_000_000L / 4);
+            if (Thread.interrupted() && !open) break;
+            try {
+                int active = (int) (nextSlot.get() / SEGMENT_RECORDS);
+                // Keep two segments mapped ahead of the writers
+                while (mappedUpTo < active + 2 && mappedUpTo + 1 < MAX_SEGMENTS) {
+                    mapSegment(mappedUpTo + 1);
+                }
+                long now = SystemClock.elapsedRealtime();
+                if (now - lastForce >= forceIntervalMs) {
+                    lastForce = now;
+                    forceAndRelease(active);
+                    writeIndex(false);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Journal worker error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void forceAndRelease(int active) {
+        for (int i = forcedBelow; i <= active && i < MAX_SEGMENTS; i++) {
+            MappedByteBuffer buf = segments.get(i);
+            if (buf == null) continue;
+            buf.force();
+            if (i < active) {
+                // Writers have moved on; let the mapping be reclaimed
+                segments.set(i, null);
+                forcedBelow = i + 1;
+            }
+        }
+    }
+
+    private void mapSegment(int seg) throws IOException {
+        File f = segmentFile(dir, seg);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw");
+             FileChannel ch = raf.getChannel()) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+            buf.order(ByteOrder.BIG_ENDIAN);
+            buf.putInt(0, SEGMENT_MAGIC);
+            buf.putInt(4, RECORD_SIZE);
+            buf.putInt(8, seg);
+            buf.putInt(12, SEGMENT_RECORDS);
+            buf.putLong(16, sessionStartMs);
+            segments.set(seg, buf);
+            mappedUpTo = Math.max(mappedUpTo, seg);
+        }
+    }
+
+    // index.bin: [magic, version, closed, segments, recordSize, segmentRecords,
+    //             sessionStartMs(8), records(8), dropped(8)]
+    private void writeIndex(boolean closed) {
+        ByteBuffer b = ByteBuffer.allocate(48);
+        long claimed = nextSlot.get();
+        b.putInt(INDEX_MAGIC).putInt(1).putInt(closed ? 1 : 0)
+                .putInt((int) (claimed / SEGMENT_RECORDS) + 1)
+                .putInt(RECORD_SIZE).putInt(SEGMENT_RECORDS)
+                .putLong(sessionStartMs).putLong(claimed - dropped.get()).putLong(dropped.get());
+        b.flip();
+        File tmp = new File(dir, "index.tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+             FileChannel ch = raf.getChannel()) {
+            ch.truncate(0);
+            while (b.hasRemaining()) ch.write(b);
+            ch.force(true);
+        } catch (IOException e) {
+            Log.e(TAG, "Index write failed: " + e.getMessage());
+            return;
+        }
+        if (!tmp.renameTo(new File(dir, "index.bin"))) {
+            Log.e(TAG, "Index rename failed");
+        }
+    }
+
+    static ByteBuffer readIndexHeader(File dir) {
+        File f = new File(dir, "index.bin");
+        if (!f.exists()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            byte[] data = new byte[48];
+            raf.readFully(data);
+            ByteBuffer b = ByteBuffer.wrap(data);
+            return b.getInt(0) == INDEX_MAGIC ? b : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static long sessionStartMs(File dir) {
+        ByteBuffer b = readIndexHeader(dir);
+        return b != null ? b.getLong(24) : 0;
+    }
+
+    private static int check(long hi, long lo, long timeMs, int rssi, int ant, int epcLen) {
+        long h = hi * 31 + lo;
+        h = h * 31 + timeMs;
+        h = h * 31 + (((rssi & 0xFFFF) << 16) | ((ant & 0xFF) << 8) | (epcLen & 0xFF));
+        int c = (int) (h ^ (h >>> 32)) ^ CHECK_SEED;
+        return c == 0 ? 1 : c;
+    }
+
+    static void deleteDir(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) deleteDir(c);
+        }
+        if (!f.delete()) {
+            Log.w(TAG, "Cannot delete " + f);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Owns the on-disk scan sessions: root/current is the live ScanJournal, finished or
+// crashed sessions are renamed to root/session-<startMs>. All file operations run
+// on one background thread; only append() is called from the tag pipeline.
+public class ScanSessionStore {
+    private static final String TAG = "ScanSessionStore";
+    private static final String CURRENT = "current";
+    private static final String SESSION_PREFIX = "session-";
+
+    public interface RecoveryCallback {
+        void onRecovered(SessionAggregate aggregate);
+    }
+
+    private final File root;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "scan-session-store");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private volatile ScanJournal journal;
+    private SessionAggregate recovered;     // executor thread only
+
+    public ScanSessionStore(File root) {
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public void append(TagRecord record) {
+        ScanJournal j = journal;
+        if (j != null) j.append(record);
+    }
+
+    public ScanJournal getJournal() {
+        return journal;
+    }
+
+    // Recovers a crashed session if there is one, then starts a fresh journal
+    public void openAsync() {
+        executor.execute(() -> {
+            if (journal != null) return;
+            File current = new File(root, CURRENT);
+            if (ScanJournal.needsRecovery(current)) {
+                recovered = ScanJournal.recover(current);
+            }
+            archive(current);
+            ScanJournal j = new ScanJournal(current);
+            if (j.open()) journal = j;
+        });
+    }
+
+    // Closes the current session and starts a new one
+    public void rotateAsync() {
+        executor.execute(() -> {
+            closeCurrent();
+            File current = new File(root, CURRENT);
+            archive(current);
+            ScanJournal j = new ScanJournal(current);
+            if (j.open()) journal = j;
+        });
+    }
+
+    public void closeAsync() {
+        executor.execute(this::closeCurrent);
+    }
+
+    // Hands over the aggregate of a crashed session (null if none) exactly once
+    public void takeRecovered(RecoveryCallback callback) {
+        executor.execute(() -> {
+            SessionAggregate a = recovered;
+            recovered = null;
+            callback.onRecovered(a);
+        });
+    }
+
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    // Finished sessions, oldest first
+    public List<File> archivedSessions() {
+        File[] dirs = root.listFiles((dir, name) -> name.startsWith(SESSION_PREFIX));
+        if (dirs == null) return new ArrayList<>();
+        Arrays.sort(dirs);
+        return new ArrayList<>(Arrays.asList(dirs));
+    }
+
+    public File sessionDir(String name) {
+        if (CURRENT.equals(name)) return new File(root, CURRENT);
+        File f = new File(root, name);
+        return name.startsWith(SESSION_PREFIX) && f.isDirectory() ? f : null;
+    }
+
+    private void closeCurrent() {
+        ScanJournal j = journal;
+        journal = null;
+        if (j != null) j.close();
+    }
+
+    private void archive(File current) {
+        if (!current.exists()) return;
+        long start = ScanJournal.sessionStartMs(current);
+        if (start == 0) {
+            ScanJournal.deleteDir(current);
+            return;
+        }
+        File target = new File(root, String.format("%s%013d", SESSION_PREFIX, start));
+        if (target.exists()) {
+            target = new File(root, String.format("%s%013d-%d", SESSION_PREFIX, start, System.currentTimeMillis()));
+        }
+        if (!current.renameTo(target)) {
+            Log.w(TAG, "Cannot archive " + current + " as " + target);
+            ScanJournal.deleteDir(current);
+        }
+    }
+}
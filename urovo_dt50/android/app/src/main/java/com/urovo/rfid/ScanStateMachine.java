@@ -0,0 +1,310 @@
+package com.urovo.rfid;
+
+// Inventory scheduling as an explicit state machine, run as the Actor of one
+// EventLoop. Reader threads and the UI only post events; every transition happens
+// on the loop thread with the time passed in, so a given event sequence always
+// produces the same commands and can be replayed in a JVM test. Timers carry the
+// generation they were armed in: stop and pause bump it, so stale timers do nothing.
+// Session and target of each round come from the InventoryStrategy, which is reset
+// whenever scanning starts and may end the scan once the population is covered.
+// LOCATE switches to locate mode: S0 rounds back to back, no pacing or tuning, and
+// START/STOP (the trigger) are ignored until LOCATE with arg 0 ends it. Locate mode
+// does not count as scanning.
+//
+//   IDLE --START--> ROUND --ROUND_END--> BACKOFF --NEXT_ROUND--> ROUND ...
+//   any --PAUSE--> PAUSED --RESUME--> ROUND or IDLE;  ROUND/BACKOFF --STOP--> IDLE
+// While PAUSED (tag access in progress) START and STOP only decide what RESUME does.
+// STOP and PAUSE stop a round in flight, and until that round has ended (or timed
+// out) no round is sent and onPaused waits: the module may still be inventorying.
+// Round ends carry the round number; an end for any other round is dropped.
+public final class ScanStateMachine implements EventLoop.Actor {
+    public static final int EV_START = 1;            // arg = START_TRIGGER for a trigger press
+    public static final int EV_STOP = 2;
+    public static final int EV_ROUND_END = 3;       // arg = roundEndArg(round, tags, newTags)
+    public static final int EV_PAUSE = 4;           // every PAUSE must be followed by RESUME
+    public static final int EV_RESUME = 5;
+    public static final int EV_RESET = 6;           // reader attached/detached: back to IDLE
+    public static final int EV_LOCATE = 7;          // arg 1 = start locate mode, 0 = end it
+
+    static final int EV_NEXT_ROUND = 10;            // timers, arg = generation
+    static final int EV_ROUND_TIMEOUT = 11;         // arg = round number
+    static final int EV_TUNE = 12;
+
+    // A trigger press starts its first round at once, even inside MIN_ROUND_INTERVAL_MS
+    public static final int START_TRIGGER = 1;
+
+    public enum State { IDLE, ROUND, BACKOFF, PAUSED }
+
+    // Called on the loop thread
+    public interface Effects {
+        // >= 0 accepted; round is the number its end has to carry
+        int inventoryRound(int round, int session, int target);
+
+        void applyConfig(int index);
+
+        void schedule(int what, int arg, long delayMs);
+
+        void onScanningChanged(boolean scanning);
+
+        // STOP while scanning, or PAUSE during a round: end the round in flight and
+        // drop its late reads. Its end still has to arrive
+        void stopRound();
+
+        // After PAUSE, once no round is in flight: tag access may start
+        void onPaused();
+    }
+
+    static final long MIN_ROUND_INTERVAL_MS = 400;
+    static final long FAST_RESTART_MS = 80;
+    static final long SLOW_RESTART_MS = 800;
+    static final long QUIET_MS = 1500;
+    // A round whose end callback never arrives is retried instead of stalling the scan
+    static final long ROUND_TIMEOUT_MS = 5000;
+    static final long TUNE_INTERVAL_MS = 1500;
+    static final long TUNE_IDLE_MS = 4000;
+    // Locate rounds carry one tag: a lost end callback is retried much sooner
+    static final long LOCATE_ROUND_TIMEOUT_MS = 500;
+    static final long LOCATE_RETRY_MS = 50;
+
+    private final Effects effects;
+    private final int configCount;
+    private final InventoryStrategy strategy;
+
+    private State state = State.IDLE;
+    private boolean resumeWanted;
+    // A stopped round still in flight; its end (or timeout) sends the next round or
+    // reports onPaused
+    private boolean stopping;
+    private boolean locating;
+    private volatile boolean scanning;
+    private int gen;
+    private int round;
+    private long lastRoundStartMs = Long.MIN_VALUE / 2;
+    private long lastTagSeenMs;
+    private long lastConfigChangeMs = Long.MIN_VALUE / 2;
+    private int tuningIndex;
+
+    public ScanStateMachine(Effects effects, int configCount, InventoryStrategy strategy) {
+        this.effects = effects;
+        this.configCount = configCount;
+        this.strategy = strategy;
+    }
+
+    // The round's number (low 8 bits: enough to tell it from its neighbours), its reads
+    // and how many of them were new in this scan, 0..0xFFF each
+    public static int roundEndArg(int round, int tags, int newTags) {
+        return round & 0xFF | Math.min(tags, 0xFFF) << 8 | Math.min(newTags, 0xFFF) << 20;
+    }
+
+    // Any thread: last published state (PAUSED counts if inventory resumes after it)
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    // Loop thread (or a test driving the machine directly)
+    public State getState() {
+        return state;
+    }
+
+    public int getTuningIndex() {
+        return tuningIndex;
+    }
+
+    public boolean isLocating() {
+        return locating;
+    }
+
+    @Override
+    public void onEvent(int what, int arg, long nowMs) {
+        switch (what) {
+            case EV_START:
+                if (locating) break;
+                lastTagSeenMs = nowMs;
+                if (state == State.PAUSED) {
+                    resumeWanted = true;
+                    enter(State.PAUSED);
+                } else if (state == State.IDLE) {
+                    if (arg == START_TRIGGER) lastRoundStartMs = Long.MIN_VALUE / 2;
+                    startRounds(nowMs);
+                }
+                break;
+            case EV_STOP:
+                if (locating) break;
+                if (state == State.PAUSED) {
+                    resumeWanted = false;
+                    enter(State.PAUSED);
+                } else if (state != State.IDLE) {
+                    gen++;
+                    if (state == State.ROUND) stopping = true;
+                    effects.stopRound();
+                    enter(State.IDLE);
+                }
+                break;
+            case EV_PAUSE:
+                if (state == State.PAUSED) {
+                    if (!stopping) effects.onPaused();
+                    break;
+                }
+                resumeWanted = state != State.IDLE;
+                gen++;
+                if (state == State.ROUND) {
+                    stopping = true;
+                    effects.stopRound();
+                }
+                enter(State.PAUSED);
+                if (!stopping) effects.onPaused();
+                break;
+            case EV_RESUME:
+                if (state != State.PAUSED) break;
+                if (resumeWanted) {
+                    startRounds(nowMs);
+                } else {
+                    enter(State.IDLE);
+                }
+                break;
+            case EV_LOCATE:
+                locate(arg != 0, nowMs);
+                break;
+            case EV_RESET:
+                gen++;
+                resumeWanted = false;
+                if (stopping) {
+                    stopping = false;
+                    if (state == State.PAUSED) effects.onPaused();
+                }
+                locating = false;
+                enter(State.IDLE);
+                tuningIndex = 0;
+                lastConfigChangeMs = Long.MIN_VALUE / 2;
+                lastTagSeenMs = nowMs;
+                break;
+            case EV_ROUND_END: {
+                if ((arg & 0xFF) != (round & 0xFF)) break;
+                int tags = arg >>> 8 & 0xFFF;
+                int newTags = arg >>> 20;
+                if (tags > 0) lastTagSeenMs = nowMs;
+                if (stopping) {
+                    stopped(nowMs);
+                    break;
+                }
+                if (state != State.ROUND) break;
+                if (locating) {
+                    sendRound(nowMs);
+                    break;
+                }
+                boolean quiet = tags <= 0 && nowMs - lastTagSeenMs > QUIET_MS;
+                if (strategy.onRound(tags, newTags) && strategy.getOptions().stopWhenComplete) {
+                    gen++;
+                    enter(State.IDLE);
+                    break;
+                }
+                enter(State.BACKOFF);
+                effects.schedule(EV_NEXT_ROUND, gen, quiet ? SLOW_RESTART_MS : FAST_RESTART_MS);
+                break;
+            }
+            case EV_NEXT_ROUND:
+                if (arg == gen && state == State.BACKOFF) sendRound(nowMs);
+                break;
+            case EV_ROUND_TIMEOUT:
+                if (arg != round) break;
+                if (stopping) {
+                    stopped(nowMs);
+                } else if (state == State.ROUND) {
+                    sendRound(nowMs);
+                }
+                break;
+            case EV_TUNE:
+                if (arg != gen || locating || state == State.IDLE || state == State.PAUSED) break;
+                tune(nowMs);
+                effects.schedule(EV_TUNE, gen, TUNE_INTERVAL_MS);
+                break;
+        }
+    }
+
+    // The stopped round has ended: what waited for it goes ahead
+    private void stopped(long nowMs) {
+        stopping = false;
+        if (state == State.PAUSED) {
+            effects.onPaused();
+        } else if (state == State.BACKOFF) {
+            sendRound(nowMs);
+        }
+    }
+
+    private void startRounds(long nowMs) {
+        gen++;
+        enter(State.BACKOFF);
+        sendRound(nowMs);
+        effects.schedule(EV_TUNE, gen, TUNE_INTERVAL_MS);
+    }
+
+    // A scan in progress hands over to locate mode at its next round; ending locate
+    // mode always goes back to IDLE
+    private void locate(boolean start, long nowMs) {
+        if (start == locating) return;
+        locating = start;
+        if (state == State.PAUSED) {
+            resumeWanted = start;
+            enter(State.PAUSED);
+        } else if (!start) {
+            gen++;
+            enter(State.IDLE);
+        } else if (state == State.IDLE) {
+            startRounds(nowMs);
+        } else if (state == State.BACKOFF) {
+            gen++;
+            sendRound(nowMs);
+        } else {
+            enter(state);
+        }
+    }
+
+    // No tags for a while: move to the next power/antenna/region combination and
+    // restart. A round in flight is left to finish on its own.
+    private void tune(long nowMs) {
+        if (configCount <= 0 || nowMs - lastTagSeenMs <= TUNE_IDLE_MS
+                || nowMs - lastConfigChangeMs <= TUNE_IDLE_MS) {
+            return;
+        }
+        tuningIndex = (tuningIndex + 1) % configCount;
+        effects.applyConfig(tuningIndex);
+        lastConfigChangeMs = nowMs;
+        if (state == State.BACKOFF) sendRound(nowMs);
+    }
+
+    // Starts a round, at most one per MIN_ROUND_INTERVAL_MS outside locate mode, and
+    // none while a stopped round is still in flight (its end sends this one)
+    private void sendRound(long nowMs) {
+        if (stopping) {
+            enter(State.BACKOFF);
+            return;
+        }
+        long wait = lastRoundStartMs + MIN_ROUND_INTERVAL_MS - nowMs;
+        if (wait > 0 && !locating) {
+            enter(State.BACKOFF);
+            effects.schedule(EV_NEXT_ROUND, gen, wait);
+            return;
+        }
+        lastRoundStartMs = nowMs;
+        int session = locating ? 0 : strategy.session();
+        int target = locating ? InventoryStrategy.TARGET_A : strategy.target();
+        if (effects.inventoryRound(round + 1, session, target) < 0) {
+            enter(State.BACKOFF);
+            effects.schedule(EV_NEXT_ROUND, gen, locating ? LOCATE_RETRY_MS : SLOW_RESTART_MS);
+            return;
+        }
+        round++;
+        enter(State.ROUND);
+        effects.schedule(EV_ROUND_TIMEOUT, round, locating ? LOCATE_ROUND_TIMEOUT_MS : ROUND_TIMEOUT_MS);
+    }
+
+    private void enter(State next) {
+        state = next;
+        boolean now = !locating && (next == State.PAUSED ? resumeWanted : next != State.IDLE);
+        if (now != scanning) {
+            if (now) strategy.reset();
+            scanning = now;
+            effects.onScanningChanged(now);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.urovo.rfid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Byte link to the RFID module: the UART on the device, SimulatedModule in tests.
+// The streams change when the rate changes, so fetch them after setBaudRate().
+public interface SerialLink extends Closeable {
+    InputStream getInputStream();
+
+    OutputStream getOutputStream();
+
+    int getBaudRate();
+
+    // Switches the host side to a new rate; unread input is discarded
+    void setBaudRate(int baudRate) throws IOException;
+}
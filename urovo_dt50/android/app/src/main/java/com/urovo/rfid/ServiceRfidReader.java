@@ -0,0 +1,192 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import com.urovo.rfid.aidl.FastInventoryCallback;
+import com.urovo.rfid.aidl.RfidDate;
+
+// RfidReader over the vendor AIDL service. Callbacks arrive on binder threads.
+public class ServiceRfidReader implements RfidReader {
+    private static final String TAG = "ServiceRfidReader";
+    private static final int DEFAULT_BAUD = 115200;
+    // Command codes in the service's status callbacks (R2000 command set)
+    private static final int CMD_READ_TAG = 0x81;
+    private static final int CMD_WRITE_TAG = 0x82;
+
+    private final RfidManagerWrapper manager;
+    private byte readId;
+    private boolean connected;
+    private volatile Listener listener;
+
+    private final FastInventoryCallback callback = new FastInventoryCallback() {
+        @Override
+        public void onTagRecord(TagRecord record) {
+            Listener l = listener;
+            if (l != null) l.onTagRecord(record);
+        }
+
+        @Override
+        public void onInventoryTagEnd(int ant, int tagNum, int readRate, int totalCount, byte flag) {
+            Log.d(TAG, "onInventoryTagEnd: ant=" + ant + " tagNum=" + tagNum + " readRate=" + readRate
+                    + " totalCount=" + totalCount + " flag=" + flag);
+            Listener l = listener;
+            if (l != null) l.onRoundEnd(tagNum);
+        }
+
+        @Override
+        public void onOperationTag(String tagType, String pc, String epc, String data, int dataLen, byte ant,
+                byte state) {
+            Log.d(TAG, "onOperationTag: tagType=" + tagType + " pc=" + pc + " epc=" + epc + " data=" + data
+                    + " dataLen=" + dataLen + " ant=" + ant + " state=" + state);
+            Listener l = listener;
+            if (l != null) l.onAccessRead(epc, data);
+        }
+
+        @Override
+        public void onOperationTagEnd(int count) {
+            Log.d(TAG, ">>> onOperationTagEnd");
+        }
+
+        @Override
+        public void onExeCMDStatus(byte cmd, byte status) {
+            Log.d(TAG, "onExeCMDStatus: cmd=" + cmd + " status=" + status);
+            Listener l = listener;
+            if (l != null) l.onAccessStatus(cmd & 0xFF, status & 0xFF);
+        }
+
+        @Override
+        public void refreshSetting(RfidDate rfidDate) {
+            Log.d(TAG, ">>> refreshSetting");
+        }
+    };
+
+    public ServiceRfidReader(RfidManagerWrapper manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public String getName() {
+        return "service";
+    }
+
+    // The service opens the port itself; it keeps the module on the requested rate,
+    // so fall back to the default if it cannot open it there
+    @Override
+    public boolean connect(String port, int baudRate) {
+        connected = manager.isConnected()
+                || manager.connectCom(port, baudRate)
+                || (baudRate != DEFAULT_BAUD && manager.connectCom(port, DEFAULT_BAUD));
+        Log.d(TAG, "connectCom(" + port + ", " + baudRate + "): " + connected);
+        if (!connected) return false;
+        readId = manager.getReadId();
+        try {
+            manager.unregisterCallback(callback);
+        } catch (Exception e) {
+            // Not registered yet
+        }
+        manager.registerCallback(callback);
+        Log.d(TAG, "Connected! readId=" + readId + ", callback registered");
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        manager.unregisterCallback(callback);
+        manager.disConnect();
+        connected = false;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setRecorder(TrafficRecorder recorder) {
+        callback.setRecorder(recorder);
+    }
+
+    @Override
+    public int inventoryRound(int session, int target) {
+        return manager.customizedSessionTargetInventory(readId, (byte) session, (byte) target, (byte) 1);
+    }
+
+    @Override
+    public boolean isAccessReply(int cmd, boolean write) {
+        return cmd == (write ? CMD_WRITE_TAG : CMD_READ_TAG);
+    }
+
+    // The binder call carries its arguments; nothing to prepare
+    @Override
+    public void armRound(int session, int target) {
+    }
+
+    // Not in the service API; the round is a single one (repeat 1) and ends by itself
+    @Override
+    public int stopRound() {
+        return -1;
+    }
+
+    @Override
+    public int setOutputPower(int dbm) {
+        return manager.setOutputPower(readId, (byte) dbm);
+    }
+
+    @Override
+    public int setWorkAntenna(int antenna) {
+        return manager.setWorkAntenna(readId, (byte) antenna);
+    }
+
+    @Override
+    public int setFrequencyRegion(int region, int startFreq, int endFreq) {
+        return manager.setFrequencyRegion(readId, (byte) region, (byte) startFreq, (byte) endFreq);
+    }
+
+    // The service has no Select command
+    @Override
+    public boolean setSelectFilter(InventoryFilter filter) {
+        return false;
+    }
+
+    // Round end only reports the tag count
+    @Override
+    public boolean lastRoundTruncated() {
+        return false;
+    }
+
+    @Override
+    public int setTrigger(boolean enabled) {
+        return manager.setTrigger(enabled);
+    }
+
+    @Override
+    public int setAccessEpcMatch(byte[] epc) {
+        return manager.setAccessEpcMatch(readId, (byte) epc.length, epc);
+    }
+
+    @Override
+    public int cancelAccessEpcMatch() {
+        return manager.cancelAccessEpcMatch(readId);
+    }
+
+    @Override
+    public int readTag(int bank, int wordPtr, int words, byte[] password) {
+        return manager.readTag(readId, (byte) bank, (byte) wordPtr, (byte) words, password);
+    }
+
+    @Override
+    public int writeTag(int bank, int wordPtr, int words, byte[] data, byte[] password) {
+        return manager.writeTag(readId, password, (byte) bank, (byte) wordPtr, (byte) words, data);
+    }
+
+    // Not in the service API
+    @Override
+    public int blockWriteTag(int bank, int wordPtr, int words, byte[] data, byte[] password) {
+        return -1;
+    }
+}
@@ -0,0 +1,84 @@
+package com.urovo.rfid;
+
+import java.util.Arrays;
+
+// Per-EPC aggregate of a scan session (read count, last RSSI, first/last seen),
+// kept in primitive arrays indexed by EpcIndex ordinal. Not thread-safe.
+public final class SessionAggregate {
+    private final EpcIndex index;
+    private int[] counts;
+    private int[] lastRssi;
+    private byte[] epcLens;
+    private long[] firstSeenMs;
+    private long[] lastSeenMs;
+    private long totalReads;
+
+    public SessionAggregate(int expectedTags) {
+        int cap = Math.max(16, expectedTags);
+        index = new EpcIndex(cap);
+        counts = new int[cap];
+        lastRssi = new int[cap];
+        epcLens = new byte[cap];
+        firstSeenMs = new long[cap];
+        lastSeenMs = new long[cap];
+    }
+
+    public void add(long hi, long lo, int epcLen, int rssi, long timeMs) {
+        int ord = index.add(hi, lo);
+        if (ord == counts.length) grow(ord * 2);
+        if (counts[ord] == 0) {
+            firstSeenMs[ord] = timeMs;
+            epcLens[ord] = (byte) epcLen;
+        }
+        counts[ord]++;
+        lastRssi[ord] = rssi;
+        lastSeenMs[ord] = timeMs;
+        totalReads++;
+    }
+
+    public int uniqueTags() {
+        return index.size();
+    }
+
+    public long totalReads() {
+        return totalReads;
+    }
+
+    public int countAt(int ord) {
+        return counts[ord];
+    }
+
+    public int rssiAt(int ord) {
+        return lastRssi[ord];
+    }
+
+    public long firstSeenAt(int ord) {
+        return firstSeenMs[ord];
+    }
+
+    public long lastSeenAt(int ord) {
+        return lastSeenMs[ord];
+    }
+
+    public String epcHexAt(int ord) {
+        return packedToHex(index.hiAt(ord), index.loAt(ord), epcLens[ord] & 0xFF);
+    }
+
+    public static String packedToHex(long hi, long lo, int epcLen) {
+        int len = Math.min(Math.max(epcLen, 0), 16);
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            long word = i < 8 ? hi : lo;
+            bytes[i] = (byte) (word >>> (56 - 8 * (i & 7)));
+        }
+        return TagRecord.toHex(bytes, len);
+    }
+
+    private void grow(int cap) {
+        counts = Arrays.copyOf(counts, cap);
+        lastRssi = Arrays.copyOf(lastRssi, cap);
+        epcLens = Arrays.copyOf(epcLens, cap);
+        firstSeenMs = Arrays.copyOf(firstSeenMs, cap);
+        lastSeenMs = Arrays.copyOf(lastSeenMs, cap);
+    }
+}
@@ -0,0 +1,270 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Memory that does not change once read: the TID bank, and regions the caller knows
+// to be locked. One entry per (EPC, bank) holds a contiguous word range; reads inside
+// it are answered without RF. LRU over at most maxEntries entries, keyed by the
+// whole EPC. A write to a cached region drops it; an EPC rewrite moves the
+// tag's entries to the new EPC (see onWrite). Optionally saved to a file between
+// runs. Synchronized: AccessQueue's handler, the method channel and the saver.
+public final class TagMemoryCache {
+    private static final String TAG = "TagMemoryCache";
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+    public static final int BANK_EPC = 1;
+    public static final int BANK_TID = 2;
+    private static final int FILE_MAGIC = 0x544D4331;        // "TMC1"
+
+    // The whole EPC: a cache hit answers without RF, so two tags must never share one
+    private static final class Key {
+        final byte[] epc;
+        final int bank;
+
+        Key(byte[] epc, int bank) {
+            this.epc = epc;
+            this.bank = bank;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return bank == k.bank && Arrays.equals(epc, k.epc);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(epc) * 4 + bank;
+        }
+    }
+
+    private static final class Region {
+        final byte[] epc;
+        final int bank;
+        int start;
+        byte[] data;
+
+        Region(byte[] epc, int bank, int start, byte[] data) {
+            this.epc = epc;
+            this.bank = bank;
+            this.start = start;
+            this.data = data;
+        }
+
+        int end() {
+            return start + data.length / 2;
+        }
+    }
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private final LinkedHashMap<Key, Region> entries = new LinkedHashMap<Key, Region>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Region> eldest) {
+            if (size() <= maxEntries) return false;
+            evictions++;
+            return true;
+        }
+    };
+    private long hits;
+    private long misses;
+    private long evictions;
+    private boolean dirty;
+
+    // Lookups only; stored keys take the entry's own copy of the EPC
+    private static Key key(byte[] epc, int bank) {
+        return new Key(epc, bank);
+    }
+
+    // TID always; other banks only when the caller vouches for the region
+    public static boolean isImmutable(int bank) {
+        return bank == BANK_TID;
+    }
+
+    public synchronized void setMaxEntries(int max) {
+        maxEntries = Math.max(1, max);
+        Iterator<Region> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    // Data of words [start, start + words) as bytes, or null if not cached
+    public synchronized byte[] get(byte[] epc, int bank, int start, int words) {
+        Region e = entries.get(key(epc, bank));
+        if (e == null || start < e.start || start + words > e.end() || words <= 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        int from = (start - e.start) * 2;
+        return Arrays.copyOfRange(e.data, from, from + words * 2);
+    }
+
+    // A successful read as returned by the reader (hex)
+    public void put(byte[] epc, int bank, int start, String hex) {
+        byte[] data = hexToBytes(hex);
+        if (data != null) put(epc, bank, start, data);
+    }
+
+    // A successful read; merged with the cached range when they touch or overlap
+    public synchronized void put(byte[] epc, int bank, int start, byte[] data) {
+        if (data.length < 2) return;
+        data = Arrays.copyOf(data, data.length & ~1);
+        Key k = key(epc, bank);
+        Region e = entries.get(k);
+        int end = start + data.length / 2;
+        if (e != null && start <= e.end() && end >= e.start) {
+            int from = Math.min(start, e.start);
+            int to = Math.max(end, e.end());
+            byte[] merged = new byte[(to - from) * 2];
+            System.arraycopy(e.data, 0, merged, (e.start - from) * 2, e.data.length);
+            System.arraycopy(data, 0, merged, (start - from) * 2, data.length);
+            e.start = from;
+            e.data = merged;
+        } else {
+            byte[] copy = epc.clone();
+            entries.put(key(copy, bank), new Region(copy, bank, start, data));
+        }
+        dirty = true;
+    }
+
+    // A successful write of words at start. Overlapping cached data is dropped; a
+    // write into the EPC (PC or words 2 on) moves the tag's entries to the EPC it now
+    // has, which is returned (null if the EPC did not change). A new PC whose EPC words
+    // were not all in the write leaves an EPC the cache cannot know: entries dropped
+    public synchronized byte[] onWrite(byte[] epc, int bank, int start, byte[] data) {
+        int end = start + data.length / 2;
+        Region e = entries.get(key(epc, bank));
+        if (e != null && start < e.end() && end > e.start) {
+            entries.remove(key(epc, bank));
+            dirty = true;
+        }
+        if (bank != BANK_EPC || end <= 1) return null;
+        byte[] newEpc;
+        if (start <= 1) {
+            int skip = (2 - start) * 2;
+            int bytes = ((data[skip - 2] & 0xFF) >> 3) * 2;
+            newEpc = skip + bytes <= data.length ? Arrays.copyOfRange(data, skip, skip + bytes) : null;
+        } else if (start == 2 && data.length >= epc.length) {
+            // The PC is unchanged, and so is the EPC length it declares
+            newEpc = Arrays.copyOf(data, epc.length);
+        } else {
+            // Inside the EPC the PC still describes
+            int at = (start - 2) * 2;
+            newEpc = epc.clone();
+            System.arraycopy(data, 0, newEpc, at, Math.max(0, Math.min(data.length, epc.length - at)));
+        }
+        if (newEpc == null) {
+            for (int b = 0; b < 4; b++) entries.remove(key(epc, b));
+            dirty = true;
+            return null;
+        }
+        if (Arrays.equals(newEpc, epc)) return null;
+        for (int b = 0; b < 4; b++) {
+            Region moved = entries.remove(key(epc, b));
+            if (moved != null && b != BANK_EPC) {
+                entries.put(key(newEpc, b), new Region(newEpc, b, moved.start, moved.data));
+            }
+        }
+        dirty = true;
+        return newEpc;
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        if (hex == null || (hex.length() & 1) != 0) return null;
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hiNib = Character.digit(hex.charAt(2 * i), 16);
+            int loNib = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hiNib < 0 || loNib < 0) return null;
+            out[i] = (byte) ((hiNib << 4) | loNib);
+        }
+        return out;
+    }
+
+    // TID range cached for this EPC as {start, words}, or null
+    public synchronized int[] tidRange(byte[] epc) {
+        Region e = entries.get(key(epc, BANK_TID));
+        return e == null ? null : new int[] { e.start, e.data.length / 2 };
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        dirty = true;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("entries", entries.size());
+        m.put("maxEntries", maxEntries);
+        m.put("hits", hits);
+        m.put("misses", misses);
+        m.put("evictions", evictions);
+        return m;
+    }
+
+    // [magic, count, {epcLen, epc, bank, start, dataLen, data} * count], least recently used first
+    public synchronized void save(File file) {
+        if (!dirty) return;
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(entries.size());
+            for (Region e : entries.values()) {
+                out.writeByte(e.epc.length);
+                out.write(e.epc);
+                out.writeByte(e.bank);
+                out.writeShort(e.start);
+                out.writeShort(e.data.length);
+                out.write(e.data);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Save failed: " + e.getMessage());
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Rename failed");
+            return;
+        }
+        dirty = false;
+    }
+
+    public synchronized void load(File file) {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) return;
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                byte[] epc = new byte[in.readUnsignedByte()];
+                in.readFully(epc);
+                int bank = in.readUnsignedByte();
+                int start = in.readUnsignedShort();
+                byte[] data = new byte[in.readUnsignedShort()];
+                in.readFully(data);
+                entries.put(key(epc, bank), new Region(epc, bank, start, data));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Load failed: " + e.getMessage());
+        }
+        dirty = false;
+    }
+}
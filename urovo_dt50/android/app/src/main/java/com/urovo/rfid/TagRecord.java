@@ -0,0 +1,128 @@
+package com.urovo.rfid;
+
+// Reusable, allocation-free tag record. A single instance is refilled for every
+// inventory read and handed down the native pipeline; consumers that need to keep
+// data beyond the callback must copy it (copyFrom) or use the packed EPC key.
+public final class TagRecord {
+    public static final int MAX_EPC_BYTES = 62;
+    public static final int MAX_DATA_BYTES = 128;
+    public static final int RSSI_UNKNOWN = -70;
+    // Channel index of the read; the serial inventory reply carries none
+    public static final byte FREQ_UNKNOWN = -1;
+
+    public interface Listener {
+        void onTagRecord(TagRecord record);
+    }
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    public byte ant;
+    public byte freq = FREQ_UNKNOWN;
+    public int rssi = RSSI_UNKNOWN;
+    public int pc = -1;
+    public long timestampNanos;
+
+    public final byte[] epc = new byte[MAX_EPC_BYTES];
+    public int epcLen;
+    public final byte[] tid = new byte[MAX_DATA_BYTES];
+    public int tidLen;
+    public final byte[] user = new byte[MAX_DATA_BYTES];
+    public int userLen;
+
+    // First 16 EPC bytes packed big-endian into two longs; exact for EPCs up to 128 bits
+    public long epcHi;
+    public long epcLo;
+    // With epcHi the key that tells tags apart (EpcIndex, dedup): epcLo up to 128 bits;
+    // longer EPCs (SGTIN-198 and the like) fold a hash of bytes 16.. and the length in,
+    // so tags sharing their first 16 bytes do not collide. The journal and Select masks
+    // stay on epcHi/epcLo
+    public long epcKeyLo;
+
+    public void clear() {
+        ant = 0;
+        freq = FREQ_UNKNOWN;
+        rssi = RSSI_UNKNOWN;
+        pc = -1;
+        timestampNanos = 0;
+        epcLen = 0;
+        tidLen = 0;
+        userLen = 0;
+        epcHi = 0;
+        epcLo = 0;
+        epcKeyLo = 0;
+    }
+
+    public void setEpc(byte[] src, int off, int len) {
+        if (len > MAX_EPC_BYTES) len = MAX_EPC_BYTES;
+        System.arraycopy(src, off, epc, 0, len);
+        epcLen = len;
+        pack();
+    }
+
+    // Recomputes epcHi/epcLo/epcKeyLo from epc[0..epcLen)
+    public void pack() {
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < 16; i++) {
+            long b = i < epcLen ? (epc[i] & 0xFFL) : 0L;
+            if (i < 8) {
+                hi = (hi << 8) | b;
+            } else {
+                lo = (lo << 8) | b;
+            }
+        }
+        epcHi = hi;
+        epcLo = lo;
+        epcKeyLo = epcLen > 16 ? lo ^ tailHash(epc, epcLen) : lo;
+    }
+
+    private static long tailHash(byte[] epc, int len) {
+        long h = 0x9E3779B97F4A7C15L * len;
+        for (int i = 16; i < len; i++) {
+            h = (h ^ (epc[i] & 0xFFL)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 33);
+    }
+
+    public void copyFrom(TagRecord other) {
+        ant = other.ant;
+        freq = other.freq;
+        rssi = other.rssi;
+        pc = other.pc;
+        timestampNanos = other.timestampNanos;
+        System.arraycopy(other.epc, 0, epc, 0, other.epcLen);
+        epcLen = other.epcLen;
+        System.arraycopy(other.tid, 0, tid, 0, other.tidLen);
+        tidLen = other.tidLen;
+        System.arraycopy(other.user, 0, user, 0, other.userLen);
+        userLen = other.userLen;
+        epcHi = other.epcHi;
+        epcLo = other.epcLo;
+        epcKeyLo = other.epcKeyLo;
+    }
+
+    // Allocates; only call at the Flutter boundary
+    public String epcHex() {
+        return toHex(epc, epcLen);
+    }
+
+    public String tidHex() {
+        return toHex(tid, tidLen);
+    }
+
+    public String userHex() {
+        return toHex(user, userLen);
+    }
+
+    public static String toHex(byte[] bytes, int len) {
+        char[] out = new char[len * 2];
+        for (int i = 0; i < len; i++) {
+            int v = bytes[i] & 0xFF;
+            out[i * 2] = HEX[v >>> 4];
+            out[i * 2 + 1] = HEX[v & 0x0F];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,158 @@
+package com.urovo.rfid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// Writes raw reader traffic to a compact trace for TrafficReplayer.
+//
+// File: header [magic "RFTR", version(2), startEpochMs(8)] then entries
+//   [type(1), deltaNanos(varint), payload]
+// where deltaNanos is the time since the previous entry and payload is
+//   SERIAL_RX / SERIAL_TX:  length(varint), bytes
+//   INVENTORY_TAG:          ant, pc, epc, rssi, freq, tid, userData, epcLen, tidLen, userDataLen
+//   INVENTORY_TAG_END:      ant, tagNum, readRate, totalCount, flag
+// Ints are varints (zig-zag), bytes are single bytes and strings are a varint of
+// length + 1 (0 for null) followed by one byte per char; the service only sends
+// ASCII. Plain Java so traces can be replayed on a build machine.
+public class TrafficRecorder {
+    public static final int MAGIC = 0x52465452;                 // "RFTR"
+    public static final int VERSION = 1;
+
+    public static final int SERIAL_RX = 1;
+    public static final int SERIAL_TX = 2;
+    public static final int INVENTORY_TAG = 3;
+    public static final int INVENTORY_TAG_END = 4;
+
+    private final File file;
+    private DataOutputStream out;
+    private long lastNanos;
+    private long entries;
+    private IOException error;
+
+    public TrafficRecorder(File file) {
+        this.file = file;
+    }
+
+    public synchronized void open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        lastNanos = System.nanoTime();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized long getEntries() {
+        return entries;
+    }
+
+    // First write error, if any; recording stops at that point
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    public synchronized void recordSerial(boolean tx, byte[] data, int off, int len) {
+        if (!begin(tx ? SERIAL_TX : SERIAL_RX)) return;
+        try {
+            writeVarint(len);
+            out.write(data, off, len);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordInventoryTag(byte ant, String pc, String epc, String rssi, byte freq, String tid,
+            String userData, int epcLen, int tidLen, String userDataLen) {
+        if (!begin(INVENTORY_TAG)) return;
+        try {
+            out.writeByte(ant);
+            writeString(pc);
+            writeString(epc);
+            writeString(rssi);
+            out.writeByte(freq);
+            writeString(tid);
+            writeString(userData);
+            writeVarint(epcLen);
+            writeVarint(tidLen);
+            writeString(userDataLen);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordInventoryTagEnd(int ant, int tagNum, int readRate, int totalCount, byte flag) {
+        if (!begin(INVENTORY_TAG_END)) return;
+        try {
+            writeVarint(ant);
+            writeVarint(tagNum);
+            writeVarint(readRate);
+            writeVarint(totalCount);
+            out.writeByte(flag);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (error == null) error = e;
+        }
+        out = null;
+    }
+
+    private boolean begin(int type) {
+        if (out == null) return false;
+        long now = System.nanoTime();
+        try {
+            out.writeByte(type);
+            writeVarint(now - lastNanos);
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+        lastNanos = now;
+        entries++;
+        return true;
+    }
+
+    private void fail(IOException e) {
+        error = e;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarint(0);
+            return;
+        }
+        writeVarint(s.length() + 1);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            out.writeByte(c < 0x80 ? c : '?');
+        }
+    }
+
+    private void writeVarint(long v) throws IOException {
+        long z = (v << 1) ^ (v >> 63);
+        while ((z & ~0x7FL) != 0) {
+            out.writeByte((int) ((z & 0x7F) | 0x80));
+            z >>>= 7;
+        }
+        out.writeByte((int) z);
+    }
+}
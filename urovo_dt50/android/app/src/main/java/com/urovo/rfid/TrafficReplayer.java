@@ -0,0 +1,121 @@
+package com.urovo.rfid;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays a TrafficRecorder trace back into a Sink, either with the recorded timing
+// or as fast as possible. Deterministic: the same trace always produces the same
+// calls in the same order. Plain Java, so traces also replay in JVM tests.
+public class TrafficReplayer {
+
+    public interface Sink {
+        // timestampNanos: offset of the entry from the start of the trace
+        void onSerial(boolean tx, byte[] data, int off, int len, long timestampNanos);
+
+        void onInventoryTag(byte ant, String pc, String epc, String rssi, byte freq, String tid,
+                String userData, int epcLen, int tidLen, String userDataLen, long timestampNanos);
+
+        void onInventoryTagEnd(int ant, int tagNum, int readRate, int totalCount, byte flag, long timestampNanos);
+    }
+
+    public static final class Result {
+        public long entries;
+        public long serialBytes;
+        public long inventoryTags;
+        public long traceNanos;
+        public long elapsedNanos;
+    }
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public Result replay(File trace, Sink sink, boolean realtime) throws IOException {
+        cancelled = false;
+        Result result = new Result();
+        byte[] chunk = new byte[256];
+        long start = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(trace), 64 * 1024))) {
+            if (in.readInt() != TrafficRecorder.MAGIC) throw new IOException("Not a traffic trace: " + trace);
+            int version = in.readUnsignedShort();
+            if (version != TrafficRecorder.VERSION) throw new IOException("Unsupported trace version " + version);
+            in.readLong();                                  // start wall-clock time
+            long t = 0;
+            while (!cancelled) {
+                int type = in.read();
+                if (type < 0) break;
+                t += readVarint(in);
+                if (realtime) {
+                    long wait = t - (System.nanoTime() - start);
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                }
+                switch (type) {
+                    case TrafficRecorder.SERIAL_RX:
+                    case TrafficRecorder.SERIAL_TX: {
+                        int len = (int) readVarint(in);
+                        if (len > chunk.length) chunk = new byte[len];
+                        in.readFully(chunk, 0, len);
+                        sink.onSerial(type == TrafficRecorder.SERIAL_TX, chunk, 0, len, t);
+                        result.serialBytes += len;
+                        break;
+                    }
+                    case TrafficRecorder.INVENTORY_TAG: {
+                        byte ant = in.readByte();
+                        String pc = readString(in);
+                        String epc = readString(in);
+                        String rssi = readString(in);
+                        byte freq = in.readByte();
+                        String tid = readString(in);
+                        String user = readString(in);
+                        int epcLen = (int) readVarint(in);
+                        int tidLen = (int) readVarint(in);
+                        String userLen = readString(in);
+                        sink.onInventoryTag(ant, pc, epc, rssi, freq, tid, user, epcLen, tidLen, userLen, t);
+                        result.inventoryTags++;
+                        break;
+                    }
+                    case TrafficRecorder.INVENTORY_TAG_END:
+                        sink.onInventoryTagEnd((int) readVarint(in), (int) readVarint(in), (int) readVarint(in),
+                                (int) readVarint(in), in.readByte(), t);
+                        break;
+                    default:
+                        throw new IOException("Corrupt trace: entry type " + type);
+                }
+                result.entries++;
+            }
+            result.traceNanos = t;
+        } catch (EOFException e) {
+            // Recording was cut short (app killed); everything before it is valid
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long z = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            z |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+            if (shift > 63) throw new IOException("Corrupt varint");
+        }
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int n = (int) readVarint(in);
+        if (n == 0) return null;
+        char[] chars = new char[n - 1];
+        for (int i = 0; i < chars.length; i++) chars[i] = (char) in.readUnsignedByte();
+        return new String(chars);
+    }
+}
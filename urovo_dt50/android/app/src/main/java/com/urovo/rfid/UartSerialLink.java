@@ -0,0 +1,55 @@
+package com.urovo.rfid;
+
+import com.rfiddevice.serialport.SerialPort;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// SerialLink over the JNI serial port; a rate change reopens the device
+public class UartSerialLink implements SerialLink {
+    private final File device;
+    private SerialPort port;
+    private int baudRate;
+
+    public UartSerialLink(String device, int baudRate) throws IOException {
+        this.device = new File(device);
+        this.baudRate = baudRate;
+        this.port = new SerialPort(this.device, baudRate, 0);
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() {
+        return port.getInputStream();
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() {
+        return port.getOutputStream();
+    }
+
+    @Override
+    public synchronized int getBaudRate() {
+        return baudRate;
+    }
+
+    @Override
+    public synchronized void setBaudRate(int rate) throws IOException {
+        if (rate == baudRate) return;
+        port.close();
+        try {
+            port = new SerialPort(device, rate, 0);
+        } catch (IOException e) {
+            // Driver refused the rate; stay usable at the old one
+            port = new SerialPort(device, baudRate, 0);
+            throw e;
+        }
+        baudRate = rate;
+    }
+
+    @Override
+    public synchronized void close() {
+        port.close();
+    }
+}
@@ -0,0 +1,310 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Offline-first upload of scan journal sessions.
+//
+// Batching runs on the ScanSessionStore thread: archived sessions and then the live
+// one are cut into gzip NDJSON batch files under root/pending, at most
+// maxBatchRecords each, with a per-session cursor file (upload.pos) recording the
+// next journal slot. Batch files are the persistent queue and survive restarts.
+// A batch is named after its session start and first slot, so re-cutting it after a
+// crash yields the same Idempotency-Key and the server can drop the duplicate.
+//
+// One low-priority thread posts batches oldest first with exponential backoff and a
+// token-bucket bandwidth limit that is tighter while inventory is running.
+public class UploadQueue {
+    private static final String TAG = "UploadQueue";
+    private static final String POS_FILE = "upload.pos";
+    private static final String DONE_FILE = "upload.done";
+    private static final String BATCH_SUFFIX = ".ndjson.gz";
+    private static final int CHUNK = 4096;
+
+    public static class Options {
+        public String endpoint;
+        public String deviceId = "dt50";
+        public String authToken;
+        public int maxBatchRecords = 5000;
+        public long maxBatchAgeMs = 30_000;
+        public long idleBytesPerSecond = 256 * 1024;
+        public long scanningBytesPerSecond = 16 * 1024;
+        public long baseBackoffMs = 2_000;
+        public long maxBackoffMs = 300_000;
+        public int connectTimeoutMs = 10_000;
+        public int readTimeoutMs = 15_000;
+    }
+
+    public interface Listener {
+        void onUploadStatus(int pendingBatches, long uploadedBatches, long uploadedBytes, String lastError);
+    }
+
+    private final ScanSessionStore store;
+    private final Options options;
+    private final Listener listener;
+    private final File pendingDir;
+    private final File rejectedDir;
+    private final AtomicBoolean batchQueued = new AtomicBoolean();
+
+    private volatile boolean running;
+    private volatile boolean inventoryActive;
+    private volatile boolean flushRequested;
+    private volatile String lastError;
+    private volatile long uploadedBatches;
+    private volatile long uploadedBytes;
+    private Thread worker;
+
+    // Worker thread only
+    private int attempts;
+    private long nextAttemptMs;
+    private long lastBatchMs;
+    private double tokens;
+    private long tokensAtNanos;
+
+    public UploadQueue(ScanSessionStore store, File root, Options options, Listener listener) {
+        this.store = store;
+        this.options = options;
+        this.listener = listener;
+        this.pendingDir = new File(root, "pending");
+        this.rejectedDir = new File(root, "rejected");
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        pendingDir.mkdirs();
+        running = true;
+        worker = new Thread(this::workerLoop, "upload-queue");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Thread t = worker;
+        worker = null;
+        if (t != null) t.interrupt();
+    }
+
+    public void setInventoryActive(boolean active) {
+        inventoryActive = active;
+    }
+
+    // Cuts a batch and retries right away, e.g. when the network came back
+    public void flush() {
+        flushRequested = true;
+        Thread t = worker;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    public int pendingBatches() {
+        return pendingFiles().length;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    private void workerLoop() {
+        File[] stale = pendingDir.listFiles((d, n) -> n.endsWith(".tmp"));
+        if (stale != null) {
+            for (File f : stale) f.delete();
+        }
+        while (running) {
+            if (flushRequested) {
+                flushRequested = false;
+                attempts = 0;
+                nextAttemptMs = 0;
+                lastBatchMs = 0;
+            }
+            long now = EventLoop.nowMs();
+            if (lastBatchMs == 0 || now - lastBatchMs >= options.maxBatchAgeMs) {
+                lastBatchMs = now;
+                scheduleBatching();
+            }
+            File[] pending = pendingFiles();
+            long waitMs = options.maxBatchAgeMs - (now - lastBatchMs);
+            if (pending.length > 0) {
+                if (now >= nextAttemptMs) {
+                    upload(pending[0]);
+                    continue;
+                }
+                waitMs = Math.min(waitMs, nextAttemptMs - now);
+            }
+            LockSupport.parkNanos(Math.max(1, waitMs) * 1_000_000L);
+        }
+    }
+
+    private void upload(File batch) {
+        String name = batch.getName();
+        String batchId = options.deviceId + "-" + name.substring(0, name.length() - BATCH_SUFFIX.length());
+        long start = EventLoop.nowMs();
+        int code;
+        long retryAfterMs = 0;
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(options.endpoint).openConnection();
+            conn.setConnectTimeout(options.connectTimeoutMs);
+            conn.setReadTimeout(options.readTimeoutMs);
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(batch.length());
+            conn.setRequestProperty("Content-Type", "application/x-ndjson");
+            conn.setRequestProperty("Content-Encoding", "gzip");
+            conn.setRequestProperty("Idempotency-Key", batchId);
+            conn.setRequestProperty("X-Device-Id", options.deviceId);
+            if (options.authToken != null) {
+                conn.setRequestProperty("Authorization", "Bearer " + options.authToken);
+            }
+            try (InputStream in = new FileInputStream(batch); OutputStream out = conn.getOutputStream()) {
+                byte[] chunk = new byte[CHUNK];
+                int n;
+                while ((n = in.read(chunk)) > 0) {
+                    throttle(n);
+                    out.write(chunk, 0, n);
+                }
+            }
+            code = conn.getResponseCode();
+            retryAfterMs = conn.getHeaderFieldInt("Retry-After", 0) * 1000L;
+        } catch (IOException | SecurityException e) {
+            // SecurityException: the app was built without the INTERNET permission
+            code = -1;
+            lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+        } finally {
+            if (conn != null) conn.disconnect();
+        }
+
+        if ((code >= 200 && code < 300) || code == 409) {
+            // 409: the server already has this batch
+            attempts = 0;
+            uploadedBatches++;
+            uploadedBytes += batch.length();
+            lastError = null;
+            if (!batch.delete()) Log.w(TAG, "Cannot delete " + batch);
+            Log.d(TAG, "Uploaded " + batchId + " in " + (EventLoop.nowMs() - start) + " ms");
+        } else if (code >= 400 && code < 500 && code != 408 && code != 429) {
+            // Retrying will not help; park it so the queue keeps moving
+            lastError = "HTTP " + code + " for " + batchId;
+            rejectedDir.mkdirs();
+            if (!batch.renameTo(new File(rejectedDir, name))) batch.delete();
+            Log.w(TAG, lastError + ", batch rejected");
+        } else {
+            if (code > 0) lastError = "HTTP " + code;
+            long backoff = Math.min(options.maxBackoffMs, options.baseBackoffMs << Math.min(attempts, 20));
+            backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            attempts++;
+            nextAttemptMs = EventLoop.nowMs() + Math.max(backoff, retryAfterMs);
+            Log.d(TAG, "Upload of " + batchId + " failed (" + lastError + "), retry in " + backoff + " ms");
+        }
+        notifyStatus();
+    }
+
+    // Token bucket holding at most one second of budget
+    private void throttle(int bytes) {
+        long rate = inventoryActive ? options.scanningBytesPerSecond : options.idleBytesPerSecond;
+        if (rate <= 0) return;
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - tokensAtNanos) * rate / 1e9);
+        tokensAtNanos = now;
+        tokens -= bytes;
+        if (tokens < 0) {
+            LockSupport.parkNanos((long) (-tokens * 1e9 / rate));
+        }
+    }
+
+    private void scheduleBatching() {
+        if (!batchQueued.compareAndSet(false, true)) return;
+        store.execute(() -> {
+            batchQueued.set(false);
+            try {
+                cutBatches();
+            } catch (IOException e) {
+                Log.e(TAG, "Batching failed: " + e.getMessage());
+            }
+            Thread t = worker;
+            if (t != null) LockSupport.unpark(t);
+        });
+    }
+
+    // Store thread only, so sessions are not archived underneath us
+    private void cutBatches() throws IOException {
+        List<File> sessions = new ArrayList<>(store.archivedSessions());
+        ScanJournal live = store.getJournal();
+        if (live != null) sessions.add(live.getDir());
+        ScanExporter exporter = new ScanExporter(ScanExporter.Format.NDJSON, true);
+        int queued = 0;
+        for (File dir : sessions) {
+            if (new File(dir, DONE_FILE).exists()) continue;
+            boolean isLive = live != null && dir.equals(live.getDir());
+            long startMs = ScanJournal.sessionStartMs(dir);
+            long pos = readPos(dir);
+            while (true) {
+                String name = String.format("%013d-%012d", startMs, pos);
+                File tmp = new File(pendingDir, name + ".tmp");
+                long next = exporter.exportRange(dir, pos, options.maxBatchRecords, isLive, tmp);
+                long records = exporter.getRecords();
+                if (records > 0) {
+                    if (!tmp.renameTo(new File(pendingDir, name + BATCH_SUFFIX))) {
+                        throw new IOException("Cannot queue batch " + name);
+                    }
+                    queued++;
+                } else {
+                    tmp.delete();
+                }
+                if (next != pos) writePos(dir, next);
+                pos = next;
+                if (records < options.maxBatchRecords) break;
+            }
+            if (!isLive && !new File(dir, DONE_FILE).createNewFile()) {
+                Log.w(TAG, "Cannot mark " + dir + " uploaded");
+            }
+        }
+        if (queued > 0) notifyStatus();
+    }
+
+    private File[] pendingFiles() {
+        File[] files = pendingDir.listFiles((d, n) -> n.endsWith(BATCH_SUFFIX));
+        if (files == null) return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static long readPos(File dir) {
+        File f = new File(dir, POS_FILE);
+        if (!f.exists()) return 0;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            return raf.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void writePos(File dir, long pos) throws IOException {
+        File tmp = new File(dir, POS_FILE + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.writeLong(pos);
+            raf.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(dir, POS_FILE))) throw new IOException("Cannot update " + POS_FILE);
+    }
+
+    private void notifyStatus() {
+        if (listener != null) {
+            listener.onUploadStatus(pendingBatches(), uploadedBatches, uploadedBytes, lastError);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.urovo.rfid.aidl;
+
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.urovo.rfid.RfidMetrics;
+import com.urovo.rfid.TagRecord;
+import com.urovo.rfid.TrafficRecorder;
+
+import static com.urovo.rfid.aidl.InventoryArgsDecoder.FIELD_NOT_HEX;
+import static com.urovo.rfid.aidl.InventoryArgsDecoder.FIELD_NULL;
+import static com.urovo.rfid.aidl.InventoryArgsDecoder.NOT_NUMERIC;
+import static com.urovo.rfid.aidl.InventoryArgsDecoder.SLOT_COUNT;
+import static com.urovo.rfid.aidl.InventoryArgsDecoder.SLOT_NONE;
+import static com.urovo.rfid.aidl.InventoryArgsDecoder.SLOT_TID;
+
+// IRfidCallback stub that decodes TRANSACTION_onInventoryTag straight from the
+// parcel into a reused TagRecord instead of unmarshalling six Strings per tag.
+//
+// The vendor service does not put the EPC/RSSI in a fixed argument: depending on
+// the service build the EPC shows up in pc, epc, rssi or userData and the RSSI in
+// tid. The mapping is resolved once from the first records and cached per service
+// version; afterwards only the mapped fields are decoded and the rest are skipped.
+public abstract class FastInventoryCallback extends IRfidCallback.Stub implements TagRecord.Listener {
+    private static final String TAG = "FastInventoryCallback";
+
+    private static final class FieldMapping {
+        final long serviceVersion;
+        final int epcSlot;
+        final int rssiSlot;
+
+        FieldMapping(long serviceVersion, int epcSlot, int rssiSlot) {
+            this.serviceVersion = serviceVersion;
+            this.epcSlot = epcSlot;
+            this.rssiSlot = rssiSlot;
+        }
+    }
+
+    private static volatile FieldMapping sMapping;
+    private static volatile long sServiceVersion = -1;
+
+    // onInventoryTag is a oneway transaction; oneway calls on one binder node are
+    // delivered serially, so a single record and scratch set is sufficient.
+    private final TagRecord record = new TagRecord();
+    private final InventoryArgsDecoder args = new InventoryArgsDecoder();
+
+    private volatile TrafficRecorder recorder;
+
+    public static void setServiceVersion(long version) {
+        if (sServiceVersion != version) {
+            sServiceVersion = version;
+            sMapping = null;
+        }
+    }
+
+    public static void resetFieldMapping() {
+        sMapping = null;
+    }
+
+    // Records the arguments of every inventory callback (null stops recording)
+    public void setRecorder(TrafficRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        TrafficRecorder rec = recorder;
+        if (code == TRANSACTION_onInventoryTagEnd && rec != null) {
+            data.enforceInterface(DESCRIPTOR);
+            rec.recordInventoryTagEnd(data.readInt(), data.readInt(), data.readInt(), data.readInt(), data.readByte());
+            data.setDataPosition(0);
+        }
+        if (code != TRANSACTION_onInventoryTag) {
+            return super.onTransact(code, data, reply, flags);
+        }
+        long t0 = System.nanoTime();
+        data.enforceInterface(DESCRIPTOR);
+        int start = data.dataPosition();
+        if (rec != null) {
+            rec.recordInventoryTag(data.readByte(), data.readString(), data.readString(), data.readString(),
+                    data.readByte(), data.readString(), data.readString(), data.readInt(), data.readInt(), data.readString());
+            data.setDataPosition(start);
+        }
+        boolean ok;
+        try {
+            FieldMapping mapping = sMapping;
+            ok = mapping != null && decodeMapped(data, mapping);
+            if (!ok) {
+                data.setDataPosition(start);
+                ok = decodeAndResolve(data);
+            }
+        } catch (RuntimeException e) {
+            ok = false;
+        }
+        RfidMetrics metrics = RfidMetrics.get();
+        if (ok) {
+            metrics.binderDecode.recordNanos(System.nanoTime() - t0);
+            metrics.tagsDecoded.increment();
+            onTagRecord(record);
+        } else {
+            // Unexpected layout: fall back to the regular String unmarshalling
+            metrics.decodeFallbacks.increment();
+            data.setDataPosition(start);
+            onInventoryTag(data.readByte(), data.readString(), data.readString(), data.readString(),
+                    data.readByte(), data.readString(), data.readString(), data.readInt(), data.readInt(), data.readString());
+        }
+        if (reply != null) reply.writeNoException();
+        return true;
+    }
+
+    // Slow path for callers that go through the interface method directly
+    @Override
+    public void onInventoryTag(byte ant, String pc, String epc, String rssi, byte freq, String tid,
+            String userData, int epcLen, int tidLen, String userDataLen) {
+        if (!args.decode(ant, pc, epc, rssi, freq, tid, userData, SystemClock.elapsedRealtimeNanos(), record)) {
+            RfidMetrics.get().droppedEvents.increment();
+            Log.w(TAG, "onInventoryTag: no EPC field in pc=" + pc + " epc=" + epc + " rssi=" + rssi + " userData=" + userData);
+            return;
+        }
+        RfidMetrics.get().tagsDecoded.increment();
+        onTagRecord(record);
+    }
+
+    private boolean decodeMapped(Parcel p, FieldMapping mapping) {
+        TagRecord r = record;
+        r.clear();
+        r.timestampNanos = SystemClock.elapsedRealtimeNanos();
+        int rssiValue = NOT_NUMERIC;
+        boolean epcOk = false;
+
+        r.ant = p.readByte();
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if (slot == SLOT_TID) {
+                r.freq = p.readByte();
+            }
+            if (slot == mapping.epcSlot) {
+                int len = readHexField(p, r.epc);
+                if (len > 0) {
+                    r.epcLen = len;
+                    epcOk = true;
+                }
+            } else if (slot == mapping.rssiSlot) {
+                rssiValue = readDecimalField(p);
+            } else {
+                skipString(p);
+            }
+        }
+        if (!epcOk) return false;
+        r.pack();
+        r.rssi = InventoryArgsDecoder.toRssi(rssiValue);
+        // epcLen, tidLen, userDataLen are not needed once the mapping is known
+        return true;
+    }
+
+    private boolean decodeAndResolve(Parcel p) {
+        byte ant = p.readByte();
+        byte freq = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if (slot == SLOT_TID) {
+                freq = p.readByte();
+            }
+            int pos = p.dataPosition();
+            args.slotLen[slot] = readHexField(p, args.slotBytes[slot]);
+            p.setDataPosition(pos);
+            args.slotNumber[slot] = readDecimalField(p);
+        }
+        int epcSlot = args.pickEpcSlot();
+        if (epcSlot == SLOT_NONE) return false;
+        int rssiSlot = args.pickRssiSlot(epcSlot);
+
+        long version = sServiceVersion;
+        FieldMapping current = sMapping;
+        if (current == null || current.epcSlot != epcSlot || current.rssiSlot != rssiSlot) {
+            sMapping = new FieldMapping(version, epcSlot, rssiSlot);
+            Log.d(TAG, "Field mapping resolved: service=" + version + " epcSlot=" + epcSlot + " rssiSlot=" + rssiSlot);
+        }
+
+        args.fill(record, ant, freq, epcSlot, rssiSlot, SystemClock.elapsedRealtimeNanos());
+        return true;
+    }
+
+    // Parcel strings are UTF-16: an int32 char count (-1 for null) followed by the
+    // chars and a NUL terminator, padded to 4 bytes. Reading them back as ints
+    // (two little-endian chars per int) avoids materialising a String.
+    private static int readHexField(Parcel p, byte[] out) {
+        int len = p.readInt();
+        if (len < 0) return FIELD_NULL;
+        int words = (len + 2) >>> 1;
+        if (words * 4 > p.dataAvail()) {
+            throw new IllegalStateException("String length " + len + " exceeds parcel");
+        }
+        int nibbles = 0;
+        int acc = 0;
+        int outLen = 0;
+        boolean spaced = false;
+        boolean valid = true;
+        for (int w = 0, idx = 0; w < words; w++) {
+            int v = p.readInt();
+            for (int half = 0; half < 2 && idx < len; half++, idx++) {
+                char c = (char) (half == 0 ? (v & 0xFFFF) : (v >>> 16));
+                if (!valid) continue;
+                if (c == ' ') {
+                    if ((nibbles & 1) != 0) valid = false;
+                    spaced = true;
+                    continue;
+                }
+                int n = InventoryArgsDecoder.nibble(c);
+                if (n < 0 || outLen >= out.length) {
+                    valid = false;
+                    continue;
+                }
+                acc = (acc << 4) | n;
+                if ((++nibbles & 1) == 0) {
+                    out[outLen++] = (byte) acc;
+                    acc = 0;
+                }
+            }
+        }
+        if (!valid || (nibbles & 1) != 0) return FIELD_NOT_HEX;
+        // Mirrors the old looksLikeHexBytes: "AA BB" with spaces, or 8+ compact digits
+        if (nibbles < (spaced ? 4 : 8)) return FIELD_NOT_HEX;
+        return outLen;
+    }
+
+    private static int readDecimalField(Parcel p) {
+        int len = p.readInt();
+        if (len < 0) return NOT_NUMERIC;
+        int words = (len + 2) >>> 1;
+        if (words * 4 > p.dataAvail()) {
+            throw new IllegalStateException("String length " + len + " exceeds parcel");
+        }
+        long value = 0;
+        int digits = 0;
+        boolean negative = false;
+        boolean valid = true;
+        for (int w = 0, idx = 0; w < words; w++) {
+            int v = p.readInt();
+            for (int half = 0; half < 2 && idx < len; half++, idx++) {
+                char c = (char) (half == 0 ? (v & 0xFFFF) : (v >>> 16));
+                if (!valid || c == ' ') continue;
+                if (c == '-' && digits == 0 && !negative) {
+                    negative = true;
+                } else if (c >= '0' && c <= '9' && digits < 10) {
+                    value = value * 10 + (c - '0');
+                    digits++;
+                } else {
+                    valid = false;
+                }
+            }
+        }
+        if (!valid || digits == 0) return NOT_NUMERIC;
+        return (int) (negative ? -value : value);
+    }
+
+    private static void skipString(Parcel p) {
+        int len = p.readInt();
+        if (len < 0) return;
+        int skip = ((len + 2) >>> 1) * 4;
+        if (skip > p.dataAvail()) {
+            throw new IllegalStateException("String length " + len + " exceeds parcel");
+        }
+        p.setDataPosition(p.dataPosition() + skip);
+    }
+}
@@ -0,0 +1,117 @@
+package com.urovo.rfid.aidl;
+
+import com.urovo.rfid.TagRecord;
+
+// Field-slot logic of onInventoryTag shared by the parcel fast path and the String
+// path: the vendor service puts the EPC in pc, epc, rssi or userData depending on
+// its build, and the RSSI in tid or rssi. Plain Java (no Binder/Parcel) so recorded
+// callback traffic can be decoded off-device. Not thread-safe; one per callback.
+public final class InventoryArgsDecoder {
+    // String argument slots of onInventoryTag, in parcel order
+    static final int SLOT_PC = 0;
+    static final int SLOT_EPC = 1;
+    static final int SLOT_RSSI = 2;
+    static final int SLOT_TID = 3;
+    static final int SLOT_USER = 4;
+    static final int SLOT_COUNT = 5;
+    static final int SLOT_NONE = -1;
+
+    private static final int[] EPC_SLOT_ORDER = { SLOT_PC, SLOT_EPC, SLOT_RSSI, SLOT_USER };
+    private static final int[] RSSI_SLOT_ORDER = { SLOT_TID, SLOT_RSSI };
+
+    static final int FIELD_NULL = -1;
+    static final int FIELD_NOT_HEX = -2;
+    static final int NOT_NUMERIC = Integer.MIN_VALUE;
+
+    final byte[][] slotBytes = new byte[SLOT_COUNT][TagRecord.MAX_DATA_BYTES];
+    final int[] slotLen = new int[SLOT_COUNT];
+    final int[] slotNumber = new int[SLOT_COUNT];
+
+    // Fills out from the String arguments; false if no field holds an EPC
+    public boolean decode(byte ant, String pc, String epc, String rssi, byte freq, String tid,
+            String userData, long timestampNanos, TagRecord out) {
+        String[] fields = { pc, epc, rssi, tid, userData };
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            slotLen[i] = fields[i] == null ? FIELD_NULL : hexToBytes(fields[i], slotBytes[i]);
+            slotNumber[i] = fields[i] == null ? NOT_NUMERIC : parseDecimal(fields[i]);
+        }
+        int epcSlot = pickEpcSlot();
+        if (epcSlot == SLOT_NONE) return false;
+        fill(out, ant, freq, epcSlot, pickRssiSlot(epcSlot), timestampNanos);
+        return true;
+    }
+
+    void fill(TagRecord r, byte ant, byte freq, int epcSlot, int rssiSlot, long timestampNanos) {
+        r.clear();
+        r.timestampNanos = timestampNanos;
+        r.ant = ant;
+        r.freq = freq;
+        r.setEpc(slotBytes[epcSlot], 0, slotLen[epcSlot]);
+        r.rssi = toRssi(rssiSlot == SLOT_NONE ? NOT_NUMERIC : slotNumber[rssiSlot]);
+    }
+
+    // Longest hex-looking field wins, same rule the String path always used
+    int pickEpcSlot() {
+        int best = SLOT_NONE;
+        for (int slot : EPC_SLOT_ORDER) {
+            if (slotLen[slot] > 0 && (best == SLOT_NONE || slotLen[slot] > slotLen[best])) {
+                best = slot;
+            }
+        }
+        return best;
+    }
+
+    int pickRssiSlot(int epcSlot) {
+        for (int slot : RSSI_SLOT_ORDER) {
+            if (slot != epcSlot && slotNumber[slot] != NOT_NUMERIC) return slot;
+        }
+        return SLOT_TID;
+    }
+
+    static int toRssi(int value) {
+        if (value == NOT_NUMERIC) return TagRecord.RSSI_UNKNOWN;
+        // The service reports RSSI as an unsigned byte offset by 129
+        return (value >= 0 && value <= 255) ? value - 129 : value;
+    }
+
+    static int hexToBytes(String s, byte[] out) {
+        int nibbles = 0;
+        int acc = 0;
+        int outLen = 0;
+        boolean spaced = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ' ') {
+                if ((nibbles & 1) != 0) return FIELD_NOT_HEX;
+                spaced = true;
+                continue;
+            }
+            int n = nibble(c);
+            if (n < 0 || outLen >= out.length) return FIELD_NOT_HEX;
+            acc = (acc << 4) | n;
+            if ((++nibbles & 1) == 0) {
+                out[outLen++] = (byte) acc;
+                acc = 0;
+            }
+        }
+        if ((nibbles & 1) != 0 || nibbles < (spaced ? 4 : 8)) return FIELD_NOT_HEX;
+        return outLen;
+    }
+
+    static int parseDecimal(String s) {
+        String t = s.trim();
+        if (t.isEmpty()) return NOT_NUMERIC;
+        try {
+            return Integer.parseInt(t);
+        } catch (NumberFormatException e) {
+            return NOT_NUMERIC;
+        }
+    }
+
+    static int nibble(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+}
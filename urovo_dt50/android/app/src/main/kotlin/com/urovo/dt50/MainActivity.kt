@@ -5,11 +5,13 @@ import android.util.Log
 import android.view.KeyEvent
 import io.flutter.embedding.android.FlutterActivity
 import io.flutter.embedding.engine.FlutterEngine
+import io.flutter.plugin.common.EventChannel
 import io.flutter.plugin.common.MethodChannel
 
 class MainActivity : FlutterActivity() {
     private val TAG = "MainActivity"
     private val CHANNEL = "com.urovo.dt50/rfid"
+    private val EVENT_CHANNEL = "com.urovo.dt50/rfid/events"
     private var rfidPlugin: RfidPlugin? = null
     private var methodChannel: MethodChannel? = null
     
@@ -30,6 +32,8 @@ class MainActivity : FlutterActivity() {
             }
         }
         
+        rfidPlugin?.setEventChannel(EventChannel(flutterEngine.dartExecutor.binaryMessenger, EVENT_CHANNEL))
+
         rfidPlugin?.initialize()
     }
     
@@ -5,58 +5,189 @@ import android.os.Handler
 import android.os.Looper
 import android.os.SystemClock
 import android.util.Log
+import java.io.File
+import io.flutter.plugin.common.EventChannel
 import io.flutter.plugin.common.MethodCall
 import io.flutter.plugin.common.MethodChannel
+import com.urovo.rfid.AccessQueue
+import com.urovo.rfid.AntennaScheduler
+import com.urovo.rfid.BlockTransfer
+import com.urovo.rfid.ChannelQuality
+import com.urovo.rfid.CommissioningJob
+import com.urovo.rfid.EpcWriter
+import com.urovo.rfid.DirectRfidReader
+import com.urovo.rfid.EpcIndex
+import com.urovo.rfid.EventLoop
+import com.urovo.rfid.EventStream
+import com.urovo.rfid.FrameDecoder
+import com.urovo.rfid.InventoryFilter
+import com.urovo.rfid.InventoryStrategy
+import com.urovo.rfid.LocateTracker
+import com.urovo.rfid.ManifestReconciler
+import com.urovo.rfid.PowerController
+import com.urovo.rfid.ReaderSelector
+import com.urovo.rfid.RfidReader
+import com.urovo.rfid.RfidMetrics
 import com.urovo.rfid.RfidServiceManager
+import com.urovo.rfid.ScanExporter
+import com.urovo.rfid.ScanSessionStore
+import com.urovo.rfid.ScanStateMachine
+import com.urovo.rfid.ServiceRfidReader
 import com.urovo.rfid.RfidManagerWrapper
-import com.urovo.rfid.aidl.IRfidCallback
-import com.urovo.rfid.aidl.RfidDate
+import com.urovo.rfid.TagMemoryCache
+import com.urovo.rfid.TagRecord
+import com.urovo.rfid.TrafficRecorder
+import com.urovo.rfid.TrafficReplayer
+import com.urovo.rfid.UploadQueue
+import com.urovo.rfid.aidl.InventoryArgsDecoder
 
 class RfidPlugin(private val context: Context) : RfidServiceManager.StatusListener {
     
     companion object {
         private const val TAG = "RfidPlugin"
+        private const val DEFAULT_PORT = "/dev/ttyHSL0"
+        private const val DEFAULT_BAUD = 115200
+        // Inventory time given to each path when both are available
+        private const val SELECT_BENCHMARK_MS = 1500L
+        // onLocate rate: one update per 40 ms keeps read-to-screen latency under 50 ms
+        private const val DEFAULT_LOCATE_INTERVAL_MS = 40L
     }
     
     private var methodChannel: MethodChannel? = null
     private val mainHandler = Handler(Looper.getMainLooper())
-    private var rfidManager: RfidManagerWrapper? = null
-    private var readId: Byte = 0
-    private var isConnected = false
-    private var isScanning = false
-    private var lastInventoryStartMs: Long = 0
-    private var pendingInventory: Boolean = false
-    private var pendingInventoryState: Byte = 0
-    private var lastTagSeenMs: Long = 0
-    private var lastConfigChangeMs: Long = 0
-    private var tuningIndex: Int = 0
-
-    private enum class PendingOpType { READ, WRITE }
-
-    private data class PendingOp(
-        val type: PendingOpType,
-        val result: MethodChannel.Result,
-        val wasScanning: Boolean,
-        val startedMs: Long
+    private var serviceManager: RfidManagerWrapper? = null
+    @Volatile private var reader: RfidReader? = null
+    // auto: benchmark both paths and keep the faster; service / direct: only that one
+    private var readerPath = "auto"
+    private var selecting = false
+    private var serialPort = DEFAULT_PORT
+    private var baudRate = DEFAULT_BAUD
+    @Volatile private var isConnected = false
+    // Published by the scan state machine; changes only go through scanLoop
+    private val isScanning: Boolean
+        get() = scanMachine.isScanning
+    // Sent to the reader as a Select mask where the path has one, always checked in software
+    @Volatile private var inventoryFilter: InventoryFilter? = null
+    private val sessionStore = ScanSessionStore(File(context.filesDir, "journal"))
+
+    // Created on attach; the scan loop tells it when a pause has taken effect
+    @Volatile private var accessQueue: AccessQueue? = null
+    // TID / locked memory already read, answered without RF; saved on detach when persisted
+    private val tagCache = TagMemoryCache()
+    @Volatile private var tagCachePersist = false
+    private val tagCacheFile = File(context.filesDir, "tag-cache.bin")
+
+    private var commissioningJob: CommissioningJob? = null
+
+    @Volatile private var reconciler: ManifestReconciler? = null
+
+    // Pushes reconciliation counters at most once per display frame, only on change
+    private val reconcileTicker = object : Runnable {
+        override fun run() {
+            val r = reconciler ?: return
+            if (r.takeDirty()) {
+                methodChannel?.invokeMethod("onReconcileProgress", reconcileCounts(r))
+            }
+            mainHandler.postDelayed(this, 16)
+        }
+    }
+
+    private fun reconcileCounts(r: ManifestReconciler): MutableMap<String, Any?> = mutableMapOf(
+        "expected" to r.expectedCount(),
+        "found" to r.foundCount(),
+        "missing" to r.missingCount(),
+        "unexpected" to r.unexpectedCount(),
+        "reads" to r.reads()
     )
 
-    private var pendingOp: PendingOp? = null
-    private var writeCompletionArmed: Boolean = false
-    private val opTimeoutRunnable = Runnable {
-        val op = pendingOp ?: return@Runnable
-        pendingOp = null
-        writeCompletionArmed = false
-        try {
-            rfidManager?.cancelAccessEpcMatch(readId)
-        } catch (e: Exception) {
+    // Locate mode: reads of the target only feed the tracker; Flutter gets the smoothed
+    // value at a fixed rate instead of every read
+    @Volatile private var locateTracker: LocateTracker? = null
+    private var locateIntervalMs = DEFAULT_LOCATE_INTERVAL_MS
+    private var locateReportedReads = 0L
+
+    private val locateTicker = object : Runnable {
+        override fun run() {
+            val t = locateTracker ?: return
+            val now = SystemClock.elapsedRealtimeNanos()
+            val reads = t.reads
+            val last = t.lastReadNanos
+            if (reads != locateReportedReads) metrics.locateUpdate.recordNanos(now - last)
+            val rate = (reads - locateReportedReads) * 1000.0 / locateIntervalMs
+            locateReportedReads = reads
+            methodChannel?.invokeMethod("onLocate", mapOf(
+                "epc" to t.epcHex(),
+                "active" to true,
+                "rssi" to t.rssi.takeUnless { it.isNaN() },
+                "proximity" to t.proximity(now),
+                "reads" to reads,
+                "readsPerSecond" to rate,
+                "ageMs" to if (reads == 0L) -1L else (now - last) / 1_000_000L
+            ))
+            mainHandler.postDelayed(this, locateIntervalMs)
+        }
+    }
+
+    private fun endLocate() {
+        val t = locateTracker ?: return
+        locateTracker = null
+        mainHandler.removeCallbacks(locateTicker)
+        reader?.setSelectFilter(inventoryFilter)
+        methodChannel?.invokeMethod("onLocate", mapOf("epc" to t.epcHex(), "active" to false))
+    }
+
+    private val metrics = RfidMetrics.get()
+    @Volatile private var roundStartNanos: Long = 0
+    private var metricsIntervalMs: Long = 0
+
+    private val metricsTicker = object : Runnable {
+        override fun run() {
+            if (metricsIntervalMs <= 0) return
+            if (eventStream.isOpen) {
+                if (eventStream.offerMetrics(metrics.snapshot())) mainHandler.post(flushEvents)
+            } else {
+                methodChannel?.invokeMethod("onMetrics", metrics.snapshot())
+            }
+            mainHandler.postDelayed(this, metricsIntervalMs)
+        }
+    }
+
+    // Reads and metrics while Dart listens on the event channel, within the credits it
+    // granted; onTagRead / onMetrics calls otherwise
+    private val eventStream = EventStream()
+    private var eventSink: EventChannel.EventSink? = null
+    private val flushEvents = Runnable {
+        val sink = eventSink ?: return@Runnable
+        eventStream.flush { sink.success(it) }
+    }
+
+    private var trafficRecorder: TrafficRecorder? = null
+    @Volatile private var trafficReplayer: TrafficReplayer? = null
+
+    private var uploadQueue: UploadQueue? = null
+
+    private val uploadListener = UploadQueue.Listener { pending, uploaded, bytes, error ->
+        mainHandler.post {
+            methodChannel?.invokeMethod("onUploadStatus", mapOf(
+                "pending" to pending,
+                "uploaded" to uploaded,
+                "bytes" to bytes,
+                "error" to error
+            ))
         }
-        if (op.wasScanning) {
-            isScanning = true
-            startInventory(0)
-            mainHandler.removeCallbacks(tuneRunnable)
-            mainHandler.postDelayed(tuneRunnable, 1500)
+    }
+
+    // The state machine remembers whether to resume, so RESUME always follows PAUSE;
+    // it answers PAUSE through Effects.onPaused once no round is in flight
+    private val accessHost = object : AccessQueue.Host {
+        override fun pauseInventory(): Boolean {
+            scanLoop.post(ScanStateMachine.EV_PAUSE, 0)
+            return true
+        }
+
+        override fun resumeInventory() {
+            scanLoop.post(ScanStateMachine.EV_RESUME, 0)
         }
-        op.result.success(null)
     }
 
     private fun normalizeHex(input: String?): String {
@@ -85,40 +216,179 @@ class RfidPlugin(private val context: Context) : RfidServiceManager.StatusListen
         return out
     }
 
-    private fun beginOp(type: PendingOpType, result: MethodChannel.Result): PendingOp? {
-        if (!isConnected || rfidManager == null) {
-            result.success(null)
-            return null
-        }
-        if (pendingOp != null) {
-            result.error("BUSY", "Another RFID operation is in progress", null)
-            return null
-        }
-        writeCompletionArmed = false
-        val wasScanning = isScanning
-        isScanning = false
-        mainHandler.removeCallbacks(tuneRunnable)
-        val op = PendingOp(type, result, wasScanning, SystemClock.elapsedRealtime())
-        pendingOp = op
-        mainHandler.removeCallbacks(opTimeoutRunnable)
-        mainHandler.postDelayed(opTimeoutRunnable, 4000)
-        return op
-    }
-
-    private fun endOp() {
-        val op = pendingOp
-        pendingOp = null
-        writeCompletionArmed = false
-        mainHandler.removeCallbacks(opTimeoutRunnable)
-        try {
-            rfidManager?.cancelAccessEpcMatch(readId)
-        } catch (e: Exception) {
+    private fun argInt(args: Map<*, *>, key: String, default: Int): Int {
+        return (args[key] as? Number)?.toInt() ?: default
+    }
+
+    private fun readOp(args: Map<*, *>, callback: AccessQueue.Callback): AccessQueue.Operation? {
+        val epcBytes = hexToBytesOrNull(args["epc"] as? String) ?: return null
+        val pwd = passwordBytes(args["password"] as? String) ?: return null
+        val memBank = argInt(args, "memBank", 1)
+        val startAddr = argInt(args, "startAddr", 2)
+        val length = argInt(args, "length", 6)
+        return AccessQueue.Operation.read(epcBytes, memBank, startAddr, length, pwd, callback)
+            .cacheable(args["cache"] == true)
+    }
+
+    private fun writeOp(args: Map<*, *>, callback: AccessQueue.Callback): AccessQueue.Operation? {
+        val epcBytes = hexToBytesOrNull(args["epc"] as? String) ?: return null
+        val pwd = passwordBytes(args["password"] as? String) ?: return null
+        val dataBytesRaw = hexToBytesOrNull(args["data"] as? String) ?: return null
+        val memBank = argInt(args, "memBank", 1)
+        val startAddr = argInt(args, "startAddr", 2)
+        val length = argInt(args, "length", 6)
+
+        val expectedBytes = (length * 2).coerceAtLeast(0)
+        val dataBytes = ByteArray(expectedBytes)
+        val copyLen = minOf(expectedBytes, dataBytesRaw.size)
+        System.arraycopy(dataBytesRaw, 0, dataBytes, 0, copyLen)
+        return AccessQueue.Operation.write(epcBytes, memBank, startAddr, length, dataBytes, pwd, callback)
+    }
+
+    // Changed words only, see EpcWriter; null on bad arguments
+    private fun epcWriter(queue: AccessQueue, args: Map<*, *>, listener: EpcWriter.Listener): EpcWriter? {
+        val current = hexToBytesOrNull(args["targetEpc"] as? String) ?: return null
+        val target = hexToBytesOrNull(args["newEpc"] as? String) ?: return null
+        val pwd = passwordBytes(args["password"] as? String) ?: return null
+        if (current.isEmpty() || target.isEmpty()) return null
+        val options = EpcWriter.Options().apply {
+            verify = args["verify"] as? Boolean ?: true
+            password = pwd
+        }
+        return EpcWriter(queue, current, target, -1, options, listener)
+    }
+
+    private fun epcWriterResultMap(writer: EpcWriter): Map<String, Any?> {
+        val epc = writer.currentEpc
+        return mapOf(
+            "ok" to writer.isSuccess,
+            "error" to writer.error,
+            "epc" to TagRecord.toHex(epc, epc.size),
+            "words" to writer.wordsWritten
+        )
+    }
+
+    private fun blockStats(t: BlockTransfer): MutableMap<String, Any?> {
+        return mutableMapOf(
+            "bytes" to t.doneBytes,
+            "totalBytes" to t.totalBytes,
+            "chunks" to t.chunks,
+            "retries" to t.retries,
+            "elapsedMs" to t.elapsedMs,
+            "bytesPerSecond" to t.bytesPerSecond
+        )
+    }
+
+    // Chunked read (data == null) or write of a region; progress goes to onBlockProgress
+    private fun startBlock(args: Map<*, *>, write: Boolean, onDone: (BlockTransfer) -> Unit): Boolean {
+        val queue = accessQueue
+        val epcBytes = hexToBytesOrNull(args["epc"] as? String)
+        val pwd = passwordBytes(args["password"] as? String)
+        if (!isConnected || queue == null || epcBytes == null || epcBytes.isEmpty() || pwd == null) return false
+        val memBank = argInt(args, "memBank", 3)
+        val startAddr = argInt(args, "startAddr", 0)
+        val options = BlockTransfer.Options().apply {
+            chunkWords = argInt(args, "chunkWords", 0)
+            maxRetries = argInt(args, "maxRetries", 2)
+            password = pwd
+        }
+        val epcHex = TagRecord.toHex(epcBytes, epcBytes.size)
+        val listener = object : BlockTransfer.Listener {
+            override fun onProgress(transfer: BlockTransfer) {
+                methodChannel?.invokeMethod("onBlockProgress", blockStats(transfer).apply {
+                    put("epc", epcHex)
+                    put("write", write)
+                })
+            }
+
+            override fun onFinished(transfer: BlockTransfer) = onDone(transfer)
+        }
+        val transfer = if (write) {
+            val raw = hexToBytesOrNull(args["data"] as? String) ?: return false
+            val length = argInt(args, "length", (raw.size + 1) / 2)
+            val data = ByteArray(length.coerceAtLeast(0) * 2)
+            System.arraycopy(raw, 0, data, 0, minOf(raw.size, data.size))
+            BlockTransfer.write(queue, epcBytes, memBank, startAddr, length, data, options, listener)
+        } else {
+            BlockTransfer.read(queue, epcBytes, memBank, startAddr, argInt(args, "length", 0), options, listener)
+        }
+        transfer.start()
+        return true
+    }
+
+    private fun submitOp(op: AccessQueue.Operation?): Boolean {
+        val queue = accessQueue
+        if (!isConnected || queue == null || op == null) return false
+        queue.submit(op)
+        return true
+    }
+
+    private fun opResultMap(op: AccessQueue.Operation): Map<String, Any?> {
+        return mapOf(
+            "ok" to op.success,
+            "data" to op.result,
+            "error" to op.error,
+            "cached" to op.cached,
+            "queueMs" to op.queueMs(),
+            "latencyMs" to op.latencyMs()
+        )
+    }
+
+    private fun commissionStats(job: CommissioningJob): MutableMap<String, Any?> {
+        return mutableMapOf(
+            "total" to job.total,
+            "completed" to job.completed,
+            "succeeded" to job.succeeded,
+            "failed" to job.failed,
+            "retries" to job.retries,
+            "wordsWritten" to job.wordsWritten,
+            "elapsedMs" to job.elapsedMs,
+            "tagsPerMinute" to job.tagsPerMinute
+        )
+    }
+
+    private val commissioningListener = object : CommissioningJob.Listener {
+        override fun onProgress(job: CommissioningJob) {
+            methodChannel?.invokeMethod("onCommissionProgress", commissionStats(job))
         }
-        if (op?.wasScanning == true) {
-            isScanning = true
-            startInventory(0)
-            mainHandler.removeCallbacks(tuneRunnable)
-            mainHandler.postDelayed(tuneRunnable, 1500)
+
+        override fun onFinished(job: CommissioningJob) {
+            if (commissioningJob === job) commissioningJob = null
+            val stats = commissionStats(job)
+            stats["cancelled"] = job.isCancelled
+            stats["results"] = job.items.map {
+                mapOf(
+                    "target" to TagRecord.toHex(it.target, it.target.size),
+                    "newEpc" to TagRecord.toHex(it.newEpc, it.newEpc.size),
+                    "ok" to it.success,
+                    "attempts" to it.attempts,
+                    "error" to it.error
+                )
+            }
+            methodChannel?.invokeMethod("onCommissionFinished", stats)
+        }
+    }
+
+    private fun commissioningItems(call: MethodCall): List<CommissioningJob.Item>? {
+        val pairs = call.argument<List<Map<*, *>>>("pairs")
+        if (pairs != null) {
+            return pairs.map {
+                val target = hexToBytesOrNull(it["target"] as? String) ?: return null
+                val newEpc = hexToBytesOrNull(it["newEpc"] as? String) ?: return null
+                if (target.isEmpty() || newEpc.isEmpty()) return null
+                CommissioningJob.Item(target, newEpc)
+            }
+        }
+        val targets = call.argument<List<String>>("targets") ?: return null
+        val prefix = hexToBytesOrNull(call.argument<String>("prefix")) ?: return null
+        val startSerial = call.argument<Number>("startSerial")?.toLong() ?: 1L
+        val epcBytes = call.argument<Int>("epcBytes") ?: 12
+        if (prefix.size >= epcBytes) return null
+        val newEpcs = CommissioningJob.generateEpcs(prefix, startSerial, targets.size, epcBytes)
+        return targets.mapIndexed { i, t ->
+            val target = hexToBytesOrNull(t) ?: return null
+            if (target.isEmpty()) return null
+            CommissioningJob.Item(target, newEpcs[i])
         }
     }
 
@@ -139,7 +409,8 @@ class RfidPlugin(private val context: Context) : RfidServiceManager.StatusListen
     }
 
     private fun applyConfig(index: Int) {
-        if (!isConnected || rfidManager == null) return
+        val r = reader
+        if (!isConnected || r == null) return
         val pSize = powerCandidates.size
         val aSize = antennaCandidates.size
         val tSize = triggerCandidates.size
@@ -150,201 +421,356 @@ class RfidPlugin(private val context: Context) : RfidServiceManager.StatusListen
         val trig = triggerCandidates[(index / (pSize * aSize)) % tSize]
         val freq = freqCandidates[(index / (pSize * aSize * tSize)) % fSize]
 
-        val powerRet = rfidManager?.setOutputPower(readId, power) ?: -1
-        val triggerRet = rfidManager?.setTrigger(trig) ?: -1
-        val antRet = rfidManager?.setWorkAntenna(readId, ant) ?: -1
-        val freqRet = rfidManager?.setFrequencyRegion(readId, freq.region, freq.start, freq.end) ?: -1
+        // Closed-loop power control owns the power
+        val powerRet = if (powerController.isEnabled) 0 else r.setOutputPower(power.toInt())
+        val triggerRet = r.setTrigger(trig)
+        // A configured antenna schedule owns the antenna
+        val antRet = if (antennaScheduler.isEnabled) 0 else r.setWorkAntenna(ant.toInt())
+        val freqRet = r.setFrequencyRegion(freq.region.toInt(), freq.start.toInt(), freq.end.toInt())
+        channelQuality.setBand(freq.region.toInt(), freq.start.toInt(), freq.end.toInt())
+        appliedRange = -1
 
         Log.d(
             TAG,
             "applyConfig idx=$index power=$power ant=$ant trig=$trig freqRegion=${freq.region} start=${freq.start} end=${freq.end} retP=$powerRet retA=$antRet retT=$triggerRet retF=$freqRet"
         )
-        lastConfigChangeMs = SystemClock.elapsedRealtime()
     }
 
-    private val tuneRunnable = object : Runnable {
-        override fun run() {
-            if (!isScanning || !isConnected) return
-
-            val now = SystemClock.elapsedRealtime()
-            val noTagMs = now - lastTagSeenMs
-            val sinceCfgMs = now - lastConfigChangeMs
-            if (noTagMs > 4000 && sinceCfgMs > 4000) {
-                val cnt = configCount()
-                tuningIndex = (tuningIndex + 1) % cnt
-                applyConfig(tuningIndex)
-                startInventory(0)
-            }
-            mainHandler.postDelayed(this, 1500)
-        }
-    }
-
-    private fun looksLikeHexBytes(value: String): Boolean {
-        val v = value.trim()
-        if (v.isEmpty()) return false
-        val spaced = Regex("^[0-9A-Fa-f]{2}(\\s[0-9A-Fa-f]{2})+$")
-        val compact = Regex("^[0-9A-Fa-f]{8,}$")
-        return spaced.matches(v) || compact.matches(v)
-    }
-
-    private fun startInventory(state: Byte) {
-        if (!isConnected || rfidManager == null) return
-        val minIntervalMs = 400L
-        val now = SystemClock.elapsedRealtime()
-        val delta = now - lastInventoryStartMs
-        if (delta < minIntervalMs) {
-            pendingInventoryState = state
-            if (pendingInventory) return
-            pendingInventory = true
-            val delay = minIntervalMs - delta
-            mainHandler.postDelayed({
-                pendingInventory = false
-                startInventory(pendingInventoryState)
-            }, delay)
-            return
+    // Runs on the scan loop thread
+    private val scanEffects: ScanStateMachine.Effects = object : ScanStateMachine.Effects {
+        override fun inventoryRound(round: Int, session: Int, target: Int): Int {
+            val r = reader
+            if (!isConnected || r == null) return -1
+            val range = channelQuality.nextRange()
+            if (range >= 0 && range != appliedRange) {
+                r.setFrequencyRegion(ChannelQuality.region(range), ChannelQuality.first(range), ChannelQuality.last(range))
+                appliedRange = range
+            }
+            val ant = antennaScheduler.antennaForRound(EventLoop.nowMs())
+            if (ant >= 0 && ant != appliedAntenna) {
+                r.setWorkAntenna(ant)
+                appliedAntenna = ant
+            }
+            // Locate compares RSSI over time, so power stays put while it runs
+            val power = if (locateTracker == null) powerController.powerForRound(EventLoop.nowMs()) else -1
+            if (power >= 0 && power != appliedPower) {
+                r.setOutputPower(power)
+                appliedPower = power
+            }
+            roundCrcErrors = metrics.crcErrors.sum()
+            roundStartNanos = SystemClock.elapsedRealtimeNanos()
+            // The machine sends no round before a stopped one has ended: its reads are over
+            roundStopped = false
+            roundInFlight = round
+            // A release the machine ignored (idle, locating) must not be timed later
+            stopRequestedNanos = 0
+            val ret = r.inventoryRound(session, target)
+            Log.d(TAG, "inventory(session=$session, target=$target) ret=$ret")
+            return ret
+        }
+
+        override fun applyConfig(index: Int) = this@RfidPlugin.applyConfig(index)
+
+        override fun schedule(what: Int, arg: Int, delayMs: Long) = scanLoop.postDelayed(what, arg, delayMs)
+
+        override fun onScanningChanged(scanning: Boolean) {
+            if (scanning) scanSeenReset = true
+            mainHandler.post {
+                uploadQueue?.setInventoryActive(scanning)
+                methodChannel?.invokeMethod("onScanningStateChanged", scanning)
+            }
+        }
+
+        // Silent from here: the gate closes before the module is told, so nothing of
+        // the round gets through while the stop is on its way
+        override fun stopRound() {
+            roundStopped = true
+            deliverGen++
+            val unsent = eventStream.discardReads()
+            if (unsent > 0) metrics.lateReadsDropped.add(unsent)
+            val ret = reader?.stopRound() ?: -1
+            val requested = stopRequestedNanos
+            if (requested != 0L) {
+                stopRequestedNanos = 0
+                metrics.stopToSilence.recordNanos(SystemClock.elapsedRealtimeNanos() - requested)
+            }
+            Log.d(TAG, "stopRound ret=$ret")
+            armNextRound()
+        }
+
+        override fun onPaused() {
+            accessQueue?.onInventoryPaused()
         }
+    }
 
-        lastInventoryStartMs = now
-        val ret = rfidManager?.customizedSessionTargetInventory(readId, 1, state, 1) ?: -1
-        Log.d(TAG, "inventory(state=$state) ret=$ret")
+    // The first round of the next press only has to be sent
+    private fun armNextRound() {
+        reader?.armRound(scanStrategy.options.session, InventoryStrategy.TARGET_A)
     }
+
+    // Closed by a stop until the next round starts: reads still arriving belong to the
+    // stopped round. deliverGen (scan loop thread only) drops what is already posted
+    @Volatile private var roundStopped = false
+    // Number of the round last sent, carried by its end to the machine
+    @Volatile private var roundInFlight = 0
+    @Volatile private var deliverGen = 0
+    // Trigger release / stopInventory, for metrics.stopToSilence
+    @Volatile private var stopRequestedNanos = 0L
+    // Trigger press, for metrics.triggerToFirstTag; taken by the first read after it
+    private val triggerNanos = java.util.concurrent.atomic.AtomicLong()
+
+    // Channel range of each round, chosen by per-channel read yield; appliedRange is
+    // what the module was last set to (scan loop thread, -1 = unknown)
+    private val channelQuality = ChannelQuality()
+    @Volatile private var appliedRange = -1
+    @Volatile private var roundCrcErrors = 0L
+    // Antenna of each round on multi-antenna mounts; switches only between rounds
+    private val antennaScheduler = AntennaScheduler()
+    @Volatile private var appliedAntenna = -1
+    // Output power of each round from yield, collisions and the read zone, when enabled
+    private val powerController = PowerController()
+    @Volatile private var appliedPower = -1
+
+    private val scanStrategy = InventoryStrategy()
+    private val scanMachine: ScanStateMachine = ScanStateMachine(scanEffects, configCount(), scanStrategy)
+    // Trigger press to inventory command on the wire goes through this thread only
+    private val scanLoop: EventLoop = EventLoop("rfid-scan", Thread.MAX_PRIORITY, scanMachine)
+    // Tags seen since the last round end, counted before the inventory filter
+    private val roundTags = java.util.concurrent.atomic.AtomicInteger()
+    // ... and how many of them are new in this scan. scanSeen belongs to the reader's
+    // thread; a new scan only raises scanSeenReset
+    private val roundNewTags = java.util.concurrent.atomic.AtomicInteger()
+    private val scanSeen = EpcIndex(1024)
+    @Volatile private var scanSeenReset = false
     
-    private val rfidCallback = object : IRfidCallback.Stub() {
-        override fun onInventoryTag(ant: Byte, pc: String?, epc: String?, rssi: String?,
-                freq: Byte, tid: String?, userData: String?, epcLen: Int, tidLen: Int, 
-                userDataLen: String?) {
-            lastTagSeenMs = SystemClock.elapsedRealtime()
-            Log.d(TAG, "onInventoryTag raw: ant=$ant pc=$pc epc=$epc rssi=$rssi freq=$freq tid=$tid userData=$userData epcLen=$epcLen tidLen=$tidLen userDataLen=$userDataLen")
-
-            val epcFields = listOf(pc, epc, rssi, userData).filterNotNull().map { it.trim() }
-            val epcRaw = epcFields
-                .filter { looksLikeHexBytes(it) }
-                .maxByOrNull { it.replace(" ", "").length }
-                ?: (rssi ?: epc ?: pc ?: "")
-            val epcOut = epcRaw.replace(" ", "")
-            if (epcOut.isEmpty()) return
-
-            val rssiInt = tid?.trim()?.toIntOrNull()
-            val rssiValue = if (rssiInt != null) {
-                if (rssiInt in 0..255) rssiInt - 129 else rssiInt
-            } else {
-                -70
+    // Called on the reader's own thread (binder threads or the serial reader thread)
+    private val readerListener = object : RfidReader.Listener {
+        override fun onTagRecord(record: TagRecord) {
+            if (roundStopped) {
+                metrics.lateReadsDropped.increment()
+                return
+            }
+            if (triggerNanos.get() != 0L) {
+                val pressed = triggerNanos.getAndSet(0)
+                if (pressed != 0L) metrics.triggerToFirstTag.recordNanos(record.timestampNanos - pressed)
+            }
+            roundTags.incrementAndGet()
+            channelQuality.onRead(record.freq.toInt(), record.rssi)
+            antennaScheduler.onRead(record)
+            powerController.onRead(record)
+            val locate = locateTracker
+            if (locate != null) {
+                locate.offer(record)
+                return
+            }
+            if (scanSeenReset) {
+                scanSeenReset = false
+                scanSeen.clear()
+            }
+            val known = scanSeen.size()
+            if (scanSeen.add(record.epcHi, record.epcKeyLo) == known) roundNewTags.incrementAndGet()
+            val filter = inventoryFilter
+            if (filter != null && !filter.matches(record)) return
+            sessionStore.append(record)
+            reconciler?.classify(record)
+            // Strings are only built here, at the Flutter boundary
+            val epcOut = record.epcHex()
+            val tidOut = if (record.tidLen > 0) record.tidHex() else ""
+            val userOut = if (record.userLen > 0) record.userHex() else null
+            val rssiValue = record.rssi
+            val decodedNanos = record.timestampNanos
+            if (eventStream.isOpen) {
+                if (eventStream.offerRead(epcOut, tidOut, userOut, rssiValue, decodedNanos)) mainHandler.post(flushEvents)
+                return
             }
+            val gen = deliverGen
 
             mainHandler.post {
-                Log.d(TAG, "emit onTagRead: epc=$epcOut tid=${tid ?: ""} rssi=$rssiValue")
+                if (gen != deliverGen) {
+                    metrics.lateReadsDropped.increment()
+                    return@post
+                }
                 methodChannel?.invokeMethod("onTagRead", mapOf(
                     "epc" to epcOut,
-                    "tid" to (tid ?: ""),
+                    "tid" to tidOut,
+                    "user" to userOut,
                     "rssi" to rssiValue
                 ))
+                metrics.decodedToFlutter.recordNanos(SystemClock.elapsedRealtimeNanos() - decodedNanos)
+                metrics.tagsDelivered.increment()
             }
         }
         
-        override fun onInventoryTagEnd(ant: Int, tagNum: Int, readRate: Int, totalCount: Int, flag: Byte) {
-            Log.d(TAG, "onInventoryTagEnd: ant=$ant tagNum=$tagNum readRate=$readRate totalCount=$totalCount flag=$flag")
-            if (isScanning && rfidManager != null) {
-                val now = SystemClock.elapsedRealtime()
-                val delayMs = if (tagNum <= 0 && (now - lastTagSeenMs) > 1500) 800L else 80L
-                mainHandler.postDelayed({
-                    if (isScanning) startInventory(1)
-                }, delayMs)
-            }
-        }
-        
-        override fun onOperationTag(tagType: String?, pc: String?, epc: String?, data: String?, 
-                dataLen: Int, ant: Byte, state: Byte) {
-            Log.d(TAG, "onOperationTag: tagType=$tagType pc=$pc epc=$epc data=$data dataLen=$dataLen ant=$ant state=$state")
-            val op = pendingOp ?: return
-            if (op.type == PendingOpType.READ) {
-                pendingOp = null
-                mainHandler.removeCallbacks(opTimeoutRunnable)
-                try {
-                    rfidManager?.cancelAccessEpcMatch(readId)
-                } catch (e: Exception) {
-                }
-                if (op.wasScanning) {
-                    isScanning = true
-                    startInventory(0)
-                    mainHandler.removeCallbacks(tuneRunnable)
-                    mainHandler.postDelayed(tuneRunnable, 1500)
-                }
-                op.result.success(data?.replace(" ", "") ?: "")
+        override fun onRoundEnd(tagNum: Int) {
+            val started = roundStartNanos
+            if (started != 0L) {
+                roundStartNanos = 0
+                metrics.inventoryRound.recordNanos(SystemClock.elapsedRealtimeNanos() - started)
             }
+            channelQuality.onRoundEnd(metrics.crcErrors.sum() - roundCrcErrors)
+            antennaScheduler.onRoundEnd()
+            powerController.onRoundEnd(reader?.lastRoundTruncated() == true, EventLoop.nowMs())
+            val tags = maxOf(tagNum, roundTags.getAndSet(0))
+            scanLoop.post(ScanStateMachine.EV_ROUND_END,
+                ScanStateMachine.roundEndArg(roundInFlight, tags, roundNewTags.getAndSet(0)))
         }
-        
-        override fun onOperationTagEnd(count: Int) {
-            Log.d(TAG, ">>> onOperationTagEnd")
-        }
-        
-        override fun onExeCMDStatus(cmd: Byte, status: Byte) {
-            Log.d(TAG, "onExeCMDStatus: cmd=$cmd status=$status")
-            val op = pendingOp ?: return
-            if (op.type != PendingOpType.WRITE) return
-            if (!writeCompletionArmed) return
-
-            val st = status.toInt() and 0xFF
-            val ok = st == 0x10
-            pendingOp = null
-            writeCompletionArmed = false
-            mainHandler.removeCallbacks(opTimeoutRunnable)
-            try {
-                rfidManager?.cancelAccessEpcMatch(readId)
-            } catch (e: Exception) {
-            }
-            if (op.wasScanning) {
-                isScanning = true
-                startInventory(0)
-                mainHandler.removeCallbacks(tuneRunnable)
-                mainHandler.postDelayed(tuneRunnable, 1500)
-            }
-            op.result.success(ok)
+
+        override fun onAccessRead(epc: String?, data: String?) {
+            accessQueue?.onOperationTag(epc, data)
         }
-        
-        override fun refreshSetting(rfidDate: RfidDate?) {
-            Log.d(TAG, ">>> refreshSetting")
+
+        override fun onAccessStatus(cmd: Int, status: Int) {
+            accessQueue?.onExeCMDStatus(cmd, status)
         }
     }
     
     override fun onStatus(status: RfidServiceManager.STATUS, manager: RfidManagerWrapper?) {
         Log.d(TAG, "onStatus: $status")
-        if (status == RfidServiceManager.STATUS.SUCCESS && manager != null) {
-            rfidManager = manager
-            val connected = if (rfidManager!!.isConnected) true else rfidManager!!.connectCom("/dev/ttyHSL0", 115200)
-            Log.d(TAG, "connectCom: $connected")
-            if (connected) {
-                readId = rfidManager!!.readId
-                isConnected = true
-                try { rfidManager!!.unregisterCallback(rfidCallback) } catch (e: Exception) { }
-                rfidManager!!.registerCallback(rfidCallback)
-                Log.d(TAG, "Connected! readId=$readId, callback registered")
-                mainHandler.post { methodChannel?.invokeMethod("onConnectionChanged", true) }
-
-                val powerRet = rfidManager?.setOutputPower(readId, 30.toByte()) ?: -1
-                Log.d(TAG, "setOutputPower(30) ret=$powerRet")
-
-                val triggerRet = rfidManager?.setTrigger(false) ?: -1
-                Log.d(TAG, "setTrigger(false) ret=$triggerRet")
-
-                val antRet = rfidManager?.setWorkAntenna(readId, 1.toByte()) ?: -1
-                Log.d(TAG, "setWorkAntenna(1) ret=$antRet")
-
-                val freqRet = rfidManager?.setFrequencyRegion(readId, 2.toByte(), 0.toByte(), 6.toByte()) ?: -1
-                Log.d(TAG, "setFrequencyRegion(region=2,start=0,end=6) ret=$freqRet")
-
-                // Do NOT auto-start scanning on connect
-                isScanning = false
-                lastTagSeenMs = SystemClock.elapsedRealtime()
-                lastConfigChangeMs = 0
-                tuningIndex = 0
-            }
-        } else if (status == RfidServiceManager.STATUS.NO_SERVICE) {
-            Log.e(TAG, "NO_SERVICE - RFID service not available")
+        when (status) {
+            RfidServiceManager.STATUS.SUCCESS -> {
+                serviceManager = manager
+                if (reader == null) selectReader()
+            }
+            RfidServiceManager.STATUS.NO_SERVICE -> {
+                Log.e(TAG, "NO_SERVICE - RFID service not available")
+                serviceManager = null
+                if (reader == null) selectReader()
+            }
+            RfidServiceManager.STATUS.DISCONNECTED -> {
+                serviceManager = null
+                mainHandler.post {
+                    // The service died under us: carry on over the serial port
+                    if (reader is ServiceRfidReader) {
+                        Log.w(TAG, "Service disconnected, failing over to the direct path")
+                        detachReader()
+                        selectReader()
+                    }
+                }
+            }
+        }
+    }
+
+    // Opens the reader for readerPath on a worker thread; with both paths available
+    // in auto mode ReaderSelector benchmarks them and keeps the faster one
+    private fun selectReader() {
+        if (selecting) return
+        val manager = serviceManager
+        val port = serialPort
+        val baud = baudRate
+        val candidates = ArrayList<ReaderSelector.Candidate>()
+        if (readerPath != "direct" && manager != null) {
+            candidates.add(ReaderSelector.Candidate("service") {
+                ServiceRfidReader(manager).takeIf { it.connect(port, baud) }
+            })
+        }
+        if (readerPath != "service") {
+            candidates.add(ReaderSelector.Candidate("direct") {
+                DirectRfidReader().takeIf { it.connect(port, baud) }
+            })
+        }
+        if (candidates.isEmpty()) {
             mainHandler.post { methodChannel?.invokeMethod("onConnectionChanged", false) }
+            return
+        }
+        selecting = true
+        Thread({
+            val selected = ReaderSelector.select(candidates, SELECT_BENCHMARK_MS)
+            mainHandler.post {
+                selecting = false
+                val r = selected.reader
+                if (r == null) {
+                    Log.e(TAG, "No reader path available: ${selected.candidates}")
+                    methodChannel?.invokeMethod("onConnectionChanged", false)
+                } else {
+                    attachReader(r, selected.candidates)
+                }
+            }
+        }, "reader-select").start()
+    }
+
+    private fun attachReader(r: RfidReader, candidates: List<ReaderSelector.Candidate>) {
+        reader = r
+        r.setListener(readerListener)
+        r.setRecorder(trafficRecorder)
+        isConnected = true
+        sessionStore.openAsync()
+        accessQueue?.cancelAll()
+        accessQueue = AccessQueue(r, mainHandler, accessHost).apply { setCache(tagCache) }
+        armNextRound()
+        Log.d(TAG, "Connected over ${r.name}: $candidates")
+        mainHandler.post {
+            methodChannel?.invokeMethod("onConnectionChanged", true)
+            methodChannel?.invokeMethod("onReaderSelected", mapOf(
+                "path" to r.name,
+                "benchmark" to candidates.map {
+                    mapOf(
+                        "path" to it.name,
+                        "readsPerSecond" to it.readsPerSecond,
+                        "rounds" to it.rounds,
+                        "error" to it.error
+                    )
+                }
+            ))
+        }
+
+        val powerRet = r.setOutputPower(30)
+        Log.d(TAG, "setOutputPower(30) ret=$powerRet")
+
+        val triggerRet = r.setTrigger(false)
+        Log.d(TAG, "setTrigger(false) ret=$triggerRet")
+
+        val antRet = r.setWorkAntenna(1)
+        Log.d(TAG, "setWorkAntenna(1) ret=$antRet")
+
+        val freqRet = r.setFrequencyRegion(2, 0, 6)
+        Log.d(TAG, "setFrequencyRegion(region=2,start=0,end=6) ret=$freqRet")
+        channelQuality.setBand(2, 0, 6)
+        appliedRange = -1
+        appliedAntenna = -1
+        appliedPower = -1
+
+        r.setSelectFilter(inventoryFilter)
+
+        // Do NOT auto-start scanning on connect
+        scanLoop.start()
+        scanLoop.post(ScanStateMachine.EV_RESET, 0)
+    }
+
+    private fun detachReader() {
+        scanLoop.post(ScanStateMachine.EV_RESET, 0)
+        endLocate()
+        commissioningJob?.cancel()
+        accessQueue?.cancelAll()
+        accessQueue = null
+        if (tagCachePersist) Thread({ tagCache.save(tagCacheFile) }, "tag-cache-save").start()
+        reader?.let {
+            it.setListener(null)
+            it.setRecorder(null)
+            it.disconnect()
         }
+        reader = null
+        isConnected = false
     }
     
     fun setMethodChannel(channel: MethodChannel) { this.methodChannel = channel }
+
+    // Listen arguments: {credits}, the first grant; more follow through grantEvents
+    fun setEventChannel(channel: EventChannel) {
+        channel.setStreamHandler(object : EventChannel.StreamHandler {
+            override fun onListen(arguments: Any?, events: EventChannel.EventSink) {
+                val credits = ((arguments as? Map<*, *>)?.get("credits") as? Number)?.toLong() ?: 0L
+                eventSink = events
+                eventStream.open(credits)
+                Log.d(TAG, "Event stream open, credits=$credits")
+            }
+
+            override fun onCancel(arguments: Any?) {
+                eventStream.close()
+                eventSink = null
+                Log.d(TAG, "Event stream closed")
+            }
+        })
+    }
     
     fun initialize() {
         Log.d(TAG, "Initializing RfidServiceManager...")
@@ -354,146 +780,556 @@ class RfidPlugin(private val context: Context) : RfidServiceManager.StatusListen
     fun handleMethodCall(call: MethodCall, result: MethodChannel.Result) {
         when (call.method) {
             "connect" -> {
+                serialPort = call.argument<String>("port") ?: DEFAULT_PORT
+                baudRate = call.argument<Int>("baudRate") ?: DEFAULT_BAUD
+                readerPath = call.argument<String>("readerPath") ?: "auto"
                 if (isConnected) result.success(true)
                 else { initialize(); result.success(true) }
             }
             "disconnect" -> {
-                isScanning = false
-                mainHandler.removeCallbacks(tuneRunnable)
-                rfidManager?.unregisterCallback(rfidCallback)
-                rfidManager?.disConnect()
+                detachReader()
                 RfidServiceManager.getInstance(context).release()
-                isConnected = false
+                serviceManager = null
+                sessionStore.closeAsync()
                 result.success(true)
             }
             "startInventory" -> {
                 if (!isConnected) { result.success(false); return }
-                isScanning = true
-                lastTagSeenMs = SystemClock.elapsedRealtime()
-                mainHandler.removeCallbacks(tuneRunnable)
-                mainHandler.postDelayed(tuneRunnable, 1500)
-                val ret = rfidManager?.customizedSessionTargetInventory(readId, 1, 0, 1) ?: -1
-                Log.d(TAG, "startInventory: $ret")
-                mainHandler.post { methodChannel?.invokeMethod("onScanningStateChanged", true) }
-                result.success(ret >= 0)
+                scanLoop.post(ScanStateMachine.EV_START, 0)
+                result.success(true)
             }
             "stopInventory" -> {
-                isScanning = false
-                mainHandler.removeCallbacks(tuneRunnable)
+                triggerNanos.set(0)
+                stopRequestedNanos = SystemClock.elapsedRealtimeNanos()
+                scanLoop.post(ScanStateMachine.EV_STOP, 0)
+                result.success(true)
+            }
+            "setInventoryStrategy" -> {
+                val d = InventoryStrategy.DEFAULT
+                scanStrategy.setOptions(InventoryStrategy.Options(
+                    call.argument<Int>("session") ?: d.session,
+                    call.argument<Boolean>("dualTarget") ?: d.dualTarget,
+                    call.argument<Int>("minNewTags") ?: d.minNewTags,
+                    call.argument<Int>("quietRounds") ?: d.quietRounds,
+                    call.argument<Boolean>("stopWhenComplete") ?: d.stopWhenComplete
+                ))
+                result.success(true)
+            }
+            "startLocate" -> {
+                val epc = hexToBytesOrNull(call.argument<String>("epc"))
+                if (epc == null || epc.isEmpty() || epc.size > TagRecord.MAX_EPC_BYTES) {
+                    result.error("INVALID_ARGUMENTS", "Expected epc hex", null)
+                    return
+                }
+                if (!isConnected) { result.success(false); return }
+                val tracker = LocateTracker(epc)
+                locateIntervalMs = (call.argument<Int>("intervalMs")?.toLong() ?: DEFAULT_LOCATE_INTERVAL_MS)
+                    .coerceIn(16L, 1000L)
+                locateReportedReads = 0
+                locateTracker = tracker
+                val masked = reader?.setSelectFilter(tracker.filter) ?: false
+                Log.d(TAG, "Locating ${tracker.epcHex()}, select mask ${if (masked) "in hardware" else "in software"}")
+                scanLoop.post(ScanStateMachine.EV_LOCATE, 1)
+                mainHandler.removeCallbacks(locateTicker)
+                mainHandler.post(locateTicker)
+                result.success(true)
+            }
+            "stopLocate" -> {
+                scanLoop.post(ScanStateMachine.EV_LOCATE, 0)
+                endLocate()
+                result.success(true)
+            }
+            "setAntennaSchedule" -> {
+                val ports = call.argument<List<Int>>("antennas") ?: emptyList()
+                val dwell = when (val d = call.argument<Any>("dwellMs")) {
+                    is Number -> longArrayOf(d.toLong())
+                    is List<*> -> d.map { (it as Number).toLong() }.toLongArray()
+                    else -> LongArray(0)
+                }
+                antennaScheduler.configure(ports.toIntArray(), dwell, call.argument<Boolean>("weighted") ?: true)
+                appliedAntenna = -1
+                result.success(true)
+            }
+            "getAntennaStats" -> {
+                val stats = antennaScheduler.snapshot(EventLoop.nowMs())
+                if (call.argument<Boolean>("reset") == true) antennaScheduler.resetStats()
+                result.success(stats)
+            }
+            "getChannelQuality" -> {
+                result.success(channelQuality.snapshot())
+            }
+            "setChannelExclusion" -> {
+                channelQuality.setExclusion(call.argument<Boolean>("enabled") ?: true)
+                if (call.argument<Boolean>("reset") == true) channelQuality.reset()
+                result.success(true)
+            }
+            "configureTagCache" -> {
+                tagCache.setMaxEntries(call.argument<Int>("maxEntries") ?: TagMemoryCache.DEFAULT_MAX_ENTRIES)
+                val persist = call.argument<Boolean>("persist") ?: false
+                val load = persist && !tagCachePersist
+                tagCachePersist = persist
+                if (load) {
+                    Thread({
+                        tagCache.load(tagCacheFile)
+                        mainHandler.post { result.success(true) }
+                    }, "tag-cache-load").start()
+                } else {
+                    if (!persist) tagCacheFile.delete()
+                    result.success(true)
+                }
+            }
+            "clearTagCache" -> {
+                tagCache.clear()
+                result.success(true)
+            }
+            "getTagCacheStats" -> {
+                result.success(tagCache.stats())
+            }
+            "setPowerControl" -> {
+                powerController.configure(
+                    call.argument<Boolean>("enabled") ?: true,
+                    call.argument<Int>("minDbm") ?: PowerController.DEFAULT_MIN_DBM,
+                    call.argument<Int>("maxDbm") ?: PowerController.DEFAULT_MAX_DBM,
+                    call.argument<Int>("zoneRssi") ?: PowerController.NO_ZONE
+                )
+                appliedPower = -1
                 result.success(true)
             }
+            "getPowerControl" -> {
+                result.success(powerController.snapshot())
+            }
             "setOutputPower" -> {
                 val power = call.argument<Int>("power") ?: 30
-                val ret = rfidManager?.setOutputPower(readId, power.toByte()) ?: -1
+                val ret = reader?.setOutputPower(power) ?: -1
+                if (ret >= 0) appliedPower = power
                 result.success(ret >= 0)
             }
             "readMemory" -> {
-                val op = beginOp(PendingOpType.READ, result) ?: return
-                val epc = call.argument<String>("epc")
-                val memBank = call.argument<Int>("memBank") ?: 1
-                val startAddr = call.argument<Int>("startAddr") ?: 2
-                val length = call.argument<Int>("length") ?: 6
-                val pwd = passwordBytes(call.argument<String>("password"))
-                val epcBytes = hexToBytesOrNull(epc)
-                if (pwd == null || epcBytes == null) {
-                    endOp()
-                    result.success(null)
+                val args = call.arguments as? Map<*, *> ?: emptyMap<String, Any?>()
+                // More than one command carries: chunked
+                if (argInt(args, "length", 6) > BlockTransfer.DEFAULT_READ_CHUNK_WORDS) {
+                    if (!startBlock(args, false) { result.success(it.dataHex) }) result.success(null)
                     return
                 }
-
-                val setRet = rfidManager?.setAccessEpcMatch(readId, (epcBytes.size and 0xFF).toByte(), epcBytes) ?: -1
-                Log.d(TAG, "setAccessEpcMatch ret=$setRet")
-                val ret = rfidManager?.readTag(readId, memBank.toByte(), startAddr.toByte(), length.toByte(), pwd) ?: -1
-                Log.d(TAG, "readTag ret=$ret")
-                if (ret < 0) {
-                    endOp()
-                    op.result.success(null)
-                }
+                val op = readOp(args) { result.success(if (it.success) it.result else null) }
+                if (!submitOp(op)) result.success(null)
             }
             "writeMemory" -> {
-                val op = beginOp(PendingOpType.WRITE, result) ?: return
-                val epc = call.argument<String>("epc")
-                val memBank = call.argument<Int>("memBank") ?: 1
-                val startAddr = call.argument<Int>("startAddr") ?: 2
-                val length = call.argument<Int>("length") ?: 6
-                val dataHex = call.argument<String>("data")
-                val pwd = passwordBytes(call.argument<String>("password"))
-                val epcBytes = hexToBytesOrNull(epc)
-                val dataBytesRaw = hexToBytesOrNull(dataHex)
-                if (pwd == null || epcBytes == null || dataBytesRaw == null) {
-                    endOp()
-                    result.success(false)
+                val args = call.arguments as? Map<*, *> ?: emptyMap<String, Any?>()
+                if (argInt(args, "length", 6) > BlockTransfer.DEFAULT_WRITE_CHUNK_WORDS) {
+                    if (!startBlock(args, true) { result.success(it.isSuccess) }) result.success(false)
                     return
                 }
-
-                val expectedBytes = (length * 2).coerceAtLeast(0)
-                val dataBytes = ByteArray(expectedBytes)
-                val copyLen = minOf(expectedBytes, dataBytesRaw.size)
-                System.arraycopy(dataBytesRaw, 0, dataBytes, 0, copyLen)
-
-                val setRet = rfidManager?.setAccessEpcMatch(readId, (epcBytes.size and 0xFF).toByte(), epcBytes) ?: -1
-                Log.d(TAG, "setAccessEpcMatch ret=$setRet")
-                val ret = rfidManager?.writeTag(readId, pwd, memBank.toByte(), startAddr.toByte(), length.toByte(), dataBytes) ?: -1
-                Log.d(TAG, "writeTag ret=$ret")
-                writeCompletionArmed = ret >= 0
-                if (ret < 0) {
-                    endOp()
-                    op.result.success(false)
+                val op = writeOp(args) { result.success(it.success) }
+                if (!submitOp(op)) result.success(false)
+            }
+            "readBlock", "writeBlock" -> {
+                val args = call.arguments as? Map<*, *> ?: emptyMap<String, Any?>()
+                val write = call.method == "writeBlock"
+                val started = startBlock(args, write) {
+                    result.success(blockStats(it).apply {
+                        put("ok", it.isSuccess)
+                        put("data", it.dataHex)
+                        put("error", it.error)
+                    })
                 }
+                if (!started) result.success(mapOf("ok" to false, "error" to "INVALID_ARGUMENTS"))
             }
             "writeEpc" -> {
-                val op = beginOp(PendingOpType.WRITE, result) ?: return
-                val targetEpc = call.argument<String>("targetEpc")
-                val newEpc = call.argument<String>("newEpc")
-                val pwd = passwordBytes(call.argument<String>("password"))
-                val epcBytes = hexToBytesOrNull(targetEpc)
-                val dataBytesRaw = hexToBytesOrNull(newEpc)
-                if (pwd == null || epcBytes == null || dataBytesRaw == null) {
-                    endOp()
-                    result.success(false)
+                val queue = accessQueue
+                val args = call.arguments as? Map<*, *> ?: emptyMap<String, Any?>()
+                val writer = if (isConnected && queue != null) {
+                    epcWriter(queue, args) { result.success(it.isSuccess) }
+                } else null
+                if (writer == null) result.success(false) else writer.start()
+            }
+            "accessBatch" -> {
+                val ops = call.argument<List<Map<*, *>>>("ops") ?: emptyList()
+                val queue = accessQueue
+                if (!isConnected || queue == null || ops.isEmpty()) {
+                    result.success(ops.map { mapOf("ok" to false, "error" to "NOT_CONNECTED") })
                     return
                 }
-
-                val startAddr = 2
-                val lengthWords = ((dataBytesRaw.size + 1) / 2).coerceAtLeast(1)
-                val dataBytes = ByteArray(lengthWords * 2)
-                System.arraycopy(dataBytesRaw, 0, dataBytes, 0, minOf(dataBytesRaw.size, dataBytes.size))
-
-                val setRet = rfidManager?.setAccessEpcMatch(readId, (epcBytes.size and 0xFF).toByte(), epcBytes) ?: -1
-                Log.d(TAG, "setAccessEpcMatch ret=$setRet")
-                val ret = rfidManager?.writeTag(readId, pwd, 1.toByte(), startAddr.toByte(), lengthWords.toByte(), dataBytes) ?: -1
-                Log.d(TAG, "writeEpc(writeTag) ret=$ret")
-                writeCompletionArmed = ret >= 0
-                if (ret < 0) {
-                    endOp()
-                    op.result.success(false)
+                val results = arrayOfNulls<Map<String, Any?>>(ops.size)
+                var remaining = ops.size
+                val onDone = { index: Int, value: Map<String, Any?> ->
+                    results[index] = value
+                    remaining--
+                    if (remaining == 0) result.success(results.toList())
+                }
+                // Everything is queued before the first op runs, so the whole batch
+                // shares one inventory pause
+                ops.forEachIndexed { index, args ->
+                    val invalid = mapOf("ok" to false, "error" to "INVALID_ARGUMENTS")
+                    if (args["op"] == "writeEpc") {
+                        val writer = epcWriter(queue, args) { onDone(index, epcWriterResultMap(it)) }
+                        if (writer == null) onDone(index, invalid) else writer.start()
+                        return@forEachIndexed
+                    }
+                    val callback = AccessQueue.Callback { onDone(index, opResultMap(it)) }
+                    val op = if (args["op"] == "write") writeOp(args, callback) else readOp(args, callback)
+                    if (op == null) onDone(index, invalid) else queue.submit(op)
+                }
+            }
+            "setInventoryFilter" -> {
+                val prefix = call.argument<String>("epcPrefix")
+                val filter = try {
+                    if (prefix != null) {
+                        val bytes = hexToBytesOrNull(prefix)
+                        if (bytes == null || bytes.isEmpty()) null else InventoryFilter.epcPrefix(bytes)
+                    } else {
+                        val mask = hexToBytesOrNull(call.argument<String>("mask"))
+                        val bank = call.argument<Int>("bank") ?: 1
+                        val offset = call.argument<Int>("bitOffset") ?: InventoryFilter.EPC_BIT_START
+                        val length = call.argument<Int>("bitLength") ?: ((mask?.size ?: 0) * 8)
+                        if (mask == null || mask.isEmpty()) null else InventoryFilter(bank, offset, length, mask)
+                    }
+                } catch (e: IllegalArgumentException) {
+                    null
+                }
+                if (filter == null) {
+                    result.error("INVALID_ARGUMENTS", "Expected epcPrefix or bank/bitOffset/bitLength/mask", null)
+                    return
+                }
+                inventoryFilter = filter
+                if (locateTracker == null) reader?.setSelectFilter(filter)
+                result.success(true)
+            }
+            "clearInventoryFilter" -> {
+                inventoryFilter = null
+                if (locateTracker == null) reader?.setSelectFilter(null)
+                result.success(true)
+            }
+            "recoverJournal" -> {
+                sessionStore.takeRecovered { aggregate ->
+                    val payload: Map<String, Any?> = if (aggregate == null) {
+                        mapOf("recovered" to false)
+                    } else {
+                        mapOf(
+                            "recovered" to true,
+                            "totalReads" to aggregate.totalReads(),
+                            "tags" to (0 until aggregate.uniqueTags()).map { i ->
+                                mapOf(
+                                    "epc" to aggregate.epcHexAt(i),
+                                    "rssi" to aggregate.rssiAt(i),
+                                    "count" to aggregate.countAt(i),
+                                    "firstSeen" to aggregate.firstSeenAt(i),
+                                    "lastSeen" to aggregate.lastSeenAt(i)
+                                )
+                            }
+                        )
+                    }
+                    mainHandler.post { result.success(payload) }
+                }
+            }
+            "startJournalSession" -> {
+                sessionStore.rotateAsync()
+                result.success(true)
+            }
+            "exportSession" -> {
+                val name = call.argument<String>("session") ?: "current"
+                val format = when (call.argument<String>("format")?.lowercase()) {
+                    null, "csv" -> ScanExporter.Format.CSV
+                    "json", "ndjson" -> ScanExporter.Format.NDJSON
+                    "binary" -> ScanExporter.Format.BINARY
+                    else -> null
+                }
+                val dir = sessionStore.sessionDir(name)
+                if (format == null || dir == null || !dir.isDirectory) {
+                    result.error("INVALID_ARGUMENTS", "Unknown session or format", null)
+                    return
+                }
+                val gzip = call.argument<Boolean>("gzip") ?: false
+                val output = call.argument<String>("path")?.let { File(it) } ?: File(
+                    File(context.filesDir, "exports").apply { mkdirs() },
+                    "$name." + format.name.lowercase() + (if (gzip) ".gz" else "")
+                )
+                ScanExporter.exportAsync(sessionStore, dir, output, format, gzip) { file, records, bytes, error ->
+                    mainHandler.post {
+                        if (error != null) {
+                            result.error("EXPORT_FAILED", error, null)
+                        } else {
+                            result.success(mapOf("path" to file.absolutePath, "records" to records, "bytes" to bytes))
+                        }
+                    }
+                }
+            }
+            "listJournalSessions" -> {
+                sessionStore.execute {
+                    val names = sessionStore.archivedSessions().map { it.name }
+                    mainHandler.post { result.success(names) }
+                }
+            }
+            "getMetrics" -> {
+                val snapshot = metrics.snapshot()
+                snapshot["readerPath"] = reader?.name
+                if (call.argument<Boolean>("reset") == true) metrics.reset()
+                result.success(snapshot)
+            }
+            "grantEvents" -> {
+                val credits = (call.argument<Number>("credits") ?: 0).toLong()
+                if (eventStream.grant(credits)) mainHandler.post(flushEvents)
+                result.success(true)
+            }
+            "getEventStreamStats" -> result.success(eventStream.stats())
+            "setMetricsInterval" -> {
+                metricsIntervalMs = (call.argument<Number>("intervalMs") ?: 0).toLong()
+                mainHandler.removeCallbacks(metricsTicker)
+                if (metricsIntervalMs > 0) mainHandler.postDelayed(metricsTicker, metricsIntervalMs)
+                result.success(true)
+            }
+            "startTrafficRecording" -> {
+                if (trafficRecorder != null) {
+                    result.error("BUSY", "Already recording", null)
+                    return
+                }
+                val file = call.argument<String>("path")?.let { File(it) }
+                    ?: File(File(context.filesDir, "traces"), "trace-${System.currentTimeMillis()}.rft")
+                val recorder = TrafficRecorder(file)
+                try {
+                    recorder.open()
+                } catch (e: Exception) {
+                    result.error("RECORD_FAILED", e.message, null)
+                    return
+                }
+                trafficRecorder = recorder
+                reader?.setRecorder(recorder)
+                result.success(file.absolutePath)
+            }
+            "stopTrafficRecording" -> {
+                val recorder = trafficRecorder
+                if (recorder == null) {
+                    result.success(null)
+                    return
+                }
+                trafficRecorder = null
+                reader?.setRecorder(null)
+                recorder.close()
+                result.success(mapOf(
+                    "path" to recorder.file.absolutePath,
+                    "entries" to recorder.entries,
+                    "error" to recorder.error?.message
+                ))
+            }
+            "replayTraffic" -> {
+                val path = call.argument<String>("path")
+                if (path == null || !File(path).isFile) {
+                    result.error("INVALID_ARGUMENTS", "Expected an existing trace path", null)
+                    return
+                }
+                if (isScanning || trafficReplayer != null) {
+                    result.error("BUSY", "Inventory or replay in progress", null)
+                    return
+                }
+                val realtime = call.argument<Boolean>("realtime") ?: false
+                val replayer = TrafficReplayer()
+                trafficReplayer = replayer
+                Thread({ replayTrace(replayer, File(path), realtime, result) }, "traffic-replay").start()
+            }
+            "cancelReplay" -> {
+                trafficReplayer?.cancel()
+                result.success(true)
+            }
+            "loadManifest" -> {
+                val epcs = call.argument<List<String>>("epcs")
+                val path = call.argument<String>("path")
+                val useBloom = call.argument<Boolean>("bloom") ?: true
+                if (epcs == null && path == null) {
+                    result.error("INVALID_ARGUMENTS", "Expected epcs or path", null)
+                    return
+                }
+                sessionStore.execute {
+                    val loaded = try {
+                        if (epcs != null) {
+                            ManifestReconciler.fromHex(epcs, epcs.size, useBloom)
+                        } else {
+                            File(path!!).useLines { lines ->
+                                ManifestReconciler.fromHex(
+                                    lines.map { it.substringBefore(',') }.asIterable(), 4096, useBloom)
+                            }
+                        }
+                    } catch (e: java.io.IOException) {
+                        null
+                    }
+                    mainHandler.post {
+                        if (loaded == null) {
+                            result.error("MANIFEST_FAILED", "Cannot read $path", null)
+                            return@post
+                        }
+                        reconciler = loaded
+                        mainHandler.removeCallbacks(reconcileTicker)
+                        mainHandler.post(reconcileTicker)
+                        result.success(loaded.expectedCount())
+                    }
+                }
+            }
+            "clearManifest" -> {
+                reconciler = null
+                mainHandler.removeCallbacks(reconcileTicker)
+                result.success(true)
+            }
+            "resetReconcile" -> {
+                reconciler?.reset()
+                result.success(reconciler != null)
+            }
+            "getReconcileReport" -> {
+                val r = reconciler
+                if (r == null) { result.success(null); return }
+                val limit = call.argument<Int>("limit") ?: 1000
+                val report = reconcileCounts(r)
+                report["foundEpcs"] = r.foundEpcs(limit).toList()
+                report["missingEpcs"] = r.missingEpcs(limit).toList()
+                report["unexpectedEpcs"] = r.unexpectedEpcs(limit).toList()
+                result.success(report)
+            }
+            "configureUploads" -> {
+                val endpoint = call.argument<String>("endpoint")
+                uploadQueue?.stop()
+                uploadQueue = null
+                if (endpoint.isNullOrEmpty()) { result.success(true); return }
+                val options = UploadQueue.Options()
+                options.endpoint = endpoint
+                call.argument<String>("deviceId")?.let { options.deviceId = it }
+                options.authToken = call.argument<String>("authToken")
+                call.argument<Int>("maxBatchRecords")?.let { options.maxBatchRecords = it }
+                call.argument<Number>("maxBatchAgeMs")?.let { options.maxBatchAgeMs = it.toLong() }
+                call.argument<Number>("idleBytesPerSecond")?.let { options.idleBytesPerSecond = it.toLong() }
+                call.argument<Number>("scanningBytesPerSecond")?.let { options.scanningBytesPerSecond = it.toLong() }
+                val queue = UploadQueue(sessionStore, File(context.filesDir, "upload"), options, uploadListener)
+                queue.setInventoryActive(isScanning)
+                queue.start()
+                uploadQueue = queue
+                result.success(true)
+            }
+            "flushUploads" -> {
+                val queue = uploadQueue
+                queue?.flush()
+                result.success(queue != null)
+            }
+            "getUploadStatus" -> {
+                val queue = uploadQueue
+                if (queue == null) { result.success(null); return }
+                sessionStore.execute {
+                    val status = mapOf("pending" to queue.pendingBatches(), "error" to queue.lastError)
+                    mainHandler.post { result.success(status) }
+                }
+            }
+            "startCommissioning" -> {
+                val queue = accessQueue
+                if (!isConnected || queue == null) { result.success(false); return }
+                if (commissioningJob?.isRunning == true) {
+                    result.error("BUSY", "A commissioning job is already running", null)
+                    return
                 }
+                val items = commissioningItems(call)
+                val pwd = passwordBytes(call.argument<String>("password"))
+                if (items == null || pwd == null) {
+                    result.error("INVALID_ARGUMENTS", "Expected pairs or targets+prefix", null)
+                    return
+                }
+                val options = CommissioningJob.Options()
+                options.verify = call.argument<Boolean>("verify") ?: true
+                options.maxRetries = call.argument<Int>("maxRetries") ?: 2
+                options.blockWrite = call.argument<Boolean>("blockWrite") ?: true
+                options.password = pwd
+                val job = CommissioningJob(queue, items, options, commissioningListener)
+                commissioningJob = job
+                job.start()
+                result.success(true)
+            }
+            "cancelCommissioning" -> {
+                commissioningJob?.cancel()
+                result.success(commissioningJob != null)
             }
             else -> result.notImplemented()
         }
     }
     
+    // Feeds a recorded trace through the live decode path: serial bytes through the
+    // frame decoder, service callbacks through the argument decoder, both into
+    // readerListener, so journal, reconciler, metrics and onTagRead all see the replayed tags
+    private fun replayTrace(replayer: TrafficReplayer, file: File, realtime: Boolean, result: MethodChannel.Result) {
+        val frames = FrameDecoder()
+        frames.setRecordListener { readerListener.onTagRecord(it) }
+        val args = InventoryArgsDecoder()
+        val record = TagRecord()
+        val before = metrics.tagsDecoded.sum()
+        var error: String? = null
+        val reply = try {
+            val r = replayer.replay(file, object : TrafficReplayer.Sink {
+                override fun onSerial(tx: Boolean, data: ByteArray, off: Int, len: Int, timestampNanos: Long) {
+                    if (!tx) frames.feed(data, off, len, SystemClock.elapsedRealtimeNanos())
+                }
+
+                override fun onInventoryTag(ant: Byte, pc: String?, epc: String?, rssi: String?, freq: Byte,
+                        tid: String?, userData: String?, epcLen: Int, tidLen: Int, userDataLen: String?,
+                        timestampNanos: Long) {
+                    if (args.decode(ant, pc, epc, rssi, freq, tid, userData, SystemClock.elapsedRealtimeNanos(), record)) {
+                        metrics.tagsDecoded.increment()
+                        readerListener.onTagRecord(record)
+                    } else {
+                        metrics.droppedEvents.increment()
+                    }
+                }
+
+                override fun onInventoryTagEnd(ant: Int, tagNum: Int, readRate: Int, totalCount: Int, flag: Byte,
+                        timestampNanos: Long) {
+                    readerListener.onRoundEnd(tagNum)
+                }
+            }, realtime)
+            val tags = metrics.tagsDecoded.sum() - before
+            val elapsedMs = r.elapsedNanos / 1_000_000.0
+            mapOf(
+                "entries" to r.entries,
+                "tags" to tags,
+                "serialBytes" to r.serialBytes,
+                "traceMs" to r.traceNanos / 1_000_000,
+                "elapsedMs" to elapsedMs,
+                "tagsPerSecond" to if (r.elapsedNanos > 0) tags * 1e9 / r.elapsedNanos else 0.0
+            )
+        } catch (e: Exception) {
+            Log.e(TAG, "replay failed", e)
+            error = e.message ?: e.toString()
+            null
+        } finally {
+            trafficReplayer = null
+        }
+        mainHandler.post {
+            if (reply != null) result.success(reply) else result.error("REPLAY_FAILED", error, null)
+        }
+    }
+
     fun onTriggerPressed() {
-        Log.d(TAG, "onTriggerPressed: isConnected=$isConnected, isScanning=$isScanning, rfidManager=${rfidManager != null}")
-        if (!isConnected || isScanning) return
-        isScanning = true
-        startInventory(0)
-        mainHandler.post { methodChannel?.invokeMethod("onScanningStateChanged", true) }
+        Log.d(TAG, "onTriggerPressed: isConnected=$isConnected, isScanning=$isScanning, reader=${reader?.name}")
+        if (!isConnected) return
+        triggerNanos.set(SystemClock.elapsedRealtimeNanos())
+        scanLoop.post(ScanStateMachine.EV_START, ScanStateMachine.START_TRIGGER)
     }
     
+    // Posted even if the press has not been handled yet, so a short press cannot stick
     fun onTriggerReleased() {
-        if (!isScanning) return
-        isScanning = false
-        mainHandler.removeCallbacks(tuneRunnable)
-        mainHandler.post { methodChannel?.invokeMethod("onScanningStateChanged", false) }
+        triggerNanos.set(0)
+        stopRequestedNanos = SystemClock.elapsedRealtimeNanos()
+        scanLoop.post(ScanStateMachine.EV_STOP, 0)
     }
     
     fun release() {
-        isScanning = false
-        mainHandler.removeCallbacks(tuneRunnable)
-        rfidManager?.unregisterCallback(rfidCallback)
-        rfidManager?.disConnect()
+        detachReader()
+        scanLoop.quit()
         RfidServiceManager.getInstance(context).release()
-        isConnected = false
+        serviceManager = null
+        sessionStore.closeAsync()
+        reconciler = null
+        mainHandler.removeCallbacks(reconcileTicker)
+        metricsIntervalMs = 0
+        mainHandler.removeCallbacks(metricsTicker)
+        eventStream.close()
+        eventSink = null
+        mainHandler.removeCallbacks(flushEvents)
+        trafficReplayer?.cancel()
+        trafficRecorder?.close()
+        trafficRecorder = null
+        uploadQueue?.stop()
+        uploadQueue = null
     }
 }
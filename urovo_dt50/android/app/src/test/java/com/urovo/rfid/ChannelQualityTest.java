@@ -0,0 +1,69 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelQualityTest {
+    private static final int REGION = 2;
+    private static final int FULL_BAND = ChannelQuality.packRange(REGION, 0, 6);
+
+    private final ChannelQuality quality = new ChannelQuality();
+
+    @Before
+    public void setUp() {
+        quality.setBand(REGION, 0, 6);
+    }
+
+    // Serial path: reads carry no channel
+    private int serialRound() {
+        int range = quality.nextRange();
+        quality.onRead(TagRecord.FREQ_UNKNOWN, -50);
+        quality.onRoundEnd(0);
+        return range;
+    }
+
+    @Test
+    public void exclusionOffKeepsTheWholeBand() {
+        quality.setExclusion(false);
+        for (int i = 0; i < 3 * ChannelQuality.PROBE_EVERY; i++) {
+            assertEquals(FULL_BAND, serialRound());
+        }
+    }
+
+    @Test
+    public void serialPathPinsEveryProbeRound() {
+        for (int i = 1; i <= 3 * ChannelQuality.PROBE_EVERY; i++) {
+            int range = serialRound();
+            if (i % ChannelQuality.PROBE_EVERY == 0) {
+                assertEquals(ChannelQuality.first(range), ChannelQuality.last(range));
+            } else {
+                assertEquals(FULL_BAND, range);
+            }
+        }
+    }
+
+    // Reads that carry their channel: a channel that never answers is left out of the
+    // ranges, the band is split around it
+    @Test
+    public void excludesADeadChannel() {
+        for (int i = 0; i < 200; i++) {
+            int range = quality.nextRange();
+            for (int c = ChannelQuality.first(range); c <= ChannelQuality.last(range); c++) {
+                if (c == 2) continue;
+                for (int k = 0; k < 5; k++) quality.onRead(c, -50);
+            }
+            quality.onRoundEnd(0);
+        }
+        assertTrue(quality.isExcluded(2));
+        for (int c = 0; c <= 6; c++) {
+            if (c != 2) assertFalse("channel " + c, quality.isExcluded(c));
+        }
+        int range = quality.nextRange();
+        assertTrue(ChannelQuality.last(range) < 2 || ChannelQuality.first(range) > 2
+                || ChannelQuality.first(range) == ChannelQuality.last(range));
+    }
+}
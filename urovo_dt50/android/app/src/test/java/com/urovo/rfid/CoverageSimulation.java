@@ -0,0 +1,106 @@
+package com.urovo.rfid;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Measures how fast an InventoryStrategy covers a SimulatedModule population: rounds
+// go through DirectRfidReader and the real frame path, time is the module's virtual
+// air time plus the scan loop's pacing between rounds (ScanStateMachine), so results
+// are comparable between strategies and independent of the host.
+final class CoverageSimulation {
+    private static final long ROUND_WAIT_MS = 3000;
+
+    static final class Result {
+        final String strategy;
+        int tags;
+        int found;
+        int rounds;
+        long reads;
+        // Virtual ms until the requested coverage / until the strategy reported complete; -1 = never
+        long coverageMs = -1;
+        long completeMs = -1;
+        long elapsedMs;
+
+        Result(String strategy) {
+            this.strategy = strategy;
+        }
+
+        @Override
+        public String toString() {
+            return strategy + ": " + found + "/" + tags + " tags, " + rounds + " rounds, " + reads + " reads, coverage at "
+                    + (coverageMs < 0 ? "-" : coverageMs + " ms") + ", complete at "
+                    + (completeMs < 0 ? "-" : completeMs + " ms");
+        }
+    }
+
+    static Result run(SimulatedModule module, InventoryStrategy.Options options, double coverage, long maxMs) {
+        Result result = new Result(options.toString());
+        result.tags = module.getTagCount();
+        int needed = (int) Math.ceil(result.tags * coverage);
+        InventoryStrategy strategy = new InventoryStrategy();
+        strategy.setOptions(options);
+        strategy.reset();
+
+        EpcIndex seen = new EpcIndex(Math.max(16, result.tags));
+        int[] roundNew = new int[1];
+        long[] reads = new long[1];
+        CountDownLatch[] roundDone = new CountDownLatch[1];
+        DirectRfidReader reader = new DirectRfidReader();
+        reader.setListener(new RfidReader.Listener() {
+            @Override
+            public void onTagRecord(TagRecord record) {
+                reads[0]++;
+                int before = seen.size();
+                if (seen.add(record.epcHi, record.epcKeyLo) == before) roundNew[0]++;
+            }
+
+            @Override
+            public void onRoundEnd(int tagCount) {
+                roundDone[0].countDown();
+            }
+
+            @Override
+            public void onAccessRead(String epc, String data) {
+            }
+
+            @Override
+            public void onAccessStatus(int cmd, int status) {
+            }
+        });
+        reader.connect(module);
+        long start = module.getVirtualTimeMs();
+        try {
+            while (module.getVirtualTimeMs() - start < maxMs) {
+                long roundStart = module.getVirtualTimeMs();
+                roundNew[0] = 0;
+                long roundReads = reads[0];
+                roundDone[0] = new CountDownLatch(1);
+                if (reader.inventoryRound(strategy.session(), strategy.target()) < 0
+                        || !roundDone[0].await(ROUND_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+                long end = module.getVirtualTimeMs();
+                result.rounds++;
+                if (result.coverageMs < 0 && seen.size() >= needed) {
+                    result.coverageMs = end - start;
+                }
+                if (strategy.onRound((int) (reads[0] - roundReads), roundNew[0]) && result.completeMs < 0) {
+                    result.completeMs = end - start;
+                }
+                if (result.coverageMs >= 0 && result.completeMs >= 0) break;
+                // Pacing of the scan loop: restart delay after the end, minimum round interval
+                long next = Math.max(end + ScanStateMachine.FAST_RESTART_MS,
+                        roundStart + ScanStateMachine.MIN_ROUND_INTERVAL_MS);
+                module.advance(next - end);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reader.disconnect();
+        }
+        result.found = seen.size();
+        result.reads = reads[0];
+        result.elapsedMs = module.getVirtualTimeMs() - start;
+        return result;
+    }
+}
@@ -0,0 +1,73 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// 500 tags, 30% of them weak, seed 42: virtual times are deterministic
+public class CoverageSimulationTest {
+    private static final double COVERAGE = 0.99;
+    private static final long MAX_MS = 120_000;
+
+    private static CoverageSimulation.Result run(int session, boolean dualTarget) {
+        SimulatedModule module = new SimulatedModule(115200, 42);
+        module.addRandomTags(500, 0.3);
+        return CoverageSimulation.run(module,
+                new InventoryStrategy.Options(session, dualTarget, 1, 3, true), COVERAGE, MAX_MS);
+    }
+
+    private static void assertCompleteAfterCoverage(CoverageSimulation.Result r) {
+        assertTrue(r.toString(), r.coverageMs > 0);
+        assertTrue(r.toString(), r.completeMs >= r.coverageMs);
+    }
+
+    @Test
+    public void s0StopsOnlyOnceCovered() {
+        CoverageSimulation.Result r = run(0, false);
+        assertCompleteAfterCoverage(r);
+        assertEquals(31240, r.coverageMs);
+    }
+
+    @Test
+    public void s1StopsOnlyOnceCovered() {
+        CoverageSimulation.Result r = run(1, false);
+        assertCompleteAfterCoverage(r);
+        assertEquals(11055, r.coverageMs);
+    }
+
+    // A quiet B phase used to count as covered at 10215 ms, short of 99% (11821 ms)
+    @Test
+    public void s2DualTargetStopsOnlyOnceCovered() {
+        CoverageSimulation.Result r = run(2, true);
+        assertCompleteAfterCoverage(r);
+        assertEquals(11821, r.coverageMs);
+    }
+
+    // Flipping to B finds nothing here: no tags were left on B by an earlier scan
+    @Test
+    public void dualTargetGainsNothingOnAFreshPopulation() {
+        CoverageSimulation.Result single = run(1, false);
+        CoverageSimulation.Result dual = run(1, true);
+        assertCompleteAfterCoverage(dual);
+        assertEquals(single.coverageMs, dual.coverageMs);
+    }
+
+    // Tags left on B by an earlier scan stay silent on A; only the flip to B finds them
+    @Test
+    public void dualTargetCollectsTagsLeftOnB() {
+        SimulatedModule module = new SimulatedModule(115200, 42);
+        module.addRandomTags(500, 0.3);
+        module.setAllFlags(2, InventoryStrategy.TARGET_B);
+        CoverageSimulation.Result single = CoverageSimulation.run(module,
+                new InventoryStrategy.Options(2, false, 1, 3, true), COVERAGE, 20_000);
+        assertEquals(0, single.found);
+
+        module = new SimulatedModule(115200, 42);
+        module.addRandomTags(500, 0.3);
+        module.setAllFlags(2, InventoryStrategy.TARGET_B);
+        CoverageSimulation.Result dual = CoverageSimulation.run(module,
+                new InventoryStrategy.Options(2, true, 1, 3, true), COVERAGE, MAX_MS);
+        assertTrue(dual.toString(), dual.coverageMs > 0);
+    }
+}
@@ -0,0 +1,127 @@
+package com.urovo.rfid;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Re-encoding a population of serialised tags to serial + offset on a SimulatedModule:
+// the whole EPC in one WriteData, as writeEpc used to, against the EpcWriter plan with
+// plain Writes and with BlockWrite. Every tag is verified by reading its EPC back.
+// Reported are the virtual air time per tag and the words written; with a write error
+// rate, failed tags too (one attempt each). Commands go through DirectRfidReader one
+// at a time like the AccessQueue issues them.
+final class EpcWriteSimulation {
+    private static final long REPLY_WAIT_MS = 3000;
+    private static final byte[] PREFIX = { 0x30, 0x34, 0x25, 0x7B, (byte) 0xF7, 0x19 };
+
+    static final class Result {
+        public final String name;
+        public int tags;
+        public int succeeded;
+        public long words;
+        public long commands;
+        public long elapsedMs;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        public double msPerTag() {
+            return tags > 0 ? (double) elapsedMs / tags : 0;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + succeeded + "/" + tags + " ok, " + String.format("%.1f", msPerTag()) + " ms/tag, "
+                    + words + " words in " + commands + " writes";
+        }
+    }
+
+    // Serial i is PREFIX followed by 48 bits of startSerial + i
+    static byte[] epc(long serial) {
+        return CommissioningJob.generateEpcs(PREFIX, serial, 1, 12).get(0);
+    }
+
+    // The next block of serials: only the last word changes for most tags
+    static final long NEXT_BLOCK = 1000;
+    // A new serial range: all three serial words change
+    static final long NEW_RANGE = 0x000100010001L;
+
+    // planned false: whole EPC in one WriteData
+    static Result run(String name, int tags, long serialOffset, boolean planned, boolean blockWrite,
+            double writeErrorRate, long seed) {
+        SimulatedModule module = new SimulatedModule(115200, seed);
+        for (int i = 0; i < tags; i++) module.addTag(epc(100_000 + i));
+        module.setWriteErrorRate(writeErrorRate);
+        BlockingQueue<Object> replies = new ArrayBlockingQueue<>(16);
+        DirectRfidReader reader = new DirectRfidReader();
+        reader.setListener(new RfidReader.Listener() {
+            @Override
+            public void onTagRecord(TagRecord record) {
+            }
+
+            @Override
+            public void onRoundEnd(int tagCount) {
+            }
+
+            @Override
+            public void onAccessRead(String epc, String data) {
+                replies.offer(data);
+            }
+
+            @Override
+            public void onAccessStatus(int cmd, int status) {
+                replies.offer(status);
+            }
+        });
+        reader.connect(module);
+        Result result = new Result(name);
+        result.tags = tags;
+        long start = module.getVirtualTimeMs();
+        try {
+            for (int i = 0; i < tags; i++) {
+                byte[] current = epc(100_000 + i);
+                byte[] target = epc(100_000 + serialOffset + i);
+                List<EpcWriter.Step> steps = planned
+                        ? EpcWriter.plan(current, target, -1, blockWrite)
+                        : Collections.singletonList(new EpcWriter.Step(EpcWriter.EPC_WORD, target.length / 2, target,
+                                false, target));
+                boolean ok = true;
+                byte[] address = current;
+                for (EpcWriter.Step step : steps) {
+                    reader.setAccessEpcMatch(address);
+                    if (step.block) {
+                        reader.blockWriteTag(1, step.start, step.words, step.data, new byte[4]);
+                    } else {
+                        reader.writeTag(1, step.start, step.words, step.data, new byte[4]);
+                    }
+                    result.commands++;
+                    result.words += step.words;
+                    Object reply = replies.poll(REPLY_WAIT_MS, TimeUnit.MILLISECONDS);
+                    if (!(reply instanceof Integer) || (Integer) reply != RfidReader.WRITE_OK) {
+                        ok = false;
+                        break;
+                    }
+                    address = step.epcAfter;
+                }
+                if (ok) {
+                    reader.setAccessEpcMatch(target);
+                    reader.readTag(1, EpcWriter.EPC_WORD, target.length / 2, new byte[4]);
+                    Object reply = replies.poll(REPLY_WAIT_MS, TimeUnit.MILLISECONDS);
+                    String want = TagRecord.toHex(target, target.length);
+                    ok = reply instanceof String && ((String) reply).equalsIgnoreCase(want);
+                }
+                if (ok) result.succeeded++;
+                replies.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reader.disconnect();
+        }
+        result.elapsedMs = module.getVirtualTimeMs() - start;
+        return result;
+    }
+}
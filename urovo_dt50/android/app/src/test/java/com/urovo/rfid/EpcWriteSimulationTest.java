@@ -0,0 +1,50 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+// 500 serialised tags re-encoded on the simulator, seed 42: air time is virtual and
+// deterministic, so ms/tag is checked exactly
+public class EpcWriteSimulationTest {
+    private static final int TAGS = 500;
+    private static final double ERROR_RATE = 0.01;
+
+    private static EpcWriteSimulation.Result run(long offset, boolean planned, boolean blockWrite, double errorRate) {
+        return EpcWriteSimulation.run("", TAGS, offset, planned, blockWrite, errorRate, 42);
+    }
+
+    private static void assertRun(EpcWriteSimulation.Result r, int succeeded, long words, double msPerTag) {
+        assertEquals(r.toString(), succeeded, r.succeeded);
+        assertEquals(r.toString(), words, r.words);
+        assertEquals(r.toString(), TAGS, r.commands);
+        assertEquals(r.toString(), msPerTag, r.msPerTag(), 0.05);
+    }
+
+    // Only the serial's last word changes: one single-word Write instead of six words
+    @Test
+    public void nextBlockWritesOneWordPerTag() {
+        assertRun(run(EpcWriteSimulation.NEXT_BLOCK, false, false, ERROR_RATE), 469, 3000, 30.9);
+        assertRun(run(EpcWriteSimulation.NEXT_BLOCK, true, false, ERROR_RATE), 496, 500, 11.2);
+        // A single word is a plain Write either way
+        assertRun(run(EpcWriteSimulation.NEXT_BLOCK, true, true, ERROR_RATE), 496, 500, 11.2);
+    }
+
+    // All three serial words change: half the words, and BlockWrite is cheaper again
+    @Test
+    public void newRangeWritesTheSerialWords() {
+        assertRun(run(EpcWriteSimulation.NEW_RANGE, false, false, ERROR_RATE), 469, 3000, 30.9);
+        assertRun(run(EpcWriteSimulation.NEW_RANGE, true, false, ERROR_RATE), 484, 1500, 19.1);
+        assertRun(run(EpcWriteSimulation.NEW_RANGE, true, true, ERROR_RATE), 484, 1500, 15.1);
+    }
+
+    // Without write errors every tag lands and verifies, whatever the plan
+    @Test
+    public void everyTagVerifiesWithoutErrors() {
+        for (long offset : new long[] { EpcWriteSimulation.NEXT_BLOCK, EpcWriteSimulation.NEW_RANGE }) {
+            assertEquals(TAGS, run(offset, false, false, 0).succeeded);
+            assertEquals(TAGS, run(offset, true, false, 0).succeeded);
+            assertEquals(TAGS, run(offset, true, true, 0).succeeded);
+        }
+    }
+}
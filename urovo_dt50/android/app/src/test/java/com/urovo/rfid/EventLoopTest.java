@@ -0,0 +1,63 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EventLoopTest {
+    private final List<Integer> seen = new CopyOnWriteArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final EventLoop loop = new EventLoop("test", (what, arg, nowMs) -> {
+        if (what == 1) throw new IllegalStateException("boom");
+        if (what == 9) {
+            done.countDown();
+            return;
+        }
+        seen.add(what);
+    });
+
+    @After
+    public void tearDown() {
+        loop.quit();
+    }
+
+    @Test
+    public void timersFireInDueOrderAfterImmediateEvents() throws Exception {
+        loop.start();
+        loop.postDelayed(4, 0, 60);
+        loop.postDelayed(3, 0, 30);
+        loop.post(2, 0);
+        loop.postDelayed(9, 0, 90);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(2, 3, 4), seen);
+    }
+
+    @Test
+    public void actorExceptionIsCountedAndTheLoopKeepsRunning() throws Exception {
+        loop.start();
+        loop.post(1, 0);
+        loop.post(2, 0);
+        loop.post(9, 0);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(1, loop.getActorErrors());
+        assertEquals(List.of(2), seen);
+    }
+
+    @Test
+    public void postsAfterQuitAreIgnored() throws Exception {
+        loop.start();
+        loop.quit();
+        loop.post(2, 0);
+        loop.post(9, 0);
+        loop.start();
+        assertTrue(!done.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(seen.isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class InventoryStrategyTest {
+
+    private static InventoryStrategy strategy(int session, boolean dualTarget) {
+        InventoryStrategy s = new InventoryStrategy();
+        s.setOptions(new InventoryStrategy.Options(session, dualTarget, 1, 3, true));
+        s.reset();
+        return s;
+    }
+
+    // Three rounds with nothing new end a phase
+    private static boolean quiet(InventoryStrategy s, int reads) {
+        s.onRound(reads, 0);
+        s.onRound(0, 0);
+        return s.onRound(0, 0);
+    }
+
+    @Test
+    public void quietBPhaseIsNoEvidence() {
+        InventoryStrategy s = strategy(2, true);
+        s.onRound(300, 300);
+        s.onRound(40, 40);
+        assertFalse(quiet(s, 0));
+        assertEquals(InventoryStrategy.TARGET_B, s.target());
+        // Only the tags flipped on A answer on B: nothing new, but nothing learned
+        assertFalse(quiet(s, 340));
+        assertEquals(InventoryStrategy.TARGET_A, s.target());
+        assertEquals(0, s.coverage(), 0);
+    }
+
+    @Test
+    public void recaptureOnAEstimatesCoverage() {
+        InventoryStrategy s = strategy(2, true);
+        s.onRound(300, 300);
+        quiet(s, 0);
+        quiet(s, 300);
+        // Back on A: 200 known tags and 4 new ones answer
+        s.onRound(204, 4);
+        assertFalse(quiet(s, 0));
+        assertEquals(200 / 204.0, s.coverage(), 1e-9);
+        quiet(s, 304);
+        s.onRound(300, 0);
+        s.onRound(4, 0);
+        assertTrue(quiet(s, 0));
+        assertEquals(1, s.coverage(), 0);
+    }
+
+    // A handful of re-reads at the end of a phase is not a sample
+    @Test
+    public void fewRecapturesAreNoEvidence() {
+        InventoryStrategy s = strategy(1, false);
+        s.onRound(300, 300);
+        s.onRound(20, 10);
+        assertFalse(quiet(s, 5));
+        assertEquals(0, s.coverage(), 0);
+    }
+
+    @Test
+    public void s0EstimatesFromRepeatedReads() {
+        InventoryStrategy s = strategy(0, true);
+        assertEquals(InventoryStrategy.TARGET_A, s.target());
+        s.onRound(300, 300);
+        s.onRound(300, 2);
+        // The phase that found the tags re-read only two thirds of what it read
+        assertFalse(quiet(s, 300));
+        assertEquals(598 / 900.0, s.coverage(), 1e-9);
+        assertTrue(quiet(s, 300));
+        assertEquals(1, s.coverage(), 0);
+    }
+
+    // S2 on A alone never re-reads a tag: a second phase without new tags completes
+    @Test
+    public void s2SingleTargetKeepsThePhaseRule() {
+        InventoryStrategy s = strategy(2, false);
+        s.onRound(300, 300);
+        assertFalse(quiet(s, 0));
+        assertTrue(quiet(s, 0));
+    }
+}
@@ -0,0 +1,77 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class LinkNegotiatorTest {
+
+    private static SimulatedModule module(int maxReliableBaud, double errorRate) {
+        SimulatedModule module = new SimulatedModule(115200, 1);
+        module.setLinkQuality(maxReliableBaud, errorRate);
+        return module;
+    }
+
+    // 921600 flips bits: the echo check catches it and the next rate down holds
+    @Test
+    public void settlesOnTheFastestReliableRate() throws Exception {
+        SimulatedModule module = module(460800, 0.05);
+        LinkNegotiator.Result r = new LinkNegotiator(module).negotiate(LinkNegotiator.DEFAULT_RATES);
+        assertTrue(r.toString(), r.verified);
+        assertEquals(115200, r.startBaudRate);
+        assertEquals(460800, r.baudRate);
+        assertEquals(460800, module.getModuleBaudRate());
+        assertEquals(460800, module.getBaudRate());
+        assertTrue(r.toString(), r.steps.get(0).startsWith("921600: echo "));
+        assertEquals("460800: ok", r.steps.get(r.steps.size() - 1));
+    }
+
+    // Older firmware answers SetBaud for 460800 and up with a parameter error
+    @Test
+    public void skipsRatesTheFirmwareRejects() throws Exception {
+        SimulatedModule module = module(921600, 0);
+        module.setSupportedRates(57600, 115200, 230400);
+        LinkNegotiator.Result r = new LinkNegotiator(module).negotiate(LinkNegotiator.DEFAULT_RATES);
+        assertEquals(Arrays.asList("921600: not supported by module", "460800: not supported by module",
+                "230400: ok"), r.steps);
+        assertEquals(230400, r.baudRate);
+        assertEquals(230400, module.getModuleBaudRate());
+    }
+
+    // Nothing faster is reliable: both ends stay where they started
+    @Test
+    public void staysAtTheStartRateWhenNothingFasterHolds() throws Exception {
+        SimulatedModule module = module(115200, 0.2);
+        LinkNegotiator.Result r = new LinkNegotiator(module).negotiate(LinkNegotiator.DEFAULT_RATES);
+        assertTrue(r.toString(), r.verified);
+        assertEquals(115200, r.baudRate);
+        assertEquals(115200, module.getModuleBaudRate());
+        assertEquals(115200, module.getBaudRate());
+    }
+
+    // A module an earlier session left on another rate is found there
+    @Test
+    public void locatesAModuleLeftOnAnotherRate() throws Exception {
+        SimulatedModule module = new SimulatedModule(230400, 1);
+        module.setBaudRate(115200);
+        LinkNegotiator negotiator = new LinkNegotiator(module);
+        assertEquals(230400, negotiator.locate(115200, LinkNegotiator.DEFAULT_RATES));
+        assertEquals(230400, module.getBaudRate());
+        assertTrue(negotiator.probe() != null);
+    }
+
+    // negotiate() does not search; that is locate()'s job
+    @Test
+    public void reportsAModuleThatDoesNotAnswer() throws Exception {
+        SimulatedModule module = new SimulatedModule(230400, 1);
+        module.setBaudRate(115200);
+        LinkNegotiator.Result r = new LinkNegotiator(module).setTimeoutMs(20).negotiate(LinkNegotiator.DEFAULT_RATES);
+        assertFalse(r.verified);
+        assertEquals(115200, r.baudRate);
+        assertEquals(Arrays.asList("115200: no answer"), r.steps);
+    }
+}
@@ -0,0 +1,150 @@
+package com.urovo.rfid;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Fixed output power against PowerController on a SimulatedModule population with
+// path losses: tags in the read zone plus tags on the neighbouring rack, a few dB
+// further away. Rounds go through DirectRfidReader and the real frame path; reported
+// are the virtual ms until the zone is covered and how many neighbours were read on
+// the way.
+final class PowerSimulation {
+    private static final long ROUND_WAIT_MS = 3000;
+    // One-way path loss of zone and neighbour tags; the zone edge at 33 dBm comes back
+    // at 33 - 2 * 44 - 5 = -60 dBm
+    static final double ZONE_LOSS_MIN = 34;
+    static final double ZONE_LOSS_MAX = 44;
+    static final double NEIGHBOUR_LOSS_MIN = 45;
+    static final double NEIGHBOUR_LOSS_MAX = 50;
+    static final int ZONE_RSSI = -61;
+
+    static final class Result {
+        public final String name;
+        public int zoneTags;
+        public int zoneFound;
+        public int neighbourTags;
+        public int neighboursRead;
+        public int rounds;
+        public long reads;
+        public int finalPower;
+        // Virtual ms until the requested share of the zone was read; -1 = never
+        public long coverageMs = -1;
+        public long elapsedMs;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": zone " + zoneFound + "/" + zoneTags + " at "
+                    + (coverageMs < 0 ? "-" : coverageMs + " ms") + ", neighbours " + neighboursRead + "/"
+                    + neighbourTags + ", " + rounds + " rounds, " + reads + " reads, power " + finalPower;
+        }
+    }
+
+    // Zone tags get EPCs starting E2, neighbours E3; farDb moves every tag that many dB
+    // further out, and the zone edge RSSI 2 * farDb down
+    static SimulatedModule population(int zoneTags, int neighbourTags, double farDb, long seed) {
+        SimulatedModule module = new SimulatedModule(115200, seed);
+        Random random = new Random(seed);
+        for (int i = 0; i < zoneTags + neighbourTags; i++) {
+            boolean zone = i < zoneTags;
+            byte[] epc = new byte[12];
+            random.nextBytes(epc);
+            epc[0] = (byte) (zone ? 0xE2 : 0xE3);
+            double min = zone ? ZONE_LOSS_MIN : NEIGHBOUR_LOSS_MIN;
+            double max = zone ? ZONE_LOSS_MAX : NEIGHBOUR_LOSS_MAX;
+            module.addTag(epc, farDb + min + random.nextDouble() * (max - min));
+        }
+        return module;
+    }
+
+    // controller null: fixed power
+    static Result run(String name, SimulatedModule module, int zoneTags, int neighbourTags, int power,
+            PowerController controller, InventoryStrategy.Options options, double coverage, long maxMs) {
+        Result result = new Result(name);
+        result.zoneTags = zoneTags;
+        result.neighbourTags = neighbourTags;
+        int needed = (int) Math.ceil(zoneTags * coverage);
+        InventoryStrategy strategy = new InventoryStrategy();
+        strategy.setOptions(options);
+        strategy.reset();
+
+        EpcIndex zone = new EpcIndex(Math.max(16, zoneTags));
+        EpcIndex neighbours = new EpcIndex(Math.max(16, neighbourTags));
+        int[] roundNew = new int[1];
+        int[] roundReads = new int[1];
+        long[] reads = new long[1];
+        CountDownLatch[] roundDone = new CountDownLatch[1];
+        DirectRfidReader reader = new DirectRfidReader();
+        reader.setListener(new RfidReader.Listener() {
+            @Override
+            public void onTagRecord(TagRecord record) {
+                reads[0]++;
+                if (controller != null) controller.onRead(record);
+                EpcIndex index = record.epc[0] == (byte) 0xE2 ? zone : neighbours;
+                int before = index.size();
+                if (index.add(record.epcHi, record.epcKeyLo) == before) roundNew[0]++;
+            }
+
+            @Override
+            public void onRoundEnd(int tagCount) {
+                roundReads[0] = tagCount;
+                if (controller != null) controller.onRoundEnd(reader.lastRoundTruncated(), module.getVirtualTimeMs());
+                roundDone[0].countDown();
+            }
+
+            @Override
+            public void onAccessRead(String epc, String data) {
+            }
+
+            @Override
+            public void onAccessStatus(int cmd, int status) {
+            }
+        });
+        reader.connect(module);
+        reader.setOutputPower(power);
+        int applied = power;
+        long start = module.getVirtualTimeMs();
+        try {
+            while (module.getVirtualTimeMs() - start < maxMs) {
+                long roundStart = module.getVirtualTimeMs();
+                if (controller != null) {
+                    int p = controller.powerForRound(roundStart);
+                    if (p >= 0 && p != applied) {
+                        reader.setOutputPower(p);
+                        applied = p;
+                    }
+                }
+                roundNew[0] = 0;
+                roundDone[0] = new CountDownLatch(1);
+                if (reader.inventoryRound(strategy.session(), strategy.target()) < 0
+                        || !roundDone[0].await(ROUND_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+                long end = module.getVirtualTimeMs();
+                result.rounds++;
+                if (result.coverageMs < 0 && zone.size() >= needed) {
+                    result.coverageMs = end - start;
+                    break;
+                }
+                strategy.onRound(roundReads[0], roundNew[0]);
+                long next = Math.max(end + ScanStateMachine.FAST_RESTART_MS,
+                        roundStart + ScanStateMachine.MIN_ROUND_INTERVAL_MS);
+                module.advance(next - end);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reader.disconnect();
+        }
+        result.zoneFound = zone.size();
+        result.neighboursRead = neighbours.size();
+        result.reads = reads[0];
+        result.finalPower = module.getPower();
+        result.elapsedMs = module.getVirtualTimeMs() - start;
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+// A cage of 1500 tags next to a rack of 1500, S1 with dual target, seed 42: virtual
+// times are deterministic. Every round runs out of scan time at 332 reads, so time to
+// 99% of the zone is set by how many of those reads the zone gets.
+public class PowerSimulationTest {
+    private static final int TAGS = 1500;
+    private static final double COVERAGE = 0.99;
+    private static final long MAX_MS = 60_000;
+    private static final InventoryStrategy.Options OPTIONS = new InventoryStrategy.Options(1, true, 1, 3, true);
+
+    private static PowerSimulation.Result fixed(int power, double farDb) {
+        return PowerSimulation.run("fixed " + power + " dBm", PowerSimulation.population(TAGS, TAGS, farDb, 42),
+                TAGS, TAGS, power, null, OPTIONS, COVERAGE, MAX_MS);
+    }
+
+    private static PowerSimulation.Result controlled(double farDb) {
+        PowerController controller = new PowerController();
+        controller.configure(true, PowerController.DEFAULT_MIN_DBM, PowerController.DEFAULT_MAX_DBM,
+                PowerSimulation.ZONE_RSSI - (int) (2 * farDb));
+        return PowerSimulation.run("controller", PowerSimulation.population(TAGS, TAGS, farDb, 42),
+                TAGS, TAGS, 30, controller, OPTIONS, COVERAGE, MAX_MS);
+    }
+
+    // 27 dBm is the best fixed power for this cage: it wakes the zone edge and no
+    // neighbour. The controller starts at the default 30 dBm, loses part of its first
+    // round to the rack and lands on 27 dBm from the second on: one round behind.
+    @Test
+    public void controllerIsOneRoundBehindTheBestFixedPower() {
+        PowerSimulation.Result best = fixed(27, 0);
+        assertEquals(10720, best.coverageMs);
+        assertEquals(0, best.neighboursRead);
+
+        PowerSimulation.Result r = controlled(0);
+        assertEquals(11800, r.coverageMs);
+        assertEquals(27, r.finalPower);
+        // Stepping down one dB per epoch read 167
+        assertEquals(79, r.neighboursRead);
+    }
+
+    @Test
+    public void fixedDefaultsReadTheRack() {
+        PowerSimulation.Result p33 = fixed(33, 0);
+        assertEquals(31240, p33.coverageMs);
+        assertEquals(1465, p33.neighboursRead);
+        PowerSimulation.Result p30 = fixed(30, 0);
+        assertEquals(19360, p30.coverageMs);
+        assertEquals(811, p30.neighboursRead);
+    }
+
+    // The best fixed power holds for one geometry only; moved 2 dB either way it
+    // misses the zone edge or reads the rack, the controller keeps its 11.8 s
+    @Test
+    public void controllerFollowsTheZoneWhereFixedPowerDoesNot() {
+        PowerSimulation.Result farFixed = fixed(27, 2);
+        assertEquals(-1, farFixed.coverageMs);
+        PowerSimulation.Result far = controlled(2);
+        assertEquals(11800, far.coverageMs);
+        assertEquals(29, far.finalPower);
+
+        PowerSimulation.Result nearFixed = fixed(27, -2);
+        assertEquals(16120, nearFixed.coverageMs);
+        assertEquals(513, nearFixed.neighboursRead);
+        PowerSimulation.Result near = controlled(-2);
+        assertEquals(11800, near.coverageMs);
+        assertEquals(25, near.finalPower);
+        assertTrue(near.toString(), near.neighboursRead < nearFixed.neighboursRead / 3);
+    }
+}
@@ -0,0 +1,254 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Drives the machine directly, with the time passed in, and checks the effects it asks for
+public class ScanStateMachineTest {
+    private final RecordingEffects effects = new RecordingEffects();
+    private ScanStateMachine machine;
+    private long now = 10_000;
+
+    @Before
+    public void setUp() {
+        machine = new ScanStateMachine(effects, 0, new InventoryStrategy());
+    }
+
+    @Test
+    public void triggerPressStartsARoundAtOnce() {
+        send(ScanStateMachine.EV_START, ScanStateMachine.START_TRIGGER);
+        assertEffects("scanning true", "round 1/0", "schedule TIMEOUT 1 5000", "schedule TUNE 1 1500");
+        assertEquals(ScanStateMachine.State.ROUND, machine.getState());
+        assertTrue(machine.isScanning());
+    }
+
+    @Test
+    public void roundEndBacksOffThenStartsTheNextRound() {
+        startScan();
+        now += 500;
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 3, 3));
+        assertEffects("schedule NEXT 1 80");
+        assertEquals(ScanStateMachine.State.BACKOFF, machine.getState());
+        now += 80;
+        send(ScanStateMachine.EV_NEXT_ROUND, 1);
+        assertEffects("round 1/0", "schedule TIMEOUT 2 5000");
+    }
+
+    @Test
+    public void pauseDuringARoundStopsItAndWaitsForItsEnd() {
+        startScan();
+        send(ScanStateMachine.EV_PAUSE, 0);
+        assertEffects("stop");
+        assertEquals(ScanStateMachine.State.PAUSED, machine.getState());
+        assertTrue(machine.isScanning());
+
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 2, 0));
+        assertEffects("paused");
+
+        now += 1000;
+        send(ScanStateMachine.EV_RESUME, 0);
+        assertEffects("round 1/0", "schedule TIMEOUT 2 5000", "schedule TUNE 3 1500");
+    }
+
+    @Test
+    public void pauseDuringARoundReportsPausedAtItsTimeout() {
+        startScan();
+        send(ScanStateMachine.EV_PAUSE, 0);
+        send(ScanStateMachine.EV_ROUND_TIMEOUT, 1);
+        assertEffects("stop", "paused");
+        // The end arriving after all is not reported twice
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 0, 0));
+        assertEffects();
+    }
+
+    @Test
+    public void pauseBetweenRoundsReportsPausedAtOnce() {
+        startScan();
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 0, 0));
+        effects.log.clear();
+        send(ScanStateMachine.EV_PAUSE, 0);
+        assertEffects("paused");
+        // The backoff timer armed before the pause is stale
+        send(ScanStateMachine.EV_NEXT_ROUND, 1);
+        assertEffects();
+    }
+
+    @Test
+    public void pauseWhileIdleResumesToIdle() {
+        send(ScanStateMachine.EV_PAUSE, 0);
+        assertEffects("paused");
+        send(ScanStateMachine.EV_RESUME, 0);
+        assertEffects();
+        assertEquals(ScanStateMachine.State.IDLE, machine.getState());
+    }
+
+    @Test
+    public void stopWhilePausedEndsTheScanOnResume() {
+        startScan();
+        send(ScanStateMachine.EV_PAUSE, 0);
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 0, 0));
+        send(ScanStateMachine.EV_STOP, 0);
+        assertEffects("stop", "paused", "scanning false");
+        send(ScanStateMachine.EV_RESUME, 0);
+        assertEffects();
+        assertEquals(ScanStateMachine.State.IDLE, machine.getState());
+    }
+
+    @Test
+    public void resetWhileDrainingStillReportsPaused() {
+        startScan();
+        send(ScanStateMachine.EV_PAUSE, 0);
+        send(ScanStateMachine.EV_RESET, 0);
+        assertEffects("stop", "paused", "scanning false");
+        assertFalse(machine.isScanning());
+    }
+
+    @Test
+    public void stopDuringARoundStopsIt() {
+        startScan();
+        send(ScanStateMachine.EV_STOP, 0);
+        assertEffects("stop", "scanning false");
+        assertEquals(ScanStateMachine.State.IDLE, machine.getState());
+    }
+
+    // A quick release and press: the stopped round's end arrives after the new START.
+    // It is taken as that round's end, and only then does the new round go out
+    @Test
+    public void triggerRestartWaitsForTheStoppedRound() {
+        startScan();
+        send(ScanStateMachine.EV_STOP, 0);
+        now += 30;
+        send(ScanStateMachine.EV_START, ScanStateMachine.START_TRIGGER);
+        assertEffects("stop", "scanning false", "scanning true", "schedule TUNE 3 1500");
+        assertEquals(ScanStateMachine.State.BACKOFF, machine.getState());
+
+        now += 20;
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 4, 0));
+        assertEffects("round 1/0", "schedule TIMEOUT 2 5000");
+        assertEquals(ScanStateMachine.State.ROUND, machine.getState());
+
+        // A second end of the stopped round is not the new round's end
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 0, 0));
+        assertEffects();
+        assertEquals(ScanStateMachine.State.ROUND, machine.getState());
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(2, 6, 6));
+        assertEffects("schedule NEXT 3 80");
+    }
+
+    @Test
+    public void stoppedRoundThatNeverEndsReleasesTheNextRoundAtItsTimeout() {
+        startScan();
+        send(ScanStateMachine.EV_STOP, 0);
+        send(ScanStateMachine.EV_START, ScanStateMachine.START_TRIGGER);
+        effects.log.clear();
+        now += ScanStateMachine.ROUND_TIMEOUT_MS;
+        send(ScanStateMachine.EV_ROUND_TIMEOUT, 1);
+        assertEffects("round 1/0", "schedule TIMEOUT 2 5000");
+    }
+
+    // The module may still be inventorying: access waits for the stopped round's end
+    @Test
+    public void pauseRightAfterStopWaitsForTheStoppedRound() {
+        startScan();
+        send(ScanStateMachine.EV_STOP, 0);
+        effects.log.clear();
+        send(ScanStateMachine.EV_PAUSE, 0);
+        assertEffects();
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 0, 0));
+        assertEffects("paused");
+        send(ScanStateMachine.EV_RESUME, 0);
+        assertEffects();
+        assertEquals(ScanStateMachine.State.IDLE, machine.getState());
+    }
+
+    @Test
+    public void startWithoutTriggerKeepsTheMinimumRoundInterval() {
+        startScan();
+        send(ScanStateMachine.EV_STOP, 0);
+        send(ScanStateMachine.EV_ROUND_END, ScanStateMachine.roundEndArg(1, 0, 0));
+        effects.log.clear();
+        now += 100;
+        send(ScanStateMachine.EV_START, 0);
+        assertEffects("scanning true", "schedule NEXT 3 300", "schedule TUNE 3 1500");
+    }
+
+    @Test
+    public void rejectedRoundIsRetriedLater() {
+        effects.accept = false;
+        send(ScanStateMachine.EV_START, ScanStateMachine.START_TRIGGER);
+        assertEffects("scanning true", "round 1/0", "schedule NEXT 1 800", "schedule TUNE 1 1500");
+        assertEquals(ScanStateMachine.State.BACKOFF, machine.getState());
+    }
+
+    private void startScan() {
+        send(ScanStateMachine.EV_START, ScanStateMachine.START_TRIGGER);
+        effects.log.clear();
+    }
+
+    private void send(int what, int arg) {
+        machine.onEvent(what, arg, now);
+    }
+
+    private void assertEffects(String... expected) {
+        assertEquals(Arrays.asList(expected), effects.log);
+        effects.log.clear();
+    }
+
+    private static final class RecordingEffects implements ScanStateMachine.Effects {
+        final List<String> log = new ArrayList<>();
+        boolean accept = true;
+
+        @Override
+        public int inventoryRound(int round, int session, int target) {
+            log.add("round " + session + "/" + target);
+            return accept ? 0 : -1;
+        }
+
+        @Override
+        public void applyConfig(int index) {
+            log.add("config " + index);
+        }
+
+        @Override
+        public void schedule(int what, int arg, long delayMs) {
+            String name;
+            switch (what) {
+                case ScanStateMachine.EV_NEXT_ROUND:
+                    name = "NEXT";
+                    break;
+                case ScanStateMachine.EV_ROUND_TIMEOUT:
+                    name = "TIMEOUT";
+                    break;
+                case ScanStateMachine.EV_TUNE:
+                    name = "TUNE";
+                    break;
+                default:
+                    name = String.valueOf(what);
+            }
+            log.add("schedule " + name + " " + arg + " " + delayMs);
+        }
+
+        @Override
+        public void onScanningChanged(boolean scanning) {
+            log.add("scanning " + scanning);
+        }
+
+        @Override
+        public void stopRound() {
+            log.add("stop");
+        }
+
+        @Override
+        public void onPaused() {
+            log.add("paused");
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package com.urovo.rfid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// In-process stand-in for the UHF module that speaks the serial frame protocol
+// over a SerialLink. It models what the link code has to cope with: the module keeps
+// its own rate (SetBaud changes it after the reply), bytes sent at a mismatched rate
+// arrive as garbage, and rates above maxReliableBaud flip bits at errorRate.
+// Inventory follows Gen2 sessions: a tag answers when its flag for the session equals
+// the target, with its own per-round probability, then flips; S1 flags fall back to
+// A after S1_PERSIST_MS, S2/S3 flags stay, S0 flags reset every round. Air time runs
+// on a virtual clock, so coverage timings do not depend on the host. Tags added with
+// a path loss only answer when the output power reaches them (see TAG_SENSITIVITY_DBM).
+// Access commands cost air time too; WriteData does one Gen2 Write per word, BlockWrite
+// one command for all, and each written word can fail at writeErrorRate.
+// Deterministic for a given seed.
+class SimulatedModule implements SerialLink {
+    private static final int TAGS_PER_FRAME = 4;
+    // Air time model: fixed cost per round plus one singulation per reply, and no more
+    // replies than fit into the scan time sent with the command
+    static final double ROUND_OVERHEAD_MS = 4.0;
+    static final double REPLY_MS = 3.0;
+    static final long S1_PERSIST_MS = 2000;
+    // Tags with a path loss wake up once power - loss reaches TAG_SENSITIVITY_DBM, answer
+    // less reliably in the first dBs above it, and come back at power - 2 * loss +
+    // BACKSCATTER_DB; replies below READER_SENSITIVITY_DBM are lost
+    static final double TAG_SENSITIVITY_DBM = -18;
+    static final double BACKSCATTER_DB = -5;
+    static final double READER_SENSITIVITY_DBM = -85;
+    // Select, singulation and Req_RN before every access command; a Write adds its
+    // handshake and the tag's write time per word, a BlockWrite pays that once
+    static final double ACCESS_MS = 3.0;
+    static final double READ_WORD_MS = 0.2;
+    static final double WRITE_WORD_MS = 4.0;
+    static final double BLOCK_WRITE_MS = 5.0;
+    static final double BLOCK_WORD_MS = 1.0;
+    static final int CMD_BLOCK_WRITE = 0x10;
+
+    private final Object lock = new Object();
+    private final Random random;
+    private final byte[] rx = new byte[1024];
+    private int rxLen;
+    private byte[] tx = new byte[64 * 1024];
+    private int txHead;
+    private int txTail;
+    private boolean closed;
+
+    private int hostBaud;
+    private int moduleBaud;
+    private int maxReliableBaud = 460800;
+    private double errorRate = 0.002;
+    private double writeErrorRate;
+    private int[] supportedRates = { 9600, 19200, 38400, 57600, 115200, 230400, 460800, 921600 };
+
+    private final List<SimTag> tags = new ArrayList<>();
+    private int power = 30;
+    private double virtualMs;
+    // SetRegion channel range; each round runs on one channel of it
+    private int minChannel = 0;
+    private int maxChannel = 6;
+    private final double[] channelLoss = new double[64];
+    // SetAntennaMux bits; a tag answers if one of its antennas is enabled
+    private int antennaMask = 0xFF;
+    private long framesReceived;
+    private long framesRejected;
+
+    private final InputStream input = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            synchronized (lock) {
+                while (txHead == txTail && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted");
+                    }
+                }
+                if (txHead == txTail) return -1;
+                int n = Math.min(len, txTail - txHead);
+                System.arraycopy(tx, txHead, b, off, n);
+                txHead += n;
+                return n;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (lock) {
+                return txTail - txHead;
+            }
+        }
+    };
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            synchronized (lock) {
+                receive(b, off, len);
+            }
+        }
+    };
+
+    public SimulatedModule(int baudRate, long seed) {
+        hostBaud = baudRate;
+        moduleBaud = baudRate;
+        random = new Random(seed);
+    }
+
+    // Rates above this lose bytes at errorRate (cable, level shifter, clock error)
+    public void setLinkQuality(int maxReliableBaud, double errorRate) {
+        synchronized (lock) {
+            this.maxReliableBaud = maxReliableBaud;
+            this.errorRate = errorRate;
+        }
+    }
+
+    // Chance that one written word does not take (weak field, tag moving away)
+    public void setWriteErrorRate(double rate) {
+        synchronized (lock) {
+            writeErrorRate = rate;
+        }
+    }
+
+    // Rates the firmware accepts in SetBaud; others are answered with a parameter error
+    public void setSupportedRates(int... rates) {
+        synchronized (lock) {
+            supportedRates = rates.clone();
+        }
+    }
+
+    // Share of replies lost on a channel (interference at a loading dock)
+    public void setChannelLoss(int channel, double loss) {
+        synchronized (lock) {
+            channelLoss[channel & 0x3F] = loss;
+        }
+    }
+
+    // Spreads the tags over antenna ports: share[i] of them are seen by port i only
+    public void spreadOverAntennas(double... share) {
+        synchronized (lock) {
+            for (SimTag tag : tags) {
+                double x = random.nextDouble();
+                int port = 0;
+                while (port < share.length - 1 && x >= share[port]) x -= share[port++];
+                tag.antennas = 1 << port;
+            }
+        }
+    }
+
+    public void addTag(byte[] epc) {
+        synchronized (lock) {
+            tags.add(new SimTag(epc.clone(), random));
+        }
+    }
+
+    // A tag pathLossDb away from the antenna (one way), for the power model
+    public void addTag(byte[] epc, double pathLossDb) {
+        synchronized (lock) {
+            SimTag tag = new SimTag(epc.clone(), random);
+            tag.pathLoss = pathLossDb;
+            tags.add(tag);
+        }
+    }
+
+    public void addRandomTags(int count) {
+        addRandomTags(count, 0);
+    }
+
+    // weakFraction of the tags answer a round with a probability of 5-50%
+    // (far, detuned, shadowed), the rest always
+    public void addRandomTags(int count, double weakFraction) {
+        synchronized (lock) {
+            for (int i = 0; i < count; i++) {
+                byte[] epc = new byte[12];
+                random.nextBytes(epc);
+                epc[0] = (byte) 0xE2;
+                SimTag tag = new SimTag(epc, random);
+                if (random.nextDouble() < weakFraction) {
+                    tag.readProbability = 0.05 + random.nextDouble() * 0.45;
+                }
+                tags.add(tag);
+            }
+        }
+    }
+
+    // Leaves every tag's flag for session on B, as a previous scan would have
+    public void setAllFlags(int session, int target) {
+        synchronized (lock) {
+            for (SimTag tag : tags) {
+                tag.flags[session] = (byte) target;
+                tag.flagSetMs[session] = (long) virtualMs;
+            }
+        }
+    }
+
+    public int getTagCount() {
+        synchronized (lock) {
+            return tags.size();
+        }
+    }
+
+    // Air time spent so far (plus any idle time added with advance)
+    public long getVirtualTimeMs() {
+        synchronized (lock) {
+            return (long) virtualMs;
+        }
+    }
+
+    public void advance(long ms) {
+        synchronized (lock) {
+            virtualMs += ms;
+        }
+    }
+
+    // Current contents of a memory bank of the tag with this EPC (null if absent)
+    public byte[] readBank(byte[] epc, int bank) {
+        synchronized (lock) {
+            SimTag tag = find(epc, 0, epc.length);
+            return tag != null ? tag.banks[bank].clone() : null;
+        }
+    }
+
+    public int getModuleBaudRate() {
+        synchronized (lock) {
+            return moduleBaud;
+        }
+    }
+
+    public int getPower() {
+        synchronized (lock) {
+            return power;
+        }
+    }
+
+    public long getFramesReceived() {
+        synchronized (lock) {
+            return framesReceived;
+        }
+    }
+
+    // Frames the module could not decode (wrong rate, corrupted, bad CRC)
+    public long getFramesRejected() {
+        synchronized (lock) {
+            return framesRejected;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public int getBaudRate() {
+        synchronized (lock) {
+            return hostBaud;
+        }
+    }
+
+    @Override
+    public void setBaudRate(int baudRate) {
+        synchronized (lock) {
+            hostBaud = baudRate;
+            txHead = txTail = 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+    // Host -> module
+    private void receive(byte[] b, int off, int len) {
+        if (hostBaud != moduleBaud) {
+            // Framing errors: the UART drops what it cannot sample
+            framesRejected++;
+            return;
+        }
+        // Each write is one burst; the real module drops a partial frame after an
+        // inter-byte timeout, so a corrupted length byte cannot stall it
+        rxLen = 0;
+        for (int i = 0; i < len && rxLen < rx.length; i++) {
+            rx[rxLen++] = corrupt(b[off + i]);
+        }
+        int index = 0;
+        while (rxLen - index >= 5) {
+            int frameLen = rx[index] & 0xFF;
+            if (frameLen < 4 || rxLen < index + frameLen + 1) {
+                if (frameLen < 4) {
+                    index++;
+                    continue;
+                }
+                break;
+            }
+            if (!FrameDecoder.checkCrc(rx, index)) {
+                framesRejected++;
+                index++;
+                continue;
+            }
+            framesReceived++;
+            handle(rx, index, frameLen + 1);
+            index += frameLen + 1;
+        }
+    }
+
+    private void handle(byte[] f, int off, int total) {
+        int cmd = f[off + 2] & 0xFF;
+        switch (cmd) {
+            case LinkNegotiator.CMD_GET_READER_INFO:
+                // version(2), type, protocols, max/min frequency, power, scan time
+                reply(cmd, 0, new byte[] { 0x03, 0x0A, 0x0F, 0x02, 0x4E, 0x00, (byte) power, 10 });
+                break;
+            case LinkNegotiator.CMD_SET_BAUD: {
+                int rate = LinkNegotiator.rateForCode(f[off + 3] & 0xFF);
+                if (rate <= 0 || !supports(rate)) {
+                    reply(cmd, 0xFF, null);
+                } else {
+                    reply(cmd, 0, null);             // acknowledged at the old rate
+                    moduleBaud = rate;
+                }
+                break;
+            }
+            case 0x2F:
+                power = f[off + 3];
+                reply(cmd, 0, null);
+                break;
+            case FrameDecoder.CMD_INVENTORY:
+            case FrameDecoder.CMD_INVENTORY_MIX:
+                inventory(cmd, f, off, total);
+                break;
+            case 0x22:                               // SetRegion [maxFre, minFre]
+                maxChannel = f[off + 3] & 0x3F;
+                minChannel = Math.min(f[off + 4] & 0x3F, maxChannel);
+                reply(cmd, 0, null);
+                break;
+            case 0x3F:                               // SetAntennaMux
+                antennaMask = f[off + 3] & 0xFF;
+                reply(cmd, 0, null);
+                break;
+            case 0x93:
+                reply(cmd, 0, null);
+                break;
+            case 0x02:
+                readData(f, off);
+                break;
+            case 0x03:
+            case CMD_BLOCK_WRITE:
+                writeData(cmd, f, off);
+                break;
+            default:
+                reply(cmd, 0xFE, null);              // unknown command
+        }
+    }
+
+    private boolean supports(int rate) {
+        for (int r : supportedRates) {
+            if (r == rate) return true;
+        }
+        return false;
+    }
+
+    // Answers an inventory with the tags that take part in this round, TAGS_PER_FRAME
+    // per frame; a Select mask on the EPC bank leaves only matching tags in the round.
+    // Command tail: [.., Target, Ant, Scantime, CRC(2)]
+    private void inventory(int cmd, byte[] f, int off, int total) {
+        int dataLen = 0;
+        int maskLen;
+        if (cmd == FrameDecoder.CMD_INVENTORY_MIX) {
+            maskLen = total > 18 ? total - 18 : 0;
+            dataLen = (f[off + 5 + maskLen + 3] & 0xFF) * 2;
+        } else {
+            maskLen = total > 10 ? total - 10 : 0;
+        }
+        int session = f[off + 4] & 0x03;
+        int target = f[off + total - 5] & 0x01;
+        int maxReplies = (int) (((f[off + total - 3] & 0xFF) * 100 - ROUND_OVERHEAD_MS) / REPLY_MS);
+        List<SimTag> replies = new ArrayList<>();
+        long now = (long) virtualMs;
+        double pass = 1 - channelLoss[minChannel + random.nextInt(maxChannel - minChannel + 1)];
+        for (SimTag tag : tags) {
+            if (tag.flag(session, now) == target && (tag.antennas & antennaMask) != 0
+                    && (maskLen == 0 || selected(tag, f, off + 5))
+                    && random.nextDouble() < tag.readProbability * pass * tag.powered(power)) {
+                replies.add(tag);
+            }
+        }
+        // Contention: only as many as the scan time allows get singulated
+        boolean truncated = replies.size() > maxReplies;
+        while (replies.size() > maxReplies) {
+            replies.remove(random.nextInt(replies.size()));
+        }
+        virtualMs += ROUND_OVERHEAD_MS + replies.size() * REPLY_MS;
+        if (replies.isEmpty()) {
+            reply(cmd, 0xFB, null);                  // no tag
+            return;
+        }
+        for (SimTag tag : replies) {
+            if (session > 0) {
+                tag.flags[session] = (byte) (target ^ 1);
+                tag.flagSetMs[session] = (long) virtualMs;
+            }
+        }
+        for (int i = 0; i < replies.size(); i += TAGS_PER_FRAME) {
+            int n = Math.min(TAGS_PER_FRAME, replies.size() - i);
+            int size = 2;
+            for (int k = 0; k < n; k++) size += 2 + replies.get(i + k).epc.length + dataLen + 1;
+            byte[] data = new byte[size];
+            int pos = 0;
+            data[pos++] = 1;                         // antenna
+            data[pos++] = (byte) n;
+            for (int k = 0; k < n; k++) {
+                byte[] epc = replies.get(i + k).epc;
+                int pc = (epc.length / 2) << 11;
+                data[pos++] = (byte) (pc >> 8);
+                data[pos++] = (byte) pc;
+                System.arraycopy(epc, 0, data, pos, epc.length);
+                pos += epc.length;
+                for (int d = 0; d < dataLen; d++) {
+                    data[pos++] = d < epc.length ? (byte) (epc[d] ^ 0x5A) : (byte) d;
+                }
+                data[pos++] = (byte) replies.get(i + k).rssi(power, random);
+            }
+            // More frames follow until the last one closes the round, which says whether
+            // the scan time ran out
+            boolean last = i + TAGS_PER_FRAME >= replies.size();
+            int status = !last ? FrameDecoder.STATUS_MORE
+                    : truncated ? FrameDecoder.STATUS_SCAN_TIMEOUT : FrameDecoder.STATUS_ROUND_DONE;
+            reply(cmd, status, data);
+        }
+    }
+
+    // Mask: [MaskMem, MaskAdr(2, bits), MaskLen(bits), MaskData]; EPC bank only
+    private static boolean selected(SimTag tag, byte[] f, int pos) {
+        if (f[pos] != DirectRfidReader.BANK_EPC) return true;
+        int start = ((f[pos + 1] & 0xFF) << 8 | (f[pos + 2] & 0xFF)) - InventoryFilter.EPC_BIT_START;
+        int bits = f[pos + 3] & 0xFF;
+        if (start < 0 || start + bits > tag.epc.length * 8) return false;
+        for (int i = 0; i < bits; i++) {
+            int b = start + i;
+            int tagBit = tag.epc[b >> 3] >> (7 - (b & 7)) & 1;
+            int maskBit = f[pos + 4 + (i >> 3)] >> (7 - (i & 7)) & 1;
+            if (tagBit != maskBit) return false;
+        }
+        return true;
+    }
+
+    // [len, adr, cmd, ENum, EPC, Mem, WordPtr, Num, Pwd(4), MaskAdr, MaskLen, crc]
+    private void readData(byte[] f, int off) {
+        int epcLen = (f[off + 3] & 0xFF) * 2;
+        int p = off + 4 + epcLen;
+        SimTag tag = find(f, off + 4, epcLen);
+        int bank = f[p] & 0x03;
+        int start = (f[p + 1] & 0xFF) * 2;
+        int len = (f[p + 2] & 0xFF) * 2;
+        virtualMs += ACCESS_MS + len / 2 * READ_WORD_MS;
+        if (tag == null) {
+            reply(0x02, 0xFB, null);
+            return;
+        }
+        byte[] mem = tag.banks[bank];
+        if (start + len > mem.length) {
+            reply(0x02, 0xFC, null);                 // memory overrun
+            return;
+        }
+        byte[] data = new byte[len];
+        System.arraycopy(mem, start, data, 0, len);
+        reply(0x02, 0, data);
+    }
+
+    // WriteData and BlockWrite:
+    // [len, adr, cmd, WNum, ENum, EPC, Mem, WordPtr, Wdt, Pwd(4), MaskAdr, MaskLen, crc]
+    private void writeData(int cmd, byte[] f, int off) {
+        int len = (f[off + 3] & 0xFF) * 2;
+        int epcLen = (f[off + 4] & 0xFF) * 2;
+        int p = off + 5 + epcLen;
+        SimTag tag = find(f, off + 5, epcLen);
+        int bank = f[p] & 0x03;
+        int start = (f[p + 1] & 0xFF) * 2;
+        virtualMs += ACCESS_MS;
+        if (tag == null) {
+            reply(cmd, 0xFB, null);
+            return;
+        }
+        byte[] mem = tag.banks[bank];
+        if (bank == 2 || start + len > mem.length) {
+            reply(cmd, 0xFC, null);                  // TID is locked
+            return;
+        }
+        virtualMs += cmd == CMD_BLOCK_WRITE ? BLOCK_WRITE_MS + len / 2 * BLOCK_WORD_MS : len / 2 * WRITE_WORD_MS;
+        // Words up to a failed one have landed
+        int written = 0;
+        while (written < len && (writeErrorRate == 0 || random.nextDouble() >= writeErrorRate)) written += 2;
+        System.arraycopy(f, p + 2, mem, start, written);
+        if (bank == 1) tag.syncEpc();
+        reply(cmd, written == len ? 0 : 0xFC, null);
+    }
+
+    private SimTag find(byte[] b, int off, int len) {
+        for (SimTag tag : tags) {
+            if (tag.epc.length != len) continue;
+            boolean same = true;
+            for (int i = 0; i < len && same; i++) same = tag.epc[i] == b[off + i];
+            if (same) return tag;
+        }
+        return null;
+    }
+
+    // Reserved (passwords), EPC (CRC, PC, EPC), TID and User banks of one tag
+    private static final class SimTag {
+        byte[] epc;
+        final byte[][] banks = new byte[4][];
+        double readProbability = 1.0;
+        int antennas = 0xFF;
+        // One-way path loss in dB; NaN = outside the power model, always powered
+        double pathLoss = Double.NaN;
+        final byte[] flags = new byte[4];
+        final long[] flagSetMs = new long[4];
+
+        SimTag(byte[] epc, Random random) {
+            this.epc = epc;
+            banks[0] = new byte[8];
+            banks[1] = new byte[4 + 62];
+            int pc = (epc.length / 2) << 11;
+            banks[1][2] = (byte) (pc >> 8);
+            banks[1][3] = (byte) pc;
+            System.arraycopy(epc, 0, banks[1], 4, epc.length);
+            banks[2] = new byte[12];
+            random.nextBytes(banks[2]);
+            banks[2][0] = (byte) 0xE2;
+            banks[3] = new byte[64];
+        }
+
+        // Factor on the read probability at this output power
+        double powered(int power) {
+            if (Double.isNaN(pathLoss)) return 1;
+            double margin = power - pathLoss - TAG_SENSITIVITY_DBM;
+            if (margin < 0 || power - 2 * pathLoss + BACKSCATTER_DB < READER_SENSITIVITY_DBM) return 0;
+            return Math.min(1, 0.25 + margin / 4);
+        }
+
+        int rssi(int power, Random random) {
+            if (Double.isNaN(pathLoss)) return -40 - random.nextInt(40);
+            return (int) Math.round(power - 2 * pathLoss + BACKSCATTER_DB + random.nextGaussian() * 2);
+        }
+
+        int flag(int session, long nowMs) {
+            if (session == 0) return InventoryStrategy.TARGET_A;
+            if (session == 1 && flags[1] != InventoryStrategy.TARGET_A && nowMs - flagSetMs[1] > S1_PERSIST_MS) {
+                flags[1] = InventoryStrategy.TARGET_A;
+            }
+            return flags[session];
+        }
+
+        // The EPC length follows the PC word, as on a real tag
+        void syncEpc() {
+            int words = (banks[1][2] & 0xFF) >> 3;
+            epc = new byte[Math.min(words * 2, banks[1].length - 4)];
+            System.arraycopy(banks[1], 4, epc, 0, epc.length);
+        }
+    }
+
+    // Module -> host: [len, addr, cmd, status, data..., crc(2)]
+    private void reply(int cmd, int status, byte[] data) {
+        int dataLen = data == null ? 0 : data.length;
+        byte[] frame = new byte[4 + dataLen + 2];
+        frame[0] = (byte) (frame.length - 1);
+        frame[1] = 0;
+        frame[2] = (byte) cmd;
+        frame[3] = (byte) status;
+        if (dataLen > 0) System.arraycopy(data, 0, frame, 4, dataLen);
+        FrameDecoder.appendCrc(frame, frame.length - 2);
+        if (txTail + frame.length > tx.length) {
+            System.arraycopy(tx, txHead, tx, 0, txTail - txHead);
+            txTail -= txHead;
+            txHead = 0;
+            if (txTail + frame.length > tx.length) return;   // host not reading: overrun
+        }
+        boolean mismatched = hostBaud != moduleBaud;
+        for (byte b : frame) {
+            tx[txTail++] = mismatched ? (byte) random.nextInt(256) : corrupt(b);
+        }
+        lock.notifyAll();
+    }
+
+    private byte corrupt(byte b) {
+        if (moduleBaud > maxReliableBaud && random.nextDouble() < errorRate) {
+            return (byte) (b ^ (1 << random.nextInt(8)));
+        }
+        return b;
+    }
+}
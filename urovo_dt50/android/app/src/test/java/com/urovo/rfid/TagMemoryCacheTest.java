@@ -0,0 +1,67 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TagMemoryCacheTest {
+    private static final byte[] TID_A = { (byte) 0xE2, (byte) 0x80, 0x11, 0x05, 0x20, 0x00, 0x01, 0x0A };
+    private static final byte[] TID_B = { (byte) 0xE2, (byte) 0x80, 0x11, 0x05, 0x20, 0x00, 0x02, 0x0B };
+
+    // 144-bit EPCs (SGTIN-198 and the like) that differ only past the first 16 bytes
+    private static byte[] longEpc(int last) {
+        byte[] epc = new byte[18];
+        for (int i = 0; i < 16; i++) epc[i] = (byte) (0x30 + i);
+        epc[16] = 0x7F;
+        epc[17] = (byte) last;
+        return epc;
+    }
+
+    @Test
+    public void longEpcsWithACommonPrefixKeepTheirOwnEntries() {
+        TagMemoryCache cache = new TagMemoryCache();
+        byte[] a = longEpc(1);
+        byte[] b = longEpc(2);
+        cache.put(a, TagMemoryCache.BANK_TID, 0, TID_A);
+        assertNull(cache.get(b, TagMemoryCache.BANK_TID, 0, 4));
+        assertNull(cache.tidRange(b));
+
+        cache.put(b, TagMemoryCache.BANK_TID, 0, TID_B);
+        assertArrayEquals(TID_A, cache.get(a, TagMemoryCache.BANK_TID, 0, 4));
+        assertArrayEquals(TID_B, cache.get(b, TagMemoryCache.BANK_TID, 0, 4));
+
+        // A write to one tag leaves the other's entries alone
+        cache.onWrite(b, TagMemoryCache.BANK_TID, 0, new byte[2]);
+        assertNull(cache.get(b, TagMemoryCache.BANK_TID, 0, 4));
+        assertArrayEquals(TID_A, cache.get(a, TagMemoryCache.BANK_TID, 0, 4));
+    }
+
+    @Test
+    public void lookupsDoNotDependOnTheCallersArray() {
+        TagMemoryCache cache = new TagMemoryCache();
+        byte[] epc = longEpc(1);
+        cache.put(epc, TagMemoryCache.BANK_TID, 0, TID_A);
+        epc[17] = 9;
+        assertArrayEquals(TID_A, cache.get(longEpc(1), TagMemoryCache.BANK_TID, 0, 4));
+        assertNull(cache.get(epc, TagMemoryCache.BANK_TID, 0, 4));
+    }
+
+    // Without the PC the EPC length stays; words past it are not part of the EPC
+    @Test
+    public void longWriteFromWordTwoKeepsTheEpcLength() {
+        TagMemoryCache cache = new TagMemoryCache();
+        byte[] epc = Arrays.copyOf(longEpc(1), 12);
+        cache.put(epc, TagMemoryCache.BANK_TID, 0, TID_A);
+        byte[] data = new byte[16];
+        Arrays.fill(data, (byte) 0xAB);
+        byte[] newEpc = cache.onWrite(epc, TagMemoryCache.BANK_EPC, 2, data);
+        assertEquals(12, newEpc.length);
+        assertArrayEquals(Arrays.copyOf(data, 12), newEpc);
+        assertArrayEquals(new int[] { 0, 4 }, cache.tidRange(newEpc));
+        assertNull(cache.tidRange(epc));
+    }
+}
@@ -0,0 +1,146 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.urovo.rfid.aidl.InventoryArgsDecoder;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class TrafficReplayerTest {
+    private static final int FRAMES = 20000;
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private File trace;
+
+    // Each step: an inventory frame with two 12-byte EPCs received in two chunks, and
+    // one onInventoryTag callback; a round end every 100 steps
+    @Before
+    public void recordTrace() throws Exception {
+        trace = tmp.newFile("trace.rft");
+        TrafficRecorder rec = new TrafficRecorder(trace);
+        rec.open();
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] fr = new byte[5 + 2 * (2 + 12 + 1) + 2];
+            fr[0] = (byte) (fr.length - 1);
+            fr[2] = FrameDecoder.CMD_INVENTORY;
+            fr[3] = FrameDecoder.STATUS_ROUND_DONE;
+            fr[4] = 2;
+            int p = 5;
+            for (int t = 0; t < 2; t++) {
+                fr[p] = 0x30;
+                for (int k = 0; k < 12; k++) fr[p + 2 + k] = (byte) (i * 2 + t + k);
+                fr[p + 14] = (byte) -55;
+                p += 15;
+            }
+            FrameDecoder.appendCrc(fr, fr.length - 2);
+            rec.recordSerial(false, fr, 0, 7);
+            rec.recordSerial(false, fr, 7, fr.length - 7);
+            rec.recordInventoryTag((byte) 1, "3000", epc(i), "200", (byte) 3, "74", null, 12, 0, "0");
+            if (i % 100 == 0) rec.recordInventoryTagEnd(1, 100, 50, i, (byte) 0);
+        }
+        rec.close();
+        assertEquals(null, rec.getError());
+    }
+
+    @Test
+    public void replaysEveryEntryInOrder() throws Exception {
+        CountingSink sink = new CountingSink();
+        TrafficReplayer.Result r = new TrafficReplayer().replay(trace, sink, false);
+        assertEquals(2 * FRAMES, sink.serial);
+        assertEquals(FRAMES, sink.tags);
+        assertEquals(FRAMES / 100, sink.ends);
+        assertEquals(3 * FRAMES + FRAMES / 100, r.entries);
+        assertEquals(FRAMES, r.inventoryTags);
+        assertEquals(0, sink.outOfOrder);
+    }
+
+    // Both decoders fed from the trace: two tags per serial frame plus one per callback,
+    // the same count on every run
+    @Test
+    public void decodesTheSameTagsOnEveryRun() throws Exception {
+        long[] decoded = new long[1];
+        FrameDecoder frames = new FrameDecoder();
+        frames.setRecordListener(r -> decoded[0]++);
+        InventoryArgsDecoder callbacks = new InventoryArgsDecoder();
+        TagRecord record = new TagRecord();
+        TrafficReplayer.Sink sink = new CountingSink() {
+            @Override
+            public void onSerial(boolean tx, byte[] data, int off, int len, long timestampNanos) {
+                if (!tx) frames.feed(data, off, len, timestampNanos);
+            }
+
+            @Override
+            public void onInventoryTag(byte ant, String pc, String epc, String rssi, byte freq, String tid,
+                    String userData, int epcLen, int tidLen, String userDataLen, long timestampNanos) {
+                if (callbacks.decode(ant, pc, epc, rssi, freq, tid, userData, timestampNanos, record)) decoded[0]++;
+            }
+        };
+        TrafficReplayer replayer = new TrafficReplayer();
+        for (int run = 0; run < 3; run++) {
+            decoded[0] = 0;
+            frames.reset();
+            replayer.replay(trace, sink, false);
+            assertEquals(3 * FRAMES, decoded[0]);
+        }
+    }
+
+    // An app killed mid-recording leaves a torn last entry; everything before it replays
+    @Test
+    public void stopsCleanlyAtATruncatedEntry() throws Exception {
+        try (RandomAccessFile f = new RandomAccessFile(trace, "rw")) {
+            f.setLength(f.length() / 2);
+        }
+        CountingSink sink = new CountingSink();
+        TrafficReplayer.Result r = new TrafficReplayer().replay(trace, sink, false);
+        assertTrue(r.entries > FRAMES);
+        assertTrue(r.entries < 3 * FRAMES);
+        assertEquals(0, sink.outOfOrder);
+    }
+
+    private static String epc(int i) {
+        return "E200" + String.format("%020X", i);
+    }
+
+    private static class CountingSink implements TrafficReplayer.Sink {
+        long serial;
+        long tags;
+        long ends;
+        long outOfOrder;
+        long lastNanos;
+
+        @Override
+        public void onSerial(boolean tx, byte[] data, int off, int len, long timestampNanos) {
+            serial++;
+            check(timestampNanos);
+        }
+
+        @Override
+        public void onInventoryTag(byte ant, String pc, String epc, String rssi, byte freq, String tid,
+                String userData, int epcLen, int tidLen, String userDataLen, long timestampNanos) {
+            if (!epc.equals(epc((int) tags))) outOfOrder++;
+            tags++;
+            check(timestampNanos);
+        }
+
+        @Override
+        public void onInventoryTagEnd(int ant, int tagNum, int readRate, int totalCount, byte flag,
+                long timestampNanos) {
+            ends++;
+            check(timestampNanos);
+        }
+
+        private void check(long timestampNanos) {
+            if (timestampNanos < lastNanos) outOfOrder++;
+            lastNanos = timestampNanos;
+        }
+    }
+}
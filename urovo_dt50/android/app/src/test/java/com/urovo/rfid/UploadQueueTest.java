@@ -0,0 +1,114 @@
+package com.urovo.rfid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class UploadQueueTest {
+    private static final long EPC_HI = 0x3000AABBCCDDEEFFL;
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private final UploadStandInServer server = new UploadStandInServer();
+    private ScanSessionStore store;
+    private UploadQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new ScanSessionStore(tmp.newFolder("journal"));
+        store.openAsync();
+        drainStore();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (queue != null) queue.stop();
+        server.stop();
+        store.closeAsync();
+        drainStore();
+    }
+
+    // A closed session and a live one, then an outage and 30% 503s: every record lands
+    // exactly once and nothing is left queued
+    @Test
+    public void uploadsEveryRecordOnceThroughOutageAndErrors() throws Exception {
+        append(0, 12000);
+        store.rotateAsync();
+        drainStore();
+        append(0, 7000);
+
+        server.setOutage(true);
+        queue = new UploadQueue(store, tmp.newFolder("upload"), options(server.start()), null);
+        queue.start();
+        assertTrue(waitFor(() -> server.getRequests() >= 2, 5000));
+        assertEquals(0, server.getAcceptedBatches());
+
+        server.setOutage(false);
+        server.setFailureRate(0.3);
+        server.setLatencyMs(20);
+        append(7000, 9000);
+        queue.flush();
+
+        assertTrue(waitFor(() -> server.getAcceptedRecords() == 21000 && queue.pendingBatches() == 0, 20000));
+        assertEquals(0, server.getDuplicateBatches());
+    }
+
+    @Test
+    public void backsOffWhileTheServerIsDown() throws Exception {
+        append(0, 1000);
+        server.setOutage(true);
+        UploadQueue.Options o = options(server.start());
+        o.baseBackoffMs = 400;
+        o.maxBackoffMs = 400;
+        queue = new UploadQueue(store, tmp.newFolder("upload"), o, null);
+        queue.start();
+        queue.flush();
+        Thread.sleep(1500);
+        // Jittered backoff of 200..400 ms: a handful of attempts, not a busy loop
+        assertTrue(server.getRequests() >= 2);
+        assertTrue(server.getRequests() <= 9);
+        assertTrue(queue.getLastError() != null);
+    }
+
+    private static UploadQueue.Options options(String endpoint) {
+        UploadQueue.Options o = new UploadQueue.Options();
+        o.endpoint = endpoint;
+        o.baseBackoffMs = 100;
+        o.maxBackoffMs = 400;
+        o.maxBatchAgeMs = 500;
+        o.idleBytesPerSecond = 200 * 1024;
+        return o;
+    }
+
+    private void append(int from, int to) {
+        ScanJournal j = store.getJournal();
+        for (int i = from; i < to; i++) {
+            j.append(EPC_HI, ((long) i) << 32, 1700000000000L + i, -55, 1, 12);
+        }
+    }
+
+    private void drainStore() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        store.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static boolean waitFor(BooleanSupplier condition, long timeoutMs) throws InterruptedException {
+        long end = EventLoop.nowMs() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            if (EventLoop.nowMs() > end) return false;
+            Thread.sleep(20);
+        }
+        return true;
+    }
+}
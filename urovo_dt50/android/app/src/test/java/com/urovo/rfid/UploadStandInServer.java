@@ -0,0 +1,192 @@
+package com.urovo.rfid;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
+
+// Minimal loopback HTTP endpoint standing in for the WMS in UploadQueueTest: accepts
+// gzip NDJSON batch POSTs, de-duplicates them by Idempotency-Key and can simulate
+// outages, latency and random server errors. Handles one connection at a time.
+final class UploadStandInServer {
+    private static final String TAG = "UploadStandIn";
+
+    private final Set<String> seenKeys = new HashSet<>();
+    private ServerSocket socket;
+    private Thread thread;
+
+    private volatile boolean outage;
+    private volatile long latencyMs;
+    private volatile double failureRate;
+
+    private volatile long requests;
+    private volatile long acceptedBatches;
+    private volatile long acceptedRecords;
+    private volatile long duplicateBatches;
+    private volatile long failedRequests;
+
+    public synchronized String start() throws IOException {
+        if (socket == null) {
+            socket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            thread = new Thread(this::acceptLoop, "upload-stand-in");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return getEndpoint();
+    }
+
+    public synchronized void stop() {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        socket = null;
+        thread = null;
+    }
+
+    public synchronized String getEndpoint() {
+        return socket == null ? null : "http://127.0.0.1:" + socket.getLocalPort() + "/batches";
+    }
+
+    // While set, connections are accepted and closed without a response
+    public void setOutage(boolean outage) {
+        this.outage = outage;
+    }
+
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    // Fraction of requests answered with 503
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getAcceptedBatches() {
+        return acceptedBatches;
+    }
+
+    public long getAcceptedRecords() {
+        return acceptedRecords;
+    }
+
+    public long getDuplicateBatches() {
+        return duplicateBatches;
+    }
+
+    public long getFailedRequests() {
+        return failedRequests;
+    }
+
+    private void acceptLoop() {
+        ServerSocket server = socket;
+        while (server != null && !server.isClosed()) {
+            try (Socket client = server.accept()) {
+                client.setSoTimeout(15_000);
+                handle(client);
+            } catch (IOException e) {
+                if (!server.isClosed()) Log.w(TAG, "Connection error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handle(Socket client) throws IOException {
+        requests++;
+        if (outage) {
+            failedRequests++;
+            return;
+        }
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        String requestLine = readLine(in);
+        int length = 0;
+        String key = null;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("content-length")) length = Integer.parseInt(value);
+            if (name.equals("idempotency-key")) key = value;
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (requestLine == null || !requestLine.startsWith("POST")) {
+            respond(client, 405, "Method Not Allowed");
+            return;
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failedRequests++;
+            respond(client, 503, "Service Unavailable");
+            return;
+        }
+        if (key == null) {
+            respond(client, 400, "Bad Request");
+            return;
+        }
+        synchronized (seenKeys) {
+            if (!seenKeys.add(key)) {
+                duplicateBatches++;
+                respond(client, 200, "OK");
+                return;
+            }
+        }
+        int lines = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(body)), StandardCharsets.UTF_8))) {
+            while (reader.readLine() != null) lines++;
+        } catch (IOException e) {
+            synchronized (seenKeys) {
+                seenKeys.remove(key);
+            }
+            respond(client, 400, "Bad Request");
+            return;
+        }
+        acceptedBatches++;
+        acceptedRecords += lines;
+        respond(client, 200, "OK");
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') break;
+            if (c != '\r') sb.append((char) c);
+        }
+        return c < 0 && sb.length() == 0 ? null : sb.toString();
+    }
+
+    private static void respond(Socket client, int code, String reason) throws IOException {
+        OutputStream out = client.getOutputStream();
+        out.write(("HTTP/1.1 " + code + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
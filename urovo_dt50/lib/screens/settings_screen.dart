@@ -15,7 +15,7 @@ class _SettingsScreenState extends State<SettingsScreen> {
   int _selectedBaudRate = 115200;
   double _power = 26;
 
-  final List<int> _baudRates = [9600, 19200, 38400, 57600, 115200];
+  final List<int> _baudRates = [9600, 19200, 38400, 57600, 115200, 230400, 460800, 921600];
 
   @override
   void initState() {
@@ -1,3 +1,5 @@
+import 'dart:async';
+
 import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 import '../models/rfid_tag.dart';
@@ -7,6 +9,7 @@ enum ScanState { idle, scanning }
 
 class RfidService extends ChangeNotifier {
   static const _channel = MethodChannel('com.urovo.dt50/rfid');
+  static const _events = EventChannel('com.urovo.dt50/rfid/events');
   
   RfidConnectionState _connectionState = RfidConnectionState.disconnected;
   ScanState _scanState = ScanState.idle;
@@ -16,6 +19,20 @@ class RfidService extends ChangeNotifier {
   int _outputPower = 30;
   String _serialPort = '/dev/ttyHSL0';
   int _baudRate = 115200;
+  String _readerPath = 'auto';
+  String? _activeReaderPath;
+  List<Map<String, dynamic>> _readerBenchmark = const [];
+  Map<String, dynamic>? _commissionProgress;
+  Map<String, dynamic>? _commissionResult;
+  Map<String, dynamic>? _uploadStatus;
+  Map<String, dynamic>? _reconcileCounts;
+  Map<String, dynamic>? _metrics;
+  Map<String, dynamic>? _locate;
+  Map<String, dynamic>? _blockProgress;
+  StreamSubscription<dynamic>? _eventSubscription;
+  int _eventWindow = 0;
+  int _eventsHandled = 0;
+  int _foldedReads = 0;
 
   RfidConnectionState get connectionState => _connectionState;
   ScanState get scanState => _scanState;
@@ -26,13 +43,41 @@ class RfidService extends ChangeNotifier {
   int get outputPower => _outputPower;
   String get serialPort => _serialPort;
   int get baudRate => _baudRate;
+  // Requested path: auto (benchmark both), service or direct
+  String get readerPath => _readerPath;
+  // Path the native side connected over, once selected
+  String? get activeReaderPath => _activeReaderPath;
+  // Per-path readsPerSecond / rounds / error of the last selection
+  List<Map<String, dynamic>> get readerBenchmark => _readerBenchmark;
   bool get isConnected => _connectionState == RfidConnectionState.connected;
   bool get isScanning => _scanState == ScanState.scanning;
+  Map<String, dynamic>? get commissionProgress => _commissionProgress;
+  Map<String, dynamic>? get commissionResult => _commissionResult;
+  Map<String, dynamic>? get uploadStatus => _uploadStatus;
+  // expected / found / missing / unexpected / reads, pushed at most once per frame
+  Map<String, dynamic>? get reconcileCounts => _reconcileCounts;
+  // Latest periodic snapshot (see setMetricsInterval)
+  Map<String, dynamic>? get metrics => _metrics;
+  // Latest locate update: epc / active / rssi (smoothed) / proximity 0-100 / reads /
+  // readsPerSecond / ageMs
+  Map<String, dynamic>? get locate => _locate;
+  bool get isLocating => _locate?['active'] == true;
+  // Running readBlock / writeBlock: epc / write / bytes / totalBytes / bytesPerSecond
+  Map<String, dynamic>? get blockProgress => _blockProgress;
+  bool get isEventStreamOpen => _eventSubscription != null;
+  // Reads that arrived folded into per-tag deltas because the event window was used up
+  int get foldedReads => _foldedReads;
 
   RfidService() {
     _channel.setMethodCallHandler(_handleMethodCall);
   }
 
+  @override
+  void dispose() {
+    _eventSubscription?.cancel();
+    super.dispose();
+  }
+
   Future<dynamic> _handleMethodCall(MethodCall call) async {
     switch (call.method) {
       case 'onTagRead':
@@ -41,12 +86,49 @@ class RfidService extends ChangeNotifier {
       case 'onConnectionChanged':
         _handleConnectionChanged(call.arguments as bool);
         break;
+      case 'onReaderSelected':
+        final args = call.arguments as Map;
+        _activeReaderPath = args['path'] as String?;
+        _readerBenchmark = (args['benchmark'] as List? ?? const [])
+            .map((e) => Map<String, dynamic>.from(e as Map))
+            .toList();
+        notifyListeners();
+        break;
       case 'onScanningStateChanged':
         _handleScanningStateChanged(call.arguments as bool);
         break;
       case 'onError':
         _handleError(call.arguments as String);
         break;
+      case 'onCommissionProgress':
+        _commissionProgress = Map<String, dynamic>.from(call.arguments as Map);
+        notifyListeners();
+        break;
+      case 'onCommissionFinished':
+        _commissionResult = Map<String, dynamic>.from(call.arguments as Map);
+        _commissionProgress = null;
+        notifyListeners();
+        break;
+      case 'onReconcileProgress':
+        _reconcileCounts = Map<String, dynamic>.from(call.arguments as Map);
+        notifyListeners();
+        break;
+      case 'onMetrics':
+        _metrics = Map<String, dynamic>.from(call.arguments as Map);
+        notifyListeners();
+        break;
+      case 'onLocate':
+        _locate = Map<String, dynamic>.from(call.arguments as Map);
+        notifyListeners();
+        break;
+      case 'onBlockProgress':
+        _blockProgress = Map<String, dynamic>.from(call.arguments as Map);
+        notifyListeners();
+        break;
+      case 'onUploadStatus':
+        _uploadStatus = Map<String, dynamic>.from(call.arguments as Map);
+        notifyListeners();
+        break;
     }
   }
   
@@ -61,30 +143,73 @@ class RfidService extends ChangeNotifier {
   }
 
   void _handleTagRead(Map data) {
-    final epc = data['epc'] as String;
-    final rssi = data['rssi'] as int? ?? -70;
-    final tid = data['tid'] as String?;
+    _addReads(data['epc'] as String, data['tid'] as String?, data['rssi'] as int? ?? -70, 1);
+    notifyListeners();
+  }
 
-    _totalReads++;
+  // Reads the native side folded while no credit was left: one entry per EPC
+  void _handleTagDelta(Map data) {
+    for (final t in data['tags'] as List? ?? const []) {
+      final tag = t as Map;
+      _addReads(tag['epc'] as String, tag['tid'] as String?, tag['rssi'] as int? ?? -70, tag['reads'] as int? ?? 1);
+    }
+    final reads = data['reads'] as int? ?? 0;
+    final overflow = data['overflowReads'] as int? ?? 0;
+    _totalReads += overflow;
+    _foldedReads += reads + overflow;
+    notifyListeners();
+  }
+
+  void _addReads(String epc, String? tidRaw, int rssi, int count) {
+    final tid = (tidRaw == null || tidRaw.isEmpty) ? null : tidRaw;
+
+    _totalReads += count;
 
     final existingIndex = _tags.indexWhere((t) => t.epc == epc);
     if (existingIndex >= 0) {
       final existing = _tags.removeAt(existingIndex);
       _tags.insert(0, existing.copyWith(
+        tid: tid,
         rssi: rssi,
-        readCount: existing.readCount + 1,
+        readCount: existing.readCount + count,
         lastRead: DateTime.now(),
       ));
     } else {
-      _tags.insert(0, RfidTag(epc: epc, tid: tid, rssi: rssi));
+      _tags.insert(0, RfidTag(epc: epc, tid: tid, rssi: rssi, readCount: count));
+    }
+  }
+
+  void _handleEvent(dynamic event) {
+    final data = event as Map;
+    switch (data['type']) {
+      case 'read':
+        _handleTagRead(data);
+        break;
+      case 'delta':
+        _handleTagDelta(data);
+        break;
+      case 'metrics':
+        _metrics = Map<String, dynamic>.from(data['metrics'] as Map);
+        notifyListeners();
+        break;
+    }
+    // Credit goes back only for handled events, half a window at a time
+    _eventsHandled++;
+    if (_eventsHandled * 2 >= _eventWindow) {
+      final credits = _eventsHandled;
+      _eventsHandled = 0;
+      _channel.invokeMethod('grantEvents', {'credits': credits}).catchError((Object e) {
+        _errorMessage = e.toString();
+        notifyListeners();
+      });
     }
-    notifyListeners();
   }
 
   void _handleConnectionChanged(bool connected) {
     _connectionState = connected ? RfidConnectionState.connected : RfidConnectionState.disconnected;
     if (!connected) {
       _scanState = ScanState.idle;
+      _activeReaderPath = null;
     }
     notifyListeners();
   }
@@ -104,6 +229,7 @@ class RfidService extends ChangeNotifier {
       final result = await _channel.invokeMethod<bool>('connect', {
         'port': _serialPort,
         'baudRate': _baudRate,
+        'readerPath': _readerPath,
       });
 
       _connectionState = result == true ? RfidConnectionState.connected : RfidConnectionState.error;
@@ -179,12 +305,15 @@ class RfidService extends ChangeNotifier {
     }
   }
 
-  Future<bool> writeEpc(String targetEpc, String newEpc, {String password = '00000000'}) async {
+  // Writes only the words of [newEpc] that differ from [targetEpc] (and the PC word
+  // when the length changes), then reads the EPC back unless [verify] is false.
+  Future<bool> writeEpc(String targetEpc, String newEpc, {String password = '00000000', bool verify = true}) async {
     try {
       final result = await _channel.invokeMethod<bool>('writeEpc', {
         'targetEpc': targetEpc,
         'newEpc': newEpc,
         'password': password,
+        'verify': verify,
       });
       return result == true;
     } catch (e) {
@@ -194,7 +323,10 @@ class RfidService extends ChangeNotifier {
     }
   }
 
-  Future<String?> readMemory(String epc, int memBank, int startAddr, int length, {String password = '00000000'}) async {
+  // TID reads (memBank 2) are answered from the native tag cache once read; [cache]
+  // opts a locked region of another bank into it.
+  Future<String?> readMemory(String epc, int memBank, int startAddr, int length,
+      {String password = '00000000', bool cache = false}) async {
     try {
       final result = await _channel.invokeMethod<String>('readMemory', {
         'epc': epc,
@@ -202,6 +334,7 @@ class RfidService extends ChangeNotifier {
         'startAddr': startAddr,
         'length': length,
         'password': password,
+        if (cache) 'cache': true,
       });
       return result;
     } catch (e) {
@@ -229,6 +362,604 @@ class RfidService extends ChangeNotifier {
     }
   }
 
+  // Region of [length] words in chunks of [chunkWords] (0: native default), queued
+  // together under one EPC match; failed chunks are split and retried up to
+  // [maxRetries] times. Result: ok / data (hex) / error / bytes / elapsedMs /
+  // bytesPerSecond / chunks / retries. The region has to end by word 256.
+  Future<Map<String, dynamic>> readBlock(String epc, int startAddr, int length,
+      {int memBank = 3, int chunkWords = 0, int maxRetries = 2, String password = '00000000'}) {
+    return _block('readBlock', {
+      'epc': epc,
+      'memBank': memBank,
+      'startAddr': startAddr,
+      'length': length,
+      'chunkWords': chunkWords,
+      'maxRetries': maxRetries,
+      'password': password,
+    });
+  }
+
+  Future<Map<String, dynamic>> writeBlock(String epc, int startAddr, String data,
+      {int memBank = 3, int chunkWords = 0, int maxRetries = 2, String password = '00000000'}) {
+    return _block('writeBlock', {
+      'epc': epc,
+      'memBank': memBank,
+      'startAddr': startAddr,
+      'length': (data.length + 3) ~/ 4,
+      'data': data,
+      'chunkWords': chunkWords,
+      'maxRetries': maxRetries,
+      'password': password,
+    });
+  }
+
+  Future<Map<String, dynamic>> _block(String method, Map<String, dynamic> args) async {
+    try {
+      final result = await _channel.invokeMethod<Map>(method, args);
+      return result == null ? {'ok': false} : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      return {'ok': false, 'error': e.toString()};
+    } finally {
+      _blockProgress = null;
+      notifyListeners();
+    }
+  }
+
+  // ops: {'op': 'read' | 'write' | 'writeEpc', ...same args as the single calls}.
+  // writeEpc goes through the same changed-words writer as [writeEpc] and returns
+  // ok / error / epc (the EPC the tag has now) / words written; the others return
+  // ok / data / error / cached / queueMs / latencyMs.
+  Future<List<Map<String, dynamic>>> accessBatch(List<Map<String, dynamic>> ops) async {
+    try {
+      final result = await _channel.invokeMethod<List<dynamic>>('accessBatch', {'ops': ops});
+      return (result ?? const [])
+          .map((r) => Map<String, dynamic>.from(r as Map))
+          .toList();
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return const [];
+    }
+  }
+
+  // Bounds the tag memory cache to [maxEntries] (EPC, bank) regions; with [persist]
+  // it is loaded now and saved on disconnect, without it the saved copy is dropped.
+  Future<bool> configureTagCache({int maxEntries = 4096, bool persist = false}) async {
+    try {
+      final result = await _channel.invokeMethod<bool>('configureTagCache', {
+        'maxEntries': maxEntries,
+        'persist': persist,
+      });
+      return result == true;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  Future<void> clearTagCache() async {
+    try {
+      await _channel.invokeMethod('clearTagCache');
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
+  // entries, maxEntries, hits, misses, evictions.
+  Future<Map<String, dynamic>?> getTagCacheStats() async {
+    try {
+      final result = await _channel.invokeMethod<Map>('getTagCacheStats');
+      return result == null ? null : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  // Restores the tag list from the native scan journal after a crash.
+  // Returns the number of tags recovered (0 if the last session ended cleanly).
+  Future<int> recoverSession() async {
+    try {
+      final result = await _channel.invokeMethod<Map>('recoverJournal');
+      if (result == null || result['recovered'] != true) return 0;
+      final tags = (result['tags'] as List).cast<Map>();
+      _tags
+        ..clear()
+        ..addAll(tags.map((t) => RfidTag(
+              epc: t['epc'] as String,
+              rssi: t['rssi'] as int,
+              readCount: t['count'] as int,
+              firstRead: DateTime.fromMillisecondsSinceEpoch(t['firstSeen'] as int),
+              lastRead: DateTime.fromMillisecondsSinceEpoch(t['lastSeen'] as int),
+            )));
+      _tags.sort((a, b) => b.lastRead.compareTo(a.lastRead));
+      _totalReads = result['totalReads'] as int;
+      notifyListeners();
+      return _tags.length;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return 0;
+    }
+  }
+
+  Future<void> startJournalSession() async {
+    try {
+      await _channel.invokeMethod('startJournalSession');
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
+  // Streams a journal session to a file on the native side; returns its path.
+  // format: 'csv', 'ndjson' or 'binary'. session: 'current' or an archived name.
+  Future<String?> exportSession({
+    String session = 'current',
+    String format = 'csv',
+    bool gzip = false,
+    String? path,
+  }) async {
+    try {
+      final result = await _channel.invokeMethod<Map>('exportSession', {
+        'session': session,
+        'format': format,
+        'gzip': gzip,
+        if (path != null) 'path': path,
+      });
+      return result?['path'] as String?;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  Future<List<String>> listJournalSessions() async {
+    try {
+      final result = await _channel.invokeMethod<List>('listJournalSessions');
+      return result?.cast<String>() ?? [];
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return [];
+    }
+  }
+
+  // Counters (reads/s, CRC errors, dropped events...) and latency histograms
+  // (count, meanUs, p50Us..p999Us, maxUs) of the native RFID stack.
+  Future<Map<String, dynamic>?> getMetrics({bool reset = false}) async {
+    try {
+      final result = await _channel.invokeMethod<Map>('getMetrics', {'reset': reset});
+      return result == null ? null : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  // Moves reads and metrics pushes from method calls to the event channel, with at most
+  // [window] events in flight: while that many are unhandled here, the native side
+  // folds further reads into per-tag deltas instead of queueing them.
+  Future<void> openEventStream({int window = 256}) async {
+    await closeEventStream();
+    _eventWindow = window;
+    _eventsHandled = 0;
+    _foldedReads = 0;
+    _eventSubscription = _events.receiveBroadcastStream({'credits': window}).listen(
+      _handleEvent,
+      onError: (Object e) {
+        _errorMessage = e.toString();
+        notifyListeners();
+      },
+    );
+    notifyListeners();
+  }
+
+  // Back to onTagRead / onMetrics method calls.
+  Future<void> closeEventStream() async {
+    final subscription = _eventSubscription;
+    if (subscription == null) return;
+    _eventSubscription = null;
+    await subscription.cancel();
+    notifyListeners();
+  }
+
+  // open / credits / pending / deltaTags / eventsSent / readsFolded / deltasSent
+  Future<Map<String, dynamic>?> getEventStreamStats() async {
+    try {
+      final result = await _channel.invokeMethod<Map>('getEventStreamStats');
+      return result == null ? null : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  // Pushes a snapshot to [metrics] every [interval]; null stops it.
+  Future<void> setMetricsInterval(Duration? interval) async {
+    try {
+      await _channel.invokeMethod('setMetricsInterval', {'intervalMs': interval?.inMilliseconds ?? 0});
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
+  // Session (0-3) and target handling of the next scans. dualTarget flips A/B when a
+  // target stops yielding new tags; stopWhenComplete ends the scan once an estimated
+  // 99% of the tags in the field have been read.
+  Future<bool> setInventoryStrategy({
+    int session = 1,
+    bool dualTarget = true,
+    int minNewTags = 1,
+    int quietRounds = 2,
+    bool stopWhenComplete = false,
+  }) async {
+    try {
+      final result = await _channel.invokeMethod<bool>('setInventoryStrategy', {
+        'session': session,
+        'dualTarget': dualTarget,
+        'minNewTags': minNewTags,
+        'quietRounds': quietRounds,
+        'stopWhenComplete': stopWhenComplete,
+      });
+      return result == true;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  // Records raw reader traffic to [path] (default: app files/traces). Returns the trace path.
+  Future<String?> startTrafficRecording({String? path}) async {
+    try {
+      return await _channel.invokeMethod<String>('startTrafficRecording', {
+        if (path != null) 'path': path,
+      });
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  Future<Map<String, dynamic>?> stopTrafficRecording() async {
+    try {
+      final result = await _channel.invokeMethod<Map>('stopTrafficRecording');
+      return result == null ? null : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  // Feeds a recorded trace through the decoders as if it came from the reader.
+  // [realtime] keeps the recorded timing; otherwise it runs as fast as possible.
+  Future<Map<String, dynamic>?> replayTraffic(String path, {bool realtime = false}) async {
+    try {
+      final result = await _channel.invokeMethod<Map>('replayTraffic', {
+        'path': path,
+        'realtime': realtime,
+      });
+      return result == null ? null : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  Future<void> cancelReplay() async {
+    try {
+      await _channel.invokeMethod('cancelReplay');
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
+  // Loads the expected EPCs of a cycle count, either inline or from a file on the
+  // device (one EPC per line, first CSV column). Returns the manifest size.
+  Future<int> loadManifest({List<String>? epcs, String? path, bool bloom = true}) async {
+    try {
+      _reconcileCounts = null;
+      final result = await _channel.invokeMethod<int>('loadManifest', {
+        if (epcs != null) 'epcs': epcs,
+        if (path != null) 'path': path,
+        'bloom': bloom,
+      });
+      return result ?? 0;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return 0;
+    }
+  }
+
+  Future<void> clearManifest() async {
+    try {
+      await _channel.invokeMethod('clearManifest');
+      _reconcileCounts = null;
+      notifyListeners();
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
+  Future<void> resetReconcile() async {
+    try {
+      await _channel.invokeMethod('resetReconcile');
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
+  // Counters plus up to [limit] EPCs each of found, missing and unexpected.
+  Future<Map<String, dynamic>?> getReconcileReport({int limit = 1000}) async {
+    try {
+      final result = await _channel.invokeMethod<Map>('getReconcileReport', {'limit': limit});
+      return result == null ? null : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  // Starts draining journal sessions to [endpoint] in gzip NDJSON batches.
+  // Pass a null endpoint to stop uploading. Rates are in bytes per second.
+  Future<bool> configureUploads({
+    required String? endpoint,
+    String? deviceId,
+    String? authToken,
+    int? maxBatchRecords,
+    int? maxBatchAgeMs,
+    int? idleBytesPerSecond,
+    int? scanningBytesPerSecond,
+  }) async {
+    try {
+      final result = await _channel.invokeMethod<bool>('configureUploads', {
+        'endpoint': endpoint,
+        if (deviceId != null) 'deviceId': deviceId,
+        if (authToken != null) 'authToken': authToken,
+        if (maxBatchRecords != null) 'maxBatchRecords': maxBatchRecords,
+        if (maxBatchAgeMs != null) 'maxBatchAgeMs': maxBatchAgeMs,
+        if (idleBytesPerSecond != null) 'idleBytesPerSecond': idleBytesPerSecond,
+        if (scanningBytesPerSecond != null) 'scanningBytesPerSecond': scanningBytesPerSecond,
+      });
+      return result ?? false;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  // Retry now instead of waiting for the backoff, e.g. after regaining network.
+  Future<bool> flushUploads() async {
+    try {
+      return await _channel.invokeMethod<bool>('flushUploads') ?? false;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  // Either an EPC prefix or a raw Gen2 Select mask (bank, bit offset, bit length).
+  Future<bool> setInventoryFilter({
+    String? epcPrefix,
+    int bank = 1,
+    int bitOffset = 32,
+    int? bitLength,
+    String? mask,
+  }) async {
+    try {
+      final result = await _channel.invokeMethod<bool>('setInventoryFilter', {
+        if (epcPrefix != null) 'epcPrefix': epcPrefix,
+        if (mask != null) ...{
+          'mask': mask,
+          'bank': bank,
+          'bitOffset': bitOffset,
+          if (bitLength != null) 'bitLength': bitLength,
+        },
+      });
+      return result == true;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  Future<void> clearInventoryFilter() async {
+    try {
+      await _channel.invokeMethod('clearInventoryFilter');
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
+  // Rotates inventory over [antennas] (ports 0-7), each for its dwell time ([dwell]
+  // for all, or [dwells] per port). [weighted] gives antennas still finding new tags
+  // more turns. An empty list hands the antenna back to the defaults.
+  Future<bool> setAntennaSchedule(
+    List<int> antennas, {
+    Duration dwell = const Duration(seconds: 1),
+    List<Duration>? dwells,
+    bool weighted = true,
+  }) async {
+    try {
+      final result = await _channel.invokeMethod<bool>('setAntennaSchedule', {
+        'antennas': antennas,
+        'dwellMs': dwells != null ? dwells.map((d) => d.inMilliseconds).toList() : dwell.inMilliseconds,
+        'weighted': weighted,
+      });
+      return result == true;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  // Per antenna: reads, uniqueTags, rssi, rounds, activeMs, newTagsPerSecond.
+  Future<List<Map<String, dynamic>>> getAntennaStats({bool reset = false}) async {
+    try {
+      final result = await _channel.invokeMethod<List>('getAntennaStats', {'reset': reset});
+      return (result ?? const []).map((e) => Map<String, dynamic>.from(e as Map)).toList();
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return const [];
+    }
+  }
+
+  // Per-channel reads, mean RSSI, CRC errors and readsPerRound of the current band,
+  // plus the channels currently left out of inventory rounds.
+  Future<Map<String, dynamic>?> getChannelQuality() async {
+    try {
+      final result = await _channel.invokeMethod<Map>('getChannelQuality');
+      return result == null ? null : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  // Adjusts output power between rounds between [minDbm] and [maxDbm]. With
+  // [zoneRssi] (RSSI of the zone edge at maxDbm) power settles where the zone edge is
+  // read and nothing beyond it; without, it follows new tags per second and backs
+  // off from crowded rounds. Overrides the tuner's power while enabled.
+  Future<bool> setPowerControl({
+    bool enabled = true,
+    int minDbm = 20,
+    int maxDbm = 33,
+    int? zoneRssi,
+  }) async {
+    try {
+      final result = await _channel.invokeMethod<bool>('setPowerControl', {
+        'enabled': enabled,
+        'minDbm': minDbm,
+        'maxDbm': maxDbm,
+        if (zoneRssi != null) 'zoneRssi': zoneRssi,
+      });
+      return result == true;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  // power, ceiling, reason of the last step, newTagsPerSecond, outsideShare, truncatedShare.
+  Future<Map<String, dynamic>?> getPowerControl() async {
+    try {
+      final result = await _channel.invokeMethod<Map>('getPowerControl');
+      return result == null ? null : Map<String, dynamic>.from(result);
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return null;
+    }
+  }
+
+  // With [enabled] false every round uses the whole band; statistics are still kept.
+  Future<bool> setChannelExclusion(bool enabled, {bool reset = false}) async {
+    try {
+      final result = await _channel.invokeMethod<bool>('setChannelExclusion', {
+        'enabled': enabled,
+        'reset': reset,
+      });
+      return result == true;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  // Inventories only [epc] as fast as the reader allows; updates arrive every
+  // [interval] through onLocate until stopLocate. Trigger presses are ignored meanwhile.
+  Future<bool> startLocate(String epc, {Duration interval = const Duration(milliseconds: 40)}) async {
+    try {
+      final result = await _channel.invokeMethod<bool>('startLocate', {
+        'epc': epc,
+        'intervalMs': interval.inMilliseconds,
+      });
+      return result == true;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  Future<void> stopLocate() async {
+    try {
+      await _channel.invokeMethod('stopLocate');
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
+  // Either pairs [{'target': .., 'newEpc': ..}] or targets plus a serial
+  // generator (prefix, startSerial, epcBytes). Progress arrives via callbacks.
+  Future<bool> startCommissioning({
+    List<Map<String, String>>? pairs,
+    List<String>? targets,
+    String? prefix,
+    int startSerial = 1,
+    int epcBytes = 12,
+    bool verify = true,
+    int maxRetries = 2,
+    bool blockWrite = true,
+    String password = '00000000',
+  }) async {
+    try {
+      _commissionResult = null;
+      final result = await _channel.invokeMethod<bool>('startCommissioning', {
+        if (pairs != null) 'pairs': pairs,
+        if (targets != null) 'targets': targets,
+        if (prefix != null) 'prefix': prefix,
+        'startSerial': startSerial,
+        'epcBytes': epcBytes,
+        'verify': verify,
+        'maxRetries': maxRetries,
+        'blockWrite': blockWrite,
+        'password': password,
+      });
+      return result == true;
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+      return false;
+    }
+  }
+
+  Future<void> cancelCommissioning() async {
+    try {
+      await _channel.invokeMethod('cancelCommissioning');
+    } catch (e) {
+      _errorMessage = e.toString();
+      notifyListeners();
+    }
+  }
+
   Future<void> setOutputPower(int power) async {
     try {
       await _channel.invokeMethod('setOutputPower', {'power': power});
@@ -246,9 +977,10 @@ class RfidService extends ChangeNotifier {
     notifyListeners();
   }
 
-  void updateSettings({String? port, int? baudRate}) {
+  void updateSettings({String? port, int? baudRate, String? readerPath}) {
     if (port != null) _serialPort = port;
     if (baudRate != null) _baudRate = baudRate;
+    if (readerPath != null) _readerPath = readerPath;
     notifyListeners();
   }
 
@@ -35,6 +35,98 @@ void main() {
             return 'AABBCCDD';
           case 'writeMemory':
             return true;
+          case 'startCommissioning':
+            return true;
+          case 'setInventoryFilter':
+            return true;
+          case 'recoverJournal':
+            return {
+              'recovered': true,
+              'totalReads': 7,
+              'tags': [
+                {'epc': 'AABB', 'rssi': -60, 'count': 5, 'firstSeen': 1000, 'lastSeen': 2000},
+                {'epc': 'CCDD', 'rssi': -45, 'count': 2, 'firstSeen': 1500, 'lastSeen': 3000},
+              ],
+            };
+          case 'exportSession':
+            return {'path': '/data/exports/current.csv', 'records': 3, 'bytes': 120};
+          case 'listJournalSessions':
+            return ['session-0000000001000', 'session-0000000002000'];
+          case 'getMetrics':
+            return {
+              'readsPerSecond': 350.0,
+              'crcErrors': 2,
+              'binderDecode': {'count': 10, 'p50Us': 40, 'p99Us': 120},
+            };
+          case 'setInventoryStrategy':
+            return true;
+          case 'startLocate':
+            return true;
+          case 'setChannelExclusion':
+            return true;
+          case 'setAntennaSchedule':
+            return true;
+          case 'getAntennaStats':
+            return [
+              {'antenna': 0, 'reads': 1052, 'uniqueTags': 65, 'rssi': -59.8, 'activeMs': 10800},
+              {'antenna': 1, 'reads': 4256, 'uniqueTags': 272, 'rssi': -59.5, 'activeMs': 14788},
+            ];
+          case 'getChannelQuality':
+            return {
+              'region': 2,
+              'start': 0,
+              'end': 6,
+              'excluded': [2],
+              'channels': [
+                {'channel': 2, 'reads': 12, 'rssi': -71.5, 'crcErrors': 0, 'readsPerRound': 3.2, 'excluded': true},
+              ],
+            };
+          case 'readBlock':
+            return {'ok': true, 'data': 'AABBCCDD', 'bytes': 4, 'chunks': 1, 'retries': 0};
+          case 'writeBlock':
+            return {'ok': false, 'error': 'WORD_16_TIMEOUT', 'bytes': 32, 'chunks': 4, 'retries': 2};
+          case 'configureTagCache':
+            return true;
+          case 'clearTagCache':
+            return null;
+          case 'getTagCacheStats':
+            return {'entries': 12, 'maxEntries': 4096, 'hits': 30, 'misses': 12, 'evictions': 0};
+          case 'setPowerControl':
+            return true;
+          case 'getPowerControl':
+            return {'enabled': true, 'power': 27, 'ceiling': 27, 'reason': 'inZone', 'outsideShare': 0.01};
+          case 'startTrafficRecording':
+            return '/data/traces/trace-1.rft';
+          case 'stopTrafficRecording':
+            return {'path': '/data/traces/trace-1.rft', 'entries': 42, 'error': null};
+          case 'replayTraffic':
+            return {'entries': 42, 'tags': 40, 'elapsedMs': 2.5, 'tagsPerSecond': 16000.0};
+          case 'loadManifest':
+            return (methodCall.arguments['epcs'] as List?)?.length ?? 0;
+          case 'getReconcileReport':
+            return {
+              'expected': 3,
+              'found': 1,
+              'missing': 2,
+              'unexpected': 1,
+              'foundEpcs': ['AA01'],
+              'missingEpcs': ['AA02', 'AA03'],
+              'unexpectedEpcs': ['FF01'],
+            };
+          case 'configureUploads':
+          case 'flushUploads':
+            return true;
+          case 'accessBatch':
+            final ops = methodCall.arguments['ops'] as List;
+            return ops
+                .map((op) => op['op'] == 'writeEpc'
+                    ? {'ok': true, 'error': null, 'epc': op['newEpc'], 'words': 1}
+                    : {'ok': true, 'data': op['op'] == 'read' ? 'E280' : null, 'latencyMs': 12.5})
+                .toList();
+          case 'grantEvents':
+            return true;
+          case 'getEventStreamStats':
+            return {'open': true, 'credits': 200, 'pending': 0, 'eventsSent': 56, 'readsFolded': 300, 'deltasSent': 1};
           default:
             return null;
         }
@@ -182,6 +274,12 @@ void main() {
       expect(call.arguments['targetEpc'], 'AABB');
       expect(call.arguments['newEpc'], 'CCDD');
       expect(call.arguments['password'], '00000000');
+      expect(call.arguments['verify'], true);
+    });
+
+    test('can skip the verify read', () async {
+      await service.writeEpc('AABB', 'CCDD', verify: false);
+      expect(log.last.arguments['verify'], false);
     });
   });
 
@@ -194,6 +292,65 @@ void main() {
       expect(call.arguments['memBank'], 1);
       expect(call.arguments['startAddr'], 2);
       expect(call.arguments['length'], 6);
+      expect((call.arguments as Map).containsKey('cache'), false);
+    });
+
+    test('opts a locked region into the cache', () async {
+      await service.readMemory('AABB', 3, 0, 4, cache: true);
+      expect(log.last.arguments['cache'], true);
+    });
+  });
+
+  group('RfidService - block transfer', () {
+    test('sends readBlock with User bank defaults', () async {
+      final result = await service.readBlock('AABB', 0, 128, chunkWords: 16);
+      expect(result['ok'], true);
+      expect(result['data'], 'AABBCCDD');
+      expect(log.last.method, 'readBlock');
+      expect(log.last.arguments['memBank'], 3);
+      expect(log.last.arguments['length'], 128);
+      expect(log.last.arguments['chunkWords'], 16);
+      expect(log.last.arguments['maxRetries'], 2);
+    });
+
+    test('sends writeBlock with length in words and returns the error', () async {
+      final result = await service.writeBlock('AABB', 8, 'DDEEFF', maxRetries: 1);
+      expect(result['ok'], false);
+      expect(result['error'], 'WORD_16_TIMEOUT');
+      expect(log.last.method, 'writeBlock');
+      expect(log.last.arguments['length'], 2);
+      expect(log.last.arguments['data'], 'DDEEFF');
+      expect(log.last.arguments['maxRetries'], 1);
+    });
+
+    test('tracks progress callbacks', () async {
+      final channel = const MethodChannel('com.urovo.dt50/rfid');
+      final message = channel.codec.encodeMethodCall(
+        const MethodCall('onBlockProgress', {'epc': 'AABB', 'write': false, 'bytes': 64, 'totalBytes': 256}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', message, (ByteData? reply) {});
+      expect(service.blockProgress?['bytes'], 64);
+      await service.readBlock('AABB', 0, 128);
+      expect(service.blockProgress, isNull);
+    });
+  });
+
+  group('RfidService - tag cache', () {
+    test('sends size and persistence', () async {
+      final ok = await service.configureTagCache(maxEntries: 1000, persist: true);
+      expect(ok, true);
+      expect(log.last.method, 'configureTagCache');
+      expect(log.last.arguments['maxEntries'], 1000);
+      expect(log.last.arguments['persist'], true);
+    });
+
+    test('clears and returns stats', () async {
+      await service.clearTagCache();
+      expect(log.last.method, 'clearTagCache');
+      final stats = await service.getTagCacheStats();
+      expect(stats?['hits'], 30);
+      expect(stats?['entries'], 12);
     });
   });
 
@@ -210,6 +367,439 @@ void main() {
     });
   });
 
+  group('RfidService - accessBatch', () {
+    test('sends all ops in one call and returns results in order', () async {
+      final results = await service.accessBatch([
+        {'op': 'read', 'epc': 'AABB', 'memBank': 2, 'startAddr': 0, 'length': 6},
+        {'op': 'writeEpc', 'targetEpc': 'AABB', 'newEpc': 'CCDD'},
+      ]);
+      expect(log.where((c) => c.method == 'accessBatch').length, 1);
+      expect(results.length, 2);
+      expect(results[0]['ok'], true);
+      expect(results[0]['data'], 'E280');
+      expect(results[1]['epc'], 'CCDD');
+      expect(results[1]['words'], 1);
+    });
+  });
+
+  group('RfidService - journal recovery', () {
+    test('rebuilds tag list from recovered session', () async {
+      final count = await service.recoverSession();
+      expect(count, 2);
+      expect(service.totalReads, 7);
+      expect(service.tags.first.epc, 'CCDD');
+      expect(service.tags.last.readCount, 5);
+      expect(service.tags.last.firstRead, DateTime.fromMillisecondsSinceEpoch(1000));
+    });
+
+    test('exports a session', () async {
+      final path = await service.exportSession(format: 'ndjson', gzip: true);
+      expect(path, '/data/exports/current.csv');
+      expect(log.last.method, 'exportSession');
+      expect(log.last.arguments['session'], 'current');
+      expect(log.last.arguments['format'], 'ndjson');
+      expect(log.last.arguments['gzip'], true);
+      expect(log.last.arguments.containsKey('path'), false);
+    });
+
+    test('lists archived sessions', () async {
+      final sessions = await service.listJournalSessions();
+      expect(sessions, ['session-0000000001000', 'session-0000000002000']);
+    });
+  });
+
+  group('RfidService - inventory filter', () {
+    test('sends EPC prefix filter', () async {
+      final result = await service.setInventoryFilter(epcPrefix: '3034');
+      expect(result, true);
+      expect(log.last.method, 'setInventoryFilter');
+      expect(log.last.arguments['epcPrefix'], '3034');
+      expect(log.last.arguments.containsKey('mask'), false);
+    });
+
+    test('sends raw mask filter', () async {
+      await service.setInventoryFilter(mask: 'E280', bank: 2, bitOffset: 0, bitLength: 16);
+      expect(log.last.arguments['mask'], 'E280');
+      expect(log.last.arguments['bank'], 2);
+      expect(log.last.arguments['bitOffset'], 0);
+      expect(log.last.arguments['bitLength'], 16);
+    });
+
+    test('clears filter', () async {
+      await service.clearInventoryFilter();
+      expect(log.last.method, 'clearInventoryFilter');
+    });
+  });
+
+  group('RfidService - commissioning', () {
+    test('sends generator arguments', () async {
+      final result = await service.startCommissioning(
+        targets: ['AABB', 'CCDD'],
+        prefix: '3034',
+        startSerial: 100,
+      );
+      expect(result, true);
+      final call = log.firstWhere((c) => c.method == 'startCommissioning');
+      expect(call.arguments['targets'], ['AABB', 'CCDD']);
+      expect(call.arguments['prefix'], '3034');
+      expect(call.arguments['startSerial'], 100);
+      expect(call.arguments['verify'], true);
+      expect(call.arguments['blockWrite'], true);
+      expect(call.arguments.containsKey('pairs'), false);
+    });
+
+    test('tracks progress and final result from callbacks', () async {
+      final channel = const MethodChannel('com.urovo.dt50/rfid');
+      final codec = channel.codec;
+      final progress = codec.encodeMethodCall(
+        const MethodCall('onCommissionProgress', {'total': 10, 'completed': 4, 'tagsPerMinute': 120.0}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', progress, (ByteData? reply) {});
+      expect(service.commissionProgress?['completed'], 4);
+
+      final finished = codec.encodeMethodCall(
+        const MethodCall('onCommissionFinished', {'total': 10, 'succeeded': 9, 'failed': 1}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', finished, (ByteData? reply) {});
+      expect(service.commissionProgress, isNull);
+      expect(service.commissionResult?['succeeded'], 9);
+    });
+  });
+
+  group('RfidService - metrics', () {
+    test('fetches snapshot', () async {
+      final m = await service.getMetrics(reset: true);
+      expect(log.last.method, 'getMetrics');
+      expect(log.last.arguments['reset'], true);
+      expect(m?['readsPerSecond'], 350.0);
+      expect((m?['binderDecode'] as Map)['p99Us'], 120);
+    });
+
+    test('sets snapshot interval', () async {
+      await service.setMetricsInterval(const Duration(seconds: 2));
+      expect(log.last.arguments['intervalMs'], 2000);
+      await service.setMetricsInterval(null);
+      expect(log.last.arguments['intervalMs'], 0);
+    });
+
+    test('stores periodic snapshot', () async {
+      final channel = const MethodChannel('com.urovo.dt50/rfid');
+      final data = channel.codec.encodeMethodCall(
+        const MethodCall('onMetrics', {'readsPerSecond': 120.5, 'droppedEvents': 0}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', data, (ByteData? reply) {});
+      expect(service.metrics?['readsPerSecond'], 120.5);
+    });
+  });
+
+  group('RfidService - link negotiation', () {
+    test('connect sends configured port and baud rate', () async {
+      service.updateSettings(port: '/dev/ttyS1', baudRate: 460800);
+      await service.connect();
+      final call = log.lastWhere((c) => c.method == 'connect');
+      expect(call.arguments['port'], '/dev/ttyS1');
+      expect(call.arguments['baudRate'], 460800);
+    });
+  });
+
+  group('RfidService - reader path', () {
+    test('defaults to auto and sends it on connect', () async {
+      expect(service.readerPath, 'auto');
+      service.updateSettings(readerPath: 'direct');
+      await service.connect();
+      final call = log.lastWhere((c) => c.method == 'connect');
+      expect(call.arguments['readerPath'], 'direct');
+    });
+
+    test('records the selected path and benchmark', () async {
+      final channel = const MethodChannel('com.urovo.dt50/rfid');
+      final data = channel.codec.encodeMethodCall(
+        const MethodCall('onReaderSelected', {
+          'path': 'service',
+          'benchmark': [
+            {'path': 'service', 'readsPerSecond': 310.0, 'rounds': 12, 'error': null},
+            {'path': 'direct', 'readsPerSecond': 240.0, 'rounds': 9, 'error': null},
+          ],
+        }),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', data, (ByteData? reply) {});
+      expect(service.activeReaderPath, 'service');
+      expect(service.readerBenchmark.length, 2);
+      expect(service.readerBenchmark[1]['readsPerSecond'], 240.0);
+    });
+  });
+
+  group('RfidService - inventory strategy', () {
+    test('sends session and target options', () async {
+      final ok = await service.setInventoryStrategy(session: 2, stopWhenComplete: true);
+      expect(ok, true);
+      expect(log.last.method, 'setInventoryStrategy');
+      expect(log.last.arguments['session'], 2);
+      expect(log.last.arguments['dualTarget'], true);
+      expect(log.last.arguments['stopWhenComplete'], true);
+    });
+  });
+
+  group('RfidService - antenna schedule', () {
+    test('sends ports and a shared dwell', () async {
+      final ok = await service.setAntennaSchedule([0, 1, 2], dwell: const Duration(milliseconds: 800));
+      expect(ok, true);
+      expect(log.last.method, 'setAntennaSchedule');
+      expect(log.last.arguments['antennas'], [0, 1, 2]);
+      expect(log.last.arguments['dwellMs'], 800);
+      expect(log.last.arguments['weighted'], true);
+    });
+
+    test('sends per-port dwells', () async {
+      await service.setAntennaSchedule([0, 1],
+          dwells: const [Duration(milliseconds: 500), Duration(seconds: 2)], weighted: false);
+      expect(log.last.arguments['dwellMs'], [500, 2000]);
+      expect(log.last.arguments['weighted'], false);
+    });
+
+    test('returns per-antenna statistics', () async {
+      final stats = await service.getAntennaStats();
+      expect(stats.length, 2);
+      expect(stats[1]['uniqueTags'], 272);
+    });
+  });
+
+  group('RfidService - power control', () {
+    test('sends range and read zone', () async {
+      final ok = await service.setPowerControl(minDbm: 22, zoneRssi: -61);
+      expect(ok, true);
+      expect(log.last.method, 'setPowerControl');
+      expect(log.last.arguments['enabled'], true);
+      expect(log.last.arguments['minDbm'], 22);
+      expect(log.last.arguments['maxDbm'], 33);
+      expect(log.last.arguments['zoneRssi'], -61);
+    });
+
+    test('omits the zone when none is given', () async {
+      await service.setPowerControl(enabled: false);
+      expect(log.last.arguments['enabled'], false);
+      expect((log.last.arguments as Map).containsKey('zoneRssi'), false);
+    });
+
+    test('returns controller state', () async {
+      final state = await service.getPowerControl();
+      expect(log.last.method, 'getPowerControl');
+      expect(state?['power'], 27);
+      expect(state?['reason'], 'inZone');
+    });
+  });
+
+  group('RfidService - channel quality', () {
+    test('returns per-channel statistics', () async {
+      final quality = await service.getChannelQuality();
+      expect(log.last.method, 'getChannelQuality');
+      expect(quality?['excluded'], [2]);
+      expect((quality?['channels'] as List).first['readsPerRound'], 3.2);
+    });
+
+    test('toggles exclusion', () async {
+      final ok = await service.setChannelExclusion(false, reset: true);
+      expect(ok, true);
+      expect(log.last.arguments['enabled'], false);
+      expect(log.last.arguments['reset'], true);
+    });
+  });
+
+  group('RfidService - locate', () {
+    test('sends epc and update interval', () async {
+      final ok = await service.startLocate('E2001234', interval: const Duration(milliseconds: 50));
+      expect(ok, true);
+      expect(log.last.method, 'startLocate');
+      expect(log.last.arguments['epc'], 'E2001234');
+      expect(log.last.arguments['intervalMs'], 50);
+      await service.stopLocate();
+      expect(log.last.method, 'stopLocate');
+    });
+
+    test('tracks locate updates', () async {
+      final channel = const MethodChannel('com.urovo.dt50/rfid');
+      final update = channel.codec.encodeMethodCall(
+        const MethodCall('onLocate', {
+          'epc': 'E2001234',
+          'active': true,
+          'rssi': -52.5,
+          'proximity': 56,
+          'reads': 120,
+          'readsPerSecond': 300.0,
+          'ageMs': 3,
+        }),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', update, (ByteData? reply) {});
+      expect(service.isLocating, true);
+      expect(service.locate?['proximity'], 56);
+
+      final ended = channel.codec.encodeMethodCall(
+        const MethodCall('onLocate', {'epc': 'E2001234', 'active': false}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', ended, (ByteData? reply) {});
+      expect(service.isLocating, false);
+    });
+  });
+
+  group('RfidService - traffic recording', () {
+    test('starts and stops recording', () async {
+      final path = await service.startTrafficRecording();
+      expect(path, '/data/traces/trace-1.rft');
+      expect(log.last.method, 'startTrafficRecording');
+      final stats = await service.stopTrafficRecording();
+      expect(stats?['entries'], 42);
+    });
+
+    test('replays trace', () async {
+      final stats = await service.replayTraffic('/data/traces/trace-1.rft', realtime: true);
+      expect(log.last.method, 'replayTraffic');
+      expect(log.last.arguments['path'], '/data/traces/trace-1.rft');
+      expect(log.last.arguments['realtime'], true);
+      expect(stats?['tags'], 40);
+    });
+  });
+
+  group('RfidService - manifest reconciliation', () {
+    test('loads manifest inline', () async {
+      final count = await service.loadManifest(epcs: ['AA01', 'AA02', 'AA03']);
+      expect(count, 3);
+      expect(log.last.method, 'loadManifest');
+      expect(log.last.arguments['bloom'], true);
+      expect(log.last.arguments.containsKey('path'), false);
+    });
+
+    test('tracks progress callback', () async {
+      final channel = const MethodChannel('com.urovo.dt50/rfid');
+      final data = channel.codec.encodeMethodCall(
+        const MethodCall('onReconcileProgress', {'expected': 3, 'found': 2, 'missing': 1, 'unexpected': 4}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', data, (ByteData? reply) {});
+      expect(service.reconcileCounts?['found'], 2);
+      expect(service.reconcileCounts?['unexpected'], 4);
+    });
+
+    test('fetches report', () async {
+      final report = await service.getReconcileReport(limit: 10);
+      expect(log.last.arguments['limit'], 10);
+      expect(report?['missingEpcs'], ['AA02', 'AA03']);
+    });
+  });
+
+  group('RfidService - uploads', () {
+    test('sends upload configuration', () async {
+      final result = await service.configureUploads(
+        endpoint: 'https://wms.example/batches',
+        deviceId: 'dt50-7',
+        maxBatchRecords: 2000,
+      );
+      expect(result, true);
+      expect(log.last.method, 'configureUploads');
+      expect(log.last.arguments['endpoint'], 'https://wms.example/batches');
+      expect(log.last.arguments['deviceId'], 'dt50-7');
+      expect(log.last.arguments['maxBatchRecords'], 2000);
+      expect(log.last.arguments.containsKey('authToken'), false);
+    });
+
+    test('tracks upload status callback', () async {
+      final channel = const MethodChannel('com.urovo.dt50/rfid');
+      final data = channel.codec.encodeMethodCall(
+        const MethodCall('onUploadStatus', {'pending': 3, 'uploaded': 5, 'bytes': 1024, 'error': null}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', data, (ByteData? reply) {});
+      expect(service.uploadStatus?['pending'], 3);
+      expect(service.uploadStatus?['uploaded'], 5);
+    });
+  });
+
+  group('RfidService - event stream', () {
+    late Object? listenArgs;
+    late MockStreamHandlerEventSink sink;
+
+    setUp(() {
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger.setMockStreamHandler(
+        const EventChannel('com.urovo.dt50/rfid/events'),
+        MockStreamHandler.inline(onListen: (arguments, events) {
+          listenArgs = arguments;
+          sink = events;
+        }),
+      );
+    });
+
+    tearDown(() async {
+      await service.closeEventStream();
+      TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .setMockStreamHandler(const EventChannel('com.urovo.dt50/rfid/events'), null);
+    });
+
+    test('grants the window when listening', () async {
+      await service.openEventStream(window: 8);
+      await pumpEventQueue();
+      expect(service.isEventStreamOpen, true);
+      expect((listenArgs as Map)['credits'], 8);
+    });
+
+    test('hands credit back every half window', () async {
+      await service.openEventStream(window: 4);
+      await pumpEventQueue();
+      sink.success({'type': 'read', 'epc': 'AABB', 'tid': '', 'rssi': -50});
+      await pumpEventQueue();
+      expect(log.where((c) => c.method == 'grantEvents'), isEmpty);
+      sink.success({'type': 'read', 'epc': 'AABB', 'tid': '', 'rssi': -48});
+      await pumpEventQueue();
+      expect(log.last.method, 'grantEvents');
+      expect(log.last.arguments['credits'], 2);
+      expect(service.tags.single.readCount, 2);
+    });
+
+    test('applies folded deltas', () async {
+      await service.openEventStream(window: 64);
+      await pumpEventQueue();
+      sink.success({
+        'type': 'delta',
+        'reads': 5,
+        'overflowReads': 2,
+        'tags': [
+          {'epc': 'AABB', 'tid': 'E280', 'reads': 3, 'rssi': -55, 'maxRssi': -50},
+          {'epc': 'CCDD', 'tid': null, 'reads': 2, 'rssi': -60, 'maxRssi': -58},
+        ],
+      });
+      await pumpEventQueue();
+      expect(service.uniqueTags, 2);
+      expect(service.totalReads, 7);
+      expect(service.foldedReads, 7);
+      expect(service.tags.firstWhere((t) => t.epc == 'AABB').readCount, 3);
+      expect(service.tags.firstWhere((t) => t.epc == 'AABB').tid, 'E280');
+    });
+
+    test('takes metrics snapshots', () async {
+      await service.openEventStream();
+      await pumpEventQueue();
+      sink.success({'type': 'metrics', 'metrics': {'readsPerSecond': 410.0}});
+      await pumpEventQueue();
+      expect(service.metrics?['readsPerSecond'], 410.0);
+    });
+
+    test('closes', () async {
+      await service.openEventStream();
+      await service.closeEventStream();
+      expect(service.isEventStreamOpen, false);
+    });
+
+    test('fetches stats', () async {
+      final stats = await service.getEventStreamStats();
+      expect(log.last.method, 'getEventStreamStats');
+      expect(stats?['readsFolded'], 300);
+    });
+  });
+
   group('RfidService - onTagRead callback', () {
     test('adds tag on callback', () async {
       // Simulate native calling onTagRead
@@ -244,6 +834,26 @@ void main() {
       expect(service.totalReads, 3);
     });
 
+    test('keeps TID delivered with inventory records', () async {
+      final channel = const MethodChannel('com.urovo.dt50/rfid');
+      final codec = channel.codec;
+
+      final plain = codec.encodeMethodCall(
+        const MethodCall('onTagRead', {'epc': 'AABB', 'rssi': -50, 'tid': ''}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', plain, (ByteData? reply) {});
+      expect(service.tags.first.tid, isNull);
+
+      final withTid = codec.encodeMethodCall(
+        const MethodCall('onTagRead', {'epc': 'AABB', 'rssi': -48, 'tid': 'E2801160200074CF'}),
+      );
+      await TestDefaultBinaryMessengerBinding.instance.defaultBinaryMessenger
+          .handlePlatformMessage('com.urovo.dt50/rfid', withTid, (ByteData? reply) {});
+      expect(service.tags.length, 1);
+      expect(service.tags.first.tid, 'E2801160200074CF');
+    });
+
     test('puts most recent tag at index 0', () async {
       final channel = const MethodChannel('com.urovo.dt50/rfid');
       final codec = channel.codec;